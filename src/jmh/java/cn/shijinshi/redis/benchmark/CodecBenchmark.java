@@ -0,0 +1,113 @@
+package cn.shijinshi.redis.benchmark;
+
+import cn.shijinshi.redis.common.protocol.CommandTable;
+import cn.shijinshi.redis.common.protocol.RedisCodec;
+import cn.shijinshi.redis.common.protocol.RedisParser;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.support.CommandSupports;
+import cn.shijinshi.redis.forward.support.Support;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求报文和回复报文的解析。
+ *
+ * 加上 -prof gc 可以看到每个报文分配的字节数。
+ *
+ * @author Gui Jiahai
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int valueSize;
+
+    private ByteBuf request;
+    private ByteBuf reply;
+    private byte[] requestBytes;
+    private byte[] replyBytes;
+
+    private RedisParser parser;
+    private RedisParser tableParser;
+
+    @Setup
+    public void setup() {
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        String value = new String(chars);
+
+        requestBytes = ("*3\r\n$3\r\nSET\r\n$6\r\nkey:42\r\n$" + valueSize + "\r\n" + value + "\r\n").getBytes();
+        request = PooledByteBufAllocator.DEFAULT.directBuffer(requestBytes.length).writeBytes(requestBytes);
+
+        replyBytes = ("*2\r\n$" + valueSize + "\r\n" + value + "\r\n:1\r\n").getBytes();
+        reply = PooledByteBufAllocator.DEFAULT.directBuffer(replyBytes.length).writeBytes(replyBytes);
+
+        CommandSupports supports = new CommandSupports(Collections.emptyMap());
+        supports.init();
+        CommandTable<Support> table = supports.getTable();
+        parser = new RedisParser();
+        tableParser = new RedisParser(table);
+    }
+
+    @TearDown
+    public void tearDown() {
+        request.release();
+        reply.release();
+    }
+
+    @Benchmark
+    public Object decodeRequest() throws IOException {
+        request.readerIndex(0);
+        RedisRequest r = parser.decodeRequest(request);
+        r.release();
+        return r;
+    }
+
+    @Benchmark
+    public Object decodeRequestWithTable() throws IOException {
+        request.readerIndex(0);
+        RedisRequest r = tableParser.decodeRequest(request);
+        r.release();
+        return r;
+    }
+
+    /**
+     * 通过InputStream解析，用于读取日志文件中的请求报文
+     */
+    @Benchmark
+    public Object decodeRequestStream() throws IOException {
+        return RedisCodec.decodeRequest(new ByteArrayInputStream(requestBytes));
+    }
+
+    @Benchmark
+    public Object decodeReplyStream() throws IOException {
+        return RedisCodec.decodeReply(new ByteArrayInputStream(replyBytes));
+    }
+
+    @Benchmark
+    public Object decodeReply() throws IOException {
+        reply.readerIndex(0);
+        return parser.decodeReply(reply);
+    }
+
+    @Benchmark
+    public Object decodeRetainedReply() throws IOException {
+        reply.readerIndex(0);
+        ByteBuf r = parser.decodeRetainedReply(reply);
+        r.release();
+        return r;
+    }
+
+}
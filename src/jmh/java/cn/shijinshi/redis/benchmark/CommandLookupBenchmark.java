@@ -0,0 +1,95 @@
+package cn.shijinshi.redis.benchmark;
+
+import cn.shijinshi.redis.common.protocol.CommandTable;
+import cn.shijinshi.redis.common.protocol.SlotHash;
+import cn.shijinshi.redis.common.util.UnsafeByteString;
+import cn.shijinshi.redis.forward.support.CommandSupports;
+import cn.shijinshi.redis.forward.support.Support;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 命令查找和slot计算，每个请求报文都会执行一次。
+ *
+ * hashMap模拟原来的方式：复制命令名，创建UnsafeByteString，然后在HashMap中查找；
+ * commandTable直接在ByteBuf上查找。
+ *
+ * @author Gui Jiahai
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandLookupBenchmark {
+
+    @Param({"GET", "zremrangebyscore", "UNKNOWN"})
+    public String command;
+
+    private ByteBuf buffer;
+    private int length;
+
+    private Map<UnsafeByteString, Support> hashMap;
+    private CommandTable<Support> commandTable;
+
+    private byte[] key;
+    private String keyString;
+
+    @Setup
+    public void setup() {
+        CommandSupports supports = new CommandSupports(Collections.emptyMap());
+        supports.init();
+        commandTable = supports.getTable();
+
+        hashMap = new HashMap<>(256, 0.5f);
+        for (String name : new String[]{"get", "set", "zremrangebyscore", "hgetall", "ping"}) {
+            hashMap.put(new UnsafeByteString(name), supports.get(new UnsafeByteString(name)));
+        }
+
+        byte[] bytes = command.getBytes();
+        length = bytes.length;
+        buffer = Unpooled.directBuffer(length).writeBytes(bytes);
+
+        keyString = "user:{10086}:profile";
+        key = keyString.getBytes();
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    @Benchmark
+    public Object hashMap() {
+        return hashMap.get(new UnsafeByteString(ByteBufUtil.getBytes(buffer, 0, length)));
+    }
+
+    @Benchmark
+    public int commandTable() {
+        return commandTable.indexOf(buffer, 0, length);
+    }
+
+    @Benchmark
+    public int unsafeByteStringHash() {
+        return new UnsafeByteString(ByteBufUtil.getBytes(buffer, 0, length)).hashCode();
+    }
+
+    @Benchmark
+    public int slotHashBytes() {
+        return SlotHash.getSlot(key);
+    }
+
+    @Benchmark
+    public int slotHashString() {
+        return SlotHash.getSlot(keyString);
+    }
+
+}
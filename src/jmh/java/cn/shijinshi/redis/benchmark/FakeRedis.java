@@ -0,0 +1,80 @@
+package cn.shijinshi.redis.benchmark;
+
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.common.util.UnsafeByteString;
+import cn.shijinshi.redis.forward.FlushConsolidator;
+import cn.shijinshi.redis.forward.server.RequestDecoder;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 进程内的假Redis，用于基准测试，结果不依赖于外部环境。
+ *
+ * 对GET返回固定的值，对其他命令返回+OK，
+ * 回复报文是预先分配的，所以假Redis本身的开销很小。
+ *
+ * @author Gui Jiahai
+ */
+public class FakeRedis implements AutoCloseable {
+
+    private static final UnsafeByteString GET = new UnsafeByteString("get");
+
+    private static final ByteBuf OK = Unpooled.unreleasableBuffer(
+            Unpooled.directBuffer().writeBytes("+OK\r\n".getBytes()));
+    private static final ByteBuf VALUE = Unpooled.unreleasableBuffer(
+            Unpooled.directBuffer().writeBytes("$5\r\nvalue\r\n".getBytes()));
+
+    private final EventLoopGroup group;
+    private final Channel channel;
+
+    private FakeRedis(EventLoopGroup group, Channel channel) {
+        this.group = group;
+        this.channel = channel;
+    }
+
+    /**
+     * 在127.0.0.1的随机端口上启动
+     */
+    public static FakeRedis start() throws InterruptedException {
+        EventLoopGroup group = new NioEventLoopGroup(1);
+        Channel channel = new ServerBootstrap().group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new FlushConsolidator(256, 0), new RequestDecoder(), new Responder());
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+        return new FakeRedis(group, channel);
+    }
+
+    public int port() {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    @Override
+    public void close() {
+        channel.close().syncUninterruptibly();
+        group.shutdownGracefully().syncUninterruptibly();
+    }
+
+    @ChannelHandler.Sharable
+    private static class Responder extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            RedisRequest request = (RedisRequest) msg;
+            ByteBuf reply = GET.equals(request.getCommand()) ? VALUE : OK;
+            request.release();
+            ctx.writeAndFlush(reply.duplicate(), ctx.voidPromise());
+        }
+    }
+
+}
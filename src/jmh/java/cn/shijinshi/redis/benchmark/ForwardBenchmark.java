@@ -0,0 +1,157 @@
+package cn.shijinshi.redis.benchmark;
+
+import cn.shijinshi.redis.common.param.HostAndPort;
+import cn.shijinshi.redis.common.prop.ForwardProperties;
+import cn.shijinshi.redis.common.protocol.RedisParser;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.control.broker.Broker;
+import cn.shijinshi.redis.forward.Handler;
+import cn.shijinshi.redis.forward.ReplySlot;
+import cn.shijinshi.redis.forward.client.AutoRedisConnector;
+import cn.shijinshi.redis.forward.client.ConnectionPool;
+import cn.shijinshi.redis.forward.handler.AppendHandler;
+import cn.shijinshi.redis.forward.handler.ConnectionHandler;
+import cn.shijinshi.redis.forward.handler.SupportHandler;
+import cn.shijinshi.redis.forward.support.CommandSupports;
+import cn.shijinshi.redis.sync.Appender;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * SupportHandler -> AppendHandler -> ConnectionHandler -> 进程内的假Redis，
+ * 每次调用解析depth个pipeline的请求报文（一半SET，一半GET），转发并等待所有回复。
+ *
+ * 这里覆盖了转发路径上的主要开销：
+ * 1、加上 -prof gc，可以看到每批请求分配的字节数（ReplySlot、零拷贝回复报文）；
+ * 2、比较flushConsolidation为true和false，可以看到合并flush的效果，
+ *    在Linux上加上 -prof perfnorm，或者用strace -c -f，可以统计每个请求的write系统调用。
+ *
+ * Appender是空实现，不包含写磁盘的开销。
+ *
+ * @author Gui Jiahai
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ForwardBenchmark {
+
+    @Param({"1", "64"})
+    public int depth;
+
+    @Param({"1", "4"})
+    public int poolSize;
+
+    @Param({"true", "false"})
+    public boolean flushConsolidation;
+
+    private FakeRedis redis;
+    private AutoRedisConnector connector;
+    private Handler handler;
+    private RedisParser parser;
+
+    private ByteBuf requests;
+    private ReplySlot[] slots;
+    private volatile CountDownLatch latch;
+
+    @Setup
+    public void setup() throws Exception {
+        redis = FakeRedis.start();
+
+        ForwardProperties properties = new ForwardProperties();
+        properties.setPoolSize(poolSize);
+        properties.setFlushConsolidation(flushConsolidation);
+        connector = new AutoRedisConnector(properties);
+        connector.nodeChanged(HostAndPort.create("127.0.0.1", redis.port()));
+
+        Broker broker = mock(Broker.class);
+        when(broker.isMaster()).thenReturn(Boolean.TRUE);
+        CommandSupports supports = new CommandSupports(Collections.emptyMap());
+        supports.init();
+        handler = new SupportHandler(new AppendHandler(new ConnectionHandler(connector, broker), new NoopAppender()),
+                broker, supports);
+        parser = new RedisParser(supports.getTable());
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            if ((i & 1) == 0) {
+                sb.append("*3\r\n$3\r\nSET\r\n$6\r\nkey:").append(i % 100 / 10).append(i % 10)
+                        .append("\r\n$5\r\nvalue\r\n");
+            } else {
+                sb.append("*2\r\n$3\r\nGET\r\n$6\r\nkey:").append(i % 100 / 10).append(i % 10).append("\r\n");
+            }
+        }
+        byte[] bytes = sb.toString().getBytes();
+        requests = PooledByteBufAllocator.DEFAULT.directBuffer(bytes.length).writeBytes(bytes);
+
+        slots = new ReplySlot[depth];
+        for (int i = 0; i < depth; i++) {
+            slots[i] = new ReplySlot(null, slot -> latch.countDown());
+        }
+
+        //等待所有连接建立
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (connector.stats() == null || !allConnected()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Cannot connect to fake redis");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private boolean allConnected() {
+        for (ConnectionPool.ConnectionStats stats : connector.stats().getConnections()) {
+            if (!stats.isConnected()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @TearDown
+    public void tearDown() {
+        connector.close();
+        redis.close();
+        requests.release();
+    }
+
+    @Benchmark
+    public void forward() throws Exception {
+        CountDownLatch l = new CountDownLatch(depth);
+        latch = l;
+        requests.readerIndex(0);
+        for (ReplySlot slot : slots) {
+            handler.handle(slot.init(parser.decodeRequest(requests)));
+        }
+        l.await();
+
+        for (ReplySlot slot : slots) {
+            RedisRequest request = slot.getRequest();
+            slot.getReply().release();
+            slot.clear();
+            request.release();
+        }
+    }
+
+    private static class NoopAppender implements Appender {
+        @Override
+        public void append(RedisRequest request) {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+package cn.shijinshi.redis.benchmark;
+
+import cn.shijinshi.redis.ForwardAutoConfiguration;
+import cn.shijinshi.redis.common.log.Access;
+import cn.shijinshi.redis.common.log.LogProperties;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
+import cn.shijinshi.redis.common.param.HostAndPort;
+import cn.shijinshi.redis.common.prop.BrokerProperties;
+import cn.shijinshi.redis.common.prop.ForwardProperties;
+import cn.shijinshi.redis.control.broker.Broker;
+import cn.shijinshi.redis.control.broker.FixedForwardLauncher;
+import cn.shijinshi.redis.control.broker.NodeListener;
+import cn.shijinshi.redis.forward.client.ReplyDecoder;
+import cn.shijinshi.redis.forward.support.CommandSupports;
+import cn.shijinshi.redis.sync.Appender;
+import cn.shijinshi.redis.sync.AppenderConfiguration;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 转发路径的端到端压测。
+ *
+ * 在同一个进程中启动假Redis（{@link FakeRedis}），以及与生产环境相同的handler链
+ * （{@link ForwardAutoConfiguration#getLauncher}），然后通过多个连接，
+ * 每个连接保持pipeline个未完成的请求（闭环），统计吞吐量和延迟分布。
+ *
+ * 参数（--name=value）：
+ * connections  client连接数，默认16
+ * pipeline     每个连接未完成的请求数，默认1
+ * valueSize    SET的value字节数，默认64
+ * setRatio     SET请求的比例，默认0.5，其余为GET
+ * warmup       预热秒数，默认5
+ * duration     统计秒数，默认20
+ * appenders    依次测试的appender类型，默认no,async,sync
+ * poolSize     到Redis的连接数，默认1
+ * engine       日志文件的写入方式，stream或者mmap，默认stream
+ *
+ * 运行方式见src/jmh/README.md
+ *
+ * @author Gui Jiahai
+ */
+public class LoadGenerator {
+
+    private final int connections;
+    private final int pipeline;
+    private final int valueSize;
+    private final double setRatio;
+    private final int warmup;
+    private final int duration;
+    private final int poolSize;
+    private final String engine;
+
+    private LoadGenerator(Map<String, String> args) {
+        this.connections = Integer.parseInt(args.getOrDefault("connections", "16"));
+        this.pipeline = Integer.parseInt(args.getOrDefault("pipeline", "1"));
+        this.valueSize = Integer.parseInt(args.getOrDefault("valueSize", "64"));
+        this.setRatio = Double.parseDouble(args.getOrDefault("setRatio", "0.5"));
+        this.warmup = Integer.parseInt(args.getOrDefault("warmup", "5"));
+        this.duration = Integer.parseInt(args.getOrDefault("duration", "20"));
+        this.poolSize = Integer.parseInt(args.getOrDefault("poolSize", "1"));
+        this.engine = args.getOrDefault("engine", LogProperties.STREAM_ENGINE);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> map = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Argument must be --name=value: " + arg);
+            }
+            map.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        LoadGenerator generator = new LoadGenerator(map);
+
+        List<Result> results = new ArrayList<>();
+        try (FakeRedis redis = FakeRedis.start()) {
+            for (String appender : map.getOrDefault("appenders", "no,async,sync").split(",")) {
+                results.add(generator.run(redis, appender.trim()));
+            }
+        }
+
+        System.out.printf("%nconnections=%d pipeline=%d valueSize=%d setRatio=%.2f poolSize=%d engine=%s duration=%ds%n",
+                generator.connections, generator.pipeline, generator.valueSize, generator.setRatio,
+                generator.poolSize, generator.engine, generator.duration);
+        System.out.printf("%-8s %12s %10s %10s %10s %10s%n", "appender", "ops/s", "p50(us)", "p99(us)", "p999(us)", "max(us)");
+        for (Result result : results) {
+            System.out.println(result);
+        }
+        System.exit(0);
+    }
+
+    private Result run(FakeRedis redis, String appenderType) throws Exception {
+        BrokerProperties properties = new BrokerProperties();
+        properties.setPort(freePort());
+        properties.setAddress("127.0.0.1");
+        properties.getAppender().setType(appenderType);
+        properties.getAppender().getLog().setDir(Files.createTempDirectory("load-" + appenderType).toString());
+        properties.getAppender().getLog().setEngine(engine);
+        ForwardProperties forward = properties.getForward();
+        forward.setPoolSize(poolSize);
+
+        PartitionedLogger partitionedLogger = new PartitionedLogger(properties.getAppender().getLog(), Access.W);
+        Appender appender = new AppenderConfiguration().create(partitionedLogger, properties);
+
+        //不依赖zookeeper，直接指定Redis节点
+        Broker broker = mock(Broker.class);
+        when(broker.isMaster()).thenReturn(Boolean.TRUE);
+        doAnswer(invocation -> {
+            ((NodeListener) invocation.getArgument(0)).nodeChanged(HostAndPort.create("127.0.0.1", redis.port()));
+            return null;
+        }).when(broker).addListener(any());
+
+        CommandSupports supports = new CommandSupports(Collections.emptyMap());
+        supports.init();
+        FixedForwardLauncher launcher = ForwardAutoConfiguration.getLauncher(properties, broker, appender, supports,
+                partitionedLogger);
+        launcher.start();
+
+        EventLoopGroup group = new NioEventLoopGroup();
+        Recorder recorder = new Recorder(3);
+        LongAdder completed = new LongAdder();
+        List<Channel> channels = new ArrayList<>();
+        try {
+            byte[] value = new byte[valueSize];
+            Arrays.fill(value, (byte) 'v');
+            Bootstrap bootstrap = new Bootstrap().group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new ReplyDecoder(), new Client(value, recorder, completed));
+                        }
+                    });
+            //等待broker连接到Redis
+            Thread.sleep(1000);
+            for (int i = 0; i < connections; i++) {
+                channels.add(bootstrap.connect("127.0.0.1", properties.getPort()).sync().channel());
+            }
+
+            TimeUnit.SECONDS.sleep(warmup);
+            recorder.getIntervalHistogram();
+            long start = completed.sum();
+            TimeUnit.SECONDS.sleep(duration);
+            Histogram histogram = recorder.getIntervalHistogram();
+            long ops = completed.sum() - start;
+            return new Result(appenderType, (double) ops / duration, histogram);
+        } finally {
+            for (Channel channel : channels) {
+                channel.close().syncUninterruptibly();
+            }
+            group.shutdownGracefully().syncUninterruptibly();
+            launcher.stop();
+            appender.close();
+            partitionedLogger.close();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * 连接建立后发送pipeline个请求，每收到一个回复，记录延迟，并发送下一个请求
+     */
+    private class Client extends ChannelInboundHandlerAdapter {
+
+        private final byte[] value;
+        private final Recorder recorder;
+        private final LongAdder completed;
+        private final ArrayDeque<Long> sendTimes = new ArrayDeque<>();
+        private final Random random = new Random();
+
+        Client(byte[] value, Recorder recorder, LongAdder completed) {
+            this.value = value;
+            this.recorder = recorder;
+            this.completed = completed;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            for (int i = 0; i < pipeline; i++) {
+                send(ctx);
+            }
+            ctx.flush();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ((ByteBuf) msg).release();
+            Long sendTime = sendTimes.poll();
+            if (sendTime != null) {
+                recorder.recordValue((System.nanoTime() - sendTime) / 1000);
+                completed.increment();
+            }
+            send(ctx);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        private void send(ChannelHandlerContext ctx) {
+            String key = "key:" + random.nextInt(10000);
+            ByteBuf request;
+            if (random.nextDouble() < setRatio) {
+                request = Unpooled.buffer(32 + key.length() + value.length);
+                request.writeBytes(("*3\r\n$3\r\nSET\r\n$" + key.length() + "\r\n" + key + "\r\n$" + value.length + "\r\n").getBytes());
+                request.writeBytes(value).writeBytes("\r\n".getBytes());
+            } else {
+                request = Unpooled.wrappedBuffer(("*2\r\n$3\r\nGET\r\n$" + key.length() + "\r\n" + key + "\r\n").getBytes());
+            }
+            sendTimes.add(System.nanoTime());
+            ctx.write(request, ctx.voidPromise());
+        }
+    }
+
+    private static class Result {
+        private final String appender;
+        private final double throughput;
+        private final Histogram histogram;
+
+        Result(String appender, double throughput, Histogram histogram) {
+            this.appender = appender;
+            this.throughput = throughput;
+            this.histogram = histogram;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %12.0f %10d %10d %10d %10d", appender, throughput,
+                    histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                    histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+        }
+    }
+
+}
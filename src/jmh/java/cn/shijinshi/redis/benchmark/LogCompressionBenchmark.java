@@ -0,0 +1,187 @@
+package cn.shijinshi.redis.benchmark;
+
+import cn.shijinshi.redis.common.log.Access;
+import cn.shijinshi.redis.common.log.IndexEntry;
+import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.LogPersistence;
+import cn.shijinshi.redis.common.log.LogProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志压缩的吞吐量和压缩率。
+ *
+ * append：通过IndexLogger写入请求报文，与AsyncAppender相同，由缓冲区合并成记录；
+ * replay：通过LogPersistence读取，与RequestSynchronizer相同，每次读取8KB。
+ * 每个trial结束时，打印写入的请求报文字节数、日志文件的字节数和压缩率。
+ *
+ * @author Gui Jiahai
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogCompressionBenchmark {
+
+    private static final int REQUESTS = 4096;
+
+    @State(Scope.Thread)
+    public static class AppendState {
+
+        @Param({"none", "zstd"})
+        public String compression;
+
+        @Param({"64", "1024"})
+        public int valueSize;
+
+        private File dir;
+        private IndexLogger logger;
+        private OutputStream output;
+        private byte[][] requests;
+        private int next;
+        private long written;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("log-compression").toFile();
+            requests = requests(valueSize);
+            logger = new IndexLogger(properties(dir, compression), Access.W);
+            output = logger.getOutputStream();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            output.flush();
+            logger.close();
+            report("append", compression, valueSize, written, dir);
+            delete(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReplayState {
+
+        @Param({"none", "zstd"})
+        public String compression;
+
+        @Param({"64", "1024"})
+        public int valueSize;
+
+        private File dir;
+        private LogProperties properties;
+        private InputStream input;
+        private LogPersistence persistence;
+        private final byte[] buf = new byte[8192];
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("log-compression").toFile();
+            properties = properties(dir, compression);
+            byte[][] requests = requests(valueSize);
+            IndexLogger logger = new IndexLogger(properties, Access.W);
+            OutputStream output = logger.getOutputStream();
+            long written = 0;
+            for (int i = 0; written < 64 * 1024 * 1024; i ++) {
+                byte[] request = requests[i % REQUESTS];
+                output.write(request);
+                written += request.length;
+            }
+            output.flush();
+            logger.close();
+            report("replay", compression, valueSize, written, dir);
+            open();
+        }
+
+        /**
+         * 没有写入者，读到末尾时返回-1，重新从头读取
+         */
+        private void open() {
+            if (persistence != null) {
+                persistence.close();
+            }
+            persistence = new LogPersistence(dir, properties, new IndexEntry(1, 0), Access.R);
+            input = persistence.getInputStream();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            persistence.close();
+            delete(dir);
+        }
+    }
+
+    @Benchmark
+    public void append(AppendState state) throws IOException {
+        byte[] request = state.requests[state.next++ & (REQUESTS - 1)];
+        state.output.write(request);
+        state.written += request.length;
+    }
+
+    /**
+     * @return 读取的字节数，吞吐量乘以8KB即为每秒读取的字节数
+     */
+    @Benchmark
+    public int replay(ReplayState state) throws IOException {
+        int n = state.input.read(state.buf);
+        if (n == -1) {
+            state.open();
+        }
+        return n;
+    }
+
+    private static LogProperties properties(File dir, String compression) {
+        LogProperties properties = new LogProperties();
+        properties.setDir(dir.getAbsolutePath());
+        properties.setFormat(LogProperties.FRAMED_FORMAT);
+        properties.setCompression(compression);
+        return properties;
+    }
+
+    /**
+     * 生成SET请求，key递增，value是类似JSON的文本，比随机字节更接近真实数据
+     */
+    private static byte[][] requests(int valueSize) {
+        Random random = new Random(42);
+        byte[][] requests = new byte[REQUESTS][];
+        for (int i = 0; i < REQUESTS; i ++) {
+            StringBuilder value = new StringBuilder();
+            while (value.length() < valueSize) {
+                value.append("{\"id\":").append(random.nextInt(1000000))
+                        .append(",\"name\":\"user-").append(random.nextInt(10000))
+                        .append("\",\"score\":").append(random.nextInt(100)).append('}');
+            }
+            value.setLength(valueSize);
+            String key = "user:" + (100000 + i);
+            String command = "*3\r\n$3\r\nSET\r\n$" + key.length() + "\r\n" + key + "\r\n$" + valueSize + "\r\n" + value + "\r\n";
+            requests[i] = command.getBytes();
+        }
+        return requests;
+    }
+
+    private static void report(String benchmark, String compression, int valueSize, long written, File dir) {
+        long stored = 0;
+        File[] files = dir.listFiles(LogPersistence.LOG_FILTER);
+        if (files != null) {
+            for (File file : files) {
+                stored += file.length();
+            }
+        }
+        System.out.printf("%n%s compression=%s valueSize=%d: written %d bytes, stored %d bytes, ratio %.2f%n",
+                benchmark, compression, valueSize, written, stored, stored == 0 ? 0 : (double) written / stored);
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
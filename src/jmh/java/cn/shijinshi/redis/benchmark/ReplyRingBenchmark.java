@@ -0,0 +1,167 @@
+package cn.shijinshi.redis.benchmark;
+
+import cn.shijinshi.redis.common.protocol.RedisReply;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.FlushConsolidator;
+import cn.shijinshi.redis.forward.ReplySlot;
+import cn.shijinshi.redis.forward.server.ReplyRing;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回复报文按顺序写回client的开销（原来的MultiQueuedTransfer和SingleQueuedTransfer已经被ReplyRing取代）。
+ *
+ * 每次调用，每个client连接pipeline地发送depth个请求，
+ * 回复报文在upstream线程中完成（模拟共享的Redis连接），
+ * 或者在client连接自己的线程中完成（模拟loopAffinity），
+ * 直到所有回复报文都写出为止。
+ *
+ * @author Gui Jiahai
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplyRingBenchmark {
+
+    private static final int LOOPS = 4;
+
+    @Param({"1", "16", "256"})
+    public int connections;
+
+    @Param({"16"})
+    public int depth;
+
+    @Param({"true", "false"})
+    public boolean affinity;
+
+    private DefaultEventLoopGroup group;
+    private DefaultEventLoopGroup upstream;
+    private Channel server;
+    private Connection[] clients;
+
+    private volatile CountDownLatch latch;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        group = new DefaultEventLoopGroup(LOOPS);
+        upstream = new DefaultEventLoopGroup(1);
+        LocalAddress address = new LocalAddress("ReplyRingBenchmark");
+        server = new ServerBootstrap().group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public boolean isSharable() {
+                        return true;
+                    }
+
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        ReferenceCountUtil.release(msg);
+                    }
+                })
+                .bind(address).sync().channel();
+
+        clients = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            Connection connection = new Connection();
+            Channel channel = new Bootstrap().group(group)
+                    .channel(LocalChannel.class)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            //与BrokerServer一样合并flush，ReplyRing通过connection的ctx写出，所以其他handler要放在前面
+                            ch.pipeline().addLast(new Counter(connection), new FlushConsolidator(64, 0), connection);
+                        }
+                    })
+                    .connect(address).sync().channel();
+            connection.ring = channel.eventLoop().submit(
+                    () -> new ReplyRing(connection.ctx, depth, () -> {})).sync().getNow();
+            clients[i] = connection;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Connection client : clients) {
+            client.ctx.close().syncUninterruptibly();
+        }
+        server.close().syncUninterruptibly();
+        group.shutdownGracefully().syncUninterruptibly();
+        upstream.shutdownGracefully().syncUninterruptibly();
+    }
+
+    /**
+     * 每次调用写出connections * depth个回复报文
+     */
+    @Benchmark
+    public void pipeline() throws InterruptedException {
+        CountDownLatch l = new CountDownLatch(connections);
+        latch = l;
+        for (Connection client : clients) {
+            client.ctx.executor().execute(client::round);
+        }
+        l.await();
+    }
+
+    private class Connection extends ChannelInboundHandlerAdapter {
+        private ChannelHandlerContext ctx;
+        private ReplyRing ring;
+        private int written = 0;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        /**
+         * 在client连接的线程中执行，模拟一次读取到depth个请求
+         */
+        void round() {
+            written = 0;
+            for (int i = 0; i < depth; i++) {
+                ByteBuf buffer = Unpooled.wrappedBuffer("*1\r\n$4\r\nPING\r\n".getBytes());
+                ReplySlot slot = ring.acquire(RedisRequest.create(buffer, null, null));
+                if (affinity) {
+                    ctx.executor().execute(() -> slot.complete(reply()));
+                } else {
+                    upstream.execute(() -> slot.complete(reply()));
+                }
+            }
+        }
+
+        private RedisReply reply() {
+            return RedisReply.create(Unpooled.wrappedBuffer("+PONG\r\n".getBytes()));
+        }
+    }
+
+    private class Counter extends ChannelOutboundHandlerAdapter {
+        private final Connection connection;
+
+        Counter(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            super.write(ctx, msg, promise);
+            if (++connection.written == depth) {
+                latch.countDown();
+            }
+        }
+    }
+
+}
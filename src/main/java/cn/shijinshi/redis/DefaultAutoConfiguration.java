@@ -1,7 +1,7 @@
 package cn.shijinshi.redis;
 
 import cn.shijinshi.redis.common.log.Access;
-import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
 import cn.shijinshi.redis.common.prop.BrokerProperties;
 import cn.shijinshi.redis.common.registry.RegistryService;
 import cn.shijinshi.redis.common.registry.ZookeeperRegistryService;
@@ -28,18 +28,19 @@ public class DefaultAutoConfiguration {
     }
 
     @Bean(destroyMethod = "")
-    public IndexLogger indexLogger(BrokerProperties properties) {
-        return new IndexLogger(properties.getAppender().getLog(), Access.RW);
+    public PartitionedLogger partitionedLogger(BrokerProperties properties) {
+        return new PartitionedLogger(properties.getAppender().getLog(), Access.RW);
     }
 
     @Bean
-    public FixedForwardLauncher forwardLauncher(BrokerProperties properties, Broker broker, Appender appender, CommandSupports commandSupports) {
-        return ForwardAutoConfiguration.getLauncher(properties, broker, appender, commandSupports);
+    public FixedForwardLauncher forwardLauncher(BrokerProperties properties, Broker broker, Appender appender,
+                                                CommandSupports commandSupports, PartitionedLogger partitionedLogger) {
+        return ForwardAutoConfiguration.getLauncher(properties, broker, appender, commandSupports, partitionedLogger);
     }
 
     @Bean
-    public RelatedSyncLauncher syncLauncher(IndexLogger indexLogger, BrokerProperties properties) {
-        return new RelatedSyncLauncher(indexLogger, properties);
+    public RelatedSyncLauncher syncLauncher(PartitionedLogger partitionedLogger, BrokerProperties properties) {
+        return new RelatedSyncLauncher(partitionedLogger, properties);
     }
 
     @Bean
@@ -54,8 +55,11 @@ public class DefaultAutoConfiguration {
 
     @Bean(initMethod = "init", destroyMethod = "destroy")
     @DependsOn("broker")
-    public ReplicationController controller(RegistryService registryService, BrokerProperties properties, RpcHelper rpcHelper) {
-        return new ReplicationController(registryService, properties, rpcHelper);
+    public ReplicationController controller(RegistryService registryService, BrokerProperties properties,
+                                            RpcHelper rpcHelper, PartitionedLogger partitionedLogger) {
+        ReplicationController controller = new ReplicationController(registryService, properties, rpcHelper);
+        partitionedLogger.setDropListener(controller::requestReplication);
+        return controller;
     }
 
 }
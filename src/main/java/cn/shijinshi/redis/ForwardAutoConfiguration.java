@@ -1,8 +1,9 @@
 package cn.shijinshi.redis;
 
+import cn.shijinshi.redis.common.prop.AppenderProperties;
 import cn.shijinshi.redis.common.prop.BrokerProperties;
 import cn.shijinshi.redis.common.log.Access;
-import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
 import cn.shijinshi.redis.common.registry.RegistryService;
 import cn.shijinshi.redis.common.registry.ZookeeperRegistryService;
 import cn.shijinshi.redis.control.broker.Broker;
@@ -29,24 +30,28 @@ import org.springframework.context.annotation.Configuration;
 public class ForwardAutoConfiguration {
 
     @Bean
-    public IndexLogger indexLogger(BrokerProperties properties) {
-        return new IndexLogger(properties.getAppender().getLog(), Access.W);
+    public PartitionedLogger partitionedLogger(BrokerProperties properties) {
+        return new PartitionedLogger(properties.getAppender().getLog(), Access.W);
     }
 
     @Bean
-    public Launcher forwardLauncher(BrokerProperties properties, Broker broker, Appender appender, CommandSupports commandSupports) {
-        return getLauncher(properties, broker, appender, commandSupports);
+    public Launcher forwardLauncher(BrokerProperties properties, Broker broker, Appender appender,
+                                    CommandSupports commandSupports, PartitionedLogger partitionedLogger) {
+        return getLauncher(properties, broker, appender, commandSupports, partitionedLogger);
     }
 
-    public static FixedForwardLauncher getLauncher(BrokerProperties properties, Broker broker, Appender appender, CommandSupports commandSupports) {
-        AutoRedisConnector connector = new AutoRedisConnector();
+    public static FixedForwardLauncher getLauncher(BrokerProperties properties, Broker broker, Appender appender,
+                                                   CommandSupports commandSupports, PartitionedLogger partitionedLogger) {
+        //需要备份时，同一个key的请求都在同一个连接上，日志的顺序才与Redis执行的顺序一致
+        boolean ordered = !AppenderProperties.NO_TYPE.equalsIgnoreCase(properties.getAppender().getType());
+        AutoRedisConnector connector = new AutoRedisConnector(properties.getForward(), ordered);
         broker.addListener(connector);
 
         ConnectionHandler connectionHandler = new ConnectionHandler(connector, broker);
         AppendHandler appendHandler = new AppendHandler(connectionHandler, appender);
-        Handler handler = new SupportHandler(appendHandler, broker, commandSupports);
+        Handler handler = new SupportHandler(appendHandler, broker, commandSupports, partitionedLogger::isForwardPaused);
 
-        return new FixedForwardLauncher(properties, handler);
+        return new FixedForwardLauncher(properties, handler, commandSupports.getTable());
     }
 
     @Bean(destroyMethod = "close")
@@ -55,8 +60,11 @@ public class ForwardAutoConfiguration {
     }
 
     @Bean(initMethod = "init", destroyMethod = "destroy")
-    public ReplicationController controller(RegistryService registryService, BrokerProperties properties, RpcHelper rpcHelper) {
-        return new ReplicationController(registryService, properties, rpcHelper);
+    public ReplicationController controller(RegistryService registryService, BrokerProperties properties,
+                                            RpcHelper rpcHelper, PartitionedLogger partitionedLogger) {
+        ReplicationController controller = new ReplicationController(registryService, properties, rpcHelper);
+        partitionedLogger.setDropListener(controller::requestReplication);
+        return controller;
     }
 
     @Bean(initMethod = "init", destroyMethod = "destroy")
@@ -1,7 +1,7 @@
 package cn.shijinshi.redis;
 
 import cn.shijinshi.redis.common.log.Access;
-import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
 import cn.shijinshi.redis.common.prop.BrokerProperties;
 import cn.shijinshi.redis.common.registry.RegistryService;
 import cn.shijinshi.redis.common.registry.ZookeeperRegistryService;
@@ -20,13 +20,13 @@ import org.springframework.context.annotation.Configuration;
 public class SyncAutoConfiguration {
 
     @Bean
-    public IndexLogger indexLogger(BrokerProperties properties) {
-        return new IndexLogger(properties.getAppender().getLog(), Access.R);
+    public PartitionedLogger partitionedLogger(BrokerProperties properties) {
+        return new PartitionedLogger(properties.getAppender().getLog(), Access.R);
     }
 
     @Bean
-    public Launcher syncLauncher(IndexLogger indexLogger, BrokerProperties properties) {
-        return new FixedSyncLauncher(indexLogger, properties);
+    public Launcher syncLauncher(PartitionedLogger partitionedLogger, BrokerProperties properties) {
+        return new FixedSyncLauncher(partitionedLogger, properties);
     }
 
     @Bean(destroyMethod = "close")
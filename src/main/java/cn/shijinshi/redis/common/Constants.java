@@ -25,6 +25,13 @@ public interface Constants {
 
     String REPLICATION_HOLD     = "active";
 
+    /**
+     * TICK（SETEX tick 600 tick）的key的前缀，用于识别TICK，业务的key不应该使用这个前缀
+     */
+    String TICK_PREFIX          = "__redis_broker_tick__:";
+
+    String TICK_EXPIRE_SECONDS  = "600";
+
     int DEFAULT_IO_THREADS      = Math.min(Runtime.getRuntime().availableProcessors() + 1, 32);
 
 }
@@ -13,6 +13,9 @@ import java.util.Objects;
  *
  * log日志用于存放请求数据，那么index日志用于存放当前的已消费位置。
  * 意味着，从index日志中，可以知道哪些log日志可以清除的。
+ * log日志从{@link SegmentCatalogue}中查找，不需要列出目录中的文件。
+ * 已消费位置优先从{@link IndexPersistence#CHECKPOINT_FILE}中读取，
+ * 此时原来的 序号.index 文件已经没有用处，全部删除。
  *
  * @author Gui Jiahai
  */
@@ -20,13 +23,24 @@ public class Cleaner {
 
     private static final Logger logger = LoggerFactory.getLogger(Cleaner.class);
 
-    private final FilenameFilter logFilter = LogPersistence.LOG_FILTER;
     private final FilenameFilter indexFilter = IndexPersistence.INDEX_FILTER;
 
     private final File dir;
+    private final SegmentCatalogue catalogue;
+    private final IndexPersistence indexPersistence;
 
     public Cleaner(File dir) {
+        this(dir, new SegmentCatalogue(dir));
+    }
+
+    public Cleaner(File dir, SegmentCatalogue catalogue) {
+        this(dir, catalogue, new IndexPersistence(dir));
+    }
+
+    public Cleaner(File dir, SegmentCatalogue catalogue, IndexPersistence indexPersistence) {
         this.dir = Objects.requireNonNull(dir);
+        this.catalogue = Objects.requireNonNull(catalogue);
+        this.indexPersistence = Objects.requireNonNull(indexPersistence);
     }
 
     public void clean() {
@@ -34,6 +48,12 @@ public class Cleaner {
             return;
         }
 
+        if (indexPersistence.hasCheckpoint()) {
+            deleteIndexFiles(dir.listFiles(indexFilter));
+            deleteLogFiles(indexPersistence.latestIndex().getSequence());
+            return;
+        }
+
         File[] indexFiles = dir.listFiles(indexFilter);
         if (indexFiles == null || indexFiles.length == 0) {
             return;
@@ -43,14 +63,7 @@ public class Cleaner {
 
         //删除索引文件
         indexFiles[indexFiles.length - 1] = null;
-        for (File indexFile : indexFiles) {
-            if (indexFile != null) {
-                if (!indexFile.delete()) {
-                    logger.warn("Failed to delete index file: {}", indexFile);
-                }
-            }
-        }
-
+        deleteIndexFiles(indexFiles);
 
         String indexFileName = latestIndex.getName();
         String sequenceStr = null;
@@ -62,22 +75,40 @@ public class Cleaner {
             return;
         }
 
-        File[] logFiles = dir.listFiles(logFilter);
-        if (logFiles == null || logFiles.length == 0) {
+        long sequence;
+        try {
+            sequence = Long.parseLong(sequenceStr);
+        } catch (NumberFormatException e) {
+            logger.warn("Cannot get sequence from index file name: {}", indexFileName);
             return;
         }
 
-        for (File logFile : logFiles) {
-            if (logFile.getName().endsWith(LogPersistence.SUFFIX)) {
-                String logFilePrefix = logFile.getName().substring(0,
-                        logFile.getName().length() - LogPersistence.SUFFIX.length());
-                if (logFilePrefix.compareToIgnoreCase(sequenceStr) < 0) {
-                    if (!logFile.delete()) {
-                        logger.warn("Failed to delete log file: {}", logFile);
-                    }
+        deleteLogFiles(sequence);
+    }
+
+    private void deleteIndexFiles(File[] indexFiles) {
+        if (indexFiles == null) {
+            return;
+        }
+        for (File indexFile : indexFiles) {
+            if (indexFile != null) {
+                if (!indexFile.delete()) {
+                    logger.warn("Failed to delete index file: {}", indexFile);
                 }
             }
         }
     }
 
+    private void deleteLogFiles(long sequence) {
+        //删除已经消费完的日志文件
+        for (SegmentCatalogue.SegmentInfo segment : catalogue.before(sequence).values()) {
+            File logFile = segment.getFile();
+            if (logFile.delete() || !logFile.exists()) {
+                catalogue.remove(segment.getSequence());
+            } else {
+                logger.warn("Failed to delete log file: {}", logFile);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,87 @@
+package cn.shijinshi.redis.common.log;
+
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.util.Arrays;
+
+/**
+ * O_DIRECT方式读写日志文件，数据不经过page cache，
+ * 避免大量写入日志时，与broker部署在同一台机器上的Redis的内存页被换出。
+ *
+ * O_DIRECT要求内存地址、文件位置和读写长度都按块对齐，这里统一按{@link #BLOCK_BYTES}对齐。
+ * com.sun.nio.file.ExtendedOpenOption#DIRECT从JDK 10开始才有，所以通过反射获取，
+ * JDK不支持，或者文件系统不支持（比如tmpfs）时，退回普通方式打开，仍然按块对齐读写。
+ *
+ * @author Gui Jiahai
+ */
+final class DirectIO {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectIO.class);
+
+    static final int BLOCK_BYTES = 4096;
+
+    private static final OpenOption DIRECT = lookup();
+
+    private static volatile boolean warned = false;
+
+    private DirectIO() {
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static OpenOption lookup() {
+        try {
+            Class c = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            return (OpenOption) Enum.valueOf(c, "DIRECT");
+        } catch (ClassNotFoundException | IllegalArgumentException e) {
+            logger.info("O_DIRECT is not supported by current JDK, log files will be opened normally");
+            return null;
+        }
+    }
+
+    /**
+     * 尽量以O_DIRECT方式打开文件
+     */
+    static FileChannel open(File file, OpenOption... options) throws IOException {
+        if (DIRECT != null) {
+            OpenOption[] direct = Arrays.copyOf(options, options.length + 1);
+            direct[options.length] = DIRECT;
+            try {
+                return FileChannel.open(file.toPath(), direct);
+            } catch (IOException | UnsupportedOperationException e) {
+                if (!warned) {
+                    warned = true;
+                    logger.warn("Cannot open log file {} with O_DIRECT, fallback to normal: {}", file, e.toString());
+                }
+            }
+        }
+        return FileChannel.open(file.toPath(), options);
+    }
+
+    /**
+     * @return 起始地址按块对齐的直接内存，capacity会向上取整到块的整数倍
+     */
+    static ByteBuffer allocate(int capacity) {
+        capacity = (int) alignUp(Math.max(capacity, BLOCK_BYTES));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity + BLOCK_BYTES);
+        long address = PlatformDependent.directBufferAddress(buffer);
+        int offset = (int) ((BLOCK_BYTES - address % BLOCK_BYTES) % BLOCK_BYTES);
+        buffer.position(offset);
+        buffer.limit(offset + capacity);
+        return buffer.slice();
+    }
+
+    static long alignDown(long position) {
+        return position - position % BLOCK_BYTES;
+    }
+
+    static long alignUp(long position) {
+        return alignDown(position + BLOCK_BYTES - 1);
+    }
+}
@@ -0,0 +1,71 @@
+package cn.shijinshi.redis.common.log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 写入者在其他进程中时（{@link Access#R}），通过WatchService等待日志文件被创建或者修改。
+ * 日志文件也可能被其他进程删除，比如超过配额时丢弃最早的文件（见{@link Retention.Policy#DROP_OLDEST}），
+ * 所以也需要监听删除事件。
+ *
+ * 注意：通过mmap写入不会产生修改事件，见{@link WriterPosition}。
+ *
+ * @author Gui Jiahai
+ */
+class DirectoryWatcher implements Closeable {
+
+    private final WatchService service;
+
+    DirectoryWatcher(File dir) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        try {
+            dir.toPath().register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 等待目录中的文件被创建或者修改，最多等待millis毫秒。
+     * 读取者落后时，一次可能收到多个新创建的文件，每个都要加入catalogue，否则中间的文件会被跳过；
+     * 被删除的文件从catalogue中移除；
+     * 事件溢出时，可能错过了新创建的文件，重新列出目录中的文件
+     */
+    void await(long millis, SegmentCatalogue catalogue) throws InterruptedException {
+        WatchKey key = service.poll(millis, TimeUnit.MILLISECONDS);
+        if (key == null) {
+            return;
+        }
+        boolean overflowed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflowed = true;
+            } else if (event.kind() == ENTRY_CREATE || event.kind() == ENTRY_DELETE) {
+                String name = event.context().toString();
+                if (LogPersistence.LOG_FILTER.accept(null, name)) {
+                    long sequence = Long.parseLong(name.substring(0, 19));
+                    if (event.kind() == ENTRY_CREATE) {
+                        catalogue.add(sequence);
+                    } else {
+                        catalogue.remove(sequence);
+                    }
+                }
+            }
+        }
+        key.reset();
+        if (overflowed) {
+            catalogue.reload();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+}
@@ -0,0 +1,81 @@
+package cn.shijinshi.redis.common.log;
+
+import com.github.luben.zstd.Zstd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 将一次写入的数据编码为一个记录，见{@link SegmentFormat}，stream和mmap两种写入方式共用。
+ *
+ * 开启压缩时，整个记录的内容作为一个zstd块压缩，调用者每次写入的数据越多，压缩率越高，
+ * 所以{@link IndexLogger}会使用更大的缓冲区，将多个请求报文合并为一个记录。
+ *
+ * @author Gui Jiahai
+ */
+class FrameEncoder {
+
+    private final SegmentFormat format;
+    private final int level;
+
+    private final ByteBuffer header = ByteBuffer.allocate(SegmentFormat.MAX_FRAME_HEADER_BYTES);
+    private byte[] compressed = new byte[0];
+
+    private byte[] payload;
+    private int offset;
+    private int length;
+
+    FrameEncoder(SegmentFormat format, int level) {
+        this.format = format;
+        this.level = level;
+    }
+
+    /**
+     * 编码之后，依次写入{@link #header()}和{@link #payload()}
+     */
+    void encode(byte[] b, int off, int len) throws IOException {
+        if (format.isCompressed()) {
+            int bound = (int) Zstd.compressBound(len);
+            if (compressed.length < bound) {
+                compressed = new byte[bound];
+            }
+            long n = Zstd.compressByteArray(compressed, 0, bound, b, off, len, level);
+            if (Zstd.isError(n)) {
+                throw new IOException("Cannot compress frame: " + Zstd.getErrorName(n));
+            }
+            payload = compressed;
+            offset = 0;
+            length = (int) n;
+        } else {
+            payload = b;
+            offset = off;
+            length = len;
+        }
+
+        header.clear();
+        header.putInt(length).putInt(0);
+        if (format.hasTimestamp()) {
+            header.putLong(System.currentTimeMillis());
+        }
+        if (format.isCompressed()) {
+            header.putInt(len);
+        }
+        header.putInt(4, SegmentFormat.checksum(header.array(), header.position(), payload, offset, length));
+        header.flip();
+    }
+
+    ByteBuffer header() {
+        return header;
+    }
+
+    ByteBuffer payload() {
+        return ByteBuffer.wrap(payload, offset, length);
+    }
+
+    /**
+     * @return 记录在文件中的长度
+     */
+    int frameBytes() {
+        return header.remaining() + length;
+    }
+}
@@ -22,11 +22,18 @@ public class IndexLogger implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(IndexLogger.class);
 
+    //开启压缩时，每个记录最多包含的字节数，记录越大，压缩率越高
+    private static final int COMPRESS_BLOCK_BYTES = 64 * 1024;
+
+    private static final long RETENTION_CHECK_MS = 1000;
+
     private final LogPersistence logPersistence;
     private final Access access;
+    private final int bufferBytes;
 
     private IndexPersistence indexPersistence;
     private Cleaner cleaner;
+    private Retention retention;
     private ScheduledExecutorService scheduledExecutor;
 
     private InputStream inputStream;
@@ -34,6 +41,8 @@ public class IndexLogger implements Closeable {
 
     public IndexLogger(LogProperties properties, Access access) {
         this.access = Objects.requireNonNull(access);
+        this.bufferBytes = LogProperties.ZSTD_COMPRESSION.equalsIgnoreCase(properties.getCompression())
+                ? COMPRESS_BLOCK_BYTES : 8192;
 
         File dir = new File(properties.getDir());
         if (dir.exists()) {
@@ -47,11 +56,15 @@ public class IndexLogger implements Closeable {
             logger.info("create directory: {}", dir.getAbsolutePath());
         }
 
-        if (access.isReadable()) {
-            this.indexPersistence = new IndexPersistence(dir);
-            this.cleaner = new Cleaner(dir);
+        //LogPersistence和Cleaner共用同一个日志文件目录
+        SegmentCatalogue catalogue = new SegmentCatalogue(dir);
+        if (access.isReadable() || (access.isWritable() && Retention.isEnabled(properties))) {
             this.scheduledExecutor = Executors.newSingleThreadScheduledExecutor(
                     new SimpleThreadFactory("index-logger-scheduler", true));
+        }
+        if (access.isReadable()) {
+            this.indexPersistence = new IndexPersistence(dir);
+            this.cleaner = new Cleaner(dir, catalogue, indexPersistence);
             this.scheduledExecutor.scheduleWithFixedDelay(() -> {
                 try {
                     persistIndex();
@@ -67,9 +80,20 @@ public class IndexLogger implements Closeable {
                 }
             }, properties.getCleanSec(), properties.getCleanSec(), TimeUnit.SECONDS);
         }
+        //配额由写入者检查，超过配额时才能及时停止写入
+        if (access.isWritable() && Retention.isEnabled(properties)) {
+            this.retention = new Retention(dir, catalogue, properties);
+            this.scheduledExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    retention.check();
+                } catch (Throwable t) {
+                    logger.error("Failed to check log retention", t);
+                }
+            }, RETENTION_CHECK_MS, RETENTION_CHECK_MS, TimeUnit.MILLISECONDS);
+        }
 
         IndexEntry latestIndex = this.indexPersistence == null ? null : this.indexPersistence.latestIndex();
-        this.logPersistence = new LogPersistence(dir, properties, latestIndex, access);
+        this.logPersistence = new LogPersistence(dir, properties, latestIndex, access, catalogue);
 
         Shutdown.addRunner(this::close, Integer.MAX_VALUE);
     }
@@ -88,6 +112,13 @@ public class IndexLogger implements Closeable {
         }
     }
 
+    /**
+     * @return 没有设置配额，或者不是写入者时，返回null
+     */
+    public Retention getRetention() {
+        return retention;
+    }
+
     public InputStream getInputStream() {
         if (inputStream == null) {
             inputStream = new BufferedInputStream(logPersistence.getInputStream());
@@ -95,13 +126,26 @@ public class IndexLogger implements Closeable {
         return inputStream;
     }
 
+    /**
+     * 每次调用write写入的必须是完整的请求报文，
+     * framed格式下，BufferedOutputStream只会合并多次写入，不会拆分一次写入，
+     * 所以每个记录中都是完整的请求报文
+     */
     public OutputStream getOutputStream() {
         if (outputStream == null) {
-            outputStream = new BufferedOutputStream(logPersistence.getOutputStream());
+            outputStream = new BufferedOutputStream(logPersistence.getOutputStream(), bufferBytes);
         }
         return outputStream;
     }
 
+    /**
+     * 将OutputStream缓冲的数据写入文件，并刷到磁盘上
+     */
+    public void sync() throws IOException {
+        getOutputStream().flush();
+        logPersistence.sync();
+    }
+
     @Override
     public void close() {
         ExecutorUtil.shutdown(scheduledExecutor, 10, TimeUnit.SECONDS);
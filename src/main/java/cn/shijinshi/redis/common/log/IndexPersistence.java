@@ -1,12 +1,17 @@
 package cn.shijinshi.redis.common.log;
 
+import io.netty.util.internal.PlatformDependent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.zip.CRC32;
 
 /**
  * 在双写过程中，我们通过 {@link LogPersistence} 来作持久化的队列。
@@ -17,6 +22,16 @@ import java.util.Objects;
  * 应该告知LogPersistence，那么IndexPersistence则定时地将这个位置
  * 存在磁盘上。等下次程序启动时，就可以从磁盘上获取正确的位置。
  *
+ * 原来每次都向 序号.index 文件追加一行文本，文件在两次清除之间一直增长，
+ * 读取时也只能根据文件大小猜测最后一行是否完整。
+ * 现在，位置记录在固定大小的{@link #CHECKPOINT_FILE}中，通过MappedByteBuffer写入，不需要系统调用。
+ * 文件中有两个槽，每个槽的格式为：版本号(8字节) + 序号(8字节) + 偏移量(8字节) + 校验和(4字节) + 保留(4字节)，
+ * 每次写入版本号加一，轮流写入两个槽，所以，即使进程在写入过程中退出，另一个槽仍然是完整的。
+ * 读取时，选择校验通过并且版本号较大的槽，只需要读取固定的64字节。
+ *
+ * 写入只保证进入page cache，与原来一样，不会每次都刷到磁盘上，关闭时才刷盘。
+ * 没有{@link #CHECKPOINT_FILE}时，从原来的 序号.index 文件中读取，升级之后可以继续原来的位置。
+ *
  * @author Gui Jiahai
  */
 public class IndexPersistence implements Closeable {
@@ -25,6 +40,8 @@ public class IndexPersistence implements Closeable {
 
     public static final String SUFFIX = ".index";
 
+    public static final String CHECKPOINT_FILE = "acked.checkpoint";
+
     //文件名格式必须为 0000000000000000098.index
     //前面为19位，足够表示所有的正长整数
     public static final FilenameFilter INDEX_FILTER = (dir, name) -> {
@@ -38,18 +55,27 @@ public class IndexPersistence implements Closeable {
         return false;
     };
 
+    private static final int SLOT_BYTES = 32;
+    private static final int CHECKPOINT_BYTES = SLOT_BYTES * 2;
+    private static final int GENERATION_INDEX = 0;
+    private static final int SEQUENCE_INDEX = 8;
+    private static final int OFFSET_INDEX = 16;
+    private static final int CHECKSUM_INDEX = 24;
+
     private final File dir;
 
     private IndexEntry curIndexEntry = new IndexEntry(-1, -1);
 
-    private FileOutputStream output;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long generation;
     private volatile boolean closed = false;
 
     public IndexPersistence(File dir) {
         this.dir = Objects.requireNonNull(dir);
     }
 
-    public void persist(IndexEntry indexEntry) throws IOException {
+    public synchronized void persist(IndexEntry indexEntry) throws IOException {
         if (closed) {
             throw new IOException("Index file stream closed");
         }
@@ -58,29 +84,105 @@ public class IndexPersistence implements Closeable {
             return;
         }
 
-        if (this.curIndexEntry.getSequence() != indexEntry.getSequence() || this.output == null) {
-            if (this.output != null) {
-                Closeable c = this.output;
-                this.output = null;
-                try {
-                    c.close();
-                } catch (IOException ignored) {}
-            }
-
-            this.output = new FileOutputStream(newFile(indexEntry.getSequence()), true);
+        if (this.buffer == null) {
+            open();
         }
+
+        generation ++;
+        int base = (int) (generation % 2) * SLOT_BYTES;
+        buffer.putLong(base + SEQUENCE_INDEX, indexEntry.getSequence());
+        buffer.putLong(base + OFFSET_INDEX, indexEntry.getOffset());
+        buffer.putLong(base + GENERATION_INDEX, generation);
+        buffer.putInt(base + CHECKSUM_INDEX, checksum(buffer, base));
         this.curIndexEntry = indexEntry;
+    }
 
-        String line = String.format("%019d\n", indexEntry.getOffset());
-        output.write(line.getBytes(StandardCharsets.UTF_8));
-        output.flush();
+    private void open() throws IOException {
+        FileChannel c = new RandomAccessFile(new File(dir, CHECKPOINT_FILE), "rw").getChannel();
+        try {
+            MappedByteBuffer b = c.map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_BYTES);
+            //从较新的版本号继续，下一次写入覆盖较旧的槽
+            int slot = latestSlot(b);
+            this.generation = slot < 0 ? 0 : b.getLong(slot + GENERATION_INDEX);
+            this.channel = c;
+            this.buffer = b;
+        } catch (IOException e) {
+            c.close();
+            throw e;
+        }
     }
 
-    private File newFile(long sequence) {
-        return new File(this.dir, String.format("%019d%s", sequence, SUFFIX));
+    /**
+     * @return 是否已经有{@link #CHECKPOINT_FILE}，没有则说明还在使用原来的 序号.index 文件
+     */
+    public boolean hasCheckpoint() {
+        return new File(dir, CHECKPOINT_FILE).exists();
     }
 
     public IndexEntry latestIndex() {
+        File file = new File(dir, CHECKPOINT_FILE);
+        if (!file.exists()) {
+            return legacyIndex();
+        }
+
+        synchronized (this) {
+            //关闭时会释放映射，所以需要在锁内读取
+            if (this.buffer != null) {
+                return read(this.buffer, file);
+            }
+        }
+
+        ByteBuffer b = ByteBuffer.allocate(CHECKPOINT_BYTES);
+        try (FileChannel c = new RandomAccessFile(file, "r").getChannel()) {
+            SegmentFormat.readFully(c::read, b, 0);
+        } catch (IOException e) {
+            logger.error("Failed to read from checkpoint file", e);
+            throw new IllegalStateException(e);
+        }
+        return read(b, file);
+    }
+
+    private IndexEntry read(ByteBuffer b, File file) {
+        int slot = latestSlot(b);
+        if (slot < 0) {
+            logger.warn("Cannot get complete index entry from {}, fallback to index files", file);
+            return legacyIndex();
+        }
+        IndexEntry indexEntry = new IndexEntry(b.getLong(slot + SEQUENCE_INDEX), b.getLong(slot + OFFSET_INDEX));
+        logger.info("Got latest index entry: {}", indexEntry);
+        return indexEntry;
+    }
+
+    /**
+     * @return 校验通过并且版本号较大的槽的起始位置，都不完整时返回-1
+     */
+    private static int latestSlot(ByteBuffer b) {
+        int latest = -1;
+        long latestGeneration = 0;
+        for (int base = 0; base + SLOT_BYTES <= b.limit(); base += SLOT_BYTES) {
+            long g = b.getLong(base + GENERATION_INDEX);
+            if (g > latestGeneration && b.getInt(base + CHECKSUM_INDEX) == checksum(b, base)) {
+                latest = base;
+                latestGeneration = g;
+            }
+        }
+        return latest;
+    }
+
+    private static int checksum(ByteBuffer b, int base) {
+        byte[] bytes = new byte[CHECKSUM_INDEX];
+        for (int i = 0; i < bytes.length; i ++) {
+            bytes[i] = b.get(base + i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 从原来的 序号.index 文件中读取
+     */
+    private IndexEntry legacyIndex() {
         File[] list = dir.listFiles(INDEX_FILTER);
         if (list == null || list.length == 0) {
             return new IndexEntry(0, 0);
@@ -138,11 +240,17 @@ public class IndexPersistence implements Closeable {
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
         if (!closed) {
             closed = true;
-            Closeable c = this.output;
-            this.output = null;
+            MappedByteBuffer b = this.buffer;
+            this.buffer = null;
+            if (b != null) {
+                b.force();
+                PlatformDependent.freeDirectBuffer(b);
+            }
+            Closeable c = this.channel;
+            this.channel = null;
             if (c != null) {
                 try {
                     c.close();
@@ -1,8 +1,24 @@
 package cn.shijinshi.redis.common.log;
 
+import cn.shijinshi.redis.common.util.SimpleThreadFactory;
+import com.github.luben.zstd.Zstd;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.LockSupport;
 
 /**
@@ -21,11 +37,34 @@ import java.util.concurrent.locks.LockSupport;
  *    2) 如果该文件大于或等于最大阈值(MAX_SIZE)，则应查看是否有新的文件生成
  *       i) 如果是，则说明数据已经写的新文件中了，应该从新文件中读取
  *       ii) 否，则阻塞等待一段时间，继续从原始文件中读取
+ *    阻塞等待的方式：
+ *    1) 写入者在同一个进程中（Access.RW），由写入者通过{@link TailSignal}唤醒；
+ *    2) 写入者在其他进程中（通过{@link #LOCK_FILE}的文件锁判断），通过{@link DirectoryWatcher}等待文件的变化，
+ *       如果是mmap方式写入，则不会产生文件事件，只能逐渐拉长间隔去检查{@link WriterPosition}；
+ *    3) 没有写入者时，读到末尾就结束。
+ *    是否有新的文件，由{@link SegmentCatalogue}判断，不需要每次都列出目录中的文件。
+ * 4、写的方式由{@link LogProperties#getEngine()}决定：
+ *    1) stream：通过FileOutputStream追加写入；
+ *    2) mmap：每个文件预分配为segmentBytes大小，通过MappedByteBuffer写入，写入时没有系统调用，
+ *       文件大小也不会变化。因为有效数据之后都是0，所以写入者通过{@link WriterPosition}
+ *       告诉读取者正在写入的文件的有效长度，文件写满或者关闭时，再截断为有效长度。
+ *    3) direct：通过O_DIRECT按块对齐写入，数据不经过page cache，见{@link DirectOutput}，
+ *       与mmap方式一样，通过WriterPosition告诉读取者有效长度；读取者也通过O_DIRECT读取，见{@link SegmentReader}。
+ *    切换文件时，旧文件的刷盘和关闭由后台线程完成；mmap方式下，后台线程还会提前预分配并映射下一个文件，
+ *    写入者切换文件时只需要重命名，见{@link MappedOutput#roll(int)}。
+ * 5、文件的格式由{@link LogProperties#getFormat()}决定，见{@link SegmentFormat}。
+ *    framed格式下，每次写入OutputStream的数据作为一个记录，所以，调用者每次写入的必须是完整的请求报文；
+ *    读取者校验每个记录之后，再将其中的请求报文交给InputStream的调用者，所以对调用者来说，两种格式没有区别。
+ *    {@link IndexEntry}中的offset是文件中请求报文的字节数，不包括文件头和记录头部。
+ *    开启{@link LogProperties#getCompression()}时，每个记录的内容被压缩，读取者解压之后再交给调用者，
+ *    offset是解压之后的字节数。
  *
  * @author Gui Jiahai
  */
 public class LogPersistence implements Closeable {
 
+    private static final Logger logger = LoggerFactory.getLogger(LogPersistence.class);
+
     public static final String SUFFIX = ".log";
 
     //文件名格式必须为 0000000000000000098.log
@@ -41,30 +80,222 @@ public class LogPersistence implements Closeable {
         return false;
     };
 
+    /**
+     * 写入者持有这个文件的锁，其他进程中的读取者据此判断是否还会有新的数据
+     */
+    static final String LOCK_FILE = "writer.lock";
+
+    /**
+     * mmap方式下，后台线程预分配的下一个文件，切换时才重命名为日志文件，所以读取者和{@link Cleaner}都看不到它
+     */
+    static final String PREALLOCATED_FILE = "preallocated.segment";
+
+    //预分配时每次写入0的字节数
+    private static final int PREALLOCATE_CHUNK_BYTES = 1024 * 1024;
+
     private static final long DELAY_MILLIS = 1000;
+    private static final long DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(DELAY_MILLIS);
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
 
     private final File dir;
     private final LogProperties properties;
+    //写入者使用的格式
+    private final SegmentFormat writeFormat;
 
-    private final InternalOutput output;
+    private final SegmentOutput output;
     private final InternalInput input;
 
+    //写入者切换文件时，在这里刷盘、关闭旧文件，以及预分配下一个文件
+    private final ExecutorService roller;
+
+    //同一个进程中有写入者时，用于唤醒读取者
+    private final TailSignal signal;
+    private FileChannel lockChannel;
+
+    private final SegmentCatalogue catalogue;
+    //catalogue是否由写入者或者文件创建事件及时更新，否则，需要重新列出目录中的文件
+    private volatile boolean tracked;
+
     private long ackedSequence = -1;
     private long ackedOffset = -1;
 
+    //framed格式下，最近读取的记录中的时间戳
+    private volatile long readTimestamp;
+
     private final Access access;
 
+    //是否通过O_DIRECT读写
+    private final boolean direct;
+
     public LogPersistence(File dir, LogProperties properties, IndexEntry indexEntry, Access access) {
+        this(dir, properties, indexEntry, access, new SegmentCatalogue(dir));
+    }
+
+    public LogPersistence(File dir, LogProperties properties, IndexEntry indexEntry, Access access, SegmentCatalogue catalogue) {
         this.dir = dir;
         this.properties = properties;
+        this.writeFormat = SegmentFormat.of(properties);
+        this.direct = LogProperties.DIRECT_ENGINE.equalsIgnoreCase(properties.getEngine());
+        this.catalogue = Objects.requireNonNull(catalogue);
 
         this.access = Objects.requireNonNull(access);
+        this.signal = access.isWritable() && access.isReadable() ? new TailSignal() : null;
+        if (access.isWritable()) {
+            lockWriter();
+            this.tracked = true;
+            this.roller = Executors.newSingleThreadExecutor(new SimpleThreadFactory("log-segment-roller", true));
+        } else {
+            this.roller = null;
+        }
+        //必须在读取之前，恢复上次写入的文件
+        WriterPosition position = null;
+        if (access.isWritable()) {
+            position = recover();
+            recoverFrames();
+        }
         if (access.isReadable()) {
             this.input = new InternalInput(indexEntry.getSequence(), indexEntry.getOffset());
         } else {
             this.input = null;
         }
-        this.output = access.isWritable() ? new InternalOutput() : null;
+        if (!access.isWritable()) {
+            this.output = null;
+        } else if (position != null && direct) {
+            this.output = new DirectOutput(position);
+        } else if (position != null) {
+            this.output = new MappedOutput(position);
+        } else {
+            this.output = new InternalOutput();
+        }
+    }
+
+    /**
+     * 持有写入者的文件锁，直到close。获取失败并不影响写入，只是其他进程中的读取者不会等待新的数据
+     */
+    private void lockWriter() {
+        FileChannel channel = null;
+        try {
+            channel = new RandomAccessFile(new File(dir, LOCK_FILE), "rw").getChannel();
+            if (channel.tryLock() != null) {
+                lockChannel = channel;
+                return;
+            }
+            logger.warn("Log directory {} is being written by another process", dir);
+        } catch (IOException | OverlappingFileLockException e) {
+            logger.warn("Cannot lock log directory {}: {}", dir, e.toString());
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return 是否有其他进程持有写入者的文件锁
+     */
+    private boolean isWriterAlive() {
+        File file = new File(dir, LOCK_FILE);
+        if (!file.exists()) {
+            return false;
+        }
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            //共享锁与写入者的排它锁冲突
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            //同一个进程持有锁
+            return true;
+        } catch (IOException e) {
+            logger.warn("Cannot check writer lock of log directory {}", dir, e);
+            return false;
+        }
+    }
+
+    private long lastSequence() {
+        SegmentCatalogue.SegmentInfo last = catalogue.last();
+        return last == null ? 0 : last.getSequence();
+    }
+
+    private void signal() {
+        TailSignal s;
+        if ((s = signal) != null) {
+            s.signal();
+        }
+    }
+
+    /**
+     * 如果上次是mmap或者direct方式写入，并且没有正常关闭，那么正在写入的文件在有效长度之后都是0，
+     * 需要根据{@link WriterPosition}截断
+     *
+     * @return mmap或者direct方式时，返回WriterPosition，否则返回null
+     */
+    private WriterPosition recover() {
+        boolean mmap = direct || LogProperties.MMAP_ENGINE.equalsIgnoreCase(properties.getEngine());
+        if (!mmap && !new File(dir, WriterPosition.FILE_NAME).exists()) {
+            return null;
+        }
+        try {
+            WriterPosition position = WriterPosition.open(dir, true);
+            long sequence = position.sequence();
+            File file = new File(dir, fileName(sequence));
+            if (sequence > 0 && file.length() > position.position()) {
+                try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+                    channel.truncate(position.position());
+                }
+            }
+            if (mmap) {
+                return position;
+            }
+            //改为stream方式写入，读取者以文件大小为准
+            position.roll(0, 0);
+            position.close();
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot recover log file from " + WriterPosition.FILE_NAME, e);
+        }
+    }
+
+    /**
+     * 截断最新的日志文件末尾不完整的记录，写入者才能在它之后继续写入，
+     * 读取者也不会读到半条命令。raw格式的文件无法判断，不做处理。
+     * 切换文件之后，旧文件由后台线程刷盘，所以最新的两个文件都需要检查
+     */
+    private void recoverFrames() {
+        SegmentCatalogue.SegmentInfo last = catalogue.last();
+        if (last == null) {
+            return;
+        }
+        Map.Entry<Long, SegmentCatalogue.SegmentInfo> previous = catalogue.before(last.getSequence()).lastEntry();
+        if (previous != null) {
+            recoverFrames(previous.getValue().getFile());
+        }
+        recoverFrames(last.getFile());
+    }
+
+    private void recoverFrames(File file) {
+        try {
+            SegmentFormat.recover(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot recover log file " + file, e);
+        }
+    }
+
+    /**
+     * 判断已有的日志文件是否与写入者的格式相同，不同则不能在它之后继续写入
+     */
+    private boolean matchFormat(File file) throws IOException {
+        if (file.length() == 0) {
+            return true;
+        }
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            return SegmentFormat.probe(channel::read, channel.size()) == writeFormat;
+        }
     }
 
     public InputStream getInputStream() {
@@ -81,58 +312,60 @@ public class LogPersistence implements Closeable {
         return this.output;
     }
 
+    /**
+     * 将OutputStream已经写入的数据刷到磁盘上，见{@link java.nio.channels.FileChannel#force(boolean)}
+     */
+    public void sync() throws IOException {
+        if (!access.isWritable()) {
+            throw new IllegalStateException("Cannot sync cause it's not writable");
+        }
+        this.output.sync();
+    }
+
     private FileOutputStream createOutput() throws IOException {
-        String[] list = dir.list(LOG_FILTER);
+        SegmentCatalogue.SegmentInfo last = catalogue.last();
         long newSeq = 1L;
-        if (list != null && list.length != 0) {
-            Arrays.sort(list);
-            String last = list[list.length - 1];
-            long seq = Long.parseLong(last.substring(0, 19));
-            if (new File(dir, last).length() >= this.properties.getSegmentBytes()) {
-                newSeq = seq + 1;
+        if (last != null) {
+            if (last.getFile().length() >= this.properties.getSegmentBytes() || !matchFormat(last.getFile())) {
+                newSeq = last.getSequence() + 1;
             } else {
-                newSeq = seq;
+                newSeq = last.getSequence();
             }
         }
-        return new FileOutputStream(new File(dir, fileName(newSeq)), true);
+        FileOutputStream stream = new FileOutputStream(new File(dir, fileName(newSeq)), true);
+        catalogue.add(newSeq);
+        return stream;
     }
 
-    private FileInputStream createInput(long expectedSequence, long[] actualSequence) throws IOException {
-        String[] list = dir.list(LOG_FILTER);
-        if (list == null || list.length == 0) {
-            return null;
+    /**
+     * 打开指定序号的文件，如果不存在，则打开之后的第一个文件。
+     * 文件可能在打开之前被其他进程删除（见{@link Retention.Policy#DROP_OLDEST}），此时也打开之后的文件
+     */
+    private SegmentReader createInput(long expectedSequence, long[] actualSequence, InternalInput input) throws IOException {
+        if (!tracked) {
+            catalogue.reload();
         }
-
-        List<String> files = new ArrayList<>(Arrays.asList(list));
-
-        String target = fileName(expectedSequence);
-        if (files.contains(target)) {
-            actualSequence[0] = expectedSequence;
-            return new FileInputStream(new File(dir, target));
-        } else {
-            files.add(target);
-            files.sort(String::compareTo);
-            int index = files.indexOf(target);
-            if (index == files.size() - 1) {
-                return null;
-            } else {
-                String file = files.get(index + 1);
-                long seq = Long.parseLong(file.substring(0, 19));
-                actualSequence[0] = seq;
-                return new FileInputStream(new File(dir, files.get(1)));
-            }
+        SegmentCatalogue.SegmentInfo info = catalogue.ceiling(expectedSequence);
+        if (info != null && info.getSequence() != expectedSequence && tracked) {
+            //catalogue可能还不知道指定的文件，确认之前不能跳过，否则会丢失中间文件的数据
+            catalogue.reload();
+            info = catalogue.ceiling(expectedSequence);
         }
-    }
-
-    private boolean hasNewFile(long sequence) {
-        String[] list = dir.list(LOG_FILTER);
-        if (list == null || list.length == 0) {
-            return false;
+        for (; info != null; info = catalogue.ceiling(info.getSequence() + 1)) {
+            if (info.getSequence() != expectedSequence) {
+                logger.warn("Log file {} does not exist, skip to {}", fileName(expectedSequence), fileName(info.getSequence()));
+            }
+            try {
+                SegmentReader reader = input.cache != null
+                        ? SegmentReader.openDirect(info.getFile(), input.cache, input::limit)
+                        : SegmentReader.open(info.getFile());
+                actualSequence[0] = info.getSequence();
+                return reader;
+            } catch (NoSuchFileException e) {
+                catalogue.remove(info.getSequence());
+            }
         }
-        List<String> files = Arrays.asList(list);
-        files.sort(String::compareTo);
-        int index = files.indexOf(fileName(sequence));
-        return index < files.size() - 1;
+        return null;
     }
 
     public synchronized void ack(long ackedBytes) {
@@ -142,25 +375,13 @@ public class LogPersistence implements Closeable {
 
         ArrayDeque<IndexEntry> history = this.input.history;
         ackedOffset += ackedBytes;
-        if (!history.isEmpty()) {
-            IndexEntry entry = history.peek();
-            if (ackedOffset >= entry.getOffset()) {
-                ackedOffset -= entry.getOffset();
-
-                history.remove();
-
-                IndexEntry next = history.peek();
-                if (next == null) {
-                    ackedSequence = this.input.curSequence;
-                } else {
-                    ackedSequence = next.getSequence();
-                }
-            } else {
-                ackedSequence = entry.getSequence();
-            }
-        } else {
-            ackedSequence = this.input.curSequence;
+        //一次ack可能跨越多个已经读完的文件，比如AckWindow合并了连续完成的请求
+        IndexEntry entry;
+        while ((entry = history.peek()) != null && ackedOffset >= entry.getOffset()) {
+            ackedOffset -= entry.getOffset();
+            history.remove();
         }
+        ackedSequence = entry == null ? this.input.curSequence : entry.getSequence();
     }
 
     public synchronized IndexEntry getAckedIndex() {
@@ -170,12 +391,23 @@ public class LogPersistence implements Closeable {
         return new IndexEntry(this.ackedSequence, this.ackedOffset);
     }
 
+    /**
+     * framed格式，并且开启了{@link LogProperties#isFrameTimestamp()}时，
+     * 返回最近读取的记录的写入时间，可以用于估算同步的延迟，否则返回0
+     */
+    public long getReadTimestamp() {
+        return readTimestamp;
+    }
+
     private String fileName(long sequence) {
-        return String.format("%019d%s", sequence, SUFFIX);
+        return SegmentCatalogue.fileName(sequence);
     }
 
     private boolean waitForOutput() {
-        return access.isWritable() && !this.output.isClosed();
+        if (access.isWritable()) {
+            return !this.output.isClosed();
+        }
+        return this.input.writerAlive();
     }
 
     @Override
@@ -192,6 +424,24 @@ public class LogPersistence implements Closeable {
             } catch (IOException ignored) {
             }
         }
+        if (this.roller != null) {
+            //等待旧文件刷盘、关闭
+            this.roller.shutdown();
+            try {
+                if (!this.roller.awaitTermination(1, TimeUnit.MINUTES)) {
+                    logger.warn("Timed out waiting for log files of {} to be closed", dir);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (this.lockChannel != null) {
+            try {
+                //关闭channel会释放文件锁
+                this.lockChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
     }
 
     private void checkClosed(boolean closed) throws IOException {
@@ -202,16 +452,55 @@ public class LogPersistence implements Closeable {
 
     private class InternalInput extends InputStream {
 
-        private FileInputStream reader;
+        private SegmentReader reader;
+        //direct方式下，读取者自己的缓存
+        private final ByteBuffer cache;
         private long curSequence;
+        //在当前文件中的读取位置
+        private long position;
+        //当前文件的格式，数据不足以判断时为null
+        private SegmentFormat format;
+        //在当前文件中已经读取的请求报文字节数，raw格式下与position相同
+        private long consumed;
+        //framed格式下，已经校验过的记录内容，读取完之后，再读取下一个记录
+        private ByteBuffer frame = ByteBuffer.allocate(0);
+        //压缩的记录内容
+        private ByteBuffer stored = ByteBuffer.allocate(0);
+        private final ByteBuffer frameHeader = ByteBuffer.allocate(SegmentFormat.MAX_FRAME_HEADER_BYTES);
+        private final byte[] single = new byte[1];
+        private WriterPosition writerPosition;
         private final ArrayDeque<IndexEntry> history = new ArrayDeque<>();
         private boolean closed = false;
 
+        //读取之前的TailSignal.version
+        private long seen;
+        private DirectoryWatcher watcher;
+        private long backoffNanos = MIN_BACKOFF_NANOS;
+        private long writerCheckedAt;
+        private boolean writerAlive;
+
         InternalInput(long sequence, long offset) {
             this.curSequence = sequence;
+            this.cache = direct ? DirectIO.allocate(properties.getReadCacheBytes()) : null;
+            if (!access.isWritable()) {
+                watch();
+            }
             init(offset);
         }
 
+        /**
+         * 必须先注册watcher，再列出目录中的文件，才不会错过新创建的文件
+         */
+        private void watch() {
+            try {
+                watcher = new DirectoryWatcher(dir);
+                catalogue.reload();
+                tracked = true;
+            } catch (IOException e) {
+                logger.warn("Cannot watch log directory {}, fallback to polling", dir, e);
+            }
+        }
+
         private void init(long offset) {
             try {
                 checkAndExit(false, true, offset);
@@ -230,6 +519,12 @@ public class LogPersistence implements Closeable {
 
         @Override
         public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
             boolean eof = false;
             for (;;) {
                 boolean exit = false;
@@ -239,39 +534,210 @@ public class LogPersistence implements Closeable {
                 if (reader == null) {
                     return -1;
                 }
-                int b = reader.read();
-                if (b == -1) {
+                capture();
+                int n = readSegment(b, off, len);
+                if (n == -1) {
                     if (exit) {
                         return -1;
                     }
                 } else {
-                    return b;
+                    backoffNanos = MIN_BACKOFF_NANOS;
+                    return n;
                 }
                 eof = true;
             }
         }
 
-        @Override
-        public int read(byte[] b, int off, int len) throws IOException {
-            boolean eof = false;
-            for (;;) {
-                boolean exit = false;
-                if (eof || reader == null) {
-                    exit = checkAndExit(eof, false, 0);
+        /**
+         * 从当前文件中读取请求报文
+         *
+         * @return 暂时没有可以读取的数据时，返回-1
+         */
+        private int readSegment(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!probe()) {
+                return -1;
+            }
+            int n;
+            if (!format.isFramed()) {
+                int allowed = readable(len);
+                n = allowed == 0 ? -1 : reader.read(ByteBuffer.wrap(b, off, allowed), position);
+                if (n > 0) {
+                    position += n;
                 }
-                if (reader == null) {
+            } else {
+                if (!frame.hasRemaining() && !nextFrame()) {
                     return -1;
                 }
-                int n = reader.read(b, off, len);
-                if (n == -1) {
-                    if (exit) {
-                        return -1;
-                    }
+                n = Math.min(len, frame.remaining());
+                frame.get(b, off, n);
+            }
+            if (n > 0) {
+                consumed += n;
+            }
+            return n;
+        }
+
+        /**
+         * 根据文件头判断当前文件的格式
+         *
+         * @return 数据不足以判断时，返回false
+         */
+        private boolean probe() throws IOException {
+            if (format == null) {
+                format = SegmentFormat.probe(reader, limit());
+                if (format != null && format.isFramed()) {
+                    position = SegmentFormat.SEGMENT_HEADER_BYTES;
+                }
+            }
+            return format != null;
+        }
+
+        /**
+         * 读取并校验下一个记录，记录不完整时，说明写入者还在写，返回false，不改变读取位置
+         */
+        private boolean nextFrame() throws IOException {
+            long available = limit() - position;
+            int headerBytes = format.frameHeaderBytes();
+            if (available < headerBytes) {
+                return false;
+            }
+            frameHeader.clear();
+            frameHeader.limit(headerBytes);
+            if (!SegmentFormat.readFully(reader, frameHeader, position)) {
+                return false;
+            }
+            int length = frameHeader.getInt(0);
+            if (length <= 0) {
+                throw new IOException(String.format("Corrupted frame length %d in log file %s at position %d",
+                        length, fileName(curSequence), position));
+            }
+            if (available - headerBytes < length) {
+                return false;
+            }
+            //压缩的内容先读到stored中，校验之后再解压到frame中
+            ByteBuffer target = format.isCompressed() ? stored : frame;
+            if (target.capacity() < length) {
+                target = ByteBuffer.allocate(length);
+                if (format.isCompressed()) {
+                    stored = target;
                 } else {
-                    return n;
+                    frame = target;
                 }
-                eof = true;
             }
+            target.clear();
+            target.limit(length);
+            boolean complete = SegmentFormat.readFully(reader, target, position + headerBytes);
+            target.flip();
+            if (!complete || SegmentFormat.checksum(frameHeader.array(), headerBytes, target.array(), 0, length) != frameHeader.getInt(4)) {
+                frame.limit(0);
+                if (!complete) {
+                    return false;
+                }
+                throw new IOException(String.format("Corrupted frame in log file %s at position %d",
+                        fileName(curSequence), position));
+            }
+            if (format.isCompressed()) {
+                decompress(length, frameHeader.getInt(format.rawLengthIndex()));
+            }
+            position += headerBytes + length;
+            if (format.hasTimestamp()) {
+                readTimestamp = frameHeader.getLong(8);
+            }
+            return true;
+        }
+
+        private void decompress(int length, int rawLength) throws IOException {
+            if (frame.capacity() < rawLength) {
+                frame = ByteBuffer.allocate(rawLength);
+            }
+            frame.clear();
+            long n = Zstd.decompressByteArray(frame.array(), 0, rawLength, stored.array(), 0, length);
+            if (Zstd.isError(n) || n != rawLength) {
+                frame.limit(0);
+                throw new IOException(String.format("Cannot decompress frame in log file %s at position %d: %s",
+                        fileName(curSequence), position, Zstd.isError(n) ? Zstd.getErrorName(n) : n + " bytes"));
+            }
+            frame.limit(rawLength);
+        }
+
+        /**
+         * 跳过当前文件中offset字节的请求报文。
+         * framed格式下，只读取记录头部，跳过完整的记录，不需要解析RESP报文
+         */
+        private void skipTo(long offset) throws IOException {
+            format = null;
+            frame.limit(0);
+            position = 0;
+            consumed = 0;
+            if (offset <= 0) {
+                return;
+            }
+            if (!probe()) {
+                throw new IOException(String.format("Unable to skip %d bytes", offset));
+            }
+
+            if (!format.isFramed()) {
+                if (reader.size() < offset) {
+                    String msg = String.format("Unable to skip %d bytes", offset);
+                    throw new IOException(msg);
+                }
+                position = offset;
+                consumed = offset;
+                return;
+            }
+
+            long remaining = offset;
+            int headerBytes = format.frameHeaderBytes();
+            while (remaining > 0) {
+                frameHeader.clear();
+                frameHeader.limit(headerBytes);
+                if (!SegmentFormat.readFully(reader, frameHeader, position)) {
+                    throw new IOException(String.format("Unable to skip %d bytes", offset));
+                }
+                int length = frameHeader.getInt(0);
+                if (length <= 0) {
+                    throw new IOException(String.format("Corrupted frame length %d in log file %s at position %d",
+                            length, fileName(curSequence), position));
+                }
+                //offset是解压之后的字节数
+                int rawLength = format.isCompressed() ? frameHeader.getInt(format.rawLengthIndex()) : length;
+                if (rawLength > remaining) {
+                    break;
+                }
+                position += headerBytes + length;
+                remaining -= rawLength;
+            }
+            if (remaining > 0) {
+                //offset落在某个记录的中间
+                if (!nextFrame()) {
+                    throw new IOException(String.format("Unable to skip %d bytes", offset));
+                }
+                frame.position((int) remaining);
+            }
+            consumed = offset;
+        }
+
+        /**
+         * @return 当前文件中是否还有没有读取的数据
+         */
+        private boolean hasRemaining() throws IOException {
+            if (!probe()) {
+                return false;
+            }
+            if (!format.isFramed()) {
+                return reader.size() > position;
+            }
+            if (frame.hasRemaining() || nextFrame()) {
+                return true;
+            }
+            if (reader.size() > position) {
+                //写入者已经切换到新文件，当前文件不会再有新的数据
+                logger.warn("Discard incomplete frame in log file {} at position {}", fileName(curSequence), position);
+            }
+            return false;
         }
 
         private boolean checkAndExit(boolean eof, boolean once, long offset) throws IOException {
@@ -282,7 +748,7 @@ public class LogPersistence implements Closeable {
                     long[] actualSequence = new long[1];
                     synchronized (this) {
                         checkClosed(closed);
-                        reader = createInput(curSequence, actualSequence);
+                        reader = createInput(curSequence, actualSequence, this);
                     }
                     if (reader != null) {
                         if (curSequence != actualSequence[0]) {
@@ -293,16 +759,8 @@ public class LogPersistence implements Closeable {
                         //只有在程序启动时，第一次读取数据时，才会用到offset
                         //从第二次开始，应该都是从0开始读取数据
 
-                        long copyOffset = offset;
-                        while (copyOffset > 0) {
-                            int available = reader.available();
-                            if (available <= 0) {
-                                String msg = String.format("Unable to skip %d bytes", offset);
-                                throw new IOException(msg);
-                            }
-                            long a = Math.min((long) available, copyOffset);
-                            copyOffset -= reader.skip(a);
-                        }
+                        openWriterPosition();
+                        skipTo(offset);
 
                     } else if (once) {
                         return false;
@@ -316,17 +774,17 @@ public class LogPersistence implements Closeable {
                     return false;
                 }
 
-                if (hasNewFile(curSequence)) {
+                openWriterPosition();
+                if (hasNewFile()) {
                     //如果当前文件没有数据，则判断是否有创建新文件
                     //如果有创建新文件，那么以后的数据都会写向新文件
                     //所以，这时候，在当前文件读取完之后，应该转向新文件
-                    if (reader.available() > 0) {
+                    if (hasRemaining()) {
                         //重新判断当前文件是否残留数据
                         return false;
                     } else {
                         //当前文件的已经超过MAX_SIZE时
-                        long size = reader.getChannel().size();
-                        history.offer(new IndexEntry(curSequence, size));
+                        history.offer(new IndexEntry(curSequence, consumed));
                         //关闭当前文件，序列号加一，准备读取新文件
                         eof = false;
                         curSequence ++;
@@ -346,19 +804,124 @@ public class LogPersistence implements Closeable {
             }
         }
 
+        /**
+         * mmap方式下，正在写入的文件在有效长度之后都是0，不能读取
+         *
+         * @return 当前文件最多可以读取的字节数
+         */
+        private int readable(int len) {
+            long remaining = limit() - position;
+            return remaining <= 0 ? 0 : (int) Math.min(len, remaining);
+        }
+
+        /**
+         * @return 当前文件的有效长度，不是正在mmap写入的文件时，以文件大小为准
+         */
+        private long limit() {
+            WriterPosition wp = writerPosition;
+            if (wp == null || wp.sequence() != curSequence) {
+                return Long.MAX_VALUE;
+            }
+            return wp.position();
+        }
+
+        /**
+         * 写入者在创建mmap文件之前，就已经创建了WriterPosition，
+         * 所以，在打开新的文件，或者读到文件末尾时检查即可
+         */
+        private void openWriterPosition() throws IOException {
+            if (writerPosition == null) {
+                writerPosition = WriterPosition.open(dir, false);
+            }
+        }
+
+        private void capture() {
+            TailSignal s;
+            if ((s = signal) != null) {
+                seen = s.version();
+            }
+        }
+
+        /**
+         * 由写入者或者文件创建事件告知最新的文件序号，只有在未知时，才列出目录中的文件
+         */
+        private boolean hasNewFile() {
+            WriterPosition wp = writerPosition;
+            long sequence;
+            if (wp != null && (sequence = wp.sequence()) > 0) {
+                //mmap方式，新文件创建之后才会更新序号
+                if (sequence <= curSequence) {
+                    return false;
+                }
+                if (!catalogue.hasNewer(curSequence)) {
+                    //mmap方式不等待文件事件，catalogue可能还不知道新文件
+                    catalogue.reload();
+                }
+                return true;
+            }
+            if (!tracked) {
+                catalogue.reload();
+            }
+            return catalogue.hasNewer(curSequence);
+        }
+
+        /**
+         * 最多每隔DELAY_MILLIS检查一次其他进程中的写入者是否存在
+         */
+        boolean writerAlive() {
+            long now = System.nanoTime();
+            if (writerCheckedAt == 0 || now - writerCheckedAt >= DELAY_NANOS) {
+                writerAlive = isWriterAlive();
+                writerCheckedAt = now;
+            }
+            return writerAlive;
+        }
+
         private boolean checkAgain = true;
         private boolean parkExit() {
             if (!waitForOutput()) {
                 if (checkAgain) {
                     checkAgain = false;
+                    if (tracked && !access.isWritable()) {
+                        //写入者已经退出，不会再等待文件事件，最后一次列出目录中的文件
+                        catalogue.reload();
+                    }
                     return false;
                 }
                 return true;
             }
-            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DELAY_MILLIS));
+            await();
             return false;
         }
 
+        private void await() {
+            TailSignal s;
+            if ((s = signal) != null) {
+                s.await(seen, DELAY_NANOS);
+                return;
+            }
+            WriterPosition wp = writerPosition;
+            if (wp != null && wp.sequence() > 0) {
+                //mmap方式写入不会产生文件事件
+                LockSupport.parkNanos(backoffNanos);
+                backoffNanos = Math.min(backoffNanos << 1, DELAY_NANOS);
+                return;
+            }
+            DirectoryWatcher w;
+            if ((w = watcher) != null) {
+                try {
+                    w.await(DELAY_MILLIS, catalogue);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ClosedWatchServiceException e) {
+                    watcher = null;
+                    tracked = false;
+                }
+                return;
+            }
+            LockSupport.parkNanos(DELAY_NANOS);
+        }
+
         @Override
         public void close() throws IOException {
             synchronized (this) {
@@ -371,35 +934,115 @@ public class LogPersistence implements Closeable {
             if ((c = reader) != null) {
                 c.close();
             }
+            if ((c = writerPosition) != null) {
+                c.close();
+            }
+            if ((c = watcher) != null) {
+                c.close();
+            }
+        }
+    }
+
+    private abstract class SegmentOutput extends OutputStream {
+
+        volatile boolean closed = false;
+
+        //后台线程中正在刷盘、关闭的旧文件
+        private volatile Future<?> retired;
+
+        /**
+         * 将已经写入的数据刷到磁盘上
+         */
+        abstract void sync() throws IOException;
+
+        /**
+         * 将旧文件的刷盘和关闭交给后台线程，同一时间最多只有一个
+         */
+        void retire(Callable<Void> task) throws IOException {
+            awaitRetired();
+            retired = roller.submit(task);
+        }
+
+        /**
+         * 等待旧文件刷盘完成，sync()需要保证切换文件之前写入的数据也已经落盘
+         */
+        void awaitRetired() throws IOException {
+            Future<?> f;
+            if ((f = retired) == null) {
+                return;
+            }
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while closing log file");
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot close log file", e.getCause());
+            } finally {
+                if (f.isDone() && retired == f) {
+                    retired = null;
+                }
+            }
+        }
+
+        public boolean isClosed() {
+            return closed;
         }
     }
 
-    class InternalOutput extends OutputStream {
+    class InternalOutput extends SegmentOutput {
         private FileOutputStream writer;
         private long size;
-
-        private volatile boolean closed = false;
+        private final FrameEncoder encoder = new FrameEncoder(writeFormat, properties.getCompressionLevel());
 
         @Override
         public void write(int b) throws IOException {
+            if (writeFormat.isFramed()) {
+                write(new byte[] {(byte) b}, 0, 1);
+                return;
+            }
             check();
             writer.write(b);
             size ++;
+            signal();
         }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
             check();
-            writer.write(b, off, len);
-            size += len;
+            if (writeFormat.isFramed()) {
+                if (len == 0) {
+                    return;
+                }
+                writeFrame(b, off, len);
+            } else {
+                writer.write(b, off, len);
+                size += len;
+            }
+            signal();
+        }
+
+        /**
+         * 记录头部和内容通过一次系统调用写入
+         */
+        private void writeFrame(byte[] b, int off, int len) throws IOException {
+            encoder.encode(b, off, len);
+            writeFully(encoder.header(), encoder.payload());
+        }
+
+        private void writeFully(ByteBuffer... buffers) throws IOException {
+            FileChannel channel = writer.getChannel();
+            ByteBuffer last = buffers[buffers.length - 1];
+            while (last.hasRemaining()) {
+                size += channel.write(buffers);
+            }
         }
 
         private void check() throws IOException {
             if (writer == null) {
                 synchronized (this) {
                     checkClosed(closed);
-                    writer = createOutput();
-                    size = writer.getChannel().size();
+                    open();
                 }
             }
             if (size >= properties.getSegmentBytes()) {
@@ -408,16 +1051,29 @@ public class LogPersistence implements Closeable {
                     FileOutputStream s = writer;
                     writer = null;
                     s.flush();
+                    //数据已经写入page cache，读取者可以读到，刷盘和关闭不必在写入的线程中等待
+                    retire(() -> {
+                        try {
+                            s.getChannel().force(false);
+                        } finally {
+                            s.close();
+                        }
+                        return null;
+                    });
 
-                    try {
-                        s.close();
-                    } catch (IOException ignored) {}
-
-                    writer = createOutput();
+                    open();
                 }
             }
         }
 
+        private void open() throws IOException {
+            writer = createOutput();
+            size = writer.getChannel().size();
+            if (size == 0 && writeFormat.isFramed()) {
+                writeFully(writeFormat.segmentHeader());
+            }
+        }
+
         @Override
         public void flush() throws IOException {
             OutputStream w;
@@ -426,8 +1082,13 @@ public class LogPersistence implements Closeable {
             }
         }
 
-        public boolean isClosed() {
-            return closed;
+        @Override
+        void sync() throws IOException {
+            awaitRetired();
+            FileOutputStream w;
+            if ((w = writer) != null) {
+                w.getChannel().force(false);
+            }
         }
 
         @Override
@@ -443,6 +1104,568 @@ public class LogPersistence implements Closeable {
                 o.flush();
                 o.close();
             }
+            signal();
+        }
+    }
+
+    /**
+     * 通过MappedByteBuffer写入预分配的文件，每次写入之后更新{@link WriterPosition}。
+     * 写入和关闭可能在不同的线程中，释放映射之后不能再访问，所以都需要加锁
+     *
+     * 原来文件写满时，在写入的线程中刷盘、关闭旧文件，再创建和映射新文件，每次切换都会有明显的延迟。
+     * 现在后台线程提前准备好下一个文件（{@link #PREALLOCATED_FILE}），切换时只需要截断旧文件和重命名，
+     * 旧文件的刷盘和关闭也交给后台线程。
+     */
+    class MappedOutput extends SegmentOutput {
+        private final WriterPosition position;
+        private final int segmentBytes;
+        private final FrameEncoder encoder = new FrameEncoder(writeFormat, properties.getCompressionLevel());
+
+        private long sequence;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+
+        //后台线程预分配的下一个文件
+        private Future<Segment> next;
+
+        MappedOutput(WriterPosition position) {
+            if (properties.getSegmentBytes() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Segment bytes must not exceed " + Integer.MAX_VALUE + " with mmap engine");
+            }
+            this.position = position;
+            this.segmentBytes = (int) properties.getSegmentBytes();
+            //上次没有正常关闭时留下的
+            File file = new File(dir, PREALLOCATED_FILE);
+            if (file.exists() && !file.delete()) {
+                logger.warn("Cannot delete preallocated log file {}", file);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            try {
+                if (writeFormat.isFramed()) {
+                    if (len > 0) {
+                        writeFrame(b, off, len);
+                    }
+                    return;
+                }
+                while (len > 0) {
+                    check();
+                    int n = Math.min(len, buffer.remaining());
+                    buffer.put(b, off, n);
+                    off += n;
+                    len -= n;
+                }
+                position.update(buffer.position());
+                signal();
+            } catch (InternalError e) {
+                throw fault(e);
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            try {
+                if (writeFormat.isFramed()) {
+                    writeFrame(new byte[] {(byte) b}, 0, 1);
+                    return;
+                }
+                check();
+                buffer.put((byte) b);
+                position.update(buffer.position());
+                signal();
+            } catch (InternalError e) {
+                throw fault(e);
+            }
+        }
+
+        /**
+         * 写入映射的文件时，如果文件系统无法为缺页分配磁盘块（比如磁盘满了），
+         * JVM会抛出InternalError，这里转换为IOException，与其他方式的写入错误一样由调用者处理
+         */
+        private IOException fault(InternalError e) {
+            return new IOException("Failed to write mapped log file " + fileName(sequence), e);
+        }
+
+        /**
+         * 整个记录写入之后，才更新有效长度，读取者不会读到不完整的记录
+         */
+        private void writeFrame(byte[] b, int off, int len) throws IOException {
+            encoder.encode(b, off, len);
+            checkFrame(encoder.frameBytes());
+            buffer.put(encoder.header());
+            buffer.put(encoder.payload());
+            position.update(buffer.position());
+            signal();
+        }
+
+        private void check() throws IOException {
+            checkClosed(closed);
+            if (buffer == null) {
+                open();
+            } else if (!buffer.hasRemaining()) {
+                //文件写满，请求报文可以跨越两个文件，读取者会按顺序读取
+                roll(segmentBytes);
+            }
+        }
+
+        /**
+         * framed格式下，记录不能跨越两个文件，剩余空间不足时切换到新文件，
+         * 记录比segmentBytes还大时，按记录的大小映射文件
+         */
+        private void checkFrame(int frameBytes) throws IOException {
+            checkClosed(closed);
+            if (buffer == null) {
+                open();
+            }
+            if (buffer.remaining() < frameBytes) {
+                int size = buffer.position();
+                int capacity = Math.max(segmentBytes, SegmentFormat.SEGMENT_HEADER_BYTES + frameBytes);
+                if (size > SegmentFormat.SEGMENT_HEADER_BYTES) {
+                    roll(capacity);
+                } else {
+                    //当前文件中还没有记录，直接扩大映射
+                    finish();
+                    map(size, capacity);
+                }
+            }
+        }
+
+        private void open() throws IOException {
+            long last = lastSequence();
+
+            if (last > 0 && position.sequence() == last) {
+                //上次也是mmap方式写入，recover()已经将它截断为有效长度
+                File file = new File(dir, fileName(last));
+                long size = file.length();
+                if (size < segmentBytes && matchFormat(file)) {
+                    sequence = last;
+                    map(size, segmentBytes);
+                    prepare();
+                    return;
+                }
+            }
+            //不在stream方式写入的文件上继续写，避免正在读取它的读取者读到预分配的0
+            sequence = last + 1;
+            map(0, segmentBytes);
+            prepare();
+        }
+
+        private void map(long size, int capacity) throws IOException {
+            channel = new RandomAccessFile(new File(dir, fileName(sequence)), "rw").getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            activate(size);
+        }
+
+        private void activate(long size) {
+            buffer.position((int) size);
+            if (size == 0 && writeFormat.isFramed()) {
+                buffer.put(writeFormat.segmentHeader());
+            }
+            position.roll(sequence, buffer.position());
+            catalogue.add(sequence);
+        }
+
+        /**
+         * 切换到下一个文件。
+         * 旧文件必须在{@link WriterPosition#roll(long, long)}之前截断为有效长度，
+         * 因为读取者看到新的序号之后，就以旧文件的大小为准；刷盘和关闭则交给后台线程
+         */
+        void roll(int capacity) throws IOException {
+            awaitRetired();
+            MappedByteBuffer b = buffer;
+            FileChannel c = channel;
+            buffer = null;
+            channel = null;
+            try {
+                c.truncate(b.position());
+            } catch (IOException e) {
+                release(b, c);
+                throw e;
+            }
+            retire(() -> {
+                try {
+                    //在Linux上，fdatasync同样会写回通过映射修改的页
+                    c.force(false);
+                } finally {
+                    release(b, c);
+                }
+                return null;
+            });
+
+            sequence ++;
+            Segment segment = capacity == segmentBytes ? take() : null;
+            if (segment == null) {
+                map(0, capacity);
+            } else {
+                channel = segment.channel;
+                buffer = segment.buffer;
+                activate(0);
+            }
+            prepare();
+        }
+
+        /**
+         * 在后台线程中预分配下一个文件
+         */
+        private void prepare() {
+            if (next == null) {
+                next = roller.submit(() -> preallocate(segmentBytes));
+            }
+        }
+
+        /**
+         * 取出预分配的文件，并重命名为当前序号的日志文件
+         *
+         * @return 预分配失败时返回null，由调用者直接创建
+         */
+        private Segment take() {
+            Future<Segment> f = next;
+            if (f == null) {
+                return null;
+            }
+            Segment segment;
+            try {
+                segment = f.get();
+            } catch (InterruptedException e) {
+                //预分配的文件留给下次切换
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                next = null;
+                logger.warn("Cannot preallocate log file in {}", dir, e.getCause());
+                return null;
+            }
+            next = null;
+            File file = new File(dir, PREALLOCATED_FILE);
+            try {
+                Files.move(file.toPath(), new File(dir, fileName(sequence)).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                return segment;
+            } catch (IOException e) {
+                logger.warn("Cannot rename preallocated log file {}", file, e);
+                release(segment.buffer, segment.channel);
+                file.delete();
+                return null;
+            }
+        }
+
+        /**
+         * 在后台线程中执行。通过FileChannel分块写入0，文件系统在这里分配磁盘块，
+         * 写入者第一次写到每一页时，不会再因为分配磁盘块而等待；
+         * 只设置文件长度得到的是稀疏文件，磁盘块仍然要在写入者缺页时才分配，磁盘满时还会在映射的写入中出错。
+         * 不通过映射逐页写入，避免在后台线程中为整个文件产生缺页
+         */
+        private Segment preallocate(int capacity) throws IOException {
+            FileChannel c = new RandomAccessFile(new File(dir, PREALLOCATED_FILE), "rw").getChannel();
+            try {
+                ByteBuffer zeros = ByteBuffer.allocate(Math.min(capacity, PREALLOCATE_CHUNK_BYTES));
+                long p = 0;
+                while (p < capacity) {
+                    zeros.clear().limit((int) Math.min(zeros.capacity(), capacity - p));
+                    p += c.write(zeros, p);
+                }
+                MappedByteBuffer b = c.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                return new Segment(c, b);
+            } catch (IOException | RuntimeException e) {
+                c.close();
+                throw e;
+            }
+        }
+
+        private void release(MappedByteBuffer b, FileChannel c) {
+            PlatformDependent.freeDirectBuffer(b);
+            try {
+                c.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * 将文件截断为有效长度，之后读取者以文件大小为准
+         */
+        private void finish() throws IOException {
+            int size = buffer.position();
+            buffer.force();
+            PlatformDependent.freeDirectBuffer(buffer);
+            buffer = null;
+            try {
+                channel.truncate(size);
+            } finally {
+                channel.close();
+            }
+        }
+
+        @Override
+        public void flush() {
+            //数据已经写入page cache，读取者可以直接读到
+        }
+
+        @Override
+        synchronized void sync() throws IOException {
+            awaitRetired();
+            if (buffer != null) {
+                buffer.force();
+            }
+            position.force();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (buffer != null) {
+                    finish();
+                }
+            } finally {
+                discard();
+                position.close();
+                signal();
+            }
+        }
+
+        /**
+         * 在后台线程中删除没有用到的预分配文件
+         */
+        private void discard() {
+            Future<Segment> f = next;
+            if (f == null) {
+                return;
+            }
+            next = null;
+            roller.execute(() -> {
+                try {
+                    Segment segment = f.get();
+                    release(segment.buffer, segment.channel);
+                } catch (Exception ignored) {
+                }
+                new File(dir, PREALLOCATED_FILE).delete();
+            });
+        }
+    }
+
+    /**
+     * 通过O_DIRECT写入，见{@link DirectIO}。
+     * 数据先复制到按块对齐的缓冲区中，缓冲区满或者flush时，按块写入文件，
+     * 最后一个不完整的块用0补齐，并且留在缓冲区中，下次写入时再重写这个块。
+     * 所以与mmap方式一样，文件在有效长度之后可能是0，每次flush之后更新{@link WriterPosition}，
+     * 文件写满或者关闭时，再截断为有效长度。
+     *
+     * 与stream方式一样，写入之前文件已满时才切换文件，所以framed格式的记录不会跨越两个文件
+     */
+    class DirectOutput extends SegmentOutput {
+        private static final int BUFFER_BYTES = 1024 * 1024;
+
+        private final WriterPosition position;
+        private final ByteBuffer buffer = DirectIO.allocate(BUFFER_BYTES);
+        private final FrameEncoder encoder = new FrameEncoder(writeFormat, properties.getCompressionLevel());
+
+        private long sequence;
+        private FileChannel channel;
+        //缓冲区中的数据在文件中的起始位置，按块对齐
+        private long start;
+        //已经写入文件的有效长度
+        private long flushed;
+
+        DirectOutput(WriterPosition position) {
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            checkClosed(closed);
+            if (channel == null) {
+                open();
+            }
+            if (len == 0) {
+                return;
+            }
+            if (start + buffer.position() >= properties.getSegmentBytes()) {
+                roll();
+            }
+            if (writeFormat.isFramed()) {
+                encoder.encode(b, off, len);
+                put(encoder.header());
+                put(encoder.payload());
+            } else {
+                put(ByteBuffer.wrap(b, off, len));
+            }
+        }
+
+        private void put(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                if (!buffer.hasRemaining()) {
+                    writeBuffer();
+                }
+                int n = Math.min(src.remaining(), buffer.remaining());
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + n);
+                buffer.put(slice);
+                src.position(src.position() + n);
+            }
+        }
+
+        /**
+         * 将缓冲区中的数据按块写入文件，不完整的块用0补齐之后写入，然后移到缓冲区的开头
+         */
+        private void writeBuffer() throws IOException {
+            int size = buffer.position();
+            if (start + size == flushed) {
+                return;
+            }
+            int aligned = (int) DirectIO.alignUp(size);
+            for (int i = size; i < aligned; i ++) {
+                buffer.put(i, (byte) 0);
+            }
+            ByteBuffer src = buffer.duplicate();
+            src.flip();
+            src.limit(aligned);
+            while (src.hasRemaining()) {
+                channel.write(src, start + src.position());
+            }
+            flushed = start + size;
+
+            int full = (int) DirectIO.alignDown(size);
+            if (full > 0) {
+                ByteBuffer tail = buffer.duplicate();
+                tail.position(full);
+                tail.limit(size);
+                buffer.clear();
+                buffer.put(tail);
+                start += full;
+            }
+        }
+
+        private void open() throws IOException {
+            long last = lastSequence();
+
+            if (last > 0 && position.sequence() == last) {
+                //上次也是mmap或者direct方式写入，recover()已经将它截断为有效长度
+                File file = new File(dir, fileName(last));
+                long size = file.length();
+                if (size < properties.getSegmentBytes() && matchFormat(file)) {
+                    sequence = last;
+                    open(size);
+                    return;
+                }
+            }
+            //不在stream方式写入的文件上继续写，避免正在读取它的读取者读到补齐的0
+            sequence = last + 1;
+            open(0);
+        }
+
+        private void open(long size) throws IOException {
+            channel = DirectIO.open(new File(dir, fileName(sequence)),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            start = DirectIO.alignDown(size);
+            flushed = size;
+            buffer.clear();
+            if (size > start) {
+                //读出最后一个不完整的块，之后重写
+                buffer.limit(DirectIO.BLOCK_BYTES);
+                while (buffer.position() < size - start) {
+                    if (channel.read(buffer, start) <= 0) {
+                        throw new IOException("Unable to read the last block of log file " + fileName(sequence));
+                    }
+                }
+                buffer.limit(buffer.capacity());
+                buffer.position((int) (size - start));
+            }
+            if (size == 0 && writeFormat.isFramed()) {
+                put(writeFormat.segmentHeader());
+            }
+            position.roll(sequence, size);
+            catalogue.add(sequence);
+        }
+
+        /**
+         * 与mmap方式一样，旧文件必须在{@link WriterPosition#roll(long, long)}之前截断为有效长度，
+         * 刷盘和关闭交给后台线程
+         */
+        private void roll() throws IOException {
+            awaitRetired();
+            writeBuffer();
+            FileChannel c = channel;
+            channel = null;
+            try {
+                c.truncate(flushed);
+            } catch (IOException e) {
+                c.close();
+                throw e;
+            }
+            retire(() -> {
+                try {
+                    c.force(false);
+                } finally {
+                    c.close();
+                }
+                return null;
+            });
+            sequence ++;
+            open(0);
+        }
+
+        /**
+         * 写入之后，读取者才能读到
+         */
+        @Override
+        public synchronized void flush() throws IOException {
+            if (channel != null) {
+                writeBuffer();
+                position.update(flushed);
+                signal();
+            }
+        }
+
+        @Override
+        synchronized void sync() throws IOException {
+            awaitRetired();
+            if (channel != null) {
+                flush();
+                channel.force(false);
+            }
+            position.force();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (channel != null) {
+                    try {
+                        writeBuffer();
+                        channel.force(false);
+                        channel.truncate(flushed);
+                        position.update(flushed);
+                    } finally {
+                        channel.close();
+                    }
+                }
+            } finally {
+                position.close();
+                signal();
+            }
+        }
+    }
+
+    private static class Segment {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        Segment(FileChannel channel, MappedByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
         }
     }
 
@@ -3,12 +3,67 @@ package cn.shijinshi.redis.common.log;
 /**
  * @author Gui Jiahai
  */
-public class LogProperties {
+public class LogProperties implements Cloneable {
+
+    public static final String STREAM_ENGINE = "stream";
+    public static final String MMAP_ENGINE = "mmap";
+    public static final String DIRECT_ENGINE = "direct";
+
+    public static final String RAW_FORMAT = "raw";
+    public static final String FRAMED_FORMAT = "framed";
+
+    public static final String NO_COMPRESSION = "none";
+    public static final String ZSTD_COMPRESSION = "zstd";
+
+    public static final String STOP_BACKUP_POLICY = "stop-backup";
+    public static final String PAUSE_FORWARD_POLICY = "pause-forward";
+    public static final String DROP_OLDEST_POLICY = "drop-oldest";
 
     private String dir = System.getProperty("java.io.tmpdir");
     private long cleanSec = 60;
     private long segmentBytes = 128 * 1024 * 1024;
     private long persistIndexMs = 1000;
+    /**
+     * 日志文件的写入方式，stream、mmap或者direct，见{@link LogPersistence}
+     */
+    private String engine = STREAM_ENGINE;
+    /**
+     * direct方式下，每个读取者的缓存大小，见{@link SegmentReader}
+     */
+    private int readCacheBytes = 4 * 1024 * 1024;
+    /**
+     * 日志文件的格式，raw或者framed，见{@link SegmentFormat}
+     */
+    private String format = RAW_FORMAT;
+    /**
+     * framed格式下，是否在每个记录中写入时间戳
+     */
+    private boolean frameTimestamp = false;
+    /**
+     * 记录内容的压缩方式，none或者zstd，开启压缩时，总是使用framed格式
+     */
+    private String compression = NO_COMPRESSION;
+    private int compressionLevel = 1;
+    /**
+     * 分区数量，大于1时，请求按照key的slot写入不同的子目录，见{@link PartitionedLogger}
+     */
+    private int partitions = 1;
+    /**
+     * 日志文件的总字节数上限，0表示不限制，分区时由各个分区平分，见{@link Retention}
+     */
+    private long retentionBytes = 0;
+    /**
+     * 最早的日志文件的最长保留时间，0表示不限制
+     */
+    private long retentionSec = 0;
+    /**
+     * 达到上限的这个比例时，提前告警
+     */
+    private double retentionWarnRatio = 0.8;
+    /**
+     * 超过上限时的处理方式，stop-backup、pause-forward或者drop-oldest
+     */
+    private String retentionPolicy = STOP_BACKUP_POLICY;
 
     public String getDir() {
         return dir;
@@ -41,4 +96,103 @@ public class LogProperties {
     public void setPersistIndexMs(long persistIndexMs) {
         this.persistIndexMs = persistIndexMs;
     }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public int getReadCacheBytes() {
+        return readCacheBytes;
+    }
+
+    public void setReadCacheBytes(int readCacheBytes) {
+        this.readCacheBytes = readCacheBytes;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public boolean isFrameTimestamp() {
+        return frameTimestamp;
+    }
+
+    public void setFrameTimestamp(boolean frameTimestamp) {
+        this.frameTimestamp = frameTimestamp;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public long getRetentionBytes() {
+        return retentionBytes;
+    }
+
+    public void setRetentionBytes(long retentionBytes) {
+        this.retentionBytes = retentionBytes;
+    }
+
+    public long getRetentionSec() {
+        return retentionSec;
+    }
+
+    public void setRetentionSec(long retentionSec) {
+        this.retentionSec = retentionSec;
+    }
+
+    public double getRetentionWarnRatio() {
+        return retentionWarnRatio;
+    }
+
+    public void setRetentionWarnRatio(double retentionWarnRatio) {
+        this.retentionWarnRatio = retentionWarnRatio;
+    }
+
+    public String getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    public void setRetentionPolicy(String retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+    }
+
+    /**
+     * @return 所有属性都相同的副本，用于每个分区设置自己的目录
+     */
+    public LogProperties copy() {
+        try {
+            return (LogProperties) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
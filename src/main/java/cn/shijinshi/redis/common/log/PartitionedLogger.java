@@ -0,0 +1,137 @@
+package cn.shijinshi.redis.common.log;
+
+import cn.shijinshi.redis.common.protocol.SlotHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * 分区的日志
+ *
+ * 原来所有的请求都写入同一个{@link IndexLogger}，由一个写线程写入，一个同步线程读取，
+ * 吞吐量受限于单个线程。
+ * 分区之后，每个分区是一个独立的IndexLogger，有自己的目录、索引和清除任务，
+ * 请求按照key的slot写入对应的分区，每个分区由自己的写线程和同步线程处理。
+ * 同一个slot的请求总是在同一个分区中，所以同一个key的请求顺序不变，
+ * 与Redis Cluster一样，不同slot之间的请求没有顺序保证。
+ *
+ * {@link LogProperties#getPartitions()}为1时，只有一个分区，目录与原来相同；
+ * 大于1时，每个分区的目录为 dir/partition-序号。
+ * 修改分区数量之前，必须先同步完所有的日志，否则旧的日志不会再被读取，
+ * 所以，启动时如果发现其他分区数量留下的日志文件，则拒绝启动。
+ * 日志文件的总字节数上限（{@link LogProperties#getRetentionBytes()}）由各个分区平分。
+ *
+ * @author Gui Jiahai
+ */
+public class PartitionedLogger implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedLogger.class);
+
+    public static final String PARTITION_PREFIX = "partition-";
+
+    private final IndexLogger[] partitions;
+
+    public PartitionedLogger(LogProperties properties, Access access) {
+        Objects.requireNonNull(properties);
+        int n = properties.getPartitions();
+        if (n <= 0 || n > SlotHash.SLOT_COUNT) {
+            throw new IllegalArgumentException("partitions must be between 1 and " + SlotHash.SLOT_COUNT);
+        }
+
+        File dir = new File(properties.getDir());
+        checkLayout(dir, n);
+
+        this.partitions = new IndexLogger[n];
+        if (n == 1) {
+            this.partitions[0] = new IndexLogger(properties, access);
+            return;
+        }
+        for (int i = 0; i < n; i ++) {
+            LogProperties p = properties.copy();
+            p.setDir(new File(dir, PARTITION_PREFIX + i).getAbsolutePath());
+            if (properties.getRetentionBytes() > 0) {
+                p.setRetentionBytes(Math.max(properties.getRetentionBytes() / n, 1));
+            }
+            this.partitions[i] = new IndexLogger(p, access);
+        }
+        logger.info("Created {} log partitions in {}", n, dir.getAbsolutePath());
+    }
+
+    private static void checkLayout(File dir, int n) {
+        if (n > 1 && hasLogFiles(dir)) {
+            throw new IllegalStateException("Log files without partition exist in " + dir.getAbsolutePath()
+                    + ", please synchronize and remove them before changing partitions");
+        }
+        File[] subDirs = dir.listFiles(file -> file.isDirectory() && file.getName().startsWith(PARTITION_PREFIX));
+        if (subDirs == null) {
+            return;
+        }
+        for (File subDir : subDirs) {
+            int index;
+            try {
+                index = Integer.parseInt(subDir.getName().substring(PARTITION_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if ((n == 1 || index >= n) && hasLogFiles(subDir)) {
+                throw new IllegalStateException("Log files of another partition layout exist in " + subDir.getAbsolutePath()
+                        + ", please synchronize and remove them before changing partitions");
+            }
+        }
+    }
+
+    private static boolean hasLogFiles(File dir) {
+        String[] names = dir.list(LogPersistence.LOG_FILTER);
+        return names != null && names.length > 0;
+    }
+
+    public int size() {
+        return partitions.length;
+    }
+
+    public IndexLogger get(int partition) {
+        return partitions[partition];
+    }
+
+    /**
+     * @return slot所在的分区
+     */
+    public int partition(int slot) {
+        return slot % partitions.length;
+    }
+
+    /**
+     * @return 是否有分区超过配额，并且处理方式为{@link Retention.Policy#PAUSE_FORWARD}
+     */
+    public boolean isForwardPaused() {
+        for (IndexLogger partition : partitions) {
+            Retention retention = partition.getRetention();
+            if (retention != null && retention.isForwardPaused()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param dropListener 任何分区丢弃了没有同步的日志文件之后调用，见{@link Retention.Policy#DROP_OLDEST}
+     */
+    public void setDropListener(Runnable dropListener) {
+        for (IndexLogger partition : partitions) {
+            Retention retention = partition.getRetention();
+            if (retention != null) {
+                retention.setDropListener(dropListener);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (IndexLogger partition : partitions) {
+            partition.close();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package cn.shijinshi.redis.common.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志文件的保留配额
+ *
+ * {@link Cleaner}只删除已经同步完的日志文件，如果target长时间不可用，日志会一直增长，
+ * 直到磁盘写满，broker也就无法工作了。
+ * 所以，写入者定期检查日志文件的总字节数和最早的日志文件的时间：
+ * 1、达到上限的{@link LogProperties#getRetentionWarnRatio()}时，提前告警；
+ * 2、超过上限时，按照{@link Policy}处理，低于上限之后自动恢复。
+ *
+ * 检查的是写入者这边的日志文件，正在写入的文件也计算在内，mmap方式下按预分配的大小计算。
+ *
+ * @author Gui Jiahai
+ */
+public class Retention {
+
+    private static final Logger logger = LoggerFactory.getLogger(Retention.class);
+
+    /**
+     * 超过上限时的处理方式
+     */
+    public enum Policy {
+        /**
+         * 不再备份新的请求，命令仍然由Redis执行，client会收到错误回复，
+         * 已有的日志继续同步，见{@link cn.shijinshi.redis.sync.appender.RetentionAppender}
+         */
+        STOP_BACKUP,
+        /**
+         * 不再转发需要备份的命令，source和target仍然一致，
+         * 见{@link cn.shijinshi.redis.forward.handler.SupportHandler}
+         */
+        PAUSE_FORWARD,
+        /**
+         * 丢弃最早的日志文件，target缺少了这部分数据，需要重新全量复制，
+         * 见{@link #setDropListener(Runnable)}
+         */
+        DROP_OLDEST
+    }
+
+    public enum State {
+        NORMAL, WARNING, EXCEEDED
+    }
+
+    private final File dir;
+    private final SegmentCatalogue catalogue;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final double warnRatio;
+    private final Policy policy;
+
+    private volatile State state = State.NORMAL;
+    private volatile long usedBytes;
+    private volatile Runnable dropListener;
+
+    public Retention(File dir, SegmentCatalogue catalogue, LogProperties properties) {
+        this.dir = Objects.requireNonNull(dir);
+        this.catalogue = Objects.requireNonNull(catalogue);
+        this.maxBytes = properties.getRetentionBytes();
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(properties.getRetentionSec());
+        this.warnRatio = properties.getRetentionWarnRatio();
+        this.policy = policy(properties.getRetentionPolicy());
+        if (warnRatio <= 0 || warnRatio > 1) {
+            throw new IllegalStateException("Retention warn ratio must be in (0, 1]");
+        }
+    }
+
+    private static Policy policy(String policy) {
+        if (LogProperties.STOP_BACKUP_POLICY.equalsIgnoreCase(policy)) {
+            return Policy.STOP_BACKUP;
+        } else if (LogProperties.PAUSE_FORWARD_POLICY.equalsIgnoreCase(policy)) {
+            return Policy.PAUSE_FORWARD;
+        } else if (LogProperties.DROP_OLDEST_POLICY.equalsIgnoreCase(policy)) {
+            return Policy.DROP_OLDEST;
+        } else {
+            throw new IllegalStateException("Unrecognized retention policy, must be stop-backup, pause-forward or drop-oldest");
+        }
+    }
+
+    /**
+     * @return 是否设置了上限
+     */
+    public static boolean isEnabled(LogProperties properties) {
+        return properties.getRetentionBytes() > 0 || properties.getRetentionSec() > 0;
+    }
+
+    public void check() {
+        check(System.currentTimeMillis());
+    }
+
+    void check(long now) {
+        Usage usage = usage(now);
+        if (policy == Policy.DROP_OLDEST && exceeds(usage, 1)) {
+            usage = drop(now, usage);
+        }
+
+        State s = exceeds(usage, 1) ? State.EXCEEDED : exceeds(usage, warnRatio) ? State.WARNING : State.NORMAL;
+        usedBytes = usage.bytes;
+        State previous = state;
+        state = s;
+        if (s == previous) {
+            return;
+        }
+        if (s == State.EXCEEDED) {
+            logger.error("Log files in {} exceed retention quota, {} bytes, oldest {} ms, apply policy {}",
+                    dir, usage.bytes, usage.ageMillis, policy);
+        } else if (s == State.WARNING) {
+            logger.warn("Log files in {} reach retention watermark, {} bytes, oldest {} ms",
+                    dir, usage.bytes, usage.ageMillis);
+        } else {
+            logger.info("Log files in {} are back to normal, {} bytes", dir, usage.bytes);
+        }
+    }
+
+    private boolean exceeds(Usage usage, double ratio) {
+        return (maxBytes > 0 && usage.bytes > maxBytes * ratio)
+                || (maxAgeMillis > 0 && usage.ageMillis > maxAgeMillis * ratio);
+    }
+
+    private Usage usage(long now) {
+        long bytes = 0;
+        long oldest = now;
+        for (SegmentCatalogue.SegmentInfo segment : all().values()) {
+            File file = segment.getFile();
+            long modified = file.lastModified();
+            if (modified == 0 && !file.exists()) {
+                //已经被其他进程中的Cleaner删除
+                catalogue.remove(segment.getSequence());
+                continue;
+            }
+            bytes += file.length();
+            oldest = Math.min(oldest, modified);
+        }
+        return new Usage(bytes, now - oldest);
+    }
+
+    /**
+     * 从最早的日志文件开始删除，直到低于上限，不删除正在写入的文件
+     */
+    private Usage drop(long now, Usage usage) {
+        SegmentCatalogue.SegmentInfo last = catalogue.last();
+        if (last == null) {
+            return usage;
+        }
+        int dropped = 0;
+        for (SegmentCatalogue.SegmentInfo segment : catalogue.before(last.getSequence()).values()) {
+            if (!exceeds(usage, 1)) {
+                break;
+            }
+            File file = segment.getFile();
+            long length = file.length();
+            if (!file.delete() && file.exists()) {
+                logger.warn("Failed to drop log file: {}", file);
+                break;
+            }
+            catalogue.remove(segment.getSequence());
+            dropped ++;
+            //文件按照序号的顺序写入，下一个文件就是最早的
+            SegmentCatalogue.SegmentInfo next = catalogue.ceiling(segment.getSequence());
+            long modified = next == null ? 0 : next.getFile().lastModified();
+            usage = new Usage(usage.bytes - length, modified > 0 ? now - modified : 0);
+        }
+        if (dropped > 0) {
+            logger.error("Dropped {} oldest log files in {} which are not synchronized, target needs full replication",
+                    dropped, dir);
+            Runnable listener;
+            if ((listener = dropListener) != null) {
+                try {
+                    listener.run();
+                } catch (Throwable t) {
+                    logger.error("Failed to notify that log files are dropped", t);
+                }
+            }
+        }
+        return usage;
+    }
+
+    private NavigableMap<Long, SegmentCatalogue.SegmentInfo> all() {
+        return catalogue.before(Long.MAX_VALUE);
+    }
+
+    /**
+     * @param dropListener 丢弃了没有同步的日志文件之后调用
+     */
+    public void setDropListener(Runnable dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return 最近一次检查时，日志文件的总字节数
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return 是否应该不再备份新的请求
+     */
+    public boolean isBackupStopped() {
+        return policy == Policy.STOP_BACKUP && state == State.EXCEEDED;
+    }
+
+    /**
+     * @return 是否应该不再转发需要备份的命令
+     */
+    public boolean isForwardPaused() {
+        return policy == Policy.PAUSE_FORWARD && state == State.EXCEEDED;
+    }
+
+    private static class Usage {
+        private final long bytes;
+        private final long ageMillis;
+
+        Usage(long bytes, long ageMillis) {
+            this.bytes = bytes;
+            this.ageMillis = ageMillis;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package cn.shijinshi.redis.common.log;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 日志文件目录。
+ *
+ * 原来每次创建、打开日志文件，判断是否有新的日志文件，以及清除过期数据时，
+ * 都需要列出目录中的文件，解析文件名并排序，日志文件很多时，开销很大。
+ * 现在，启动时列出一次，之后：
+ * 1、写入者创建日志文件时，调用{@link #add(long)}；
+ * 2、写入者在其他进程中时，由每个文件创建事件调用{@link #add(long)}，事件溢出时调用{@link #reload()}；
+ * 3、{@link Cleaner}删除日志文件时，调用{@link #remove(long)}。
+ *
+ * @author Gui Jiahai
+ */
+public class SegmentCatalogue {
+
+    private final File dir;
+    private final NavigableMap<Long, SegmentInfo> segments = new ConcurrentSkipListMap<>();
+
+    public SegmentCatalogue(File dir) {
+        this.dir = dir;
+        reload();
+    }
+
+    /**
+     * 重新列出目录中的日志文件
+     */
+    public synchronized void reload() {
+        String[] list = dir.list(LogPersistence.LOG_FILTER);
+        Set<Long> sequences = new HashSet<>();
+        if (list != null) {
+            for (String name : list) {
+                long sequence = Long.parseLong(name.substring(0, 19));
+                sequences.add(sequence);
+                add(sequence);
+            }
+        }
+        //不能先清空，其他线程可能正在查找
+        segments.keySet().retainAll(sequences);
+    }
+
+    public void add(long sequence) {
+        segments.computeIfAbsent(sequence, s -> new SegmentInfo(s, new File(dir, fileName(s))));
+    }
+
+    public void remove(long sequence) {
+        segments.remove(sequence);
+    }
+
+    /**
+     * @return 最新的日志文件，没有则返回null
+     */
+    public SegmentInfo last() {
+        Map.Entry<Long, SegmentInfo> entry = segments.lastEntry();
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * @return 序号大于或等于sequence的第一个日志文件，没有则返回null
+     */
+    public SegmentInfo ceiling(long sequence) {
+        Map.Entry<Long, SegmentInfo> entry = segments.ceilingEntry(sequence);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * @return 是否有序号大于sequence的日志文件
+     */
+    public boolean hasNewer(long sequence) {
+        return segments.higherKey(sequence) != null;
+    }
+
+    /**
+     * @return 序号小于sequence的日志文件
+     */
+    public NavigableMap<Long, SegmentInfo> before(long sequence) {
+        return segments.headMap(sequence, false);
+    }
+
+    public int size() {
+        return segments.size();
+    }
+
+    public static String fileName(long sequence) {
+        return String.format("%019d%s", sequence, LogPersistence.SUFFIX);
+    }
+
+    public static class SegmentInfo {
+        private final long sequence;
+        private final File file;
+
+        SegmentInfo(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+}
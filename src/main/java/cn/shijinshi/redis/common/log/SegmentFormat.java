@@ -0,0 +1,261 @@
+package cn.shijinshi.redis.common.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 日志文件的格式，见{@link LogProperties#getFormat()}。
+ *
+ * 1、raw：直接拼接的RESP报文，没有任何校验。进程崩溃时，文件末尾可能残留半条命令；
+ * 2、framed：文件以{@link #SEGMENT_HEADER_BYTES}字节的文件头开始，
+ *    格式为：魔数(4字节) + 版本(1字节) + 标志(1字节) + 保留(2字节)，之后是一个个记录，
+ *    每个记录的格式为：长度(4字节) + 校验和(4字节) + [时间戳(8字节)] + [压缩前的长度(4字节)] + 内容。
+ *    时间戳和压缩都是可选的，由文件头中的标志决定。长度是内容在文件中的长度，
+ *    校验和覆盖长度和校验和之后的所有字节，所以不需要解压也能校验。
+ *
+ * 每个记录包含一条或多条完整的请求报文，并且不会跨越两个文件，
+ * 所以，截断末尾不完整的记录之后，文件中都是完整的请求报文。
+ * 读取者按文件头判断格式，同一个目录中可以同时存在不同格式的文件。
+ *
+ * 校验和使用CRC32，而不是CRC32C：java.util.zip.CRC32C需要Java 9，
+ * 而CRC32在Java 8中已经有硬件加速。
+ *
+ * @author Gui Jiahai
+ */
+final class SegmentFormat {
+
+    static final int SEGMENT_HEADER_BYTES = 8;
+    static final int MAX_FRAME_HEADER_BYTES = 20;
+
+    static final SegmentFormat RAW = new SegmentFormat(false, 0);
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentFormat.class);
+
+    //第一个字节为0，与RESP报文的第一个字节'*'不同
+    private static final int MAGIC = 0x00524C46;
+    private static final byte VERSION = 1;
+    private static final int FLAG_TIMESTAMP = 1;
+    private static final int FLAG_ZSTD = 2;
+    private static final int FLAGS = FLAG_TIMESTAMP | FLAG_ZSTD;
+
+    private final boolean framed;
+    private final int flags;
+
+    private SegmentFormat(boolean framed, int flags) {
+        this.framed = framed;
+        this.flags = flags;
+    }
+
+    static SegmentFormat of(LogProperties properties) {
+        boolean zstd = LogProperties.ZSTD_COMPRESSION.equalsIgnoreCase(properties.getCompression());
+        //压缩的数据必须放在记录中
+        if (!zstd && !LogProperties.FRAMED_FORMAT.equalsIgnoreCase(properties.getFormat())) {
+            return RAW;
+        }
+        int flags = 0;
+        if (properties.isFrameTimestamp()) {
+            flags |= FLAG_TIMESTAMP;
+        }
+        if (zstd) {
+            flags |= FLAG_ZSTD;
+        }
+        return new SegmentFormat(true, flags);
+    }
+
+    boolean isFramed() {
+        return framed;
+    }
+
+    boolean hasTimestamp() {
+        return (flags & FLAG_TIMESTAMP) != 0;
+    }
+
+    boolean isCompressed() {
+        return (flags & FLAG_ZSTD) != 0;
+    }
+
+    /**
+     * @return 每个记录的头部长度，raw格式为0
+     */
+    int frameHeaderBytes() {
+        if (!framed) {
+            return 0;
+        }
+        return 8 + (hasTimestamp() ? 8 : 0) + (isCompressed() ? 4 : 0);
+    }
+
+    /**
+     * @return 记录头部中压缩前的长度的位置
+     */
+    int rawLengthIndex() {
+        return hasTimestamp() ? 16 : 8;
+    }
+
+    ByteBuffer segmentHeader() {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.putInt(MAGIC).put(VERSION).put((byte) flags).putShort((short) 0);
+        header.flip();
+        return header;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SegmentFormat that = (SegmentFormat) o;
+        return framed == that.framed && flags == that.flags;
+    }
+
+    @Override
+    public int hashCode() {
+        return (framed ? 31 : 0) + flags;
+    }
+
+    @Override
+    public String toString() {
+        if (!framed) {
+            return "raw";
+        }
+        return "framed" + (hasTimestamp() ? "+timestamp" : "") + (isCompressed() ? "+zstd" : "");
+    }
+
+    /**
+     * 根据文件头判断文件的格式
+     *
+     * @param limit 文件的有效长度
+     * @return 数据不足以判断时，返回null
+     */
+    static SegmentFormat probe(Source source, long limit) throws IOException {
+        int len = (int) Math.min(limit, SEGMENT_HEADER_BYTES);
+        if (len <= 0) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.limit(len);
+        while (header.hasRemaining()) {
+            if (source.read(header, header.position()) <= 0) {
+                break;
+            }
+        }
+        int n = header.position();
+        for (int i = 0; i < n && i < 4; i ++) {
+            if (header.get(i) != (byte) (MAGIC >>> (24 - i * 8))) {
+                return RAW;
+            }
+        }
+        if (n < SEGMENT_HEADER_BYTES) {
+            //写入者正在写文件头
+            return null;
+        }
+        if (header.get(4) != VERSION || header.getShort(6) != 0) {
+            return RAW;
+        }
+        int flags = header.get(5);
+        if ((flags & ~FLAGS) != 0) {
+            throw new IOException("Unsupported log file flags: " + flags);
+        }
+        return new SegmentFormat(true, flags);
+    }
+
+    /**
+     * 在写入者打开最新的日志文件之前调用，截断末尾不完整或者校验失败的记录。
+     * 只需要依次读取记录头部和计算校验和，不需要解析RESP报文，也不需要解压。
+     *
+     * 写入者切换文件之后，旧文件由后台线程刷盘，所以最新的两个文件都需要检查。
+     *
+     * @return 截断的字节数
+     */
+    static long recover(File file) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "rw").getChannel()) {
+            long size = channel.size();
+            SegmentFormat format = probe(channel::read, size);
+            if (format == null) {
+                //连文件头都不完整，重新写入
+                channel.truncate(0);
+                return size;
+            }
+            if (!format.isFramed()) {
+                return 0;
+            }
+
+            int headerBytes = format.frameHeaderBytes();
+            ByteBuffer header = ByteBuffer.allocate(headerBytes);
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            CRC32 crc = new CRC32();
+            long position = SEGMENT_HEADER_BYTES;
+            while (position < size) {
+                header.clear();
+                if (!readFully(channel::read, header, position)) {
+                    break;
+                }
+                int length = header.getInt(0);
+                if (length <= 0 || position + headerBytes + length > size) {
+                    break;
+                }
+                crc.reset();
+                crc.update(header.array(), 8, headerBytes - 8);
+                long p = position + headerBytes;
+                int remaining = length;
+                while (remaining > 0) {
+                    chunk.clear();
+                    chunk.limit(Math.min(remaining, chunk.capacity()));
+                    if (!readFully(channel::read, chunk, p)) {
+                        break;
+                    }
+                    crc.update(chunk.array(), 0, chunk.limit());
+                    p += chunk.limit();
+                    remaining -= chunk.limit();
+                }
+                if (remaining > 0 || (int) crc.getValue() != header.getInt(4)) {
+                    break;
+                }
+                position = p;
+            }
+            if (position < size) {
+                logger.warn("Truncate torn frames of log file {} from {} to {}", file, size, position);
+                channel.truncate(position);
+                channel.force(true);
+            }
+            return size - position;
+        }
+    }
+
+    static boolean readFully(Source source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = source.read(buffer, position);
+            if (n <= 0) {
+                return false;
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    /**
+     * 计算一个记录的校验和，覆盖头部中长度和校验和之后的字节，以及内容
+     */
+    static int checksum(byte[] header, int headerBytes, byte[] b, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(header, 8, headerBytes - 8);
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 按位置读取文件，{@link FileChannel#read(ByteBuffer, long)}，或者{@link SegmentReader}
+     */
+    interface Source {
+        int read(ByteBuffer dst, long position) throws IOException;
+    }
+}
@@ -0,0 +1,122 @@
+package cn.shijinshi.redis.common.log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongSupplier;
+
+/**
+ * 读取者按位置读取一个日志文件
+ *
+ * direct方式下（见{@link LogProperties#DIRECT_ENGINE}），通过O_DIRECT读取，数据不会留在page cache中，
+ * 也就没有内核的预读，所以每次按块对齐读取一大段到自己的缓存中，
+ * 缓存的大小由{@link LogProperties#getReadCacheBytes()}限制，见{@link Direct}。
+ *
+ * @author Gui Jiahai
+ */
+abstract class SegmentReader implements SegmentFormat.Source, Closeable {
+
+    final FileChannel channel;
+
+    SegmentReader(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    static SegmentReader open(File file) throws IOException {
+        return new Plain(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * @param cache 按块对齐的缓存，同一个读取者的文件依次使用，见{@link DirectIO#allocate(int)}
+     * @param limit 当前文件的有效长度，之后的数据可能还没有写入
+     */
+    static SegmentReader openDirect(File file, ByteBuffer cache, LongSupplier limit) throws IOException {
+        return new Direct(DirectIO.open(file, StandardOpenOption.READ), cache, limit);
+    }
+
+    /**
+     * @return 到达文件末尾时返回-1
+     */
+    @Override
+    public abstract int read(ByteBuffer dst, long position) throws IOException;
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static class Plain extends SegmentReader {
+
+        Plain(FileChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+    }
+
+    private static class Direct extends SegmentReader {
+        private final ByteBuffer cache;
+        private final LongSupplier limit;
+        //缓存中数据在文件中的范围[start, end)
+        private long start = 0;
+        private long end = 0;
+
+        Direct(FileChannel channel, ByteBuffer cache, LongSupplier limit) {
+            super(channel);
+            this.cache = cache;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (position < start || position >= end) {
+                fill(position);
+                if (position >= end) {
+                    return -1;
+                }
+            }
+            int n = (int) Math.min(dst.remaining(), end - position);
+            ByteBuffer src = cache.duplicate();
+            src.limit((int) (position - start) + n);
+            src.position((int) (position - start));
+            dst.put(src);
+            return n;
+        }
+
+        /**
+         * 从position所在的块开始，读满缓存或者读到文件末尾。
+         * 写入者会反复重写最后一个不完整的块，所以只缓存读取之前的有效长度以内的数据，
+         * 之后的数据可能是还没有写入的0
+         */
+        private void fill(long position) throws IOException {
+            long valid = limit.getAsLong();
+            start = DirectIO.alignDown(position);
+            end = start;
+            cache.clear();
+            while (cache.hasRemaining()) {
+                int n = channel.read(cache, start + cache.position());
+                //读到不完整的块，说明已经到达文件末尾，不能再从不对齐的位置读取
+                if (n <= 0 || n % DirectIO.BLOCK_BYTES != 0) {
+                    break;
+                }
+            }
+            end = Math.min(start + cache.position(), valid);
+            if (end < start) {
+                end = start;
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package cn.shijinshi.redis.common.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 同一个进程中（{@link Access#RW}），写入者通知读取者有新的数据。
+ *
+ * 读取者在读取之前记下{@link #version()}，读到文件末尾时，
+ * 如果version没有变化，则等待写入者唤醒，而不是固定park一段时间再重试。
+ *
+ * @author Gui Jiahai
+ */
+class TailSignal {
+
+    private final AtomicLong version = new AtomicLong();
+    private volatile Thread waiter;
+
+    long version() {
+        return version.get();
+    }
+
+    void signal() {
+        version.incrementAndGet();
+        Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * 如果version仍然是seen，则等待{@link #signal()}，最多等待nanos纳秒
+     */
+    void await(long seen, long nanos) {
+        waiter = Thread.currentThread();
+        //先设置waiter，再检查version，与signal()的顺序相反，不会错过唤醒
+        if (version.get() == seen) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        waiter = null;
+    }
+}
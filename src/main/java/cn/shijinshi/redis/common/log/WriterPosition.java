@@ -0,0 +1,119 @@
+package cn.shijinshi.redis.common.log;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * mmap方式写入日志时（见{@link LogProperties#MMAP_ENGINE}），日志文件是预分配的；direct方式写入时（见{@link LogProperties#DIRECT_ENGINE}），
+ * 最后一个块用0补齐。有效数据之后都是0，读取者无法通过文件大小判断是否还有新的数据，
+ * 所以，由写入者在这个文件中记录正在写入的日志文件的序号，以及它的有效长度。
+ *
+ * 这个文件同样通过mmap共享给读取者（包括其他进程），更新和读取都不需要系统调用。
+ * 格式为：序号(8字节) + 有效长度(8字节)，序号为0表示没有正在mmap写入的文件，
+ * 此时，日志文件的大小就是有效长度。
+ *
+ * 日志文件写满或者关闭时，写入者会将它截断为有效长度，然后再更新这里的序号，
+ * 所以，对于序号不一致的日志文件，读取者直接以文件大小为准。
+ *
+ * @author Gui Jiahai
+ */
+class WriterPosition implements Closeable {
+
+    static final String FILE_NAME = "writer.pos";
+
+    private static final int SEQUENCE_INDEX = 0;
+    private static final int POSITION_INDEX = 8;
+    private static final int SIZE = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * 只用于内存屏障，见{@link #fence()}
+     */
+    private volatile int fence;
+
+    private WriterPosition(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param writable 为true时，如果文件不存在，则创建
+     * @return 如果不可写，并且文件不存在，则返回null
+     */
+    static WriterPosition open(File dir, boolean writable) throws IOException {
+        File file = new File(dir, FILE_NAME);
+        if (!writable && !file.exists()) {
+            return null;
+        }
+        FileChannel channel = new RandomAccessFile(file, writable ? "rw" : "r").getChannel();
+        try {
+            if (channel.size() < SIZE && !writable) {
+                //写入者还没有完成初始化
+                channel.close();
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            return new WriterPosition(channel, buffer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long sequence() {
+        long sequence = buffer.getLong(SEQUENCE_INDEX);
+        //先读取序号，再读取有效长度，不能重排序
+        fence();
+        return sequence;
+    }
+
+    long position() {
+        return buffer.getLong(POSITION_INDEX);
+    }
+
+    /**
+     * 在日志数据写入之后调用
+     */
+    void update(long position) {
+        fence();
+        buffer.putLong(POSITION_INDEX, position);
+    }
+
+    /**
+     * 切换到新的日志文件，旧的日志文件必须已经被截断为有效长度。
+     * 先将有效长度置为0，再更新序号，这样，读取者不会用旧文件的长度去读取新文件
+     */
+    void roll(long sequence, long position) {
+        buffer.putLong(POSITION_INDEX, 0);
+        fence();
+        buffer.putLong(SEQUENCE_INDEX, sequence);
+        fence();
+        buffer.putLong(POSITION_INDEX, position);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * 写入volatile字段之后再读取，前后的内存操作不会被重排序
+     */
+    private void fence() {
+        fence = 0;
+        int ignored = fence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        PlatformDependent.freeDirectBuffer(buffer);
+        channel.close();
+    }
+}
@@ -11,8 +11,36 @@ public class AppenderProperties {
     public static final String SYNC_TYPE = "sync";
     public static final String NO_TYPE = "no";
 
+    public static final String BLOCK_OVERFLOW = "block";
+    public static final String SYNC_OVERFLOW = "sync";
+    public static final String FAIL_OVERFLOW = "fail";
+
     private String type = ASYNC_TYPE;
 
+    /**
+     * 仅对sync有效，每次fsync最多包含的请求数
+     */
+    private int batchSize = 1024;
+
+    /**
+     * 仅对sync有效，每次fsync之前，最多等待多少微秒以凑够batchSize个请求，
+     * 0表示不等待，只写入已经到达的请求
+     */
+    private long batchDelayMicros = 0;
+
+    /**
+     * 仅对async有效，缓冲区的字节数，日志分区时由各个分区平分
+     */
+    private int bufferBytes = 32 * 1024 * 1024;
+
+    /**
+     * 仅对async有效，缓冲区满时的处理方式：
+     * block：等待写线程腾出空间，等待的是到Redis的连接的EventLoop，这个连接上所有client的回复都会暂停；
+     * sync：直接写入文件；
+     * fail：不备份这个请求，回复client错误
+     */
+    private String overflow = SYNC_OVERFLOW;
+
     private final LogProperties log = new LogProperties();
 
     public String getType() {
@@ -23,6 +51,38 @@ public class AppenderProperties {
         this.type = type;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchDelayMicros() {
+        return batchDelayMicros;
+    }
+
+    public void setBatchDelayMicros(long batchDelayMicros) {
+        this.batchDelayMicros = batchDelayMicros;
+    }
+
+    public int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    public void setBufferBytes(int bufferBytes) {
+        this.bufferBytes = bufferBytes;
+    }
+
+    public String getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(String overflow) {
+        this.overflow = overflow;
+    }
+
     public LogProperties getLog() {
         return log;
     }
@@ -25,10 +25,14 @@ public class BrokerProperties {
 
     private final AppenderProperties appender = new AppenderProperties();
 
+    private final ForwardProperties forward = new ForwardProperties();
+
     private final RedisProperties source = new RedisProperties();
 
     private final RedisProperties target = new RedisProperties();
 
+    private final SyncProperties sync = new SyncProperties();
+
     private final ZookeeperProperties zookeeper = new ZookeeperProperties();
 
     private String replicationPath;
@@ -104,6 +108,10 @@ public class BrokerProperties {
         return appender;
     }
 
+    public ForwardProperties getForward() {
+        return forward;
+    }
+
     public RedisProperties getSource() {
         return source;
     }
@@ -112,6 +120,10 @@ public class BrokerProperties {
         return target;
     }
 
+    public SyncProperties getSync() {
+        return sync;
+    }
+
     public ZookeeperProperties getZookeeper() {
         return zookeeper;
     }
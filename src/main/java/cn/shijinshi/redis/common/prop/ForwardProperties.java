@@ -0,0 +1,157 @@
+package cn.shijinshi.redis.common.prop;
+
+/**
+ * 转发相关的配置
+ *
+ * @author Gui Jiahai
+ */
+public class ForwardProperties {
+
+    /**
+     * 网络传输方式，nio或者epoll，参考{@link cn.shijinshi.redis.forward.Transport}
+     */
+    private String transport = "nio";
+
+    /**
+     * 接收连接的线程数，大于1时需要epoll，通过SO_REUSEPORT在同一个端口上绑定多个channel
+     */
+    private int acceptors = 1;
+
+    /**
+     * 是否将redis的回复报文直接（不复制）转发给client，
+     * 如果为false，则每个回复报文都会复制为字节数组
+     */
+    private boolean directReply = true;
+
+    /**
+     * 每个client连接预先分配的ReplySlot数量，pipeline更深时会自动扩容，
+     * 参考{@link cn.shijinshi.redis.forward.server.ReplyRing}
+     */
+    private int replyRingSize = 16;
+
+    /**
+     * 是否合并flush操作，参考{@link cn.shijinshi.redis.forward.FlushConsolidator}
+     */
+    private boolean flushConsolidation = true;
+
+    /**
+     * 推迟的flush达到这个数量时，立即执行flush
+     */
+    private int flushMaxWrites = 64;
+
+    /**
+     * 不在读取过程中的flush，最多推迟的微秒数，
+     * 0表示在event loop执行完已经提交的任务之后执行
+     */
+    private long flushDelayMicros = 0;
+
+    /**
+     * 是否为每个处理client连接的EventLoop，单独建立一个到Redis的连接，并注册在同一个EventLoop上，
+     * 这样，请求和回复报文都不需要跨线程传递
+     */
+    private boolean loopAffinity = false;
+
+    /**
+     * 到Redis节点的连接数量，每个请求选择处理中请求最少的连接，
+     * 参考{@link cn.shijinshi.redis.forward.client.ConnectionPool}
+     */
+    private int poolSize = 1;
+
+    /**
+     * 专门用于阻塞命令（BLPOP、BRPOP等）的连接数量，为0时，阻塞命令与普通命令共享连接
+     */
+    private int blockingPoolSize = 1;
+
+    /**
+     * 每个连接最多的处理中请求数量，超过之后直接返回错误，0表示不限制
+     */
+    private int maxInFlight = 0;
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public boolean isDirectReply() {
+        return directReply;
+    }
+
+    public void setDirectReply(boolean directReply) {
+        this.directReply = directReply;
+    }
+
+    public int getReplyRingSize() {
+        return replyRingSize;
+    }
+
+    public void setReplyRingSize(int replyRingSize) {
+        this.replyRingSize = replyRingSize;
+    }
+
+    public boolean isFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public void setFlushConsolidation(boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
+
+    public int getFlushMaxWrites() {
+        return flushMaxWrites;
+    }
+
+    public void setFlushMaxWrites(int flushMaxWrites) {
+        this.flushMaxWrites = flushMaxWrites;
+    }
+
+    public long getFlushDelayMicros() {
+        return flushDelayMicros;
+    }
+
+    public void setFlushDelayMicros(long flushDelayMicros) {
+        this.flushDelayMicros = flushDelayMicros;
+    }
+
+    public boolean isLoopAffinity() {
+        return loopAffinity;
+    }
+
+    public void setLoopAffinity(boolean loopAffinity) {
+        this.loopAffinity = loopAffinity;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getBlockingPoolSize() {
+        return blockingPoolSize;
+    }
+
+    public void setBlockingPoolSize(int blockingPoolSize) {
+        this.blockingPoolSize = blockingPoolSize;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+}
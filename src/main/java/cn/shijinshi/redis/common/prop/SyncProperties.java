@@ -0,0 +1,36 @@
+package cn.shijinshi.redis.common.prop;
+
+/**
+ * 同步相关的配置
+ *
+ * @author Gui Jiahai
+ */
+public class SyncProperties {
+
+    /**
+     * 每个synchronizer最多的处理中（已发送给target，还没有收到回复）请求数量，
+     * 参考{@link cn.shijinshi.redis.sync.AckWindow}
+     */
+    private int windowSize = 4096;
+
+    /**
+     * 每个synchronizer处理中请求的最多字节数，按照日志中的字节数计算
+     */
+    private long windowBytes = 16 * 1024 * 1024;
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public long getWindowBytes() {
+        return windowBytes;
+    }
+
+    public void setWindowBytes(long windowBytes) {
+        this.windowBytes = windowBytes;
+    }
+}
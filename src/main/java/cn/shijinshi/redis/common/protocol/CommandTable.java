@@ -0,0 +1,164 @@
+package cn.shijinshi.redis.common.protocol;
+
+import cn.shijinshi.redis.common.util.UnsafeByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 命令表，不区分大小写地将命令名映射为对应的值。
+ *
+ * 通过HashMap查找时，需要先将命令复制为UnsafeByteString，
+ * 而UnsafeByteString计算hash和equals时，对每个字节都需要调用Character.toLowerCase。
+ *
+ * CommandTable在创建时，会寻找一个seed，使得所有命令的hash都不冲突（完美哈希），
+ * 查找时直接在ByteBuf上计算hash，然后最多与一个命令进行比较，不会产生任何对象。
+ * 命令表创建之后就不会再改变，所以可以被多个线程共享。
+ *
+ * @author Gui Jiahai
+ */
+public final class CommandTable<V> {
+
+    private static final int MAX_SEEDS = 1024;
+
+    private static final byte[] LOWER = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            LOWER[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    private final byte[][] keys;
+    private final UnsafeByteString[] names;
+    private final Object[] values;
+
+    /**
+     * slot到命令下标的映射，0表示没有命令，否则为下标加1
+     */
+    private final short[] slots;
+    private final int mask;
+    private final int seed;
+
+    private CommandTable(byte[][] keys, Object[] values, short[] slots, int seed) {
+        this.keys = keys;
+        this.values = values;
+        this.slots = slots;
+        this.mask = slots.length - 1;
+        this.seed = seed;
+        this.names = new UnsafeByteString[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            names[i] = new UnsafeByteString(keys[i]);
+        }
+    }
+
+    public static <V> CommandTable<V> create(Map<String, V> commands) {
+        int n = commands.size();
+        if (n >= Short.MAX_VALUE) {
+            throw new IllegalArgumentException("too many commands: " + n);
+        }
+        byte[][] keys = new byte[n][];
+        Object[] values = new Object[n];
+        int i = 0;
+        for (Map.Entry<String, V> entry : commands.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            for (int j = 0; j < key.length; j++) {
+                key[j] = LOWER[key[j] & 0xff];
+            }
+            keys[i] = key;
+            values[i] = entry.getValue();
+            i ++;
+        }
+
+        int size = Integer.highestOneBit(Math.max(n, 1) * 4 - 1) << 1;
+        while (true) {
+            for (int seed = 1; seed <= MAX_SEEDS; seed++) {
+                short[] slots = tryBuild(keys, size, seed);
+                if (slots != null) {
+                    return new CommandTable<>(keys, values, slots, seed);
+                }
+            }
+            size <<= 1;
+        }
+    }
+
+    private static short[] tryBuild(byte[][] keys, int size, int seed) {
+        short[] slots = new short[size];
+        int mask = size - 1;
+        for (int i = 0; i < keys.length; i++) {
+            byte[] key = keys[i];
+            int h = seed;
+            for (byte b : key) {
+                h = (h ^ b) * 0x01000193;
+            }
+            int slot = (h ^ (h >>> 15)) & mask;
+            if (slots[slot] != 0) {
+                if (Arrays.equals(keys[slots[slot] - 1], key)) {
+                    throw new IllegalArgumentException("duplicated command: " + new String(key, StandardCharsets.UTF_8));
+                }
+                return null;
+            }
+            slots[slot] = (short) (i + 1);
+        }
+        return slots;
+    }
+
+    /**
+     * @return buffer中从index开始、长度为length的命令所对应的下标，如果不存在，则返回-1
+     */
+    public int indexOf(ByteBuf buffer, int index, int length) {
+        int h = seed;
+        int end = index + length;
+        for (int i = index; i < end; i++) {
+            h = (h ^ LOWER[buffer.getByte(i) & 0xff]) * 0x01000193;
+        }
+        int k = slots[(h ^ (h >>> 15)) & mask] - 1;
+        if (k < 0) {
+            return -1;
+        }
+        byte[] key = keys[k];
+        if (key.length != length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (LOWER[buffer.getByte(index + i) & 0xff] != key[i]) {
+                return -1;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * @return 命令所对应的下标，如果不存在，则返回-1。
+     *          会复制命令的内容，仅用于不经过解码器的请求报文
+     */
+    public int indexOf(UnsafeByteString command) {
+        byte[] bytes = command.getBytes();
+        return indexOf(Unpooled.wrappedBuffer(bytes), 0, bytes.length);
+    }
+
+    /**
+     * @return 小写的命令名，可以被多个请求报文共享
+     */
+    public UnsafeByteString name(int index) {
+        return names[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V value(int index) {
+        return (V) values[index];
+    }
+
+    public V get(UnsafeByteString command) {
+        int index = indexOf(command);
+        return index < 0 ? null : value(index);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+}
@@ -1,6 +1,7 @@
 package cn.shijinshi.redis.common.protocol;
 
 import cn.shijinshi.redis.common.util.UnsafeByteString;
+import io.netty.buffer.ByteBuf;
 import io.netty.util.concurrent.FastThreadLocal;
 
 import java.io.ByteArrayOutputStream;
@@ -89,6 +90,97 @@ public class RedisCodec {
         return new RedisRequest(content, command, subCommand);
     }
 
+    /**
+     * 直接在ByteBuf上解析Redis请求报文。
+     *
+     * 此方法不会保留解析进度，如果需要在同一个连接中反复解析不完整的报文，
+     * 应该使用{@link RedisParser}。
+     *
+     * @see RedisParser#decodeRequest(ByteBuf)
+     */
+    public static RedisRequest decodeRequest(ByteBuf input) throws IOException {
+        return new RedisParser().decodeRequest(input);
+    }
+
+    /**
+     * 在[from, to)中查找 \r\n
+     * @return 返回\r所在的位置，若数据不完整，则返回-1
+     */
+    static int indexOfCrlf(ByteBuf input, int from, int to) throws IOException {
+        int cr = input.indexOf(from, to, (byte) '\r');
+        if (cr == -1 || cr + 1 >= to) {
+            return -1;
+        }
+        check(input.getUnsignedByte(cr + 1), '\n');
+        return cr;
+    }
+
+    /**
+     * 解析[from, to)中的整数
+     */
+    static int parseInteger(ByteBuf input, int from, int to) throws IOException {
+        boolean negative = false;
+        if (from < to && input.getByte(from) == '-') {
+            negative = true;
+            from ++;
+        }
+        if (from >= to) {
+            throw new IOException("expect integer but empty");
+        }
+        int integer = 0;
+        for (int i = from; i < to; i ++) {
+            byte b = input.getByte(i);
+            if (b < '0' || b > '9') {
+                throw new IOException(String.format("expect integer but [%s]", charReadable((char) b)));
+            }
+            integer = integer * 10 + (b - '0');
+        }
+        return negative ? -integer : integer;
+    }
+
+    /**
+     * 在一个完整的请求报文中查找参数，命令本身为第0个参数
+     *
+     * @return 参数内容的slice，不会增加引用计数，
+     *          若报文不是多条批量请求，或者参数不存在，则返回null
+     * @throws IOException 当报文的格式错误时，会抛出IOException
+     */
+    public static ByteBuf argument(ByteBuf request, int index) throws IOException {
+        int to = request.writerIndex();
+        int from = request.readerIndex();
+        if (from >= to || request.getByte(from) != '*') {
+            return null;
+        }
+        int cr = indexOfCrlf(request, from + 1, to);
+        if (cr == -1) {
+            throw new IOException("incomplete redis request");
+        }
+        int count = parseInteger(request, from + 1, cr);
+        if (index >= count) {
+            return null;
+        }
+        int p = cr + 2;
+        for (int i = 0; ; i ++) {
+            if (p >= to) {
+                throw new IOException("incomplete redis request");
+            }
+            check(request.getByte(p), '$');
+            cr = indexOfCrlf(request, p + 1, to);
+            if (cr == -1) {
+                throw new IOException("incomplete redis request");
+            }
+            int len = parseInteger(request, p + 1, cr);
+            p = cr + 2;
+            if (len < 0 || p + len + 2 > to) {
+                throw new IOException("incomplete redis request");
+            }
+            if (i == index) {
+                return request.slice(p, len);
+            }
+            p += len + 2;
+        }
+    }
+
     /**
      * 解析Redis回复报文
      *
@@ -260,7 +352,7 @@ public class RedisCodec {
     }
 
 
-    private static int check(int actual, int expect) throws IOException {
+    static int check(int actual, int expect) throws IOException {
         if (actual == -1) {
             return -1;
         }
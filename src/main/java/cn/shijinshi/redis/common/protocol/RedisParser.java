@@ -0,0 +1,285 @@
+package cn.shijinshi.redis.common.protocol;
+
+import cn.shijinshi.redis.common.util.UnsafeByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static cn.shijinshi.redis.common.protocol.RedisCodec.check;
+import static cn.shijinshi.redis.common.protocol.RedisCodec.indexOfCrlf;
+import static cn.shijinshi.redis.common.protocol.RedisCodec.parseInteger;
+
+/**
+ * 可以断点续传的Redis报文解析器。
+ *
+ * 当一个较大的报文（比如几兆的SET请求，或者HGETALL的回复）分成多次到达时，
+ * 如果每次都从报文的起始位置重新解析，那么解析的代价会随着报文的增大而急剧增加。
+ *
+ * RedisParser会记住当前报文已经解析到的位置、多条批量回复中尚未解析的数量、
+ * 以及批量回复中尚未到达的字节数，当新的数据到达时，从上次停下的位置继续解析，
+ * 所以，每个字节只会被检查一次。
+ *
+ * 解析时，只会移动ByteBuf的readerIndex，但不会复制数据，
+ * 记录的位置都是相对于readerIndex的，所以，即使ByteToMessageDecoder
+ * 扩容或者整理了累积缓冲区，也不会影响解析。
+ *
+ * RedisParser是有状态的，也不是线程安全的，每个连接应该持有一个实例，
+ * 而且，同一个实例只能用于解析请求报文，或者只能用于解析回复报文。
+ *
+ * 如果指定了{@link CommandTable}，解析请求报文时，会直接在ByteBuf上查找命令，
+ * 对于已知的命令，不需要复制命令名，并且将命令表中对应的值附加到请求报文上。
+ *
+ * @author Gui Jiahai
+ */
+public class RedisParser {
+
+    private final CommandTable<?> commandTable;
+
+    /**
+     * 当前报文中已经解析完成的字节数
+     */
+    private int offset = 0;
+
+    /**
+     * 当前行中已经查找过 \r 的位置，避免重复查找较长的状态回复
+     */
+    private int scanned = 0;
+
+    /**
+     * 当前批量回复中尚未解析的字节数（包括最后的\r\n），
+     * -1 表示当前没有处于批量回复中
+     */
+    private int bulk = -1;
+
+    /**
+     * 多条批量回复中，每一层尚未解析的数量
+     */
+    private int[] remaining = new int[4];
+    private int depth = 0;
+
+    /**
+     * 请求报文中，命令和子命令的位置(相对于报文起始位置)和长度
+     */
+    private int args = 0;
+    private int s1 = -1, t1 = 0, s2 = -1, t2 = 0;
+
+    public RedisParser() {
+        this(null);
+    }
+
+    public RedisParser(CommandTable<?> commandTable) {
+        this.commandTable = commandTable;
+    }
+
+    /**
+     * 解析Redis请求报文。
+     *
+     * @return 若返回不为null，则表示成功地读取到一个Redis请求报文，
+     *          报文持有input的一个slice，调用者负责调用{@link RedisRequest#release()}
+     *          若返回null，则表示未能读取到完整的报文，需要等待更多的数据，
+     *          这时候input的readerIndex不会改变，但是解析的进度会被记住
+     * @throws IOException 当报文的格式错误时，会抛出IOException
+     */
+    public RedisRequest decodeRequest(ByteBuf input) throws IOException {
+        int len = parse(input, true);
+        if (len == -1) {
+            return null;
+        }
+
+        try {
+            if (t1 <= 0) {
+                throw new IOException("wrong format redis request");
+            }
+            int base = input.readerIndex();
+            UnsafeByteString command;
+            Object support = null;
+            int index = commandTable == null ? -1 : commandTable.indexOf(input, base + s1, t1);
+            if (index >= 0) {
+                command = commandTable.name(index);
+                support = commandTable.value(index);
+            } else {
+                //命令和子命令都很短，这里仅复制这两部分
+                command = new UnsafeByteString(ByteBufUtil.getBytes(input, base + s1, t1));
+            }
+            UnsafeByteString subCommand = null;
+            if (t2 > 0) {
+                subCommand = new UnsafeByteString(ByteBufUtil.getBytes(input, base + s2, t2));
+            }
+            return RedisRequest.create(input.readRetainedSlice(len), command, subCommand, support);
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * 解析Redis回复报文
+     *
+     * @return 如果返回不为null，则表示成功地读取到一个回复报文
+     *          若返回null，则表示未能读取到完整的报文，需要等待更多的数据
+     * @throws IOException 当报文的格式错误时，会抛出IOException
+     */
+    public byte[] decodeReply(ByteBuf input) throws IOException {
+        int len = parse(input, false);
+        if (len == -1) {
+            return null;
+        }
+        reset();
+        byte[] bytes = new byte[len];
+        input.readBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 解析Redis回复报文，与{@link #decodeReply(ByteBuf)}不同，这里不会复制报文
+     *
+     * @return 如果返回不为null，则表示成功地读取到一个回复报文，
+     *          报文是input的一个slice（已经retain），调用者负责release
+     *          若返回null，则表示未能读取到完整的报文，需要等待更多的数据
+     * @throws IOException 当报文的格式错误时，会抛出IOException
+     */
+    public ByteBuf decodeRetainedReply(ByteBuf input) throws IOException {
+        int len = parse(input, false);
+        if (len == -1) {
+            return null;
+        }
+        reset();
+        return input.readRetainedSlice(len);
+    }
+
+    /**
+     * 从上次停下的位置继续解析
+     *
+     * @return 若报文完整，则返回报文的字节数，否则返回-1
+     */
+    private int parse(ByteBuf input, boolean request) throws IOException {
+        try {
+            return parse0(input, request);
+        } catch (IOException e) {
+            reset();
+            throw e;
+        }
+    }
+
+    private int parse0(ByteBuf input, boolean request) throws IOException {
+        final int base = input.readerIndex();
+        final int end = input.writerIndex();
+
+        for (;;) {
+            int from = base + offset;
+
+            if (bulk >= 0) {
+                //批量回复的数据不需要检查，直接跳过即可
+                if (end - from < bulk) {
+                    return -1;
+                }
+                check(input.getUnsignedByte(from + bulk - 2), '\r');
+                check(input.getUnsignedByte(from + bulk - 1), '\n');
+                offset += bulk;
+                bulk = -1;
+                if (completeElement()) {
+                    return offset;
+                }
+                continue;
+            }
+
+            if (from >= end) {
+                return -1;
+            }
+            int cr = indexOfCrlf(input, Math.max(from + 1, base + scanned), end);
+            if (cr == -1) {
+                //最后一个字节有可能是 \r，下次需要重新检查
+                scanned = end - base - 1;
+                return -1;
+            }
+            scanned = 0;
+
+            int type = input.getUnsignedByte(from);
+            if (request) {
+                check(type, depth == 0 ? '*' : '$');
+            }
+            offset = cr + 2 - base;
+
+            switch (type) {
+                case '*': {
+                    int n = parseInteger(input, from + 1, cr);
+                    if (n > 0) {
+                        push(n);
+                        continue;
+                    }
+                    /*
+                    在多条批量回复(multi bulk reply)中，
+                    *0\r\n 代表空白的，
+                    *-1\r\n 代表空的
+                     */
+                    if (request) {
+                        throw new IOException("empty request");
+                    }
+                    break;
+                }
+                case '$': {
+                    int n = parseInteger(input, from + 1, cr);
+                    int arg = args ++;
+                    //如果被请求的值不存在， 那么批量回复会将特殊值 -1 用作回复的长度值
+                    if (n < 0) {
+                        break;
+                    }
+                    if (n > Integer.MAX_VALUE - 2) {
+                        throw new IOException("bulk is too large: " + n);
+                    }
+                    if (request) {
+                        if (arg == 0) {
+                            s1 = offset;
+                            t1 = n;
+                        } else if (arg == 1) {
+                            s2 = offset;
+                            t2 = n;
+                        }
+                    }
+                    bulk = n + 2;
+                    continue;
+                }
+                case '+':
+                case '-':
+                case ':':
+                    break;
+                default:
+                    throw new IOException("Unknown reply with (byte)" + type);
+            }
+
+            if (completeElement()) {
+                return offset;
+            }
+        }
+    }
+
+    private void push(int n) {
+        if (depth == remaining.length) {
+            remaining = Arrays.copyOf(remaining, depth << 1);
+        }
+        remaining[depth ++] = n;
+    }
+
+    /**
+     * 完成一个元素的解析
+     * @return 如果整个报文都已经解析完成，则返回true
+     */
+    private boolean completeElement() {
+        for (;;) {
+            if (depth == 0) {
+                return true;
+            }
+            if (-- remaining[depth - 1] > 0) {
+                return false;
+            }
+            depth --;
+        }
+    }
+
+    public void reset() {
+        offset = scanned = depth = args = t1 = t2 = 0;
+        bulk = s1 = s2 = -1;
+    }
+
+}
@@ -0,0 +1,89 @@
+package cn.shijinshi.redis.common.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Redis的回复报文。
+ *
+ * 与{@link RedisRequest}类似，回复报文可以由字节数组承载，也可以由ByteBuf承载。
+ * 由ByteBuf承载时（见{@link #create(ByteBuf)}），RedisReply持有该ByteBuf的
+ * 一个引用计数，规则如下：
+ * 1、TransportHandler通过exchange将RedisReply交给handlers，引用也随之转交；
+ * 2、handlers如需改写回复报文（比如MOVED/ASK），应该在ReplyHook中通过{@link #getContent()}
+ *    取得字节数组，再返回新的RedisReply，并释放原来的RedisReply；
+ * 3、最终，由ReplyRing通过{@link #toByteBuf()}将报文写给client，
+ *    Netty会在写出后释放；如果client已经断开，则由ReplyRing释放。
+ *
+ * 由字节数组承载的RedisReply是不可变的，可以共享，release()对它没有影响。
+ *
+ * @author Gui Jiahai
+ */
+public class RedisReply {
+
+    /**
+     * 回复报文所包含的完整字节数组
+     */
+    private byte[] content;
+
+    /**
+     * 回复报文所对应的ByteBuf，一般是从接收缓冲区中切分出来的slice
+     */
+    private final ByteBuf buffer;
+
+    public static RedisReply create(ByteBuf buffer) {
+        return new RedisReply(null, buffer);
+    }
+
+    public RedisReply(byte[] content) {
+        this(content, null);
+    }
+
+    private RedisReply(byte[] content, ByteBuf buffer) {
+        this.content = content;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 如果回复报文由ByteBuf承载，则第一次调用时，
+     * 会将报文复制为字节数组，所以，必须在{@link #release()}之前调用。
+     */
+    public byte[] getContent() {
+        byte[] c = content;
+        if (c == null && buffer != null) {
+            content = c = ByteBufUtil.getBytes(buffer);
+        }
+        return c;
+    }
+
+    /**
+     * @return 承载回复报文的ByteBuf，如果回复报文由字节数组承载，则返回null
+     */
+    public ByteBuf getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * 在redis通信协议中，减号表示错误信息
+     */
+    public boolean isError() {
+        if (buffer != null) {
+            return buffer.isReadable() && buffer.getByte(buffer.readerIndex()) == '-';
+        }
+        return content != null && content.length > 0 && content[0] == '-';
+    }
+
+    /**
+     * 转换为可以写出的ByteBuf，调用者获得一个引用，
+     * 之后不应该再调用{@link #release()}
+     */
+    public ByteBuf toByteBuf() {
+        return buffer != null ? buffer : Unpooled.wrappedBuffer(content);
+    }
+
+    public boolean release() {
+        return buffer != null && buffer.release();
+    }
+
+}
@@ -1,12 +1,23 @@
 package cn.shijinshi.redis.common.protocol;
 
 import cn.shijinshi.redis.common.util.UnsafeByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 
 /**
  * Redis的请求报文格式。
  *
  * {@link RedisCodec}会将请求报文解析为RedisRequest格式。
  *
+ * 请求报文可以由字节数组承载，也可以由ByteBuf承载。
+ * 由ByteBuf承载时（见{@link #create(ByteBuf, UnsafeByteString, UnsafeByteString)}），
+ * RedisRequest持有该ByteBuf的一个引用计数，规则如下：
+ * 1、RedisRequest的创建者（RequestDecoder）将引用交给RequestDispatcher，
+ *    ReplyRing在回复报文返回给client之后，调用{@link #release()}释放；
+ * 2、转发到Redis节点时，转发方应先调用{@link #retain()}，由Netty在写出后释放；
+ * 3、如果需要在release之后继续使用报文内容（比如异步地写入磁盘），
+ *    应该在release之前调用{@link #getContent()}，将报文复制为字节数组。
+ *
  * @author Gui Jiahai
  */
 public class RedisRequest {
@@ -14,7 +25,12 @@ public class RedisRequest {
     /**
      * 请求报文所包含的完整字节数组
      */
-    private final byte[] content;
+    private byte[] content;
+
+    /**
+     * 请求报文所对应的ByteBuf，一般是从接收缓冲区中切分出来的slice
+     */
+    private final ByteBuf buffer;
 
     /**
      * 请求对应的命令。
@@ -29,14 +45,50 @@ public class RedisRequest {
      */
     private final UnsafeByteString subCommand;
 
+    /**
+     * 解码器根据{@link CommandTable}得到的命令信息，
+     * 在转发流程中是{@link cn.shijinshi.redis.forward.support.Support}，
+     * 如果解码器没有命令表，或者命令不在表中，则为null
+     */
+    private final Object support;
+
+    public static RedisRequest create(ByteBuf buffer, UnsafeByteString command, UnsafeByteString subCommand) {
+        return new RedisRequest(null, buffer, command, subCommand, null);
+    }
+
+    public static RedisRequest create(ByteBuf buffer, UnsafeByteString command, UnsafeByteString subCommand, Object support) {
+        return new RedisRequest(null, buffer, command, subCommand, support);
+    }
+
     public RedisRequest(byte[] content, UnsafeByteString command, UnsafeByteString subCommand) {
+        this(content, null, command, subCommand, null);
+    }
+
+    private RedisRequest(byte[] content, ByteBuf buffer, UnsafeByteString command, UnsafeByteString subCommand, Object support) {
         this.content = content;
+        this.buffer = buffer;
         this.command = command;
         this.subCommand = subCommand;
+        this.support = support;
     }
 
+    /**
+     * 如果请求报文由ByteBuf承载，则第一次调用时，
+     * 会将报文复制为字节数组，所以，必须在{@link #release()}之前调用。
+     */
     public byte[] getContent() {
-        return content;
+        byte[] c = content;
+        if (c == null && buffer != null) {
+            content = c = ByteBufUtil.getBytes(buffer);
+        }
+        return c;
+    }
+
+    /**
+     * @return 承载请求报文的ByteBuf，如果请求报文由字节数组承载，则返回null
+     */
+    public ByteBuf getBuffer() {
+        return buffer;
     }
 
     public UnsafeByteString getCommand() {
@@ -46,4 +98,19 @@ public class RedisRequest {
     public UnsafeByteString getSubCommand() {
         return subCommand;
     }
+
+    public Object getSupport() {
+        return support;
+    }
+
+    public RedisRequest retain() {
+        if (buffer != null) {
+            buffer.retain();
+        }
+        return this;
+    }
+
+    public boolean release() {
+        return buffer != null && buffer.release();
+    }
 }
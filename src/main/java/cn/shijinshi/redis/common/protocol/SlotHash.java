@@ -1,5 +1,9 @@
 package cn.shijinshi.redis.common.protocol;
 
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
 /**
  * 用于计算Redis的slot，
  * 将给定的key映射为redis slot
@@ -13,6 +17,8 @@ public class SlotHash {
      */
     public static final int SLOT_COUNT = 16384;
 
+    private static final byte[] EVAL = "eval".getBytes();
+
     private static final int[] LOOKUP_TABLE = {0x0000, 0x1021, 0x2042, 0x3063, 0x4084, 0x50A5,
             0x60C6, 0x70E7, 0x8108, 0x9129, 0xA14A, 0xB16B, 0xC18C, 0xD1AD, 0xE1CE, 0xF1EF, 0x1231,
             0x0210, 0x3273, 0x2252, 0x52B5, 0x4294, 0x72F7, 0x62D6, 0x9339, 0x8318, 0xB37B, 0xA35A,
@@ -64,6 +70,62 @@ public class SlotHash {
         return getCRC16(key) & (SLOT_COUNT - 1);
     }
 
+    /**
+     * 与{@link #getSlot(byte[])}相同，直接计算ByteBuf中可读部分的slot，不需要复制key
+     */
+    public static int getSlot(ByteBuf key) {
+        int from = key.readerIndex();
+        int to = key.writerIndex();
+        int s = key.indexOf(from, to, (byte) '{');
+        if (s > -1) {
+            int e = key.indexOf(s + 1, to, (byte) '}');
+            if (e > -1 && e != s + 1) {
+                from = s + 1;
+                to = e;
+            }
+        }
+        int crc = 0x0000;
+        for (int i = from; i < to; i++) {
+            crc = ((crc << 8) ^ LOOKUP_TABLE[((crc >>> 8) ^ (key.getByte(i) & 0xFF)) & 0xFF]);
+        }
+        return crc & 0xFFFF & (SLOT_COUNT - 1);
+    }
+
+    /**
+     * 计算请求报文中第一个key的slot。
+     * 备份的命令中，key都是第1个参数（EVAL是第3个参数），多个key的命令只看第一个key
+     *
+     * @param request 完整的请求报文
+     * @return 没有key时（比如numkeys为0的EVAL）返回-1
+     * @throws IOException 当报文的格式错误时，会抛出IOException
+     */
+    public static int getKeySlot(ByteBuf request) throws IOException {
+        int index = 1;
+        if (equalsIgnoreCase(RedisCodec.argument(request, 0), EVAL)) {
+            ByteBuf numKeys = RedisCodec.argument(request, 2);
+            if (numKeys == null || (numKeys.readableBytes() == 1 && numKeys.getByte(numKeys.readerIndex()) == '0')) {
+                return -1;
+            }
+            index = 3;
+        }
+        ByteBuf key = RedisCodec.argument(request, index);
+        return key == null ? -1 : getSlot(key);
+    }
+
+    private static boolean equalsIgnoreCase(ByteBuf buf, byte[] lower) {
+        if (buf == null || buf.readableBytes() != lower.length) {
+            return false;
+        }
+        int from = buf.readerIndex();
+        for (int i = 0; i < lower.length; i ++) {
+            byte b = buf.getByte(from + i);
+            if (b != lower[i] && b + ('a' - 'A') != lower[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static int getCRC16(byte[] bytes) {
         return getCRC16(bytes, 0, bytes.length);
     }
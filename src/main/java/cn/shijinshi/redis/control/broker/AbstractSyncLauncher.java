@@ -1,8 +1,9 @@
 package cn.shijinshi.redis.control.broker;
 
 import cn.shijinshi.redis.common.prop.BrokerProperties;
-import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
 import cn.shijinshi.redis.sync.RequestSynchronizer;
+import cn.shijinshi.redis.sync.SynchronizerGroup;
 
 /**
  * 同步模块的启动器
@@ -15,14 +16,20 @@ import cn.shijinshi.redis.sync.RequestSynchronizer;
  * 当然，controller这时候应该也发现了失去broker的连接了，即controller也探测到
  * 了网络故障，所以，也应该采取相应的策略，即取消复制。
  *
+ * 日志分区时，每个分区有自己的synchronizer，见{@link SynchronizerGroup}。
+ *
  * @author Gui Jiahai
  */
 public abstract class AbstractSyncLauncher implements Launcher {
 
-    protected final RequestSynchronizer synchronizer;
+    protected final SynchronizerGroup synchronizer;
 
-    public AbstractSyncLauncher(IndexLogger indexLogger, BrokerProperties properties) {
-        this.synchronizer = new RequestSynchronizer(indexLogger, properties.getTarget());
+    public AbstractSyncLauncher(PartitionedLogger partitionedLogger, BrokerProperties properties) {
+        RequestSynchronizer[] synchronizers = new RequestSynchronizer[partitionedLogger.size()];
+        for (int i = 0; i < synchronizers.length; i ++) {
+            synchronizers[i] = new RequestSynchronizer(partitionedLogger.get(i), properties.getTarget(), properties.getSync());
+        }
+        this.synchronizer = new SynchronizerGroup(synchronizers);
     }
 
 }
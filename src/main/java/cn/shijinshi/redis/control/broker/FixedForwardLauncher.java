@@ -1,6 +1,7 @@
 package cn.shijinshi.redis.control.broker;
 
 import cn.shijinshi.redis.common.prop.BrokerProperties;
+import cn.shijinshi.redis.common.protocol.CommandTable;
 import cn.shijinshi.redis.control.rpc.Answer;
 import cn.shijinshi.redis.control.rpc.Indication;
 import cn.shijinshi.redis.forward.BrokerServer;
@@ -15,8 +16,8 @@ public class FixedForwardLauncher implements Launcher {
 
     private final BrokerServer server;
 
-    public FixedForwardLauncher(BrokerProperties properties, Handler handler) {
-        this.server = new BrokerServer(properties, handler);
+    public FixedForwardLauncher(BrokerProperties properties, Handler handler, CommandTable<?> commandTable) {
+        this.server = new BrokerServer(properties, handler, commandTable);
     }
 
     public void start() {
@@ -2,7 +2,7 @@ package cn.shijinshi.redis.control.broker;
 
 import cn.shijinshi.redis.common.Delayed;
 import cn.shijinshi.redis.common.prop.BrokerProperties;
-import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
 
 import java.util.concurrent.TimeUnit;
 
@@ -15,8 +15,8 @@ public class FixedSyncLauncher extends AbstractSyncLauncher implements Delayed {
 
     private volatile long delayMs = 0;
 
-    public FixedSyncLauncher(IndexLogger indexLogger, BrokerProperties properties) {
-        super(indexLogger, properties);
+    public FixedSyncLauncher(PartitionedLogger partitionedLogger, BrokerProperties properties) {
+        super(partitionedLogger, properties);
     }
 
     @Override
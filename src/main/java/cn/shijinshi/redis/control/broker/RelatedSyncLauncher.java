@@ -3,7 +3,7 @@ package cn.shijinshi.redis.control.broker;
 import cn.shijinshi.redis.common.Constants;
 import cn.shijinshi.redis.common.Delayed;
 import cn.shijinshi.redis.common.prop.BrokerProperties;
-import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
 import cn.shijinshi.redis.common.util.SimpleThreadFactory;
 import cn.shijinshi.redis.control.rpc.Answer;
 import cn.shijinshi.redis.control.rpc.Indication;
@@ -39,8 +39,8 @@ public class RelatedSyncLauncher extends AbstractSyncLauncher implements Delayed
      */
     private volatile long nextHeartbeat;
 
-    public RelatedSyncLauncher(IndexLogger indexLogger, BrokerProperties properties) {
-        super(indexLogger, properties);
+    public RelatedSyncLauncher(PartitionedLogger partitionedLogger, BrokerProperties properties) {
+        super(partitionedLogger, properties);
     }
 
     @Override
@@ -132,6 +132,23 @@ public class ReplicationController extends ClusterController implements ChildLis
         }
     }
 
+    /**
+     * 写入子节点{@link Constants#REPLICATION_HOLD}，请求重新全量复制。
+     * 日志文件超过配额，丢弃了没有同步的日志之后调用，
+     * 见{@link cn.shijinshi.redis.common.log.Retention.Policy#DROP_OLDEST}
+     */
+    public void requestReplication() {
+        String path = properties.getReplicationPath() + Constants.PATH_SEPARATOR + Constants.REPLICATION_HOLD;
+        try {
+            if (!registryService.checkExists(path)) {
+                registryService.create(path, false, false);
+                logger.warn("Requested replication, because log files which are not synchronized were dropped");
+            }
+        } catch (RegistryException e) {
+            logger.error("Failed to request replication, please create REPLICATION_HOLD in registry center manually: {}", path, e);
+        }
+    }
+
     private synchronized void startReplication() {
         if (replicationInvoker != null) {
             logger.error("Replication is already started");
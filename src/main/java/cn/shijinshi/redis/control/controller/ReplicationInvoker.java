@@ -5,6 +5,7 @@ import cn.shijinshi.redis.common.param.Cluster;
 import cn.shijinshi.redis.common.param.HostAndPort;
 import cn.shijinshi.redis.common.param.Node;
 import cn.shijinshi.redis.common.param.Range;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.SlotHash;
 import cn.shijinshi.redis.control.rpc.*;
 import cn.shijinshi.redis.forward.RedisConnector;
@@ -96,7 +97,7 @@ public class ReplicationInvoker extends Thread {
         this.brokerCluster = brokerCluster;
         this.callback = callback;
         this.epoch = epoch;
-        this.tick = UUID.randomUUID().toString().replaceAll("-", "");
+        this.tick = Constants.TICK_PREFIX + UUID.randomUUID().toString().replaceAll("-", "");
     }
 
     @Override
@@ -377,9 +378,9 @@ public class ReplicationInvoker extends Thread {
             }
             try {
                 byte[] request = tickRequest(node);
-                CompletableFuture<byte[]> future = new CompletableFuture<>();
+                CompletableFuture<RedisReply> future = new CompletableFuture<>();
                 connector.send(request, future);
-                byte[] data = future.get(waitMs, TimeUnit.MILLISECONDS);
+                byte[] data = future.get(waitMs, TimeUnit.MILLISECONDS).getContent();
                 if (data == null || data.length == 0) {
                     logger.error("Failed to send tickRequest to broker[{}], cause reply empty", node.getBroker());
                     return false;
@@ -471,8 +472,8 @@ public class ReplicationInvoker extends Thread {
 
     private byte[] tickRequest(Node node) throws InterruptedException {
         String t = getTick(node);
-        String request = String.format("*4\r\n$5\r\nSETEX\r\n$%d\r\n%s\r\n$3\r\n600\r\n$%d\r\n%s\r\n",
-                t.length(), t, t.length(), t);
+        String request = String.format("*4\r\n$5\r\nSETEX\r\n$%d\r\n%s\r\n$%d\r\n%s\r\n$%d\r\n%s\r\n",
+                t.length(), t, Constants.TICK_EXPIRE_SECONDS.length(), Constants.TICK_EXPIRE_SECONDS, t.length(), t);
         return request.getBytes();
     }
 
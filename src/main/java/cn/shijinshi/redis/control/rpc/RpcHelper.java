@@ -1,6 +1,7 @@
 package cn.shijinshi.redis.control.rpc;
 
 import cn.shijinshi.redis.common.protocol.RedisCodec;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.common.serialize.Serializer;
 import cn.shijinshi.redis.forward.RedisConnector;
@@ -39,11 +40,11 @@ public class RpcHelper {
             future.completeExceptionally(e);
             return future;
         }
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<RedisReply> future = new CompletableFuture<>();
         connector.send(request, future);
-        return future.thenApply(bytes -> {
+        return future.thenApply(reply -> {
             try {
-                return fromResponse(bytes);
+                return fromResponse(reply.getContent());
             } catch (IOException e) {
                 throw new IllegalStateException(e);
             }
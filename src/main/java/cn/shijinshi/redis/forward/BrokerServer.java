@@ -1,6 +1,8 @@
 package cn.shijinshi.redis.forward;
 
 import cn.shijinshi.redis.common.prop.BrokerProperties;
+import cn.shijinshi.redis.common.prop.ForwardProperties;
+import cn.shijinshi.redis.common.protocol.CommandTable;
 import cn.shijinshi.redis.forward.server.NettyServer;
 import cn.shijinshi.redis.forward.server.RequestDecoder;
 import cn.shijinshi.redis.forward.server.RequestDispatcher;
@@ -8,7 +10,7 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelId;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -21,19 +23,24 @@ public class BrokerServer {
 
     private final BrokerProperties properties;
     private final Handler handler;
+    private final CommandTable<?> commandTable;
 
     private RequestDispatcher requestDispatcher;
     private NettyServer nettyServer;
 
-    public BrokerServer(BrokerProperties properties, Handler handler) {
+    /**
+     * @param commandTable 用于在解码时确定命令对应的Support，可以为null
+     */
+    public BrokerServer(BrokerProperties properties, Handler handler, CommandTable<?> commandTable) {
         this.properties = Objects.requireNonNull(properties);
         this.handler = Objects.requireNonNull(handler);
+        this.commandTable = commandTable;
     }
 
     public void start() {
         try {
-            this.requestDispatcher = new RequestDispatcher(handler);
-            this.nettyServer = new NettyServer(this.properties.getPort(), this::handlers);
+            this.requestDispatcher = new RequestDispatcher(handler, this.properties.getForward().getReplyRingSize());
+            this.nettyServer = new NettyServer(this.properties.getPort(), this.properties.getForward(), this::handlers);
             this.nettyServer.open();
         } catch (Throwable t) {
             stop();
@@ -57,6 +64,15 @@ public class BrokerServer {
     }
 
     public List<ChannelHandler> handlers() {
-        return Arrays.asList(new RequestDecoder(), requestDispatcher);
+        List<ChannelHandler> handlers = new ArrayList<>(3);
+        ForwardProperties forward = properties.getForward();
+        if (forward.isFlushConsolidation()) {
+            //回复报文由ReplyRing.drain写出，每次drain只flush一次，
+            //FlushConsolidator再把同一次读取或同一批任务中多次drain的flush合并为一次
+            handlers.add(FlushConsolidator.create(forward));
+        }
+        handlers.add(new RequestDecoder(commandTable));
+        handlers.add(requestDispatcher);
+        return handlers;
     }
 }
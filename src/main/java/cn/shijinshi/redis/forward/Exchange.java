@@ -0,0 +1,45 @@
+package cn.shijinshi.redis.forward;
+
+import cn.shijinshi.redis.common.protocol.RedisReply;
+import cn.shijinshi.redis.forward.client.ClientRoute;
+import io.netty.channel.EventLoop;
+
+/**
+ * 一次请求与回复的交换。
+ *
+ * RedisConnector将请求报文发送给Redis节点，
+ * 收到回复报文后，通过{@link #complete(RedisReply)}交给使用者。
+ *
+ * @author Gui Jiahai
+ */
+public interface Exchange {
+
+    /**
+     * @return 请求报文，可以是RedisRequest、byte[]或者ByteBuf
+     */
+    Object getRequest();
+
+    /**
+     * 设置回复报文，只有第一次调用有效
+     *
+     * @return 如果返回false，表示已经完成过了，调用者需要自行释放reply
+     */
+    boolean complete(RedisReply reply);
+
+    /**
+     * @return 发起请求的client连接所在的EventLoop，RedisConnector可以据此选择连接，
+     *          如果不是来自client连接，则返回null
+     */
+    default EventLoop eventLoop() {
+        return null;
+    }
+
+    /**
+     * @return 发起请求的client连接的路由，同一个client的请求总是发送到同一个连接上，
+     *          如果不是来自client连接，则返回null，此时可以选择任意连接
+     */
+    default ClientRoute route() {
+        return null;
+    }
+
+}
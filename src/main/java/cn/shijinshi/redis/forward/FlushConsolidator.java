@@ -0,0 +1,145 @@
+package cn.shijinshi.redis.forward;
+
+import cn.shijinshi.redis.common.prop.ForwardProperties;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.Future;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并flush操作。
+ *
+ * 每次flush都会产生一次write系统调用，如果client通过pipeline一次发送了100个请求，
+ * 那么逐个writeAndFlush回复报文，就需要100次系统调用，发送给redis的请求也是如此。
+ *
+ * FlushConsolidator会推迟flush：
+ * 1、在读取过程中（channelRead与channelReadComplete之间）产生的flush，
+ *    会在channelReadComplete时一起执行；
+ * 2、其他时候产生的flush，会在delay之后执行，如果delay为0，
+ *    则是在event loop执行完当前已经提交的任务之后执行，
+ *    这样，同一批任务中写出的报文，只需要一次flush；
+ * 3、推迟的flush达到maxWrites个，或者channel变得不可写时，立即执行flush。
+ *
+ * FlushConsolidator是有状态的，每个channel需要一个实例，
+ * 并且应该添加在pipeline的最前面。
+ *
+ * @author Gui Jiahai
+ */
+public class FlushConsolidator extends ChannelDuplexHandler {
+
+    private final int maxWrites;
+    private final long delayNanos;
+    private final Runnable flushTask;
+
+    private ChannelHandlerContext ctx;
+    private int pending = 0;
+    private boolean readInProgress = false;
+    private Future<?> scheduled;
+
+    public static FlushConsolidator create(ForwardProperties properties) {
+        return new FlushConsolidator(properties.getFlushMaxWrites(), properties.getFlushDelayMicros());
+    }
+
+    public FlushConsolidator(int maxWrites, long delayMicros) {
+        if (maxWrites <= 0) {
+            throw new IllegalArgumentException("maxWrites must be positive: " + maxWrites);
+        }
+        if (delayMicros < 0) {
+            throw new IllegalArgumentException("delayMicros must not be negative: " + delayMicros);
+        }
+        this.maxWrites = maxWrites;
+        this.delayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+        this.flushTask = () -> {
+            scheduled = null;
+            if (pending > 0 && !readInProgress) {
+                flushNow(ctx);
+            }
+        };
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (++ pending >= maxWrites) {
+            flushNow(ctx);
+        } else if (!readInProgress) {
+            scheduleFlush(ctx);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isWritable()) {
+            flushIfNeeded(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        flushIfNeeded(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfNeeded(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfNeeded(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfNeeded(ctx);
+    }
+
+    private void flushIfNeeded(ChannelHandlerContext ctx) {
+        if (pending > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        pending = 0;
+        ctx.flush();
+    }
+
+    private void scheduleFlush(ChannelHandlerContext ctx) {
+        if (scheduled == null) {
+            if (delayNanos == 0) {
+                scheduled = ctx.channel().eventLoop().submit(flushTask);
+            } else {
+                scheduled = ctx.channel().eventLoop().schedule(flushTask, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+}
@@ -1,5 +1,7 @@
 package cn.shijinshi.redis.forward;
 
+import cn.shijinshi.redis.common.protocol.RedisReply;
+
 import java.io.Closeable;
 import java.util.concurrent.CompletableFuture;
 
@@ -12,7 +14,11 @@ import java.util.concurrent.CompletableFuture;
  */
 public interface RedisConnector extends Closeable {
 
-    void send(Object request, CompletableFuture<byte[]> future);
+    void send(Exchange exchange);
+
+    default void send(Object request, CompletableFuture<RedisReply> future) {
+        send(new RequestAndFuture(request, future));
+    }
 
     boolean isClosed();
 
@@ -0,0 +1,21 @@
+package cn.shijinshi.redis.forward;
+
+import cn.shijinshi.redis.common.protocol.RedisReply;
+
+/**
+ * Handler在处理请求时，可以通过{@link ReplySlot#addHook(ReplyHook)}注册，
+ * 在回复报文返回给client之前，对它进行处理，比如备份请求，或者改写回复报文。
+ *
+ * @author Gui Jiahai
+ */
+public interface ReplyHook {
+
+    /**
+     * 在完成slot的线程中执行，不应该有耗时的操作。
+     *
+     * @return 交给client的回复报文。如果返回的不是原来的reply，
+     *          则需要自行释放原来的reply
+     */
+    RedisReply onReply(ReplySlot slot, RedisReply reply);
+
+}
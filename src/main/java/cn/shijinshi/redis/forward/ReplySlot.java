@@ -0,0 +1,203 @@
+package cn.shijinshi.redis.forward;
+
+import cn.shijinshi.redis.common.protocol.RedisReply;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.client.ClientRoute;
+import cn.shijinshi.redis.forward.support.Support;
+import io.netty.channel.EventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * 一个请求报文，以及它的回复报文。
+ *
+ * 原来每个请求都需要创建CompletableFuture、Tuple、RequestAndFuture，
+ * 以及若干个thenAccept产生的对象，而且，handler之间依赖于
+ * CompletableFuture回调的执行顺序来改写回复报文。
+ *
+ * 现在，每个client连接预先分配若干个ReplySlot（见ReplyRing），循环使用：
+ * 1、RequestDispatcher取出一个slot，放入请求报文，交给handlers；
+ * 2、handlers可以通过{@link #addHook(ReplyHook)}注册对回复报文的处理，
+ *    回复报文到达后，hooks按照注册的相反顺序执行，
+ *    也就是说，离Redis越近的handler，越先处理回复报文；
+ * 3、hooks执行完成后，才会发布回复报文，并通知slot的持有者；
+ *    hook也可以通过{@link #defer(CompletionStage, RedisReply)}推迟发布，比如等待请求写入磁盘；
+ * 4、持有者将回复报文写给client后，清空slot，以便下一个请求使用。
+ *
+ * 请求报文、support、hooks只能在client连接的线程中设置，
+ * 回复报文可以在任意线程中设置。
+ *
+ * @author Gui Jiahai
+ */
+public class ReplySlot implements Exchange {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplySlot.class);
+
+    private static final AtomicIntegerFieldUpdater<ReplySlot> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ReplySlot.class, "state");
+
+    private static final int PENDING = 0;
+    private static final int COMPLETING = 1;
+
+    private static final Consumer<ReplySlot> NO_LISTENER = slot -> {};
+
+    private final EventLoop eventLoop;
+    private final ClientRoute route;
+    private final Consumer<ReplySlot> listener;
+
+    private RedisRequest request;
+    private Support support;
+
+    private ReplyHook[] hooks = new ReplyHook[2];
+    private int nHooks = 0;
+    private CompletionStage<?> deferred;
+    private RedisReply failedReply;
+
+    private volatile int state = PENDING;
+    private volatile RedisReply reply;
+
+    public ReplySlot() {
+        this(null, NO_LISTENER);
+    }
+
+    /**
+     * @param eventLoop 持有者所在的EventLoop
+     * @param listener 回复报文发布之后，会在完成slot的线程中通知listener
+     */
+    public ReplySlot(EventLoop eventLoop, Consumer<ReplySlot> listener) {
+        this(eventLoop, null, listener);
+    }
+
+    /**
+     * @param route 持有者的路由，同一个client连接的slot共享
+     */
+    public ReplySlot(EventLoop eventLoop, ClientRoute route, Consumer<ReplySlot> listener) {
+        this.eventLoop = eventLoop;
+        this.route = route;
+        this.listener = listener;
+    }
+
+    /**
+     * 放入新的请求报文，slot必须是空的
+     */
+    public ReplySlot init(RedisRequest request) {
+        this.request = request;
+        return this;
+    }
+
+    /**
+     * 清空slot，以便重新使用。请求报文和回复报文由调用者释放
+     */
+    public void clear() {
+        request = null;
+        support = null;
+        if (nHooks > 0) {
+            Arrays.fill(hooks, 0, nHooks, null);
+            nHooks = 0;
+        }
+        deferred = null;
+        failedReply = null;
+        reply = null;
+        state = PENDING;
+    }
+
+    @Override
+    public RedisRequest getRequest() {
+        return request;
+    }
+
+    @Override
+    public EventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    @Override
+    public ClientRoute route() {
+        return route;
+    }
+
+    public Support getSupport() {
+        return support;
+    }
+
+    public void setSupport(Support support) {
+        this.support = support;
+    }
+
+    public void addHook(ReplyHook hook) {
+        if (nHooks == hooks.length) {
+            hooks = Arrays.copyOf(hooks, nHooks << 1);
+        }
+        hooks[nHooks ++] = hook;
+    }
+
+    /**
+     * 只能在hook中调用，回复报文在stage完成之后才会发布，
+     * 此时，通知slot持有者的是完成stage的线程
+     *
+     * @param failedReply stage失败时，发布这个回复报文，原来的回复报文由slot释放；
+     *                    如果为null，则无论成功与否，都发布原来的回复报文
+     */
+    public void defer(CompletionStage<?> stage, RedisReply failedReply) {
+        if (this.failedReply == null) {
+            this.failedReply = failedReply;
+        }
+        if (deferred == null) {
+            deferred = stage;
+        } else {
+            deferred = deferred.thenCombine(stage, (a, b) -> null);
+        }
+    }
+
+    @Override
+    public boolean complete(RedisReply reply) {
+        if (!STATE_UPDATER.compareAndSet(this, PENDING, COMPLETING)) {
+            return false;
+        }
+        for (int i = nHooks - 1; i >= 0; i--) {
+            try {
+                reply = hooks[i].onReply(this, reply);
+            } catch (Throwable t) {
+                logger.error("Failed to handle reply by hook[{}]", hooks[i], t);
+            }
+        }
+        CompletionStage<?> d = deferred;
+        if (d == null) {
+            publish(reply);
+        } else {
+            RedisReply r = reply;
+            RedisReply f = failedReply;
+            d.whenComplete((v, t) -> {
+                if (t != null && f != null) {
+                    r.release();
+                    publish(f);
+                } else {
+                    publish(r);
+                }
+            });
+        }
+        return true;
+    }
+
+    private void publish(RedisReply reply) {
+        this.reply = reply;
+        listener.accept(this);
+    }
+
+    public boolean isDone() {
+        return reply != null;
+    }
+
+    /**
+     * @return 回复报文，如果还没有完成，则返回null
+     */
+    public RedisReply getReply() {
+        return reply;
+    }
+
+}
@@ -0,0 +1,37 @@
+package cn.shijinshi.redis.forward;
+
+import cn.shijinshi.redis.common.protocol.RedisReply;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 通过CompletableFuture获取回复报文，
+ * 适用于控制消息等不在意开销的场景
+ *
+ * @author Gui Jiahai
+ */
+public class RequestAndFuture implements Exchange {
+
+    private final Object request;
+    private final CompletableFuture<RedisReply> future;
+
+    public RequestAndFuture(Object request, CompletableFuture<RedisReply> future) {
+        this.request = request;
+        this.future = future;
+    }
+
+    @Override
+    public Object getRequest() {
+        return request;
+    }
+
+    @Override
+    public boolean complete(RedisReply reply) {
+        return future.complete(reply);
+    }
+
+    public CompletableFuture<RedisReply> getFuture() {
+        return future;
+    }
+
+}
@@ -0,0 +1,231 @@
+package cn.shijinshi.redis.forward;
+
+import cn.shijinshi.redis.common.Constants;
+import cn.shijinshi.redis.common.Shutdown;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * 网络传输方式，包括NIO和epoll。
+ *
+ * epoll只能用于Linux，并且需要netty-transport-native-epoll，
+ * 可以通过 -Pepoll 打包。这里通过反射加载epoll相关的类，
+ * 所以，即使没有这个依赖，也能正常编译和运行，
+ * 当epoll不可用时，会退回到NIO。
+ *
+ * 使用epoll时：
+ * 1、采用edge-triggered模式；
+ * 2、server可以通过SO_REUSEPORT绑定多个channel，由多个线程同时accept；
+ * 3、开启TCP_QUICKACK，减少延迟确认带来的延迟。
+ *
+ * @author Gui Jiahai
+ */
+public abstract class Transport {
+
+    private static final Logger logger = LoggerFactory.getLogger(Transport.class);
+
+    public static final String NIO_TYPE = "nio";
+    public static final String EPOLL_TYPE = "epoll";
+
+    /**
+     * 所有client共享的EventLoopGroup，第一次使用时创建
+     */
+    private volatile EventLoopGroup clientGroup;
+
+    /**
+     * 根据配置选择传输方式，如果epoll不可用，则退回到NIO
+     */
+    public static Transport create(String type) {
+        if (type == null || NIO_TYPE.equalsIgnoreCase(type)) {
+            return Nio.INSTANCE;
+        }
+        if (EPOLL_TYPE.equalsIgnoreCase(type)) {
+            if (Epoll.INSTANCE != null) {
+                return Epoll.INSTANCE;
+            }
+            logger.warn("Epoll transport is unavailable, fall back to nio", Epoll.cause);
+            return Nio.INSTANCE;
+        }
+        throw new IllegalArgumentException("Unknown transport[" + type + "]");
+    }
+
+    public static Transport nio() {
+        return Nio.INSTANCE;
+    }
+
+    public abstract String getName();
+
+    public abstract EventLoopGroup newEventLoopGroup(int nThreads);
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public abstract Class<? extends Channel> channelClass();
+
+    /**
+     * 是否可以通过SO_REUSEPORT，在同一个端口上绑定多个server channel
+     */
+    public abstract boolean isReusePortSupported();
+
+    public void configure(ServerBootstrap bootstrap, boolean reusePort) {
+        bootstrap.channel(serverChannelClass());
+    }
+
+    public void configure(Bootstrap bootstrap) {
+        bootstrap.channel(channelClass());
+    }
+
+    public EventLoopGroup clientGroup() {
+        EventLoopGroup group = clientGroup;
+        if (group == null) {
+            synchronized (this) {
+                if ((group = clientGroup) == null) {
+                    clientGroup = group = newEventLoopGroup(Constants.DEFAULT_IO_THREADS);
+                    Shutdown.addRunner(group::shutdownGracefully, Integer.MAX_VALUE - 10);
+                }
+            }
+        }
+        return group;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private static class Nio extends Transport {
+
+        private static final Nio INSTANCE = new Nio();
+
+        @Override
+        public String getName() {
+            return NIO_TYPE;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int nThreads) {
+            return new NioEventLoopGroup(nThreads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> channelClass() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public boolean isReusePortSupported() {
+            return false;
+        }
+    }
+
+    private static class Epoll extends Transport {
+
+        private static final String PACKAGE = "io.netty.channel.epoll.";
+
+        private static final Epoll INSTANCE;
+        private static final Throwable cause;
+
+        static {
+            Epoll instance = null;
+            Throwable t = null;
+            try {
+                Class<?> epoll = Class.forName(PACKAGE + "Epoll");
+                if ((Boolean) epoll.getMethod("isAvailable").invoke(null)) {
+                    instance = new Epoll();
+                } else {
+                    t = (Throwable) epoll.getMethod("unavailabilityCause").invoke(null);
+                }
+            } catch (Throwable e) {
+                t = e;
+            }
+            INSTANCE = instance;
+            cause = t;
+        }
+
+        private final Constructor<? extends EventLoopGroup> groupConstructor;
+        private final Class<? extends ServerChannel> serverChannelClass;
+        private final Class<? extends Channel> channelClass;
+
+        private final ChannelOption<Object> epollMode;
+        private final Object edgeTriggered;
+        private final ChannelOption<Object> reusePort;
+        private final ChannelOption<Object> quickAck;
+
+        @SuppressWarnings("unchecked")
+        private Epoll() throws ReflectiveOperationException {
+            groupConstructor = ((Class<? extends EventLoopGroup>) Class.forName(PACKAGE + "EpollEventLoopGroup"))
+                    .getConstructor(int.class);
+            serverChannelClass = (Class<? extends ServerChannel>) Class.forName(PACKAGE + "EpollServerSocketChannel");
+            channelClass = (Class<? extends Channel>) Class.forName(PACKAGE + "EpollSocketChannel");
+
+            Class<?> optionClass = Class.forName(PACKAGE + "EpollChannelOption");
+            epollMode = (ChannelOption<Object>) optionClass.getField("EPOLL_MODE").get(null);
+            reusePort = (ChannelOption<Object>) optionClass.getField("SO_REUSEPORT").get(null);
+            quickAck = (ChannelOption<Object>) optionClass.getField("TCP_QUICKACK").get(null);
+            edgeTriggered = Class.forName(PACKAGE + "EpollMode").getField("EDGE_TRIGGERED").get(null);
+        }
+
+        @Override
+        public String getName() {
+            return EPOLL_TYPE;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int nThreads) {
+            try {
+                return groupConstructor.newInstance(nThreads);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot create epoll event loop group", e);
+            }
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return serverChannelClass;
+        }
+
+        @Override
+        public Class<? extends Channel> channelClass() {
+            return channelClass;
+        }
+
+        @Override
+        public boolean isReusePortSupported() {
+            return true;
+        }
+
+        @Override
+        public void configure(ServerBootstrap bootstrap, boolean reusePort) {
+            super.configure(bootstrap, reusePort);
+            if (reusePort) {
+                bootstrap.option(this.reusePort, Boolean.TRUE);
+            }
+            bootstrap.option(epollMode, edgeTriggered)
+                    .childOption(epollMode, edgeTriggered)
+                    .childOption(quickAck, Boolean.TRUE);
+        }
+
+        @Override
+        public void configure(Bootstrap bootstrap) {
+            super.configure(bootstrap);
+            bootstrap.option(epollMode, edgeTriggered)
+                    .option(quickAck, Boolean.TRUE);
+        }
+    }
+
+}
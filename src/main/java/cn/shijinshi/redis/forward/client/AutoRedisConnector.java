@@ -2,53 +2,151 @@ package cn.shijinshi.redis.forward.client;
 
 import cn.shijinshi.redis.common.Constants;
 import cn.shijinshi.redis.common.param.HostAndPort;
+import cn.shijinshi.redis.common.prop.ForwardProperties;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.control.broker.NodeListener;
+import cn.shijinshi.redis.forward.Exchange;
+import cn.shijinshi.redis.forward.FlushConsolidator;
+import cn.shijinshi.redis.forward.Transport;
 import cn.shijinshi.redis.forward.RedisConnector;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
-import java.util.function.Supplier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Redis连接器。
  * 另外，此类实现了{@link NodeListener} 接口，
  * 所以，可以动态地切换Redis节点。
  *
+ * 到Redis节点的连接由{@link ConnectionPool}管理，连接数量由poolSize和blockingPoolSize配置，
+ * 需要备份时，连接池按照key的slot选择连接。
+ *
+ * 如果开启了loopAffinity，对于来自client连接的请求，
+ * 会为client连接所在的EventLoop单独建立一个连接，注册在同一个EventLoop上，
+ * 这样，发送请求、读取回复、写回client都在同一个线程中完成。
+ * client连接选择连接时（见{@link ClientRoute}），如果这个连接已经建立，则固定使用它，
+ * 请求数量达到上限时返回错误，不会换到连接池中的连接，否则同一个client的请求可能乱序；
+ * 在这个连接建立之前就选择了连接池中连接的client，继续使用原来的连接。
+ * 阻塞命令总是使用连接池。
+ *
+ * 需要备份时，不使用EventLoop上的连接（忽略loopAffinity）：
+ * 不同EventLoop上的client对同一个key的写请求会在不同的连接上，日志的顺序就是回复到达的顺序，
+ * 而不一定是Redis执行的顺序，此时同一个key的请求必须在连接池中slot对应的连接上，见{@link ConnectionPool}。
+ *
  * @author Gui Jiahai
  */
-public class AutoRedisConnector implements RedisConnector, NodeListener, Supplier<List<ChannelHandler>> {
+public class AutoRedisConnector implements RedisConnector, NodeListener {
 
-    private static final byte[] CONNECTION_CLOSED = "-ERR connection closed\r\n".getBytes();
+    private static final Logger logger = LoggerFactory.getLogger(AutoRedisConnector.class);
 
-    private volatile NettyClient nettyClient;
+    private static final RedisReply CONNECTION_CLOSED = new RedisReply("-ERR connection closed\r\n".getBytes());
+    private static final RedisReply CONNECTION_LOST = new RedisReply(Constants.CONNECTION_LOST);
+
+    private volatile ConnectionPool pool;
+    private final ConcurrentMap<EventLoop, UpstreamConnection> loopConnections = new ConcurrentHashMap<>();
     private volatile HostAndPort address;
 
     private volatile boolean closed = false;
 
+    /**
+     * 转发相关的配置，为null时，表示这是用于控制消息的连接器，
+     * 只有一个连接，回复报文会复制为字节数组，也不会合并flush
+     */
+    private final ForwardProperties properties;
+
+    /**
+     * 是否需要备份，见{@link ConnectionPool}
+     */
+    private final boolean ordered;
+
+    private final boolean loopAffinity;
+
     public AutoRedisConnector() {
+        this.properties = null;
+        this.ordered = false;
+        this.loopAffinity = false;
+    }
+
+    public AutoRedisConnector(ForwardProperties properties) {
+        this(properties, false);
+    }
+
+    /**
+     * @param ordered 是否需要备份，此时有key的请求按照slot选择连接，保证日志的顺序与Redis执行的顺序一致
+     */
+    public AutoRedisConnector(ForwardProperties properties, boolean ordered) {
+        this.properties = Objects.requireNonNull(properties);
+        this.ordered = ordered;
+        if (ordered && properties.isLoopAffinity()) {
+            logger.warn("Ignore loop-affinity, requests must be routed by key slot to keep the backup in order");
+        }
+        this.loopAffinity = properties.isLoopAffinity() && !ordered;
     }
 
     public AutoRedisConnector(HostAndPort address) {
+        this.properties = null;
+        this.ordered = false;
+        this.loopAffinity = false;
         this.address = Objects.requireNonNull(address);
         connect0(false);
     }
 
     @Override
-    public void send(Object request, CompletableFuture<byte[]> future) {
+    public void send(Exchange exchange) {
         if (closed) {
-            future.complete(CONNECTION_CLOSED);
+            exchange.complete(CONNECTION_CLOSED);
             return;
         }
-        NettyClient client = this.nettyClient;
-        if (client != null && client.isConnected()) {
-            client.send(new RequestAndFuture(request, future));
-        } else {
-            future.complete(Constants.CONNECTION_LOST);
+        ConnectionPool pool = this.pool;
+        if (pool == null) {
+            exchange.complete(CONNECTION_LOST);
+            return;
+        }
+
+        pool.send(exchange, selectLoop(exchange));
+    }
+
+    /**
+     * @return client连接所在的EventLoop上的连接，如果没有开启loopAffinity（或者需要备份），或者连接还不可用，则返回null
+     */
+    private UpstreamConnection selectLoop(Exchange exchange) {
+        if (!loopAffinity) {
+            return null;
+        }
+        EventLoop eventLoop = exchange.eventLoop();
+        if (eventLoop == null || exchange.route() == null || ConnectionPool.isBlocking(exchange.getRequest())) {
+            return null;
+        }
+        UpstreamConnection connection = loopConnections.get(eventLoop);
+        if (connection == null) {
+            connection = connectLoop(eventLoop);
         }
+        return connection != null && connection.isConnected() ? connection : null;
+    }
+
+    private synchronized UpstreamConnection connectLoop(EventLoop eventLoop) {
+        if (closed || address == null || this.pool == null) {
+            return null;
+        }
+        UpstreamConnection connection = loopConnections.get(eventLoop);
+        if (connection == null) {
+            //client连接的EventLoop由同一种transport创建，所以可以直接注册
+            connection = newConnection(eventLoop);
+            connection.connect(true);
+            loopConnections.put(eventLoop, connection);
+        }
+        return connection;
     }
 
     @Override
@@ -69,23 +167,63 @@ public class AutoRedisConnector implements RedisConnector, NodeListener, Supplie
     }
 
     private void connect0(boolean async) {
+        int poolSize = properties != null ? Math.max(1, properties.getPoolSize()) : 1;
+        int blockingPoolSize = properties != null ? Math.max(0, properties.getBlockingPoolSize()) : 0;
+        int maxInFlight = properties != null ? properties.getMaxInFlight() : 0;
+
+        EventLoopGroup group = transport().clientGroup();
+        UpstreamConnection[] connections = new UpstreamConnection[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            connections[i] = newConnection(group);
+        }
+        UpstreamConnection[] blockingConnections = new UpstreamConnection[blockingPoolSize];
+        for (int i = 0; i < blockingPoolSize; i++) {
+            blockingConnections[i] = newConnection(group);
+        }
+
+        ConnectionPool newPool = new ConnectionPool(connections, blockingConnections, maxInFlight, ordered);
+        newPool.connect(async);
+        this.pool = newPool;
+    }
+
+    private UpstreamConnection newConnection(EventLoopGroup group) {
         InetSocketAddress socketAddress = new InetSocketAddress(address.getHost(), address.getPort());
-        NettyClient newClient = new NettyClient(socketAddress, this);
-        newClient.connect(async);
-        this.nettyClient = newClient;
+        return new UpstreamConnection(socketAddress, transport(), group, this::handlers);
+    }
+
+    private Transport transport() {
+        return properties != null ? Transport.create(properties.getTransport()) : Transport.nio();
     }
 
     private void close0() {
-        NettyClient oldClient = this.nettyClient;
-        if (oldClient != null) {
-            this.nettyClient = null;
-            oldClient.close();
+        ConnectionPool oldPool = this.pool;
+        if (oldPool != null) {
+            this.pool = null;
+            oldPool.close();
+        }
+        for (Map.Entry<EventLoop, UpstreamConnection> entry : loopConnections.entrySet()) {
+            if (loopConnections.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().close();
+            }
         }
     }
 
-    @Override
-    public List<ChannelHandler> get() {
-        return Arrays.asList(new ReplyDecoder(), new TransportHandler());
+    private List<ChannelHandler> handlers(AtomicInteger inFlight) {
+        List<ChannelHandler> handlers = new ArrayList<>(3);
+        if (properties != null && properties.isFlushConsolidation()) {
+            handlers.add(FlushConsolidator.create(properties));
+        }
+        handlers.add(new ReplyDecoder());
+        handlers.add(new TransportHandler(properties != null && properties.isDirectReply(), inFlight));
+        return handlers;
+    }
+
+    /**
+     * @return 连接池的统计信息，如果当前没有连接到Redis节点，则返回null
+     */
+    public ConnectionPool.Stats stats() {
+        ConnectionPool p = this.pool;
+        return p != null ? p.stats() : null;
     }
 
     @Override
@@ -99,12 +237,7 @@ public class AutoRedisConnector implements RedisConnector, NodeListener, Supplie
                 return;
             }
             closed = true;
-        }
-        NettyClient client = this.nettyClient;
-        this.nettyClient = null;
-
-        if (client != null) {
-            client.close();
+            close0();
         }
     }
 }
@@ -0,0 +1,48 @@
+package cn.shijinshi.redis.forward.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个client连接到Redis节点的路由，由client连接持有，见{@link cn.shijinshi.redis.forward.Exchange#route()}
+ *
+ * 同一个client的请求如果分散到多个连接上，Redis执行的顺序就可能与client发送的顺序不同，
+ * 比如SET k 1之后的GET k先执行；AppendHandler在回复报文到达时写入日志，备份的顺序也会不同，
+ * target与source就会不一致。
+ * 所以，client连接的第一个请求选择一个连接之后，一直使用这个连接，只有在连接断开时才重新选择。
+ *
+ * 固定连接只能保证同一个client的请求的顺序，不同client对同一个key的写请求仍然可能在不同的连接上，
+ * 日志的顺序与Redis执行的顺序就可能不同，所以，需要备份时，有key的请求不使用固定的连接，
+ * 而是按照key的slot选择连接，见{@link ConnectionPool}。
+ *
+ * 阻塞命令使用专门的连接时（见{@link ConnectionPool}），只有在这个client没有处理中的请求时，
+ * 才会换到阻塞命令的连接上，否则仍然使用当前的连接；阻塞命令的回复到达之后，再回到原来的连接。
+ *
+ * 除了inFlight，其他字段只在client连接的线程中访问。
+ *
+ * @author Gui Jiahai
+ */
+public final class ClientRoute {
+
+    //固定使用的连接
+    UpstreamConnection pinned;
+    //最近一个请求使用的连接
+    UpstreamConnection current;
+
+    //已经发送、还没有完成的请求数量，在完成exchange的线程中减1
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return 是否还有请求没有收到回复，此时不能换连接
+     */
+    boolean isBusy() {
+        return inFlight.get() > 0;
+    }
+}
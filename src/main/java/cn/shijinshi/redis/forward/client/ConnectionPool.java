@@ -0,0 +1,327 @@
+package cn.shijinshi.redis.forward.client;
+
+import cn.shijinshi.redis.common.Constants;
+import cn.shijinshi.redis.common.protocol.RedisReply;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.common.protocol.SlotHash;
+import cn.shijinshi.redis.common.util.UnsafeByteString;
+import cn.shijinshi.redis.forward.Exchange;
+import cn.shijinshi.redis.forward.support.Support;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 到同一个Redis节点的多个连接，每个连接都可以pipeline地发送请求。
+ *
+ * 只有一个连接时，一个耗时的命令（比如HGETALL一个大key）会阻塞后面所有client的请求，
+ * 所以，每个client连接在第一个请求时选择正在处理中的请求数量最少的连接，之后一直使用这个连接，
+ * 这样同一个client的请求按照发送的顺序执行，见{@link ClientRoute}；
+ * 不是来自client连接的请求，每次都选择请求数量最少的连接。
+ * 如果选中的连接的请求数量达到了maxInFlight，则直接返回错误，而不是继续堆积。
+ *
+ * 阻塞命令（BLPOP等）会一直占用连接直到超时，所以，如果配置了blockingConnections，
+ * client没有处理中的请求时，阻塞命令发送到这些连接上，不会影响普通命令。
+ *
+ * 如果需要备份（ordered），上面的方式是不够的：AppendHandler在回复报文到达时写入日志，
+ * 两个client对同一个key的写请求如果在不同的连接上，日志的顺序就是回复到达的顺序，
+ * 而不一定是Redis执行的顺序，比如Redis先执行SET k 1、再执行SET k 2，日志中却是相反的顺序，
+ * target最终的值就与source不同。所以，此时有key的请求（包括读请求，保证同一个client先写后读的顺序）
+ * 都按照key的slot选择连接（slot % N），同一个key的请求总是在同一个连接上，
+ * 日志中同一个slot的请求与Redis执行的顺序一致，这也是分区日志所依赖的顺序，见PartitionedAppender。
+ * 没有key的请求（比如numkeys为0的EVAL）与slot 0使用同一个连接；
+ * 选中的连接断开时，按照顺序使用下一个连接，所有client的选择都相同。
+ * 阻塞命令也是如此，它们同样需要备份，不能在阻塞命令的连接上与其他连接上的写请求乱序。
+ * 没有key、也不需要备份的请求（比如PING、INFO），仍然使用client固定的连接。
+ *
+ * @author Gui Jiahai
+ */
+public class ConnectionPool {
+
+    private static final RedisReply CONNECTION_LOST = new RedisReply(Constants.CONNECTION_LOST);
+    private static final RedisReply TOO_MANY_REQUESTS =
+            new RedisReply("-ERR too many pending requests to redis\r\n".getBytes());
+
+    private static final Set<UnsafeByteString> BLOCKING_COMMANDS = new HashSet<>();
+
+    static {
+        for (String command : new String[]{"blpop", "brpop", "brpoplpush", "bzpopmin", "bzpopmax"}) {
+            BLOCKING_COMMANDS.add(new UnsafeByteString(command));
+        }
+    }
+
+    private final UpstreamConnection[] connections;
+    private final UpstreamConnection[] blockingConnections;
+    private final int maxInFlight;
+    private final boolean ordered;
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * 选择连接时的起始位置，在请求数量相同时，轮流使用各个连接。
+     * 不需要精确，所以不做同步
+     */
+    private int next = 0;
+
+    /**
+     * @param blockingConnections 专门用于阻塞命令的连接，可以为空，此时阻塞命令与普通命令共享连接
+     * @param maxInFlight 每个连接最多的处理中请求数量，小于等于0时，表示不限制
+     */
+    public ConnectionPool(UpstreamConnection[] connections, UpstreamConnection[] blockingConnections, int maxInFlight) {
+        this(connections, blockingConnections, maxInFlight, false);
+    }
+
+    /**
+     * @param ordered 是否需要备份，此时有key的请求按照slot选择连接
+     */
+    public ConnectionPool(UpstreamConnection[] connections, UpstreamConnection[] blockingConnections,
+                          int maxInFlight, boolean ordered) {
+        if (connections.length == 0) {
+            throw new IllegalArgumentException("connections must not be empty");
+        }
+        this.connections = connections;
+        this.blockingConnections = blockingConnections;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+    }
+
+    public static boolean isBlocking(Object request) {
+        return request instanceof RedisRequest
+                && ((RedisRequest) request).getCommand() != null
+                && BLOCKING_COMMANDS.contains(((RedisRequest) request).getCommand());
+    }
+
+    public void connect(boolean async) {
+        for (UpstreamConnection connection : connections) {
+            connection.connect(async);
+        }
+        for (UpstreamConnection connection : blockingConnections) {
+            connection.connect(async);
+        }
+    }
+
+    public void send(Exchange exchange) {
+        send(exchange, null);
+    }
+
+    /**
+     * @param preferred client连接第一次选择连接时优先使用的连接（如果已经连接），可以为null，
+     *                  比如client连接所在EventLoop上的连接，见{@link AutoRedisConnector}
+     */
+    public void send(Exchange exchange, UpstreamConnection preferred) {
+        int slot = ordered ? slot(exchange.getRequest()) : -1;
+        boolean blocking = slot < 0 && blockingConnections.length > 0 && isBlocking(exchange.getRequest());
+        UpstreamConnection[] candidates = blocking ? blockingConnections : connections;
+        ClientRoute route = exchange.route();
+
+        //连接可能在选中之后断开，此时重新选择
+        for (int i = 0; i < candidates.length; i++) {
+            UpstreamConnection connection;
+            if (slot >= 0) {
+                connection = keyed(slot);
+            } else {
+                connection = route == null ? select(candidates) : route(route, blocking, preferred);
+            }
+            if (connection == null) {
+                break;
+            }
+            if (!connection.tryAcquire(maxInFlight)) {
+                rejected.increment();
+                exchange.complete(TOO_MANY_REQUESTS);
+                return;
+            }
+            if (route != null) {
+                route.acquire();
+            }
+            if (connection.send(exchange)) {
+                return;
+            }
+            if (route != null) {
+                route.release();
+            }
+        }
+        exchange.complete(CONNECTION_LOST);
+    }
+
+    /**
+     * @return 请求的key的slot，不是RedisRequest时返回-1；
+     *          没有key、但需要备份的请求返回0，没有key、也不需要备份的请求返回-1
+     */
+    static int slot(Object request) {
+        if (!(request instanceof RedisRequest)) {
+            return -1;
+        }
+        RedisRequest r = (RedisRequest) request;
+        ByteBuf buffer = r.getBuffer();
+        try {
+            int slot = SlotHash.getKeySlot(buffer != null ? buffer : Unpooled.wrappedBuffer(r.getContent()));
+            if (slot >= 0) {
+                return slot;
+            }
+        } catch (IOException ignored) {
+            //格式错误的请求由Redis回复错误，不会备份
+        }
+        Object support = r.getSupport();
+        return support instanceof Support && ((Support) support).isBackup() ? 0 : -1;
+    }
+
+    /**
+     * @return slot对应的连接，如果已经断开，则按照顺序选择下一个已连接的连接，如果都没有连接，则返回null
+     */
+    UpstreamConnection keyed(int slot) {
+        int n = connections.length;
+        for (int i = 0; i < n; i++) {
+            UpstreamConnection c = connections[(slot + i) % n];
+            if (c.isConnected()) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在client连接的线程中调用
+     *
+     * @return client连接应该使用的连接，如果都没有连接，则返回null
+     */
+    UpstreamConnection route(ClientRoute route, boolean blocking, UpstreamConnection preferred) {
+        UpstreamConnection current = route.current;
+        if (current != null && current.isConnected() && route.isBusy()) {
+            //还有处理中的请求时不能换连接，否则后面的请求可能先执行
+            return current;
+        }
+        if (blocking) {
+            current = select(blockingConnections);
+        } else {
+            UpstreamConnection pinned = route.pinned;
+            if (pinned == null || !pinned.isConnected()) {
+                route.pinned = pinned = preferred != null && preferred.isConnected() ? preferred : select(connections);
+            }
+            current = pinned;
+        }
+        route.current = current;
+        return current;
+    }
+
+    /**
+     * @return 已连接的、处理中请求数量最少的连接，如果都没有连接，则返回null
+     */
+    UpstreamConnection select(UpstreamConnection[] candidates) {
+        int n = candidates.length;
+        int start = n == 1 ? 0 : (next++ & Integer.MAX_VALUE) % n;
+        UpstreamConnection best = null;
+        int least = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            UpstreamConnection c = candidates[(start + i) % n];
+            if (c.isConnected()) {
+                int inFlight = c.inFlight();
+                if (inFlight < least) {
+                    best = c;
+                    least = inFlight;
+                    if (inFlight == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    public Stats stats() {
+        return new Stats(snapshot(connections), snapshot(blockingConnections), rejected.sum());
+    }
+
+    private static ConnectionStats[] snapshot(UpstreamConnection[] connections) {
+        ConnectionStats[] stats = new ConnectionStats[connections.length];
+        for (int i = 0; i < connections.length; i++) {
+            UpstreamConnection c = connections[i];
+            stats[i] = new ConnectionStats(c.isConnected(), c.inFlight(), c.sent());
+        }
+        return stats;
+    }
+
+    public void close() {
+        for (UpstreamConnection connection : connections) {
+            connection.close();
+        }
+        for (UpstreamConnection connection : blockingConnections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 连接池的统计信息
+     */
+    public static class Stats {
+
+        private final ConnectionStats[] connections;
+        private final ConnectionStats[] blockingConnections;
+        private final long rejected;
+
+        Stats(ConnectionStats[] connections, ConnectionStats[] blockingConnections, long rejected) {
+            this.connections = connections;
+            this.blockingConnections = blockingConnections;
+            this.rejected = rejected;
+        }
+
+        public ConnectionStats[] getConnections() {
+            return connections;
+        }
+
+        public ConnectionStats[] getBlockingConnections() {
+            return blockingConnections;
+        }
+
+        /**
+         * @return 由于超过maxInFlight而被拒绝的请求数量
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "connections=" + Arrays.toString(connections) +
+                    ", blockingConnections=" + Arrays.toString(blockingConnections) +
+                    ", rejected=" + rejected +
+                    '}';
+        }
+    }
+
+    public static class ConnectionStats {
+
+        private final boolean connected;
+        private final int inFlight;
+        private final long sent;
+
+        ConnectionStats(boolean connected, int inFlight, long sent) {
+            this.connected = connected;
+            this.inFlight = inFlight;
+            this.sent = sent;
+        }
+
+        public boolean isConnected() {
+            return connected;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        @Override
+        public String toString() {
+            return "{connected=" + connected + ", inFlight=" + inFlight + ", sent=" + sent + '}';
+        }
+    }
+
+}
@@ -1,12 +1,9 @@
 package cn.shijinshi.redis.forward.client;
 
-import cn.shijinshi.redis.common.Constants;
-import cn.shijinshi.redis.common.Shutdown;
+import cn.shijinshi.redis.forward.Transport;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,14 +25,9 @@ public class NettyClient {
 
     private static final Logger logger = LoggerFactory.getLogger(NettyClient.class);
 
-    private static final NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(Constants.DEFAULT_IO_THREADS);
-
-    static {
-        Shutdown.addRunner(eventLoopGroup::shutdownGracefully, Integer.MAX_VALUE - 10);
-    }
-
     private static final long DELAY_UPPER_BOUND = 1000;
 
+    private final EventLoopGroup eventLoopGroup;
     private final Bootstrap bootstrap;
     private final InetSocketAddress address;
     private volatile Channel channel;
@@ -45,23 +37,37 @@ public class NettyClient {
     private boolean closed = false;
 
     public NettyClient(InetSocketAddress address, Supplier<List<ChannelHandler>> handlers) {
+        this(address, Transport.nio(), handlers);
+    }
+
+    public NettyClient(InetSocketAddress address, Transport transport, Supplier<List<ChannelHandler>> handlers) {
+        //同一种传输方式的client，共享同一个EventLoopGroup
+        this(address, transport, transport.clientGroup(), handlers);
+    }
+
+    /**
+     * @param eventLoopGroup 可以是某一个EventLoop，这样，连接的所有IO都在这个线程中执行，
+     *                       它必须与transport的类型一致
+     */
+    public NettyClient(InetSocketAddress address, Transport transport, EventLoopGroup eventLoopGroup, Supplier<List<ChannelHandler>> handlers) {
         this.address = Objects.requireNonNull(address);
+        this.eventLoopGroup = Objects.requireNonNull(eventLoopGroup);
         bootstrap = new Bootstrap();
         bootstrap.group(eventLoopGroup)
                 .option(ChannelOption.SO_KEEPALIVE, Boolean.TRUE)
                 .option(ChannelOption.TCP_NODELAY, Boolean.TRUE)
                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000)
-                .channel(NioSocketChannel.class)
-                .handler(new ChannelInitializer<NioSocketChannel>() {
+                .handler(new ChannelInitializer<Channel>() {
                     @Override
-                    protected void initChannel(NioSocketChannel ch) {
+                    protected void initChannel(Channel ch) {
                         for (ChannelHandler handler : handlers.get()) {
                             ch.pipeline().addLast(handler);
                         }
                         ch.pipeline().addLast(new Reconnection());
                     }
                 });
+        transport.configure(bootstrap);
     }
 
     public void connect(boolean async) {
@@ -129,9 +135,16 @@ public class NettyClient {
     /**
      * 在调用此方法之前，应该通过 isConnected() 来判断当前连接状态。
      * 如果当前处于未连接状态，则不应该调用此方法
+     *
+     * @return 如果连接已经被关闭，则返回false，msg没有被发送
      */
-    public void send(Object msg) {
-        channel.writeAndFlush(msg);
+    public boolean send(Object msg) {
+        Channel c = channel;
+        if (c == null) {
+            return false;
+        }
+        c.writeAndFlush(msg);
+        return true;
     }
 
     public boolean isConnected() {
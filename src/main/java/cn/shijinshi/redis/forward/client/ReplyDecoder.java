@@ -1,31 +1,33 @@
 package cn.shijinshi.redis.forward.client;
 
-import cn.shijinshi.redis.common.protocol.RedisCodec;
+import cn.shijinshi.redis.common.protocol.RedisParser;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 
-import java.io.InputStream;
 import java.util.List;
 
 /**
  * 解析来自Redis的响应报文。
  *
+ * 对于MGET、HGETALL等较大的回复，RedisParser会记住解析进度，
+ * 不会在每次收到新数据时从头开始解析。
+ *
+ * 解析出的回复报文是接收缓冲区的一个slice（已经retain），
+ * 交由TransportHandler处理。
+ *
  * @author Gui Jiahai
  */
 public class ReplyDecoder extends ByteToMessageDecoder {
 
+    private final RedisParser parser = new RedisParser();
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        InputStream input = new ByteBufInputStream(in);
-        int saveReaderIndex;
-        byte[] reply;
+        ByteBuf reply;
         do {
-            saveReaderIndex = in.readerIndex();
-            reply = RedisCodec.decodeReply(input);
+            reply = parser.decodeRetainedReply(in);
             if (reply == null) {
-                in.readerIndex(saveReaderIndex);
                 break;
             } else {
                 out.add(reply);
@@ -1,8 +1,11 @@
 package cn.shijinshi.redis.forward.client;
 
 import cn.shijinshi.redis.common.Constants;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.Exchange;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -12,33 +15,57 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 处理解析后的请求报文
  *
+ * 回复报文有两种传递方式：
+ * 1、directReply = true，直接将接收缓冲区中的slice交给exchange，不复制报文，
+ *    按照{@link RedisReply}中的约定，由exchange的使用者负责释放；
+ * 2、directReply = false，将回复报文复制为字节数组后，立即释放slice，
+ *    适用于不关心引用计数的使用者，比如RpcHelper。
+ *
+ * 如果指定了inFlight，每个exchange完成时（包括发送失败、连接断开），都会减1，
+ * 发送方负责在发送之前加1，参考{@link UpstreamConnection}；
+ * exchange的{@link ClientRoute}也是如此，参考{@link ConnectionPool}。
+ *
  * @author Gui Jiahai
  */
 public class TransportHandler extends ChannelDuplexHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(TransportHandler.class);
 
-    private final Deque<CompletableFuture<byte[]>> deque = new ArrayDeque<>();
+    private static final RedisReply CONNECTION_LOST = new RedisReply(Constants.CONNECTION_LOST);
+
+    private final Deque<Exchange> deque = new ArrayDeque<>();
+    private final boolean directReply;
+    private final AtomicInteger inFlight;
+
+    public TransportHandler(boolean directReply) {
+        this(directReply, null);
+    }
+
+    public TransportHandler(boolean directReply, AtomicInteger inFlight) {
+        this.directReply = directReply;
+        this.inFlight = inFlight;
+    }
 
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
-        if (msg instanceof RequestAndFuture) {
-            RequestAndFuture rf = (RequestAndFuture) msg;
-            Object r = rf.getRequest();
+        if (msg instanceof Exchange) {
+            Exchange exchange = (Exchange) msg;
+            Object r = exchange.getRequest();
 
             if (promise.isVoid()) {
-                deque.add(rf.getFuture());
+                deque.add(exchange);
             } else {
                 promise.addListener(future -> {
                     if (future.isSuccess()) {
-                        deque.add(rf.getFuture());
+                        deque.add(exchange);
                     } else {
-                        rf.getFuture().complete(Constants.CONNECTION_LOST);
+                        done(exchange);
+                        exchange.complete(CONNECTION_LOST);
                     }
                 });
             }
@@ -46,7 +73,14 @@ public class TransportHandler extends ChannelDuplexHandler {
             if (r instanceof byte[]) {
                 ctx.write(Unpooled.wrappedBuffer((byte[]) r), promise);
             } else if (r instanceof RedisRequest) {
-                ctx.write(Unpooled.wrappedBuffer(((RedisRequest) r).getContent()), promise);
+                /*
+                UpstreamConnection在发送之前已经retain，这里交由Netty在写出后释放。
+                写出时会移动readerIndex，所以写出的是duplicate，
+                以免影响其他handler读取报文内容。
+                 */
+                RedisRequest request = (RedisRequest) r;
+                ByteBuf buffer = request.getBuffer();
+                ctx.write(buffer != null ? buffer.duplicate() : Unpooled.wrappedBuffer(request.getContent()), promise);
             } else if (r instanceof ByteBuf) {
                 ctx.write(r, promise);
             } else {
@@ -60,13 +94,25 @@ public class TransportHandler extends ChannelDuplexHandler {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
-        if (msg instanceof byte[]) {
-            byte[] bytes = (byte[]) msg;
-            CompletableFuture<byte[]> future = deque.poll();
-            if (future != null) {
-                future.complete(bytes);
+        if (msg instanceof ByteBuf) {
+            ByteBuf buffer = (ByteBuf) msg;
+            Exchange exchange = deque.poll();
+            if (exchange == null) {
+                buffer.release();
+                logger.warn("Cannot poll exchange from deque, may be error");
+                return;
+            }
+            done(exchange);
+
+            RedisReply reply;
+            if (directReply) {
+                reply = RedisReply.create(buffer);
             } else {
-                logger.warn("Cannot poll future from deque, may be error");
+                reply = new RedisReply(ByteBufUtil.getBytes(buffer));
+                buffer.release();
+            }
+            if (!exchange.complete(reply)) {
+                reply.release();
             }
         }
     }
@@ -75,10 +121,24 @@ public class TransportHandler extends ChannelDuplexHandler {
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         super.channelInactive(ctx);
         if (!deque.isEmpty()) {
-            CompletableFuture<byte[]> future;
-            while ((future = deque.poll()) != null) {
-                future.complete(Constants.CONNECTION_LOST);
+            Exchange exchange;
+            while ((exchange = deque.poll()) != null) {
+                done(exchange);
+                exchange.complete(CONNECTION_LOST);
             }
         }
     }
+
+    /**
+     * 必须在完成exchange之前调用，client收到回复之后发送的请求，才能看到连接已经空闲
+     */
+    private void done(Exchange exchange) {
+        if (inFlight != null) {
+            inFlight.decrementAndGet();
+        }
+        ClientRoute route = exchange.route();
+        if (route != null) {
+            route.release();
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package cn.shijinshi.redis.forward.client;
+
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.Exchange;
+import cn.shijinshi.redis.forward.Transport;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.EventLoopGroup;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 到Redis节点的一个连接，记录了正在处理中（已发送、未收到回复）的请求数量，
+ * 以便{@link ConnectionPool}选择负载最小的连接。
+ *
+ * @author Gui Jiahai
+ */
+public class UpstreamConnection {
+
+    private final NettyClient client;
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final LongAdder sent = new LongAdder();
+
+    /**
+     * @param handlers 根据inFlight计数器创建channel的handlers，
+     *                 其中的TransportHandler需要在exchange完成时将计数器减1
+     */
+    public UpstreamConnection(InetSocketAddress address, Transport transport, EventLoopGroup eventLoopGroup,
+                              Function<AtomicInteger, List<ChannelHandler>> handlers) {
+        this.client = new NettyClient(address, transport, eventLoopGroup, () -> handlers.apply(inFlight));
+    }
+
+    public void connect(boolean async) {
+        client.connect(async);
+    }
+
+    public boolean isConnected() {
+        return client.isConnected();
+    }
+
+    /**
+     * 如果当前的请求数量小于limit，则占用一个名额
+     *
+     * @param limit 小于等于0时，表示不限制
+     */
+    boolean tryAcquire(int limit) {
+        if (limit <= 0) {
+            inFlight.incrementAndGet();
+            return true;
+        }
+        int n;
+        do {
+            n = inFlight.get();
+            if (n >= limit) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    /**
+     * 发送请求，调用者必须已经通过{@link #tryAcquire(int)}占用了名额
+     *
+     * @return 如果连接已经被关闭，则释放名额并返回false，由调用者完成exchange
+     */
+    boolean send(Exchange exchange) {
+        Object request = exchange.getRequest();
+        if (request instanceof RedisRequest) {
+            //写出报文的引用由TransportHandler交给Netty释放
+            ((RedisRequest) request).retain();
+        }
+        if (client.send(exchange)) {
+            sent.increment();
+            return true;
+        }
+        if (request instanceof RedisRequest) {
+            ((RedisRequest) request).release();
+        }
+        inFlight.decrementAndGet();
+        return false;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long sent() {
+        return sent.sum();
+    }
+
+    public void close() {
+        client.close();
+    }
+
+}
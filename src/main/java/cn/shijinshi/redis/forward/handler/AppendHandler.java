@@ -1,10 +1,12 @@
 package cn.shijinshi.redis.forward.handler;
 
 import cn.shijinshi.redis.common.error.ErrorHandler;
-import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.forward.Handler;
-import cn.shijinshi.redis.forward.support.Support;
+import cn.shijinshi.redis.forward.ReplyHook;
+import cn.shijinshi.redis.forward.ReplySlot;
 import cn.shijinshi.redis.sync.Appender;
+import cn.shijinshi.redis.sync.appender.AppendRejectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,9 +19,12 @@ import java.util.concurrent.CompletableFuture;
  *
  * @author Gui Jiahai
  */
-public class AppendHandler implements Handler {
+public class AppendHandler implements Handler, ReplyHook {
     private static final Logger logger = LoggerFactory.getLogger(AppendHandler.class);
 
+    private static final RedisReply NOT_PERSISTED =
+            new RedisReply("-ERR command executed but not persisted\r\n".getBytes());
+
     private final Handler next;
     private final Appender appender;
 
@@ -29,23 +34,38 @@ public class AppendHandler implements Handler {
     }
 
     @Override
-    public void handle(RedisRequest request, Support support, CompletableFuture<byte[]> future) {
-        future.thenAccept(bytes -> {
-            /*
+    public void handle(ReplySlot slot) {
+        if (slot.getSupport().isBackup()) {
+            slot.addHook(this);
+        }
+        this.next.handle(slot);
+    }
+
+    @Override
+    public RedisReply onReply(ReplySlot slot, RedisReply reply) {
+        /*
         在redis通信协议中，减号表示错误信息
         如果没有发生错误，则表示命令生效，应该将命令备份
+        如果appender需要等待请求写入磁盘（SyncAppender），则在写入之后再回复client，
+        写入失败时回复错误，不能让client以为命令已经持久化了
+        如果appender拒绝了请求（缓冲区满了，或者日志超过配额），则回复错误，让client知道这个命令没有备份
          */
-            if (support.isBackup() && bytes[0] != '-') {
-                try {
-                    appender.append(request);
-                } catch (IOException e) {
-                    logger.error("Failed to append request", e);
-                    ErrorHandler.handle(e);
+        if (!reply.isError()) {
+            try {
+                CompletableFuture<Void> future = appender.appendAsync(slot.getRequest());
+                if (future != null) {
+                    slot.defer(future, NOT_PERSISTED);
                 }
+            } catch (AppendRejectedException e) {
+                //回复报文可能是ByteBuf的slice，被替换之后不会再写给client，需要在这里释放
+                reply.release();
+                return new RedisReply(("-ERR command executed but not backed up, " + e.getMessage() + "\r\n").getBytes());
+            } catch (IOException e) {
+                logger.error("Failed to append request", e);
+                ErrorHandler.handle(e);
             }
-        });
-
-        this.next.handle(request, support, future);
+        }
+        return reply;
     }
 
     @Override
@@ -5,43 +5,27 @@ import cn.shijinshi.redis.common.param.Cluster;
 import cn.shijinshi.redis.common.param.HostAndPort;
 import cn.shijinshi.redis.common.param.Node;
 import cn.shijinshi.redis.common.param.Range;
-import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.control.broker.Broker;
 import cn.shijinshi.redis.forward.Handler;
 import cn.shijinshi.redis.forward.RedisConnector;
-import cn.shijinshi.redis.forward.support.Support;
+import cn.shijinshi.redis.forward.ReplyHook;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sun.misc.Unsafe;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * 将请求报文写入到Redis节点中
  *
  * @author Gui Jiahai
  */
-public class ConnectionHandler implements Handler {
+public class ConnectionHandler implements Handler, ReplyHook {
 
     private static final Logger logger = LoggerFactory.getLogger(ConnectionHandler.class);
 
-    private static final Unsafe UNSAFE;
-    private static final long RESULT_OFFSET;
-
-    static {
-        try {
-            Field field = Unsafe.class.getDeclaredField("theUnsafe");
-            field.setAccessible(true);
-            UNSAFE = (Unsafe) field.get(null);
-            RESULT_OFFSET = UNSAFE.objectFieldOffset(CompletableFuture.class.getDeclaredField("result"));
-        } catch (Throwable t) {
-            throw new Error(t);
-        }
-    }
-
     private final RedisConnector redisConnector;
     private final Broker broker;
 
@@ -51,18 +35,26 @@ public class ConnectionHandler implements Handler {
     }
 
     @Override
-    public void handle(RedisRequest request, Support support, CompletableFuture<byte[]> future) {
-        future.thenAccept(bytes -> {
-            if (bytes[0] == '-') {
-                byte[] newBytes = convert(bytes);
-                if (newBytes != null) {
-                    UNSAFE.putObjectVolatile(future, RESULT_OFFSET, newBytes);
-//                    UNSAFE.compareAndSwapObject(future, FUTURE_RESULT, bytes, newBytes);
-                }
-            }
-        });
+    public void handle(ReplySlot slot) {
+        slot.addHook(this);
+        redisConnector.send(slot);
+    }
 
-        redisConnector.send(request.getContent(), future);
+    /**
+     * 将MOVED和ASK中的Redis节点地址，改写为对应的broker地址
+     */
+    @Override
+    public RedisReply onReply(ReplySlot slot, RedisReply reply) {
+        if (reply.isError()) {
+            //只有错误回复才需要转换，这里通过字节数组进行转换
+            byte[] bytes = reply.getContent();
+            byte[] newBytes = convert(bytes);
+            if (newBytes != null && newBytes != bytes) {
+                reply.release();
+                return new RedisReply(newBytes);
+            }
+        }
+        return reply;
     }
 
     private byte[] convert(byte[] bytes) {
@@ -1,48 +1,79 @@
 package cn.shijinshi.redis.forward.handler;
 
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.control.broker.Broker;
 import cn.shijinshi.redis.forward.Handler;
+import cn.shijinshi.redis.forward.ReplySlot;
 import cn.shijinshi.redis.forward.support.CommandSupports;
 import cn.shijinshi.redis.forward.support.Support;
 
 import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 
 /**
  * 对请求报文进行检查
  * 部分命令不需要交给Redis处理，比如：
  * CLUSTER SLOTS
  *
+ * 日志文件超过配额，并且策略是暂停转发时，需要备份的命令直接回复错误，
+ * 见{@link cn.shijinshi.redis.common.log.Retention.Policy#PAUSE_FORWARD}
+ *
  * @author Gui Jiahai
  */
 public class SupportHandler implements Handler {
 
     private static final String template = "-ERR Unsupported command '%s'\r\n";
 
+    private static final RedisReply READONLY_REPLY =
+            new RedisReply("-ERR READONLY You can't write against a read only slave.\r\n".getBytes());
+
+    private static final RedisReply PAUSED_REPLY =
+            new RedisReply("-ERR log retention quota exceeded, write commands are paused\r\n".getBytes());
+
     private final Handler next;
     private final CommandSupports commandSupports;
     private final Broker broker;
+    private final BooleanSupplier paused;
 
     public SupportHandler(Handler next, Broker broker, CommandSupports commandSupports) {
+        this(next, broker, commandSupports, () -> false);
+    }
+
+    /**
+     * @param paused 是否暂停转发需要备份的命令
+     */
+    public SupportHandler(Handler next, Broker broker, CommandSupports commandSupports, BooleanSupplier paused) {
         this.next = next;
         this.broker = broker;
         this.commandSupports = commandSupports;
+        this.paused = paused;
     }
 
     @Override
-    public void handle(RedisRequest request, Support support, CompletableFuture<byte[]> future) {
+    public void handle(ReplySlot slot) {
+        RedisRequest request = slot.getRequest();
+        Support support = slot.getSupport();
+        if (support == null) {
+            //通常在解码时已经确定，不需要再查找
+            support = (Support) request.getSupport();
+        }
 
         if (support == null && (support = commandSupports.get(request.getCommand())) == null) {
             String reply = String.format(template, request.getCommand().toString());
-            future.complete(reply.getBytes());
+            slot.complete(new RedisReply(reply.getBytes()));
 
         } else if (support.isBackup() && !broker.isMaster()) {
-            String reply = "-ERR READONLY You can't write against a read only slave.\r\n";
-            future.complete(reply.getBytes());
+            slot.complete(READONLY_REPLY);
+
+        } else if (support.isBackup() && paused.getAsBoolean()) {
+            slot.complete(PAUSED_REPLY);
 
-        } else if (support.getPreparedAction() == null || !support.getPreparedAction().apply(request, future)) {
-            this.next.handle(request, support, future);
+        } else {
+            slot.setSupport(support);
+            if (support.getPreparedAction() == null || !support.getPreparedAction().apply(request, slot)) {
+                this.next.handle(slot);
+            }
         }
     }
 
@@ -1,15 +1,15 @@
 package cn.shijinshi.redis.forward.server;
 
 import cn.shijinshi.redis.common.Constants;
+import cn.shijinshi.redis.common.prop.ForwardProperties;
+import cn.shijinshi.redis.forward.Transport;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Supplier;
 
@@ -21,53 +21,68 @@ public class NettyServer {
     private static final Logger logger = LoggerFactory.getLogger(NettyServer.class);
 
     private final int port;
+    private final int acceptors;
 
     private final ServerBootstrap bootstrap;
     private final EventLoopGroup bossGroup;
     private final EventLoopGroup workerGroup;
-    private Channel channel;
+    private final List<Channel> channels = new ArrayList<>();
 
-    public NettyServer(int port, Supplier<List<ChannelHandler>> handlers) {
+    public NettyServer(int port, ForwardProperties properties, Supplier<List<ChannelHandler>> handlers) {
         this.port = port;
-        logger.info("Starting server: {}", this.port);
+
+        Transport transport = Transport.create(properties.getTransport());
+        int acceptors = Math.max(properties.getAcceptors(), 1);
+        if (acceptors > 1 && !transport.isReusePortSupported()) {
+            logger.warn("Transport[{}] does not support SO_REUSEPORT, only 1 acceptor would be used", transport);
+            acceptors = 1;
+        }
+        this.acceptors = acceptors;
+        logger.info("Starting server: {}, transport: {}, acceptors: {}", this.port, transport, this.acceptors);
 
         this.bootstrap = new ServerBootstrap();
 
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup(Constants.DEFAULT_IO_THREADS);
+        bossGroup = transport.newEventLoopGroup(this.acceptors);
+        workerGroup = transport.newEventLoopGroup(Constants.DEFAULT_IO_THREADS);
 
         bootstrap.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
                 .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)
                 .childOption(ChannelOption.SO_REUSEADDR, Boolean.TRUE)
                 .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-                .childHandler(new ChannelInitializer<NioSocketChannel>() {
+                .childHandler(new ChannelInitializer<Channel>() {
                     @Override
-                    protected void initChannel(NioSocketChannel ch) {
+                    protected void initChannel(Channel ch) {
                         for (ChannelHandler handler : handlers.get()) {
                             ch.pipeline().addLast(handler);
                         }
                     }
                 });
+        transport.configure(bootstrap, this.acceptors > 1);
     }
 
     public void open() {
-        ChannelFuture channelFuture = bootstrap.bind(this.port).syncUninterruptibly();
-        if (!channelFuture.isSuccess()) {
-            logger.error("NettyServer cannot bind port: {}", this.port, channelFuture.cause());
-            throw new IllegalStateException("NettyServer cannot bind port: " + this.port, channelFuture.cause());
+        /*
+        开启SO_REUSEPORT时，在同一个端口上绑定多个channel，
+        每个channel分别注册到bossGroup中不同的线程，由内核将新的连接分配给它们
+         */
+        for (int i = 0; i < acceptors; i++) {
+            ChannelFuture channelFuture = bootstrap.bind(this.port).syncUninterruptibly();
+            if (!channelFuture.isSuccess()) {
+                logger.error("NettyServer cannot bind port: {}", this.port, channelFuture.cause());
+                throw new IllegalStateException("NettyServer cannot bind port: " + this.port, channelFuture.cause());
+            }
+            this.channels.add(channelFuture.channel());
         }
-        this.channel = channelFuture.channel();
     }
 
     public void close() {
 
         logger.info("Closing netty server: {}", this.port);
 
-        if (channel != null) {
+        for (Channel channel : channels) {
             channel.close();
-            channel = null;
         }
+        channels.clear();
         if (bossGroup != null) {
             bossGroup.shutdownGracefully();
         }
@@ -0,0 +1,183 @@
+package cn.shijinshi.redis.forward.server;
+
+import cn.shijinshi.redis.common.protocol.RedisReply;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.ReplySlot;
+import cn.shijinshi.redis.forward.client.ClientRoute;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * Redis协议多请求可以复用单个连接，在同一个网络连接中，
+ * 要求回复报文的顺序必须要与请求报文的顺序一致。
+ *
+ * 每个client连接持有一个ReplyRing，其中预先分配了若干个ReplySlot，
+ * 请求报文按照到达的顺序占用slot，回复报文可以在任意线程中、以任意顺序完成，
+ * 但是只有从head开始连续完成的slot，才会按顺序写给client，然后被重新使用。
+ * 当未完成的请求超过slot的数量时，ring会扩容。
+ *
+ * 除了{@link #completed(ReplySlot)}，其他方法都只能在client连接的线程中执行，
+ * 所以，ring本身不需要任何锁。
+ *
+ * 在其他线程中完成的slot，需要提交drain任务到client连接的线程中执行，
+ * 通过drainScheduled保证同一时间最多只有一个待执行的drain任务，
+ * 这样，一批回复报文只需要一次任务提交、一次flush。
+ *
+ * @author Gui Jiahai
+ */
+public class ReplyRing {
+
+    private static final AtomicIntegerFieldUpdater<ReplyRing> SCHEDULED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ReplyRing.class, "drainScheduled");
+
+    private final ChannelHandlerContext ctx;
+    private final EventExecutor executor;
+    private final EventLoop eventLoop;
+    //client连接的所有请求使用同一个路由，见ClientRoute
+    private final ClientRoute route = new ClientRoute();
+    private final Runnable drainTask = this::scheduledDrain;
+    private final Consumer<ReplySlot> listener = this::completed;
+    private final Runnable onFinished;
+
+    private ReplySlot[] slots;
+    private int mask;
+
+    /**
+     * head和tail只增不减，通过mask取得对应的slot
+     */
+    private long head = 0;
+    private long tail = 0;
+
+    private boolean inactive = false;
+    private boolean finished = false;
+
+    private volatile int drainScheduled = 0;
+
+    /**
+     * @param capacity 预先分配的slot数量，会调整为2的幂
+     * @param onFinished 当client连接断开，而且所有请求都处理完成后，会调用一次
+     */
+    public ReplyRing(ChannelHandlerContext ctx, int capacity, Runnable onFinished) {
+        this.ctx = ctx;
+        this.executor = ctx.executor();
+        this.eventLoop = ctx.channel().eventLoop();
+        this.onFinished = onFinished;
+
+        int n = 1;
+        while (n < capacity) {
+            n <<= 1;
+        }
+        this.slots = new ReplySlot[n];
+        for (int i = 0; i < n; i++) {
+            slots[i] = new ReplySlot(eventLoop, route, listener);
+        }
+        this.mask = n - 1;
+    }
+
+    /**
+     * 为请求报文分配一个slot
+     */
+    public ReplySlot acquire(RedisRequest request) {
+        if (tail - head == slots.length) {
+            grow();
+        }
+        ReplySlot slot = slots[(int) (tail & mask)];
+        tail ++;
+        return slot.init(request);
+    }
+
+    private void grow() {
+        int n = slots.length;
+        ReplySlot[] newSlots = new ReplySlot[n << 1];
+        //按照顺序将原来的slot复制到新数组的前半部分，后半部分分配新的slot
+        for (int i = 0; i < n; i++) {
+            newSlots[i] = slots[(int) ((head + i) & mask)];
+        }
+        for (int i = n; i < newSlots.length; i++) {
+            newSlots[i] = new ReplySlot(eventLoop, route, listener);
+        }
+        this.slots = newSlots;
+        this.mask = newSlots.length - 1;
+        this.tail = tail - head;
+        this.head = 0;
+    }
+
+    /**
+     * slot完成后的回调，可能在任意线程中执行
+     */
+    void completed(ReplySlot slot) {
+        if (executor.inEventLoop()) {
+            drain();
+        } else if (SCHEDULED_UPDATER.compareAndSet(this, 0, 1)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    private void scheduledDrain() {
+        //必须在drain之前重置，这样，在此之后完成的slot会提交新的任务，不会被遗漏
+        drainScheduled = 0;
+        drain();
+    }
+
+    /**
+     * 将head开始连续完成的slot，按顺序写给client
+     */
+    void drain() {
+        boolean written = false;
+        boolean active = ctx.channel().isActive();
+        while (head != tail) {
+            ReplySlot slot = slots[(int) (head & mask)];
+            RedisReply reply = slot.getReply();
+            if (reply == null) {
+                break;
+            }
+
+            if (active) {
+                //回复报文的引用交给Netty，在写出后释放
+                ctx.write(reply.toByteBuf(), ctx.voidPromise());
+                written = true;
+            } else {
+                reply.release();
+            }
+
+            //此时，所有handler都已经处理完回复报文，可以释放请求报文
+            RedisRequest request = slot.getRequest();
+            slot.clear();
+            request.release();
+            head ++;
+        }
+
+        if (written) {
+            ctx.flush();
+        }
+        checkFinished();
+    }
+
+    /**
+     * client连接断开后调用
+     */
+    void inactive() {
+        inactive = true;
+        drain();
+    }
+
+    private void checkFinished() {
+        if (inactive && !finished && head == tail) {
+            finished = true;
+            onFinished.run();
+        }
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    int pending() {
+        return (int) (tail - head);
+    }
+
+}
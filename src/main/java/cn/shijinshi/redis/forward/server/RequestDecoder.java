@@ -1,49 +1,60 @@
 package cn.shijinshi.redis.forward.server;
 
-import cn.shijinshi.redis.common.protocol.RedisCodec;
+import cn.shijinshi.redis.common.protocol.CommandTable;
+import cn.shijinshi.redis.common.protocol.RedisParser;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
  * 解析来自客户端的请求报文
  *
+ * 解析过程直接在ByteBuf上进行，解析出的RedisRequest持有
+ * 接收缓冲区的一个slice，并不会复制报文内容。
+ * 对于分多次到达的大报文，RedisParser会记住解析进度，不会重复解析。
+ *
  * @author Gui Jiahai
  */
 public class RequestDecoder extends ByteToMessageDecoder {
 
     private static final Logger logger = LoggerFactory.getLogger(RequestDecoder.class);
 
+    private final RedisParser parser;
+
+    public RequestDecoder() {
+        this(null);
+    }
+
+    /**
+     * @param commandTable 用于在解码时确定命令对应的Support，可以为null
+     */
+    public RequestDecoder(CommandTable<?> commandTable) {
+        this.parser = new RedisParser(commandTable);
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
         if (!ctx.channel().isActive()) {
             return;
         }
 
-        InputStream input = new ByteBufInputStream(in);
-        int saveReaderIndex;
         RedisRequest request;
         do {
-            saveReaderIndex = in.readerIndex();
             try {
-                request = RedisCodec.decodeRequest(input);
+                request = parser.decodeRequest(in);
             } catch (IOException e) {
-                in.readerIndex(saveReaderIndex);
                 logger.error("Bad redis bytes stream:\n{}", in.toString(StandardCharsets.UTF_8));
                 throw e;
             }
 
             if (request == null) {
-                in.readerIndex(saveReaderIndex);
                 break;
             } else {
                 out.add(request);
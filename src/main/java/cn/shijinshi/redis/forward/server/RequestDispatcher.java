@@ -2,22 +2,25 @@ package cn.shijinshi.redis.forward.server;
 
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.forward.Handler;
-import io.netty.buffer.Unpooled;
+import cn.shijinshi.redis.forward.ReplySlot;
 import io.netty.channel.*;
+import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 将来自客户端的请求报文，交由Handlers进行处理，
  * 并将结果返回给客户端。
  *
+ * 每个客户端连接持有一个{@link ReplyRing}，用于保证回复报文的顺序。
+ *
  * @author Gui Jiahai
  */
 @ChannelHandler.Sharable
@@ -25,17 +28,23 @@ public class RequestDispatcher extends ChannelInboundHandlerAdapter {
 
     private static final Logger logger = LoggerFactory.getLogger(RequestDispatcher.class);
 
+    private static final AttributeKey<ReplyRing> RING_KEY = AttributeKey.valueOf(RequestDispatcher.class, "ring");
+
     private final Map<ChannelId, Channel> channels = new ConcurrentHashMap<>();
     private final Handler handler;
-    private final Transfer transfer;
+    private final int ringSize;
 
-    public RequestDispatcher(Handler handler) {
-        this.handler = Objects.requireNonNull(handler);
-        transfer = createTransfer();
-    }
+    /**
+     * 尚未结束的ReplyRing的数量，
+     * 在关闭之后，当所有ring都结束时，才能关闭handler
+     */
+    private final AtomicInteger rings = new AtomicInteger(0);
+    private final AtomicBoolean handlerClosed = new AtomicBoolean(false);
+    private volatile boolean closed = false;
 
-    private Transfer createTransfer() {
-        return new MultiQueuedTransfer(this::handleTuple);
+    public RequestDispatcher(Handler handler, int ringSize) {
+        this.handler = Objects.requireNonNull(handler);
+        this.ringSize = ringSize;
     }
 
     public Map<ChannelId, Channel> getChannels() {
@@ -45,33 +54,22 @@ public class RequestDispatcher extends ChannelInboundHandlerAdapter {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         RedisRequest request = (RedisRequest) msg;
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-
-        /*
-        先将tuple入队，然后交由handler处理，
-        两者顺序不能变。
-
-        CompletableFuture future;
-        future.thenAccept(consumer1);
-        future.thenAccept(consumer2);
-
-        当future完成后，会先执行consumer2，后执行consumer1。
-
-        在handler处理request时，有可能会会在future.thenAccept(consumer)中，修改future中的result。
-        在transfer.queue(tuple)中，会通过future.thenAccept(consumer)方法，
-        取得结果，并将结果返回给client。
-
-        综上，两者顺序不得变更。
-
-        这确实是一个坏的设计，以后可能会优化。
-         */
+        if (closed) {
+            //todo 不应该出现在这里。如果出现在这里，应该是个bug
+            logger.error("RequestDispatcher closed. No more request should be dispatched. This must be a bug.");
+            request.release();
+            ctx.close();
+            return;
+        }
 
-        transfer.queue(Tuple.create(ctx, future));
-        handler.handle(request, null, future);
+        ReplySlot slot = ctx.channel().attr(RING_KEY).get().acquire(request);
+        handler.handle(slot);
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        rings.incrementAndGet();
+        ctx.channel().attr(RING_KEY).set(new ReplyRing(ctx, ringSize, this::ringFinished));
         super.channelActive(ctx);
         channels.put(ctx.channel().id(), ctx.channel());
     }
@@ -80,6 +78,10 @@ public class RequestDispatcher extends ChannelInboundHandlerAdapter {
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         super.channelInactive(ctx);
         channels.remove(ctx.channel().id());
+        ReplyRing ring = ctx.channel().attr(RING_KEY).get();
+        if (ring != null) {
+            ring.inactive();
+        }
     }
 
     @Override
@@ -95,7 +97,7 @@ public class RequestDispatcher extends ChannelInboundHandlerAdapter {
         }
 
         /*
-          在处理request时，handler应该把异常通过future传递。
+          在处理request时，handler应该把异常通过slot传递。
           如果发生异常，则关闭channel
          */
         logger.warn("Exception occurred, the channel will be closed, channel {}", ctx.channel(), cause);
@@ -105,36 +107,29 @@ public class RequestDispatcher extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private void handleTuple(Tuple tuple) {
-        if (tuple == null) {
+    private void ringFinished() {
+        if (rings.decrementAndGet() == 0 && closed) {
+            closeHandler();
+        }
+    }
+
+    private void closeHandler() {
+        if (handlerClosed.compareAndSet(false, true)) {
             try {
                 handler.close();
             } catch (IOException ignored) {
             }
-            return;
-        }
-
-        try {
-            byte[] bytes = tuple.getFuture().get();
-            if (tuple.getContext().channel().isActive()) {
-                tuple.getContext().writeAndFlush(Unpooled.wrappedBuffer(bytes));
-            }
-        } catch (InterruptedException e) {
-            logger.error("{} should not be interrupted", Thread.currentThread());
-            Thread.currentThread().interrupt();
-        } catch (ExecutionException e) {
-            // 正常情况下，这里不应该出现异常。
-            logger.error("There should be NO java.util.concurrent.ExecutionException. For security, we would close the channel[{}]",
-                    tuple.getContext().channel().remoteAddress(), e.getCause());
-            if (tuple.getContext().channel().isActive()) {
-                tuple.getContext().close();
-            }
         }
     }
 
+    /**
+     * 用于程序的优雅关机。
+     * 在所有client连接断开，并且所有请求都处理完成后，关闭handler
+     */
     public void close() {
-        if (transfer != null) {
-            transfer.closeGracefully();
+        closed = true;
+        if (rings.get() == 0) {
+            closeHandler();
         }
     }
 
@@ -1,8 +1,7 @@
 package cn.shijinshi.redis.forward.support;
 
 import cn.shijinshi.redis.common.protocol.RedisRequest;
-
-import java.util.concurrent.CompletableFuture;
+import cn.shijinshi.redis.forward.ReplySlot;
 
 /**
  * @author Gui Jiahai
@@ -13,5 +12,5 @@ public interface Action {
      * 预处理RedisRequest
      * @return 如果能成功处理，则返回TRUE，否则返回FALSE
      */
-    Boolean apply(RedisRequest redisRequest, CompletableFuture<byte[]> completableFuture);
+    Boolean apply(RedisRequest redisRequest, ReplySlot slot);
 }
@@ -1,13 +1,14 @@
 package cn.shijinshi.redis.forward.support;
 
 import cn.shijinshi.redis.common.Constants;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.common.util.UnsafeByteString;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * 屏蔽CLIENT LIST 和 CLIENT SETNAME 两个命令
@@ -21,12 +22,14 @@ public class ClientAction implements Action {
     private static final UnsafeByteString LIST_SUB_COMMAND = new UnsafeByteString("list".toLowerCase());
     private static final UnsafeByteString SETNAME_SUB_COMMAND = new UnsafeByteString("setname".toLowerCase());
 
+    private static final RedisReply OK_REPLY = new RedisReply(Constants.OK_REPLY);
+
     @Override
-    public Boolean apply(RedisRequest redisRequest, CompletableFuture<byte[]> future) {
+    public Boolean apply(RedisRequest redisRequest, ReplySlot slot) {
         if (LIST_SUB_COMMAND.equals(redisRequest.getSubCommand())) {
-            future.complete(clientListBytes());
+            slot.complete(new RedisReply(clientListBytes()));
         } else if (SETNAME_SUB_COMMAND.equals(redisRequest.getSubCommand())) {
-            future.complete(Constants.OK_REPLY);
+            slot.complete(OK_REPLY);
         } else {
             return Boolean.FALSE;
         }
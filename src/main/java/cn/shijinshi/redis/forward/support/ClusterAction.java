@@ -5,9 +5,11 @@ import cn.shijinshi.redis.common.param.Cluster;
 import cn.shijinshi.redis.common.param.HostAndPort;
 import cn.shijinshi.redis.common.param.Node;
 import cn.shijinshi.redis.common.param.Range;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.common.util.UnsafeByteString;
 import cn.shijinshi.redis.control.broker.Broker;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
@@ -15,7 +17,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
 
 import static cn.shijinshi.redis.common.Constants.CRLF_CHAR;
 
@@ -33,8 +34,8 @@ public class ClusterAction implements Action {
     private static final UnsafeByteString SLOTS_SUB_COMMAND = new UnsafeByteString("slots".toLowerCase());
     private static final UnsafeByteString NODES_SUB_COMMAND = new UnsafeByteString("nodes".toLowerCase());
 
-    private static final byte[] ERR_REPLY =
-            "-CLUSTERDOWN The cluster is down cause unable to get cluster from broker \r\n".getBytes();
+    private static final RedisReply ERR_REPLY = new RedisReply(
+            "-CLUSTERDOWN The cluster is down cause unable to get cluster from broker \r\n".getBytes());
 
     private final Broker broker;
     private final HostAndPort localAddress;
@@ -45,23 +46,23 @@ public class ClusterAction implements Action {
     }
 
     @Override
-    public Boolean apply(RedisRequest redisRequest, CompletableFuture<byte[]> future) {
+    public Boolean apply(RedisRequest redisRequest, ReplySlot slot) {
         if (SLOTS_SUB_COMMAND.equals(redisRequest.getSubCommand())) {
             Cluster cluster = broker.getCluster();
             if (cluster == null) {
-                future.complete(ERR_REPLY);
+                slot.complete(ERR_REPLY);
             } else {
                 byte[] bytes = toClusterSlotsBytes(cluster);
-                future.complete(bytes);
+                slot.complete(new RedisReply(bytes));
             }
 
         } else if (NODES_SUB_COMMAND.equals(redisRequest.getSubCommand())) {
             Cluster cluster = broker.getCluster();
             if (cluster == null) {
-                future.complete(ERR_REPLY);
+                slot.complete(ERR_REPLY);
             } else {
                 byte[] bytes = toClusterNodesBytes(cluster);
-                future.complete(bytes);
+                slot.complete(new RedisReply(bytes));
             }
         } else {
             return Boolean.FALSE;
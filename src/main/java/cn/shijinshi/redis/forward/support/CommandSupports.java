@@ -1,23 +1,29 @@
 package cn.shijinshi.redis.forward.support;
 
+import cn.shijinshi.redis.common.protocol.CommandTable;
 import cn.shijinshi.redis.common.util.UnsafeByteString;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
+ * 所有支持的命令。
+ *
+ * 初始化完成后，会生成{@link CommandTable}，交给RequestDecoder，
+ * 在解码时就确定了请求报文对应的Support，SupportHandler不需要再查找。
+ *
  * @author Gui Jiahai
  */
 @Component
 @Lazy
 public class CommandSupports {
 
-    //增大HashMap的容量，降低负载因子，从而降低碰撞率
-    private final Map<UnsafeByteString, Support> supports
-            = new HashMap<>(256, 0.5f);
+    private final Map<String, Support> supports = new LinkedHashMap<>(256);
+
+    private volatile CommandTable<Support> table;
 
     private final Map<String, Action> actionMap;
 
@@ -26,11 +32,15 @@ public class CommandSupports {
     }
 
     public Support get(UnsafeByteString command) {
-        return supports.get(command);
+        return table.get(command);
+    }
+
+    public CommandTable<Support> getTable() {
+        return table;
     }
 
     private void addSupport(String command, boolean backup) {
-        supports.put(new UnsafeByteString(command), new Support(backup, actionMap.get(command)));
+        supports.put(command, new Support(backup, actionMap.get(command)));
     }
 
     @PostConstruct
@@ -140,6 +150,8 @@ public class CommandSupports {
         addSupport("quit", false);
 
         addSupport("rpc", false);
+
+        table = CommandTable.create(supports);
     }
 
 
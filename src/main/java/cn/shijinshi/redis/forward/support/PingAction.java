@@ -1,10 +1,11 @@
 package cn.shijinshi.redis.forward.support;
 
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Gui Jiahai
@@ -13,11 +14,11 @@ import java.util.concurrent.CompletableFuture;
 @Lazy
 public class PingAction implements Action {
 
-    private final byte[] reply = "+PONG\r\n".getBytes();
+    private final RedisReply reply = new RedisReply("+PONG\r\n".getBytes());
 
     @Override
-    public Boolean apply(RedisRequest redisRequest, CompletableFuture<byte[]> future) {
-        future.complete(reply);
+    public Boolean apply(RedisRequest redisRequest, ReplySlot slot) {
+        slot.complete(reply);
         return Boolean.TRUE;
     }
 }
@@ -1,11 +1,12 @@
 package cn.shijinshi.redis.forward.support;
 
 import cn.shijinshi.redis.common.Constants;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Gui Jiahai
@@ -14,9 +15,11 @@ import java.util.concurrent.CompletableFuture;
 @Lazy
 public class QuitAction implements Action {
 
+    private static final RedisReply OK_REPLY = new RedisReply(Constants.OK_REPLY);
+
     @Override
-    public Boolean apply(RedisRequest redisRequest, CompletableFuture<byte[]> future) {
-        future.complete(Constants.OK_REPLY);
+    public Boolean apply(RedisRequest redisRequest, ReplySlot slot) {
+        slot.complete(OK_REPLY);
         return Boolean.TRUE;
     }
 }
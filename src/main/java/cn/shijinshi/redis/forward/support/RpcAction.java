@@ -1,17 +1,18 @@
 package cn.shijinshi.redis.forward.support;
 
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.control.broker.Broker;
 import cn.shijinshi.redis.control.rpc.Answer;
 import cn.shijinshi.redis.control.rpc.Indication;
 import cn.shijinshi.redis.control.rpc.RpcHelper;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * 用于Controller和Brokers进行通信
@@ -24,7 +25,7 @@ public class RpcAction implements Action {
 
     private static final Logger logger = LoggerFactory.getLogger(RpcAction.class);
 
-    private final byte[] errReply;
+    private final RedisReply errReply;
 
     private final Broker broker;
     private final RpcHelper rpcHelper;
@@ -35,7 +36,7 @@ public class RpcAction implements Action {
 
         try {
             Answer answer = Answer.bad("Failed to parse bytes to Indication or Answer");
-            errReply = rpcHelper.toResponse(answer);
+            errReply = new RedisReply(rpcHelper.toResponse(answer));
 
         } catch (IOException e) {
             logger.error("Failed to serialize Answer.bad() to bytes", e);
@@ -44,14 +45,14 @@ public class RpcAction implements Action {
     }
 
     @Override
-    public Boolean apply(RedisRequest redisRequest, CompletableFuture<byte[]> future) {
+    public Boolean apply(RedisRequest redisRequest, ReplySlot slot) {
         try {
             Indication indication = rpcHelper.fromRequest(redisRequest);
             Answer answer = broker.answer(indication);
             byte[] bytes = rpcHelper.toResponse(answer);
-            future.complete(bytes);
+            slot.complete(new RedisReply(bytes));
         } catch (IOException e) {
-            future.complete(errReply);
+            slot.complete(errReply);
         }
         return Boolean.TRUE;
     }
@@ -0,0 +1,127 @@
+package cn.shijinshi.redis.sync;
+
+import java.util.ArrayDeque;
+import java.util.function.LongConsumer;
+
+/**
+ * 同步时处理中请求的窗口
+ *
+ * 请求按照日志中的顺序发送给target，不等待回复，直到处理中的请求数量或者字节数达到上限，
+ * 见{@link #acquire(int)}。回复是异步的，而且由于重试，完成的顺序可能和发送的顺序不同，
+ * 所以只有从最早的请求开始连续完成的部分才会ack，之后的请求即使已经完成，
+ * 也要等待前面的请求完成，这样ack的位置之前的请求一定都已经同步到target了。
+ *
+ * @author Gui Jiahai
+ */
+public class AckWindow {
+
+    private final int maxSize;
+    private final long maxBytes;
+    private final LongConsumer acker;
+
+    //按照发送的顺序
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long bytes = 0;
+    private boolean ended = false;
+    private boolean failed = false;
+
+    /**
+     * @param acker 连续完成的字节数，在锁内调用，所以调用是串行的
+     */
+    public AckWindow(int maxSize, long maxBytes, LongConsumer acker) {
+        if (maxSize <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("window size and bytes must be positive");
+        }
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.acker = acker;
+    }
+
+    /**
+     * 窗口满时阻塞，窗口为空时总是可以放入，即使size超过了字节数上限
+     *
+     * @return 放入的请求，已经失败时返回null
+     */
+    public synchronized Entry acquire(int size) throws InterruptedException {
+        while (!failed && !entries.isEmpty()
+                && (entries.size() >= maxSize || bytes + size > maxBytes)) {
+            wait();
+        }
+        if (failed) {
+            return null;
+        }
+        Entry entry = new Entry(size);
+        entries.add(entry);
+        bytes += size;
+        return entry;
+    }
+
+    /**
+     * 请求已经完成（成功或者放弃），可以在任意线程中调用
+     */
+    public synchronized void complete(Entry entry) {
+        if (entry.done) {
+            return;
+        }
+        entry.done = true;
+
+        long acked = 0;
+        Entry head;
+        while ((head = entries.peek()) != null && head.done) {
+            entries.remove();
+            acked += head.size;
+        }
+        if (acked > 0) {
+            bytes -= acked;
+            acker.accept(acked);
+            notifyAll();
+        }
+    }
+
+    /**
+     * 不会再有新的请求，剩余的请求完成之后{@link #awaitEnd()}返回
+     */
+    public synchronized void end() {
+        ended = true;
+        notifyAll();
+    }
+
+    /**
+     * 有请求无法完成，之后的请求都不能再ack，放弃同步
+     */
+    public synchronized void fail() {
+        failed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return 所有请求都已经完成时返回true，失败时返回false
+     */
+    public synchronized boolean awaitEnd() throws InterruptedException {
+        while (!failed && !(ended && entries.isEmpty())) {
+            wait();
+        }
+        return !failed;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public static final class Entry {
+        private final int size;
+        private boolean done = false;
+
+        private Entry(int size) {
+            this.size = size;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import cn.shijinshi.redis.common.protocol.RedisRequest;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Gui Jiahai
@@ -12,4 +13,15 @@ public interface Appender extends Closeable {
 
     void append(RedisRequest request) throws IOException;
 
+    /**
+     * 与{@link #append(RedisRequest)}相同，但是不等待请求写入磁盘。
+     *
+     * @return 请求写入磁盘之后完成的future，
+     *          如果不需要等待（比如异步的持久化），则返回null
+     */
+    default CompletableFuture<Void> appendAsync(RedisRequest request) throws IOException {
+        append(request);
+        return null;
+    }
+
 }
@@ -1,9 +1,14 @@
 package cn.shijinshi.redis.sync;
 
+import cn.shijinshi.redis.common.prop.AppenderProperties;
 import cn.shijinshi.redis.common.prop.BrokerProperties;
 import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
+import cn.shijinshi.redis.common.log.Retention;
 import cn.shijinshi.redis.sync.appender.AsyncAppender;
 import cn.shijinshi.redis.sync.appender.NoAppender;
+import cn.shijinshi.redis.sync.appender.PartitionedAppender;
+import cn.shijinshi.redis.sync.appender.RetentionAppender;
 import cn.shijinshi.redis.sync.appender.SyncAppender;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -16,12 +21,31 @@ public class AppenderConfiguration {
 
     @Bean(destroyMethod = "")
     @Lazy
-    public Appender create(IndexLogger indexLogger, BrokerProperties properties) {
-        String appenderType = properties.getAppender().getType();
+    public Appender create(PartitionedLogger partitionedLogger, BrokerProperties properties) {
+        AppenderProperties appender = properties.getAppender();
+        if (partitionedLogger.size() == 1) {
+            return create(partitionedLogger.get(0), appender, appender.getBufferBytes());
+        }
+        //缓冲区的总字节数不变，由各个分区平分
+        int bufferBytes = Math.max(appender.getBufferBytes() / partitionedLogger.size(), 1);
+        return new PartitionedAppender(partitionedLogger, indexLogger -> create(indexLogger, appender, bufferBytes));
+    }
+
+    private Appender create(IndexLogger indexLogger, AppenderProperties appender, int bufferBytes) {
+        Appender created = createAppender(indexLogger, appender, bufferBytes);
+        Retention retention = indexLogger.getRetention();
+        if (retention != null && retention.getPolicy() == Retention.Policy.STOP_BACKUP) {
+            return new RetentionAppender(created, retention);
+        }
+        return created;
+    }
+
+    private Appender createAppender(IndexLogger indexLogger, AppenderProperties appender, int bufferBytes) {
+        String appenderType = appender.getType();
         if (SYNC_TYPE.equalsIgnoreCase(appenderType)) {
-            return new SyncAppender(indexLogger);
+            return new SyncAppender(indexLogger, appender.getBatchSize(), appender.getBatchDelayMicros());
         } else if (ASYNC_TYPE.equalsIgnoreCase(appenderType)) {
-            return new AsyncAppender(indexLogger);
+            return new AsyncAppender(indexLogger, bufferBytes, overflow(appender.getOverflow()));
         } else if (NO_TYPE.equalsIgnoreCase(appenderType)) {
             return new NoAppender(indexLogger);
         } else {
@@ -29,4 +53,16 @@ public class AppenderConfiguration {
         }
     }
 
+    private AsyncAppender.Overflow overflow(String overflow) {
+        if (BLOCK_OVERFLOW.equalsIgnoreCase(overflow)) {
+            return AsyncAppender.Overflow.BLOCK;
+        } else if (SYNC_OVERFLOW.equalsIgnoreCase(overflow)) {
+            return AsyncAppender.Overflow.SYNC;
+        } else if (FAIL_OVERFLOW.equalsIgnoreCase(overflow)) {
+            return AsyncAppender.Overflow.FAIL;
+        } else {
+            throw new IllegalStateException("Unrecognized appender overflow, must be block, sync or fail");
+        }
+    }
+
 }
@@ -7,7 +7,9 @@ import cn.shijinshi.redis.common.adapt.ReplicatorAdaptorFactory;
 import cn.shijinshi.redis.common.error.ErrorHandler;
 import cn.shijinshi.redis.common.log.IndexLogger;
 import cn.shijinshi.redis.common.prop.RedisProperties;
+import cn.shijinshi.redis.common.prop.SyncProperties;
 import cn.shijinshi.redis.common.util.ArrayUtil;
+import cn.shijinshi.redis.common.util.SimpleThreadFactory;
 import com.moilioncircle.redis.replicator.Configuration;
 import com.moilioncircle.redis.replicator.RedisAofReplicator;
 import com.moilioncircle.redis.replicator.Replicator;
@@ -30,6 +32,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 如果进程退出时，有可能会使磁盘队列中的request没有全部发送对端redis数据库中，
  * 从而造成数据不一致。所以，强烈要求，在进程退出时，使用非守护线程，
  * 将队列中的request发送到对端redis数据库中，直到队列中没有request。
+ *
+ * 请求以pipeline的方式发送，不等待前一个请求的回复，处理中的请求由{@link AckWindow}限制，
+ * 回复通过回调处理，连续完成的请求才会ack。
+ * 需要重试的请求由retry线程延迟之后重新发送，不会阻塞其他请求的回复。
  */
 public class RequestSynchronizer extends Thread {
 
@@ -39,7 +45,9 @@ public class RequestSynchronizer extends Thread {
     private final ReplicatorAdaptor adaptor;
     private final Replicator replicator;
 
-    private final BlockingQueue<Tuple> queue = new LinkedBlockingQueue<>(256);
+    private final AckWindow window;
+    private final ScheduledExecutorService retryExecutor =
+            Executors.newSingleThreadScheduledExecutor(new SimpleThreadFactory("request-synchronizer-retry", true));
     private final AtomicBoolean started = new AtomicBoolean(false);
 
     private int requestSize = 0;
@@ -49,10 +57,15 @@ public class RequestSynchronizer extends Thread {
     private final CountDownLatch stopLatch = new CountDownLatch(1);
 
     public RequestSynchronizer(IndexLogger indexLogger, RedisProperties target) {
+        this(indexLogger, target, new SyncProperties());
+    }
+
+    public RequestSynchronizer(IndexLogger indexLogger, RedisProperties target, SyncProperties sync) {
         super("request-synchronizer-future-thread");
 
         this.indexLogger = Objects.requireNonNull(indexLogger);
         this.adaptor = ReplicatorAdaptorFactory.create(target);
+        this.window = new AckWindow(sync.getWindowSize(), sync.getWindowBytes(), indexLogger::ack);
 
         InputStream inputStream = indexLogger.getInputStream();
         replicator = new RedisAofReplicator(inputStream, Configuration.defaultSetting());
@@ -79,12 +92,15 @@ public class RequestSynchronizer extends Thread {
             int size = requestSize;
             requestSize = 0;
 
-            Future<Void> future = adaptor.dispatch(event);
-            Tuple tuple = new Tuple(event, size, future);
+            AckWindow.Entry entry;
             try {
-                queue.put(tuple);
+                entry = window.acquire(size);
             } catch (InterruptedException ignored) {
                 logger.error("{} should not be interrupted", Thread.currentThread());
+                return;
+            }
+            if (entry != null) {
+                send(new Tuple(event, entry));
             }
         });
         replicator.addRawByteListener(len -> requestSize += len);
@@ -122,77 +138,100 @@ public class RequestSynchronizer extends Thread {
             } catch (Throwable t) {
                 logger.error("Replicator error, and synchronizer will be interrupted, please solve this problem and restart", t);
             } finally {
-                try {
-                    queue.put(Tuple.END);
-                } catch (InterruptedException ignored) {
-                    logger.error("{} should not be interrupted", Thread.currentThread());
-                } finally {
-                    stopLatch.countDown();
-                }
+                window.end();
+                stopLatch.countDown();
             }
         }, "request-synchronizer-replicator-thread");
         t1.setDaemon(true);
         t1.start();
 
         try {
-            handleFuture();
+            if (!window.awaitEnd()) {
+                logger.error("Failed to retry event, we will give up and exit current thread");
+            }
         } catch (InterruptedException e) {
             logger.error("{} should not be interrupted", Thread.currentThread());
             ErrorHandler.handle(e);
         } finally {
+            retryExecutor.shutdownNow();
             try {
                 indexLogger.getInputStream().close();
             } catch (IOException ignored) {}
         }
     }
 
-    private void handleFuture() throws InterruptedException {
-        Tuple tuple;
-        while ((tuple = queue.take()) != Tuple.END) {
-            try {
-                tuple.getFuture().get();
-                indexLogger.ack(tuple.getSize());
-            } catch (ExecutionException e) {
-                Throwable cause = e.getCause();
-                if (cause instanceof AccessibleException) {
-                    logger.error("Failed to get reply, event will be retried", cause);
-
-                    if (!retry(tuple, (AccessibleException) cause)) {
-                        logger.error("Failed to retry event, we will give up and exit current thread");
-                        return;
-                    }
-
-                } else {
-                    logger.error("Failed to get reply, the event will be ignored", cause);
-                    indexLogger.ack(tuple.getSize());
-                }
+    private void send(Tuple tuple) {
+        CompletableFuture<Void> future;
+        try {
+            future = toCompletable(adaptor.dispatch(tuple.getEvent()));
+        } catch (RuntimeException e) {
+            logger.error("Failed to dispatch event, the event will be ignored: {}", tuple.getEvent().getClass(), e);
+            window.complete(tuple.getEntry());
+            return;
+        }
+        future.whenComplete((v, throwable) -> {
+            if (throwable == null) {
+                window.complete(tuple.getEntry());
+            } else {
+                failed(tuple, throwable);
             }
+        });
+    }
+
+    private void failed(Tuple tuple, Throwable throwable) {
+        Throwable cause = throwable;
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (!(cause instanceof AccessibleException)) {
+            logger.error("Failed to get reply, the event will be ignored", cause);
+            window.complete(tuple.getEntry());
+            return;
+        }
+
+        AccessibleException ex = (AccessibleException) cause;
+        if (replicator.getStatus() == Status.DISCONNECTED && ex.isDisconnected()) {
+            //后面的请求即使成功了也不能ack，所以整个窗口都失败
+            window.fail();
+            return;
+        }
+        if (tuple.getAttempts() == 0) {
+            logger.error("Failed to get reply, event will be retried", cause);
+        } else {
+            logger.info("Failed to get reply in retry[{}], event will be retried", tuple.getAttempts(), cause);
+        }
+        tuple.incrAttempts();
+        try {
+            retryExecutor.schedule(() -> send(tuple), delay(tuple.getAttempts()), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            window.fail();
         }
     }
 
-    private boolean retry(Tuple tuple, AccessibleException ex) throws InterruptedException {
-        while (!(replicator.getStatus() == Status.DISCONNECTED && ex.isDisconnected())) {
-            tuple.incrAttempts();
-            long delay;
-            if ((delay = delay(tuple.getAttempts())) > 0) {
-                Thread.sleep(delay);
-            }
-            Future<Void> future = adaptor.dispatch(tuple.getEvent());
-            try {
-                future.get();
-                indexLogger.ack(tuple.getSize());
-                return true;
-            } catch (ExecutionException e) {
-                Throwable cause = e.getCause();
-                if (cause instanceof AccessibleException) {
-                    ex = (AccessibleException) cause;
-                    logger.info("Failed to get reply in retry[{}], event will be retried", cause);
-                } else {
-                    logger.info("Failed to get reply in retry[{}], event will be ignored", cause);
-                }
-            }
+    /**
+     * ReplicatorHandler返回的都是CompletableFuture，其他的Future只能阻塞等待
+     */
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<Void> toCompletable(Future<Void> future) {
+        if (future instanceof CompletableFuture) {
+            return (CompletableFuture<Void>) future;
+        }
+        CompletableFuture<Void> completable = new CompletableFuture<>();
+        if (future == null) {
+            //dispatch时的错误已经交给了ErrorHandler
+            completable.complete(null);
+            return completable;
         }
-        return false;
+        try {
+            future.get();
+            completable.complete(null);
+        } catch (ExecutionException e) {
+            completable.completeExceptionally(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completable.completeExceptionally(e);
+        }
+        return completable;
     }
 
     private long delay(int attempts) {
@@ -256,29 +295,21 @@ public class RequestSynchronizer extends Thread {
 
     static class Tuple {
 
-        static final Tuple END = new Tuple(null, 0, null);
-
         private final Event event;
-        private final int size;
-        private final Future<Void> future;
-        private int attempts = 0;
+        private final AckWindow.Entry entry;
+        private volatile int attempts = 0;
 
-        Tuple(Event event, int size, Future<Void> future) {
+        Tuple(Event event, AckWindow.Entry entry) {
             this.event = event;
-            this.size = size;
-            this.future = future;
+            this.entry = entry;
         }
 
         Event getEvent() {
             return event;
         }
 
-        int getSize() {
-            return size;
-        }
-
-        public Future<Void> getFuture() {
-            return future;
+        AckWindow.Entry getEntry() {
+            return entry;
         }
 
         int getAttempts() {
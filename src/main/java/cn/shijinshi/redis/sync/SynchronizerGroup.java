@@ -0,0 +1,88 @@
+package cn.shijinshi.redis.sync;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个日志分区有自己的{@link RequestSynchronizer}，
+ * 见{@link cn.shijinshi.redis.common.log.PartitionedLogger}。
+ * 这里将所有分区的synchronizer作为一个整体，controller的指令对所有分区同时生效。
+ *
+ * @author Gui Jiahai
+ */
+public class SynchronizerGroup {
+
+    private final RequestSynchronizer[] synchronizers;
+
+    public SynchronizerGroup(RequestSynchronizer... synchronizers) {
+        if (synchronizers.length == 0) {
+            throw new IllegalArgumentException("synchronizers must not be empty");
+        }
+        for (RequestSynchronizer synchronizer : synchronizers) {
+            Objects.requireNonNull(synchronizer);
+        }
+        this.synchronizers = synchronizers;
+    }
+
+    public void start() {
+        for (RequestSynchronizer synchronizer : synchronizers) {
+            synchronizer.start();
+        }
+    }
+
+    public void pause() {
+        for (RequestSynchronizer synchronizer : synchronizers) {
+            synchronizer.pause();
+        }
+    }
+
+    public void resume_() {
+        for (RequestSynchronizer synchronizer : synchronizers) {
+            synchronizer.resume_();
+        }
+    }
+
+    /**
+     * 每个分区都会写入TICK，所以每个分区都能遇到TICK，
+     * 见{@link cn.shijinshi.redis.sync.appender.PartitionedAppender}
+     */
+    public void resumeTick(byte[] tick) {
+        for (RequestSynchronizer synchronizer : synchronizers) {
+            synchronizer.resumeTick(tick);
+        }
+    }
+
+    /**
+     * @return 是否有分区处于暂停状态
+     */
+    public boolean isPaused() {
+        for (RequestSynchronizer synchronizer : synchronizers) {
+            if (synchronizer.isPaused()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 是否有分区还没有遇到TICK
+     */
+    public boolean isTicked() {
+        for (RequestSynchronizer synchronizer : synchronizers) {
+            if (synchronizer.isTicked()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void stop(long timeout, TimeUnit timeUnit) {
+        for (RequestSynchronizer synchronizer : synchronizers) {
+            synchronizer.stop(timeout, timeUnit);
+        }
+    }
+
+    public int size() {
+        return synchronizers.length;
+    }
+}
@@ -0,0 +1,20 @@
+package cn.shijinshi.redis.sync.appender;
+
+import java.io.IOException;
+
+/**
+ * 请求没有被备份，异常信息会回复给client：
+ * 1、缓冲区满时，见{@link AsyncAppender.Overflow#FAIL}；
+ * 2、日志文件超过配额时，见{@link RetentionAppender}。
+ *
+ * 这不是磁盘错误，所以不交给{@link cn.shijinshi.redis.common.error.ErrorHandler}处理，
+ * 而是回复client一个错误。
+ *
+ * @author Gui Jiahai
+ */
+public class AppendRejectedException extends IOException {
+
+    public AppendRejectedException(String message) {
+        super(message);
+    }
+}
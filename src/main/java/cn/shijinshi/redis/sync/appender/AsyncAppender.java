@@ -5,38 +5,122 @@ import cn.shijinshi.redis.common.error.ErrorHandler;
 import cn.shijinshi.redis.common.log.IndexLogger;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.sync.Appender;
+import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 异步的持久化
  * 性能好，但是有丢失数据的风险
  *
+ * 原来请求报文放在LinkedBlockingDeque(10240)中，写线程每1500ms才取一次，
+ * 队列满时add会抛出IllegalStateException。
+ * 现在请求报文直接复制到按字节计算容量的环形缓冲区中：
+ * 1、调用者在锁内复制报文，然后唤醒写线程；
+ * 2、写线程不断取出缓冲区中积压的全部数据，一次写入之后再flush，
+ *    积压越多，每次写入的数据越多，空闲时则立即写入；
+ * 3、缓冲区满时，按照{@link Overflow}处理，并且计数，见{@link #stats()}。
+ *
+ * 一个请求报文不会跨越缓冲区的末尾（放不下时，跳过末尾剩余的空间），
+ * 所以每次写入的都是完整的请求报文，framed格式的日志中，一个请求报文不会被拆到两个记录中。
+ * 开启日志压缩时（见{@link cn.shijinshi.redis.common.log.LogProperties#getCompression()}），
+ * 积压的请求会被合并成较大的块再压缩。
+ *
  * @author Gui Jiahai
  */
 public class AsyncAppender implements Appender, Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(AsyncAppender.class);
 
+    public static final int DEFAULT_BUFFER_BYTES = 32 * 1024 * 1024;
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 缓冲区满时的处理方式
+     */
+    public enum Overflow {
+        /**
+         * 调用者等待，直到写线程腾出空间。
+         * 注意，调用者是回复报文的hook（见AppendHandler），运行在到Redis的连接的EventLoop中，
+         * 等待期间这个连接上所有client的回复都无法送达，所以它不是对单个client的限流，
+         * 只适用于宁可暂停转发、也不能丢失备份的场景
+         */
+        BLOCK,
+        /**
+         * 调用者将缓冲区中的数据和自己的请求报文直接写入文件，顺序不变。
+         * 调用者只需要等待一次写入，不会无限期地等待，这是默认的方式
+         */
+        SYNC,
+        /**
+         * 不备份这个请求，client会收到错误回复，见{@link AppendRejectedException}
+         */
+        FAIL
+    }
+
     private final IndexLogger indexLogger;
-    private final BlockingQueue<RedisRequest> queue = new LinkedBlockingDeque<>(1024 * 10);
+    private final OutputStream output;
+    private final Overflow overflow;
+
+    private final byte[] ring;
+    private final int capacity;
+
+    //调用者之间的锁
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    //写线程和SYNC方式的调用者之间的锁
+    private final Object writeLock = new Object();
+
+    //head和tail都是累计的字节数，不会回绕
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    //最近一次跳过的缓冲区末尾的起始位置
+    private volatile long padStart = -1;
+    private volatile int blocking = 0;
+
+    //直接内存中的请求报文，SYNC方式写入时，先复制到这里
+    private byte[] scratch = new byte[0];
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
 
+    private final Thread thread;
+    private volatile boolean waiting = false;
     private volatile boolean closed = false;
+    private volatile boolean terminated = false;
 
     public AsyncAppender(IndexLogger indexLogger) {
+        this(indexLogger, DEFAULT_BUFFER_BYTES, Overflow.SYNC);
+    }
+
+    /**
+     * @param bufferBytes 缓冲区的字节数
+     * @param overflow 缓冲区满时的处理方式
+     */
+    public AsyncAppender(IndexLogger indexLogger, int bufferBytes, Overflow overflow) {
+        if (bufferBytes <= 0) {
+            throw new IllegalArgumentException("bufferBytes must be positive");
+        }
         this.indexLogger = Objects.requireNonNull(indexLogger);
+        this.output = indexLogger.getOutputStream();
+        this.overflow = Objects.requireNonNull(overflow);
+        this.ring = new byte[bufferBytes];
+        this.capacity = bufferBytes;
 
-        Thread thread = new Thread(this, "async-appender-thread");
-        thread.setDaemon(true);
-        thread.start();
+        this.thread = new Thread(this, "async-appender-thread");
+        this.thread.setDaemon(true);
+        this.thread.start();
         Shutdown.addThread(thread);
     }
 
@@ -45,45 +129,312 @@ public class AsyncAppender implements Appender, Runnable {
         if (closed) {
             throw new IOException("output stream closed");
         }
-        queue.add(request);
+        //请求报文在回复之后就会被释放，所以这里需要先复制出报文内容
+        ByteBuf buffer = request.getBuffer();
+        int len = buffer != null ? buffer.readableBytes() : request.getContent().length;
+
+        lock.lock();
+        try {
+            long position = reserve(len);
+            if (position < 0) {
+                position = overflow(request, len);
+                if (position < 0) {
+                    return;
+                }
+            }
+            int index = (int) (position % capacity);
+            if (buffer != null) {
+                buffer.getBytes(buffer.readerIndex(), ring, index, len);
+            } else {
+                System.arraycopy(request.getContent(), 0, ring, index, len);
+            }
+            head = position + len;
+        } finally {
+            lock.unlock();
+        }
+        appended.increment();
+
+        if (terminated) {
+            throw new IOException("output stream closed");
+        }
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
     }
 
-    public void run() {
+    /**
+     * 在锁内调用，在缓冲区中预留len个字节
+     *
+     * @return 报文的写入位置，空间不足时返回-1
+     */
+    private long reserve(int len) {
+        long h = head;
+        int index = (int) (h % capacity);
+        int pad = index + len > capacity ? capacity - index : 0;
+        if (pad > 0 && h == tail) {
+            //缓冲区为空时，从缓冲区的开头写入，否则跳过的空间加上报文可能永远放不下
+            synchronized (writeLock) {
+                if (h == tail) {
+                    h += pad;
+                    head = h;
+                    tail = h;
+                    pad = 0;
+                }
+            }
+        }
+        if (h + pad + len - tail > capacity) {
+            return -1;
+        }
+        if (pad > 0) {
+            padStart = h;
+            h += pad;
+        }
+        return h;
+    }
+
+    /**
+     * 在锁内调用
+     *
+     * @return 报文的写入位置，如果已经直接写入文件，则返回-1
+     */
+    private long overflow(RedisRequest request, int len) throws IOException {
+        //比缓冲区还大的请求报文，只能直接写入
+        if (overflow == Overflow.SYNC || len > capacity) {
+            shed.increment();
+            writeThrough(request, len);
+            appended.increment();
+            notFull.signalAll();
+            return -1;
+        }
+        if (overflow == Overflow.FAIL) {
+            rejected.increment();
+            throw new AppendRejectedException("append buffer is full");
+        }
+
+        blocked.increment();
+        blocking ++;
         try {
-            OutputStream output = indexLogger.getOutputStream();
-            while (!closed) {
-                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1500));
-                consumeQueue(output);
+            long position;
+            //先增加blocking再检查，写线程腾出空间之后，要么这里能看到，要么写线程会唤醒这里
+            while ((position = reserve(len)) < 0) {
+                if (closed || terminated) {
+                    throw new IOException("output stream closed");
+                }
+                notFull.awaitNanos(IDLE_NANOS);
             }
-            consumeQueue(output);
+            return position;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while appending request", e);
         } finally {
-            try {
-                this.indexLogger.getOutputStream().close();
-            } catch (IOException ignored) {}
+            blocking --;
         }
     }
 
-    private void consumeQueue(OutputStream output) {
-        RedisRequest req;
-        while ((req = queue.poll()) != null) {
-            try {
-                output.write(req.getContent());
-            } catch (IOException e) {
-                logger.error("Failed to write request to aof file", e);
-                ErrorHandler.handle(e);
+    private void writeThrough(RedisRequest request, int len) throws IOException {
+        synchronized (writeLock) {
+            if (terminated) {
+                throw new IOException("output stream closed");
             }
+            //先写入缓冲区中的数据，保持请求的顺序
+            drain();
+            ByteBuf buffer = request.getBuffer();
+            if (buffer == null) {
+                output.write(request.getContent(), 0, len);
+            } else if (buffer.hasArray()) {
+                output.write(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), len);
+            } else {
+                if (scratch.length < len) {
+                    scratch = new byte[len];
+                }
+                buffer.getBytes(buffer.readerIndex(), scratch, 0, len);
+                output.write(scratch, 0, len);
+            }
+            output.flush();
         }
+    }
+
+    @Override
+    public void run() {
         try {
+            for (;;) {
+                boolean wrote;
+                try {
+                    wrote = drain();
+                } catch (IOException e) {
+                    logger.error("Failed to write request to aof file", e);
+                    ErrorHandler.handle(e);
+                    wrote = false;
+                }
+                signalProducers();
+                if (!wrote) {
+                    if (closed && head == tail) {
+                        break;
+                    }
+                    park();
+                }
+            }
+        } catch (Throwable t) {
+            logger.error("Async appender thread exited unexpectedly", t);
+        } finally {
+            synchronized (writeLock) {
+                terminated = true;
+                try {
+                    drain();
+                } catch (IOException e) {
+                    logger.error("Failed to write request to aof file", e);
+                }
+                try {
+                    output.close();
+                } catch (IOException ignored) {}
+            }
+            signalProducers();
+        }
+    }
+
+    /**
+     * 写入缓冲区中积压的全部数据，然后flush。
+     * 不在这里唤醒等待的调用者，因为SYNC方式的调用者会持有调用者之间的锁再调用这里
+     *
+     * @return 是否写入了数据
+     */
+    private boolean drain() throws IOException {
+        synchronized (writeLock) {
+            long t = tail;
+            long h = head;
+            if (t == h) {
+                return false;
+            }
+            while (t != h) {
+                int index = (int) (t % capacity);
+                long end = t + capacity - index;
+                long limit = Math.min(h, end);
+                long next = limit;
+                long p = padStart;
+                if (p >= t && p < limit) {
+                    //跳过缓冲区末尾剩余的空间
+                    limit = p;
+                    next = end;
+                }
+                try {
+                    if (limit > t) {
+                        output.write(ring, index, (int) (limit - t));
+                    }
+                } finally {
+                    //写入失败时，与原来一样丢弃这部分数据
+                    tail = t = next;
+                }
+            }
             output.flush();
-        } catch (IOException e) {
-            logger.error("Failed to flush request to aof file", e);
-            ErrorHandler.handle(e);
+            return true;
+        }
+    }
+
+    private void signalProducers() {
+        if (blocking > 0) {
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void park() {
+        waiting = true;
+        //设置waiting之后再检查一次，避免错过调用者的unpark
+        if (head == tail && !closed) {
+            LockSupport.parkNanos(this, IDLE_NANOS);
         }
+        waiting = false;
+    }
 
+    public Stats stats() {
+        return new Stats(capacity, head - tail, appended.sum(), blocked.sum(), shed.sum(), rejected.sum());
     }
 
     @Override
     public void close() {
+        if (closed) {
+            return;
+        }
         closed = true;
+        LockSupport.unpark(thread);
+        signalProducers();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Stats {
+        private final int capacity;
+        private final long bufferedBytes;
+        private final long appended;
+        private final long blocked;
+        private final long shed;
+        private final long rejected;
+
+        Stats(int capacity, long bufferedBytes, long appended, long blocked, long shed, long rejected) {
+            this.capacity = capacity;
+            this.bufferedBytes = bufferedBytes;
+            this.appended = appended;
+            this.blocked = blocked;
+            this.shed = shed;
+            this.rejected = rejected;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return 缓冲区中还没有写入文件的字节数
+         */
+        public long getBufferedBytes() {
+            return bufferedBytes;
+        }
+
+        /**
+         * @return 写入的请求数量，包括直接写入的
+         */
+        public long getAppended() {
+            return appended;
+        }
+
+        /**
+         * @return 因为缓冲区满而等待的次数
+         */
+        public long getBlocked() {
+            return blocked;
+        }
+
+        /**
+         * @return 因为缓冲区满而直接写入文件的次数
+         */
+        public long getShed() {
+            return shed;
+        }
+
+        /**
+         * @return 因为缓冲区满而拒绝的请求数量
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "capacity=" + capacity +
+                    ", bufferedBytes=" + bufferedBytes +
+                    ", appended=" + appended +
+                    ", blocked=" + blocked +
+                    ", shed=" + shed +
+                    ", rejected=" + rejected +
+                    '}';
+        }
     }
 }
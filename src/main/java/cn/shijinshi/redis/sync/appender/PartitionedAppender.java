@@ -0,0 +1,163 @@
+package cn.shijinshi.redis.sync.appender;
+
+import cn.shijinshi.redis.common.Constants;
+import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
+import cn.shijinshi.redis.common.protocol.RedisCodec;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.common.protocol.SlotHash;
+import cn.shijinshi.redis.sync.Appender;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 分区的持久化，见{@link PartitionedLogger}
+ *
+ * 每个分区有自己的Appender，请求按照key的slot交给对应分区的Appender。
+ * 备份的命令中，key都是第1个参数（EVAL是第3个参数），
+ * 没有key的请求（比如numkeys为0的EVAL）写入第0个分区。
+ *
+ * ReplicationInvoker写入的TICK（SETEX tick 600 tick）会写入所有的分区，
+ * 因为在SYNC_DISCARD期间，每个分区的同步线程都需要遇到TICK，才会恢复正常同步。
+ * TICK的key以{@link Constants#TICK_PREFIX}开头，过期时间是{@link Constants#TICK_EXPIRE_SECONDS}，
+ * 业务的SETEX k 600 k不会被当作TICK，否则会从所有分区重放，可能覆盖其他分区中之后写入的值。
+ *
+ * @author Gui Jiahai
+ */
+public class PartitionedAppender implements Appender {
+
+    private static final byte[] SETEX = "setex".getBytes();
+    private static final byte[] TICK_PREFIX = Constants.TICK_PREFIX.getBytes();
+    private static final byte[] TICK_EXPIRE_SECONDS = Constants.TICK_EXPIRE_SECONDS.getBytes();
+
+    private final PartitionedLogger logger;
+    private final Appender[] appenders;
+
+    /**
+     * @param factory 为每个分区创建Appender
+     */
+    public PartitionedAppender(PartitionedLogger logger, Function<IndexLogger, Appender> factory) {
+        this.logger = Objects.requireNonNull(logger);
+        this.appenders = new Appender[logger.size()];
+        for (int i = 0; i < appenders.length; i ++) {
+            appenders[i] = Objects.requireNonNull(factory.apply(logger.get(i)));
+        }
+    }
+
+    @Override
+    public void append(RedisRequest request) throws IOException {
+        ByteBuf buffer = buffer(request);
+        if (isTick(buffer)) {
+            for (Appender appender : appenders) {
+                appender.append(request);
+            }
+        } else {
+            appenders[partition(buffer)].append(request);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> appendAsync(RedisRequest request) throws IOException {
+        ByteBuf buffer = buffer(request);
+        if (!isTick(buffer)) {
+            return appenders[partition(buffer)].appendAsync(request);
+        }
+
+        CompletableFuture<Void> all = null;
+        for (Appender appender : appenders) {
+            CompletableFuture<Void> future = appender.appendAsync(request);
+            if (future != null) {
+                all = all == null ? future : CompletableFuture.allOf(all, future);
+            }
+        }
+        return all;
+    }
+
+    private static ByteBuf buffer(RedisRequest request) {
+        ByteBuf buffer = request.getBuffer();
+        return buffer != null ? buffer : Unpooled.wrappedBuffer(request.getContent());
+    }
+
+    int partition(ByteBuf request) {
+        if (appenders.length == 1) {
+            return 0;
+        }
+        int slot;
+        try {
+            slot = SlotHash.getKeySlot(request);
+        } catch (IOException e) {
+            //请求报文已经由redis执行过，格式不会有问题，这里只是以防万一
+            return 0;
+        }
+        return slot < 0 ? 0 : logger.partition(slot);
+    }
+
+    private boolean isTick(ByteBuf request) {
+        if (appenders.length == 1) {
+            return false;
+        }
+        try {
+            if (!equalsIgnoreCase(RedisCodec.argument(request, 0), SETEX)) {
+                return false;
+            }
+            ByteBuf key = RedisCodec.argument(request, 1);
+            if (key == null || key.readableBytes() <= TICK_PREFIX.length || !startsWith(key, TICK_PREFIX)) {
+                return false;
+            }
+            ByteBuf seconds = RedisCodec.argument(request, 2);
+            if (seconds == null || seconds.readableBytes() != TICK_EXPIRE_SECONDS.length
+                    || !startsWith(seconds, TICK_EXPIRE_SECONDS)) {
+                return false;
+            }
+            ByteBuf value = RedisCodec.argument(request, 3);
+            return value != null && ByteBufUtil.equals(key, value);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean startsWith(ByteBuf buf, byte[] prefix) {
+        int from = buf.readerIndex();
+        for (int i = 0; i < prefix.length; i ++) {
+            if (buf.getByte(from + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(ByteBuf buf, byte[] lower) {
+        if (buf == null || buf.readableBytes() != lower.length) {
+            return false;
+        }
+        int from = buf.readerIndex();
+        for (int i = 0; i < lower.length; i ++) {
+            byte b = buf.getByte(from + i);
+            if (b != lower[i] && b + ('a' - 'A') != lower[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (Appender appender : appenders) {
+            try {
+                appender.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
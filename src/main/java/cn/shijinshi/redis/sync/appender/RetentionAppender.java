@@ -0,0 +1,51 @@
+package cn.shijinshi.redis.sync.appender;
+
+import cn.shijinshi.redis.common.log.Retention;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.sync.Appender;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 日志文件超过配额时，不再备份新的请求，见{@link Retention.Policy#STOP_BACKUP}
+ *
+ * 命令已经由Redis执行，client会收到错误回复。
+ * 已有的日志继续同步，Cleaner删除同步完的日志文件，低于配额之后自动恢复备份。
+ *
+ * @author Gui Jiahai
+ */
+public class RetentionAppender implements Appender {
+
+    private final Appender appender;
+    private final Retention retention;
+
+    public RetentionAppender(Appender appender, Retention retention) {
+        this.appender = Objects.requireNonNull(appender);
+        this.retention = Objects.requireNonNull(retention);
+    }
+
+    @Override
+    public void append(RedisRequest request) throws IOException {
+        check();
+        appender.append(request);
+    }
+
+    @Override
+    public CompletableFuture<Void> appendAsync(RedisRequest request) throws IOException {
+        check();
+        return appender.appendAsync(request);
+    }
+
+    private void check() throws AppendRejectedException {
+        if (retention.isBackupStopped()) {
+            throw new AppendRejectedException("log retention quota exceeded");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        appender.close();
+    }
+}
@@ -1,48 +1,263 @@
 package cn.shijinshi.redis.sync.appender;
 
+import cn.shijinshi.redis.common.Shutdown;
+import cn.shijinshi.redis.common.error.ErrorHandler;
 import cn.shijinshi.redis.common.log.IndexLogger;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.sync.Appender;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 同步的持久化
- * 可靠性强，但是性能差
+ * 可靠性强，请求写入磁盘（fsync）之后才会回复client
+ *
+ * 原来每个请求都在锁内写文件并flush，而且没有fsync。
+ * 现在采用group commit：
+ * 1、调用者将请求放入无锁队列，得到一个future；
+ * 2、由一个写线程取出一批请求（最多batchSize个，最多等待batchDelayMicros），
+ *    写入文件后，只调用一次{@link IndexLogger#sync()}；
+ * 3、这一批请求的future一起完成。
+ * 这样，fsync的开销由一批请求分摊。
  *
  * @author Gui Jiahai
  */
-public class SyncAppender implements Appender {
+public class SyncAppender implements Appender, Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncAppender.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
     private final IndexLogger indexLogger;
-    private boolean closed = false;
+    private final int batchSize;
+    private final long batchDelayNanos;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    //直接内存中的请求报文，先复制到这里，再一次性写入
+    private byte[] scratch = new byte[0];
+
+    private volatile boolean waiting = false;
+    private volatile boolean closed = false;
+    private volatile boolean terminated = false;
 
     public SyncAppender(IndexLogger indexLogger) {
+        this(indexLogger, DEFAULT_BATCH_SIZE, 0);
+    }
+
+    /**
+     * @param batchSize 每批最多写入的请求数
+     * @param batchDelayMicros 写入一批请求之前，最多等待多少微秒以凑够batchSize个请求，
+     *                         0表示不等待，只写入已经到达的请求
+     */
+    public SyncAppender(IndexLogger indexLogger, int batchSize, long batchDelayMicros) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        if (batchDelayMicros < 0) {
+            throw new IllegalArgumentException("batchDelayMicros must not be negative");
+        }
         this.indexLogger = Objects.requireNonNull(indexLogger);
+        this.batchSize = batchSize;
+        this.batchDelayNanos = TimeUnit.MICROSECONDS.toNanos(batchDelayMicros);
+
+        this.thread = new Thread(this, "sync-appender-thread");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        Shutdown.addThread(thread);
+    }
+
+    /**
+     * 阻塞，直到请求写入磁盘
+     */
+    @Override
+    public void append(RedisRequest request) throws IOException {
+        try {
+            appendAsync(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while appending request", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
     }
 
     @Override
-    public synchronized void append(RedisRequest request) throws IOException {
+    public CompletableFuture<Void> appendAsync(RedisRequest request) throws IOException {
         if (closed) {
             throw new IOException("output stream closed");
         }
-        OutputStream output = indexLogger.getOutputStream();
-        output.write(request.getContent());
-        output.flush();
+        //写线程持有请求报文的一个引用，写入之后释放，不需要复制报文内容
+        Entry entry = new Entry(request.retain());
+        queue.offer(entry);
+        if (terminated) {
+            //写线程已经退出，不会再处理队列
+            failPending();
+        } else if (waiting) {
+            LockSupport.unpark(thread);
+        }
+        return entry;
     }
 
     @Override
-    public void close() {
-        synchronized (this) {
-            if (closed) {
+    public void run() {
+        List<Entry> batch = new ArrayList<>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+        try {
+            OutputStream output = indexLogger.getOutputStream();
+            for (;;) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    if (closed) {
+                        break;
+                    }
+                    park(IDLE_NANOS);
+                    continue;
+                }
+                batch.add(entry);
+                collect(batch);
+                commit(output, batch);
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            logger.error("Sync appender thread exited unexpectedly", t);
+            fail(batch, t);
+        } finally {
+            terminated = true;
+            failPending();
+            try {
+                this.indexLogger.getOutputStream().close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * 从队列中取出更多的请求，直到凑够batchSize个，或者等待超过batchDelayNanos
+     */
+    private void collect(List<Entry> batch) {
+        long deadline = System.nanoTime() + batchDelayNanos;
+        while (batch.size() < batchSize) {
+            Entry entry = queue.poll();
+            if (entry != null) {
+                batch.add(entry);
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || closed) {
                 return;
             }
-            closed = true;
+            park(remaining);
         }
+    }
+
+    private void park(long nanos) {
+        waiting = true;
+        //设置waiting之后再检查一次，避免错过调用者的unpark
+        if (queue.isEmpty() && !closed) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        waiting = false;
+    }
+
+    private void commit(OutputStream output, List<Entry> batch) {
+        IOException error = null;
         try {
-            this.indexLogger.getOutputStream().close();
-        } catch (IOException ignored) {}
+            for (Entry entry : batch) {
+                ByteBuf buffer = entry.request.getBuffer();
+                if (buffer != null) {
+                    write(output, buffer);
+                } else {
+                    output.write(entry.request.getContent());
+                }
+            }
+            indexLogger.sync();
+        } catch (IOException e) {
+            logger.error("Failed to write requests to aof file", e);
+            ErrorHandler.handle(e);
+            error = e;
+        }
+
+        for (Entry entry : batch) {
+            entry.request.release();
+            if (error == null) {
+                entry.complete(null);
+            } else {
+                entry.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * 每个请求报文只调用一次write，framed格式的日志中，一个请求报文不会被拆到两个记录中
+     */
+    private void write(OutputStream output, ByteBuf buffer) throws IOException {
+        int len = buffer.readableBytes();
+        if (buffer.hasArray()) {
+            output.write(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), len);
+            return;
+        }
+        if (scratch.length < len) {
+            scratch = new byte[len];
+        }
+        buffer.getBytes(buffer.readerIndex(), scratch, 0, len);
+        output.write(scratch, 0, len);
+    }
+
+    private void failPending() {
+        IOException e = null;
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            if (e == null) {
+                e = new IOException("output stream closed");
+            }
+            entry.request.release();
+            entry.completeExceptionally(e);
+        }
+    }
+
+    private void fail(List<Entry> batch, Throwable t) {
+        for (Entry entry : batch) {
+            if (entry.completeExceptionally(t)) {
+                entry.request.release();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Entry extends CompletableFuture<Void> {
+        private final RedisRequest request;
+
+        Entry(RedisRequest request) {
+            this.request = request;
+        }
     }
 }
@@ -7,18 +7,16 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * @author Gui Jiahai
  */
 public class CleanerTest extends AbstractTmpDir {
 
-    private Cleaner cleaner;
-
     @Before
     public void setup() {
         super.setup();
-        cleaner = new Cleaner(dir);
     }
 
     @Test
@@ -30,13 +28,40 @@ public class CleanerTest extends AbstractTmpDir {
         Assert.assertTrue(new File(dir, logFileName(14)).createNewFile());
         Assert.assertTrue(new File(dir, logFileName(15)).createNewFile());
 
-        cleaner.clean();
+        //日志文件目录在创建时列出
+        SegmentCatalogue catalogue = new SegmentCatalogue(dir);
+        new Cleaner(dir, catalogue).clean();
 
         String[] indexList = dir.list(IndexPersistence.INDEX_FILTER);
         Assert.assertArrayEquals(indexList, new String[]{indexFileName(14)});
 
         String[] logList = dir.list(LogPersistence.LOG_FILTER);
+        Arrays.sort(logList);
         Assert.assertArrayEquals(logList, new String[]{logFileName(14), logFileName(15)});
+        Assert.assertEquals(2, catalogue.size());
+        Assert.assertEquals(14, catalogue.ceiling(0).getSequence());
+    }
+
+    @Test
+    public void test_checkpoint() throws IOException {
+        Assert.assertTrue(new File(dir, indexFileName(14)).createNewFile());
+
+        Assert.assertTrue(new File(dir, logFileName(13)).createNewFile());
+        Assert.assertTrue(new File(dir, logFileName(14)).createNewFile());
+        Assert.assertTrue(new File(dir, logFileName(15)).createNewFile());
+
+        SegmentCatalogue catalogue = new SegmentCatalogue(dir);
+        try (IndexPersistence indexPersistence = new IndexPersistence(dir)) {
+            indexPersistence.persist(new IndexEntry(15, 0));
+            new Cleaner(dir, catalogue, indexPersistence).clean();
+        }
+
+        //有checkpoint时，原来的index文件全部删除
+        Assert.assertEquals(0, dir.list(IndexPersistence.INDEX_FILTER).length);
+
+        String[] logList = dir.list(LogPersistence.LOG_FILTER);
+        Assert.assertArrayEquals(logList, new String[]{logFileName(15)});
+        Assert.assertEquals(1, catalogue.size());
     }
 
     @After
@@ -8,10 +8,8 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 
 /**
  * @author Gui Jiahai
@@ -30,35 +28,73 @@ public class IndexPersistenceTest extends AbstractTmpDir {
     @Test
     public void test() throws IOException {
         Assert.assertEquals(new IndexEntry(0, 0), indexPersistence.latestIndex());
+        Assert.assertFalse(indexPersistence.hasCheckpoint());
 
-        IndexEntry current;
+        File checkpoint = new File(dir, IndexPersistence.CHECKPOINT_FILE);
+        IndexEntry current = null;
+        for (int i = 1; i <= 1000; i ++) {
+            current = new IndexEntry(i / 100 + 1, i);
+            indexPersistence.persist(current);
+            Assert.assertEquals(current, indexPersistence.latestIndex());
+        }
 
-        current = new IndexEntry(1, 1);
-        indexPersistence.persist(current);
-        String[] list = dir.list(IndexPersistence.INDEX_FILTER);
-        Assert.assertArrayEquals(list, new String[]{indexFileName(1)});Assert.assertEquals(current, indexPersistence.latestIndex());
+        //文件大小固定，并且没有 序号.index 文件
+        Assert.assertTrue(indexPersistence.hasCheckpoint());
+        Assert.assertEquals(64, checkpoint.length());
+        Assert.assertEquals(0, dir.list(IndexPersistence.INDEX_FILTER).length);
 
+        //另一个实例读取正在写入的文件
+        Assert.assertEquals(current, new IndexPersistence(dir).latestIndex());
 
-        current = new IndexEntry(1, 2);
-        indexPersistence.persist(current);
-        list = dir.list(IndexPersistence.INDEX_FILTER);
-        Assert.assertArrayEquals(list, new String[]{indexFileName(1)});
+        indexPersistence.close();
+        indexPersistence = new IndexPersistence(dir);
         Assert.assertEquals(current, indexPersistence.latestIndex());
 
-        current = new IndexEntry(2, 3);
-        indexPersistence.persist(new IndexEntry(2, 3));
-        list = dir.list(IndexPersistence.INDEX_FILTER);
-        Assert.assertArrayEquals(list, new String[]{indexFileName(1), indexFileName(2)});
-        Assert.assertEquals(current, indexPersistence.latestIndex());
+        //重新打开之后继续写入
+        current = new IndexEntry(20, 1);
+        indexPersistence.persist(current);
+        Assert.assertEquals(current, new IndexPersistence(dir).latestIndex());
+    }
+
+    @Test
+    public void test_torn() throws IOException {
+        indexPersistence.persist(new IndexEntry(1, 10));
+        indexPersistence.persist(new IndexEntry(2, 20));
+        indexPersistence.close();
 
-        List<String> lines = Files.readLines(new File(dir, indexFileName(1)), StandardCharsets.UTF_8);
-        Assert.assertEquals(lines, Arrays.asList("0000000000000000001", "0000000000000000002"));
+        //最新的槽写到一半时进程退出，使用另一个槽
+        File checkpoint = new File(dir, IndexPersistence.CHECKPOINT_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(checkpoint, "rw")) {
+            file.seek(0);
+            file.writeLong(3);
+        }
+        indexPersistence = new IndexPersistence(dir);
+        Assert.assertEquals(new IndexEntry(1, 10), indexPersistence.latestIndex());
 
-        lines = Files.readLines(new File(dir, indexFileName(2)), StandardCharsets.UTF_8);
-        Assert.assertEquals(lines, Collections.singletonList("0000000000000000003"));
+        //下一次写入覆盖损坏的槽
+        indexPersistence.persist(new IndexEntry(3, 30));
+        Assert.assertEquals(new IndexEntry(3, 30), new IndexPersistence(dir).latestIndex());
 
+        //两个槽都损坏时，与没有记录相同
+        indexPersistence.close();
+        try (RandomAccessFile file = new RandomAccessFile(checkpoint, "rw")) {
+            file.setLength(0);
+            file.write(new byte[64]);
+        }
+        indexPersistence = new IndexPersistence(dir);
+        Assert.assertEquals(new IndexEntry(0, 0), indexPersistence.latestIndex());
     }
 
+    @Test
+    public void test_legacy() throws IOException {
+        //升级之前写入的 序号.index 文件
+        Files.write("0000000000000000001\n0000000000000000002\n", new File(dir, indexFileName(3)), StandardCharsets.UTF_8);
+        Files.write("0000000000000000001\n", new File(dir, indexFileName(2)), StandardCharsets.UTF_8);
+        Assert.assertEquals(new IndexEntry(3, 2), indexPersistence.latestIndex());
+
+        indexPersistence.persist(new IndexEntry(3, 5));
+        Assert.assertEquals(new IndexEntry(3, 5), indexPersistence.latestIndex());
+    }
 
     @After
     @Override
@@ -5,7 +5,15 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
@@ -89,6 +97,486 @@ public class LogPersistenceTest extends AbstractTmpDir {
         persistence.close();
     }
 
+    @Test
+    public void test_ack_across_segments() throws IOException {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(10);
+
+        LogPersistence persistence = new LogPersistence(dir, properties, new IndexEntry(1, 0), Access.RW);
+        for (char c = 'a'; c <= 'd'; c ++) {
+            persistence.getOutputStream().write(new String(new char[10]).replace('\0', c).getBytes());
+        }
+        persistence.getOutputStream().flush();
+
+        byte[] buf = new byte[1024];
+        int total = 0;
+        while (total < 32) {
+            total += persistence.getInputStream().read(buf, 0, 32 - total);
+        }
+        //一次ack跨越了三个文件
+        persistence.ack(32);
+        IndexEntry acked = persistence.getAckedIndex();
+        Assert.assertEquals(4, acked.getSequence());
+        Assert.assertEquals(2, acked.getOffset());
+        persistence.close();
+    }
+
+    @Test
+    public void test_signal_RW() throws Exception {
+        LogPersistence persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(0, 0), Access.RW);
+        CountDownLatch first = new CountDownLatch(1);
+
+        CompletableFuture<Long> elapsed = CompletableFuture.supplyAsync(() -> {
+            try {
+                byte[] buf = new byte[1024];
+                int n = persistence.getInputStream().read(buf);
+                Assert.assertEquals("Hello", new String(buf, 0, n));
+                first.countDown();
+                long start = System.nanoTime();
+                n = persistence.getInputStream().read(buf);
+                Assert.assertEquals("World", new String(buf, 0, n));
+                return System.nanoTime() - start;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        persistence.getOutputStream().write("Hello".getBytes());
+        Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        persistence.getOutputStream().write("World".getBytes());
+
+        //由写入者唤醒，而不是等待1秒之后再重试
+        Assert.assertTrue(elapsed.get(5, TimeUnit.SECONDS) < TimeUnit.MILLISECONDS.toNanos(500));
+        persistence.close();
+    }
+
+    @Test
+    public void test_watch_R() throws Exception {
+        LogPersistence writer = new LogPersistence(dir, new LogProperties(), null, Access.W);
+        writer.getOutputStream().write("Hello".getBytes());
+
+        //写入者还没有关闭，读取者读到末尾时会等待
+        LogPersistence reader = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        CompletableFuture<String> content = CompletableFuture.supplyAsync(() -> {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[1024];
+                int n;
+                while ((n = reader.getInputStream().read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+                return out.toString();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+        writer.getOutputStream().write("World".getBytes());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertFalse(content.isDone());
+
+        //写入者关闭之后，读取者读完数据就结束
+        writer.close();
+        Assert.assertEquals("HelloWorld", content.get(10, TimeUnit.SECONDS));
+        reader.close();
+    }
+
+    @Test
+    public void test_watch_R_lagging() throws Exception {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(10);
+
+        LogPersistence writer = new LogPersistence(dir, properties, null, Access.W);
+        writer.getOutputStream().write("aaaaaaaaaa".getBytes());
+
+        LogPersistence reader = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        byte[] buf = new byte[1024];
+        Assert.assertEquals(10, reader.getInputStream().read(buf));
+
+        //读取者落后了两个文件，一次收到多个文件创建事件
+        writer.getOutputStream().write("bbbbbbbbbb".getBytes());
+        writer.getOutputStream().write("cccccccccc".getBytes());
+        Assert.assertTrue(new File(dir, logFileName(3)).exists());
+
+        CompletableFuture<String> content = CompletableFuture.supplyAsync(() -> {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int n;
+                while ((n = reader.getInputStream().read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+                return out.toString();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500));
+        writer.close();
+        Assert.assertEquals("bbbbbbbbbbcccccccccc", content.get(10, TimeUnit.SECONDS));
+        reader.close();
+    }
+
+    @Test
+    public void test_mmap_input_output() throws IOException {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(5);
+        properties.setEngine(LogProperties.MMAP_ENGINE);
+
+        LogPersistence persistence = new LogPersistence(dir, properties, null, Access.W);
+        persistence.getOutputStream().write("Hel".getBytes());
+        persistence.getOutputStream().write("loWorld".getBytes());
+        persistence.close();
+
+        //关闭之后，文件被截断为有效长度
+        Assert.assertEquals(5, new File(dir, logFileName(1)).length());
+        Assert.assertEquals(5, new File(dir, logFileName(2)).length());
+
+        persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 2), Access.R);
+        byte[] buf = new byte[1024];
+        int read = persistence.getInputStream().read(buf);
+        Assert.assertEquals(new String(buf, 0, read), "llo");
+        read = persistence.getInputStream().read(buf);
+        Assert.assertEquals(new String(buf, 0, read), "World");
+        Assert.assertEquals(-1, persistence.getInputStream().read());
+        persistence.close();
+    }
+
+    @Test
+    public void test_mmap_roll() throws IOException {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(8192);
+        properties.setEngine(LogProperties.MMAP_ENGINE);
+
+        LogPersistence persistence = new LogPersistence(dir, properties, new IndexEntry(1, 0), Access.RW);
+        byte[] data = new byte[8192 * 3 + 100];
+        for (int i = 0; i < data.length; i ++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        persistence.getOutputStream().write(data);
+        //切换文件之前写入的数据也已经落盘
+        persistence.sync();
+        Assert.assertEquals(8192, new File(dir, logFileName(1)).length());
+        Assert.assertEquals(8192, new File(dir, logFileName(3)).length());
+        //后台线程预分配的下一个文件
+        Assert.assertTrue(new File(dir, LogPersistence.PREALLOCATED_FILE).exists());
+
+        byte[] buf = new byte[data.length];
+        int off = 0;
+        while (off < buf.length) {
+            off += persistence.getInputStream().read(buf, off, buf.length - off);
+        }
+        Assert.assertArrayEquals(data, buf);
+        persistence.close();
+
+        Assert.assertEquals(100, new File(dir, logFileName(4)).length());
+        Assert.assertFalse(new File(dir, LogPersistence.PREALLOCATED_FILE).exists());
+        Assert.assertFalse(new File(dir, logFileName(5)).exists());
+    }
+
+    @Test
+    public void test_mmap_tail() throws IOException {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(1024);
+        properties.setEngine(LogProperties.MMAP_ENGINE);
+
+        LogPersistence writer = new LogPersistence(dir, properties, null, Access.W);
+        writer.getOutputStream().write("Hello".getBytes());
+        //预分配的文件
+        Assert.assertEquals(1024, new File(dir, logFileName(1)).length());
+
+        LogPersistence reader = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        byte[] buf = new byte[1024];
+        int read = reader.getInputStream().read(buf);
+        Assert.assertEquals("Hello", new String(buf, 0, read));
+
+        writer.getOutputStream().write("World".getBytes());
+        read = reader.getInputStream().read(buf);
+        Assert.assertEquals("World", new String(buf, 0, read));
+
+        writer.close();
+        Assert.assertEquals(10, new File(dir, logFileName(1)).length());
+        Assert.assertEquals(-1, reader.getInputStream().read(buf));
+        reader.close();
+    }
+
+    @Test
+    public void test_mmap_recover() throws IOException {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(1024);
+        properties.setEngine(LogProperties.MMAP_ENGINE);
+
+        //没有关闭，模拟进程退出
+        LogPersistence crashed = new LogPersistence(dir, properties, null, Access.W);
+        crashed.getOutputStream().write("Hello".getBytes());
+
+        LogPersistence persistence = new LogPersistence(dir, properties, null, Access.W);
+        Assert.assertEquals(5, new File(dir, logFileName(1)).length());
+        persistence.getOutputStream().write("World".getBytes());
+        persistence.close();
+
+        Assert.assertEquals("HelloWorld", new String(Files.readAllBytes(new File(dir, logFileName(1)).toPath())));
+    }
+
+    private LogProperties framedProperties(long segmentBytes) {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(segmentBytes);
+        properties.setFormat(LogProperties.FRAMED_FORMAT);
+        return properties;
+    }
+
+    @Test
+    public void test_framed_input_output() throws IOException {
+        //文件头8字节 + 记录头部8字节 + "Hello"
+        LogPersistence persistence = new LogPersistence(dir, framedProperties(20), null, Access.W);
+        persistence.getOutputStream().write("Hello".getBytes());
+        persistence.getOutputStream().write("World".getBytes());
+        persistence.close();
+
+        Assert.assertEquals(21, new File(dir, logFileName(1)).length());
+        Assert.assertEquals(21, new File(dir, logFileName(2)).length());
+
+        //offset不包括文件头和记录头部
+        persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 2), Access.R);
+        byte[] buf = new byte[1024];
+        int read = persistence.getInputStream().read(buf);
+        Assert.assertEquals("llo", new String(buf, 0, read));
+        read = persistence.getInputStream().read(buf);
+        Assert.assertEquals("World", new String(buf, 0, read));
+        Assert.assertEquals(-1, persistence.getInputStream().read());
+
+        persistence.ack(8);
+        Assert.assertEquals(new IndexEntry(2, 5), persistence.getAckedIndex());
+        persistence.close();
+    }
+
+    @Test
+    public void test_framed_skip() throws IOException {
+        LogPersistence persistence = new LogPersistence(dir, framedProperties(1024), null, Access.W);
+        persistence.getOutputStream().write("Hello".getBytes());
+        persistence.getOutputStream().write("World".getBytes());
+        persistence.getOutputStream().write("!".getBytes());
+        persistence.close();
+
+        //跳过第一个记录，以及第二个记录的一部分
+        persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 7), Access.R);
+        byte[] buf = new byte[1024];
+        int read = persistence.getInputStream().read(buf);
+        Assert.assertEquals("rld", new String(buf, 0, read));
+        Assert.assertEquals('!', persistence.getInputStream().read());
+        Assert.assertEquals(-1, persistence.getInputStream().read());
+        persistence.close();
+    }
+
+    @Test
+    public void test_framed_recover() throws IOException {
+        LogPersistence persistence = new LogPersistence(dir, framedProperties(1024), null, Access.W);
+        persistence.getOutputStream().write("Hello".getBytes());
+        persistence.close();
+
+        //模拟写了一半的记录
+        File file = new File(dir, logFileName(1));
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write(new byte[] {0, 0, 0, 100, 1, 2, 3, 4, 'W', 'o'});
+        }
+
+        persistence = new LogPersistence(dir, framedProperties(1024), null, Access.W);
+        Assert.assertEquals(21, file.length());
+        persistence.getOutputStream().write("World".getBytes());
+        persistence.close();
+
+        persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        Assert.assertEquals("HelloWorld", readAll(persistence));
+        persistence.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void test_framed_corrupted() throws IOException {
+        LogPersistence persistence = new LogPersistence(dir, framedProperties(1024), null, Access.W);
+        persistence.getOutputStream().write("Hello".getBytes());
+        persistence.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, logFileName(1)), "rw")) {
+            file.seek(17);
+            file.write('J');
+        }
+
+        persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        try {
+            persistence.getInputStream().read();
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void test_framed_after_raw() throws IOException {
+        LogPersistence persistence = new LogPersistence(dir, new LogProperties(), null, Access.W);
+        persistence.getOutputStream().write("Hello".getBytes());
+        persistence.close();
+
+        //格式不同，不在原来的文件上继续写
+        persistence = new LogPersistence(dir, framedProperties(1024), null, Access.W);
+        persistence.getOutputStream().write("World".getBytes());
+        persistence.close();
+        Assert.assertEquals(5, new File(dir, logFileName(1)).length());
+        Assert.assertEquals(21, new File(dir, logFileName(2)).length());
+
+        persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        Assert.assertEquals("HelloWorld", readAll(persistence));
+        persistence.close();
+    }
+
+    @Test
+    public void test_framed_mmap() throws IOException {
+        LogProperties properties = framedProperties(1024);
+        properties.setEngine(LogProperties.MMAP_ENGINE);
+        properties.setFrameTimestamp(true);
+
+        //没有关闭，模拟进程退出
+        LogPersistence crashed = new LogPersistence(dir, properties, null, Access.W);
+        crashed.getOutputStream().write("Hello".getBytes());
+
+        LogPersistence writer = new LogPersistence(dir, properties, null, Access.W);
+        //文件头8字节 + 记录头部16字节 + "Hello"
+        Assert.assertEquals(29, new File(dir, logFileName(1)).length());
+
+        LogPersistence reader = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        byte[] buf = new byte[1024];
+        int read = reader.getInputStream().read(buf);
+        Assert.assertEquals("Hello", new String(buf, 0, read));
+        Assert.assertTrue(reader.getReadTimestamp() > 0);
+
+        //记录比segmentBytes还大
+        byte[] large = new byte[2048];
+        Arrays.fill(large, (byte) 'x');
+        writer.getOutputStream().write(large);
+        int total = 0;
+        while (total < large.length) {
+            total += reader.getInputStream().read(buf);
+        }
+        Assert.assertEquals(large.length, total);
+
+        //模拟退出的写入者仍然持有文件锁，读取者会一直等待，所以这里不再读到末尾
+        reader.close();
+        writer.close();
+        Assert.assertEquals(8 + 16 + large.length, new File(dir, logFileName(2)).length());
+    }
+
+    @Test
+    public void test_compressed() throws IOException {
+        LogProperties properties = new LogProperties();
+        properties.setCompression(LogProperties.ZSTD_COMPRESSION);
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i ++) {
+            builder.append("*3\r\n$3\r\nSET\r\n$8\r\nkey:").append(1000 + i).append("\r\n$5\r\nvalue\r\n");
+        }
+        byte[] batch = builder.toString().getBytes();
+
+        LogPersistence persistence = new LogPersistence(dir, properties, null, Access.W);
+        persistence.getOutputStream().write(batch);
+        persistence.getOutputStream().write("Hello".getBytes());
+        persistence.close();
+        Assert.assertTrue(new File(dir, logFileName(1)).length() < batch.length / 2);
+
+        //offset是解压之后的字节数，跳过第一个记录
+        persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, batch.length + 1), Access.R);
+        Assert.assertEquals("ello", readAll(persistence));
+        persistence.close();
+
+        persistence = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        Assert.assertEquals(builder + "Hello", readAll(persistence));
+        persistence.close();
+    }
+
+    @Test
+    public void test_direct_input_output() throws IOException {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(6000);
+        properties.setEngine(LogProperties.DIRECT_ENGINE);
+        properties.setReadCacheBytes(4096);
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i ++) {
+            builder.append(i).append(',');
+        }
+        byte[] data = builder.toString().getBytes();
+
+        LogPersistence writer = new LogPersistence(dir, properties, null, Access.W);
+        writer.getOutputStream().write(data);
+        writer.getOutputStream().write("Hello".getBytes());
+        writer.getOutputStream().flush();
+        //最后一个块用0补齐
+        Assert.assertEquals(4096, new File(dir, logFileName(1)).length());
+
+        LogPersistence reader = new LogPersistence(dir, properties, new IndexEntry(1, 0), Access.R);
+        byte[] buf = new byte[data.length + 5];
+        int off = 0;
+        while (off < buf.length) {
+            off += reader.getInputStream().read(buf, off, buf.length - off);
+        }
+        Assert.assertEquals(builder + "Hello", new String(buf));
+
+        //读取者只能读到flush之后的数据，不会读到补齐的0
+        writer.getOutputStream().write("World".getBytes());
+        writer.getOutputStream().flush();
+        int read = reader.getInputStream().read(buf);
+        Assert.assertEquals("World", new String(buf, 0, read));
+        writer.close();
+        reader.close();
+        Assert.assertEquals(data.length + 10, new File(dir, logFileName(1)).length());
+
+        //重新打开时，继续写入最后一个不完整的块，写满之后切换到新文件
+        writer = new LogPersistence(dir, properties, null, Access.W);
+        writer.getOutputStream().write(data);
+        writer.getOutputStream().write("!".getBytes());
+        writer.close();
+        Assert.assertEquals(data.length * 2 + 10, new File(dir, logFileName(1)).length());
+        Assert.assertEquals(1, new File(dir, logFileName(2)).length());
+
+        reader = new LogPersistence(dir, properties, new IndexEntry(1, 0), Access.R);
+        Assert.assertEquals(builder + "HelloWorld" + builder + "!", readAll(reader));
+        reader.close();
+    }
+
+    @Test
+    public void test_direct_framed() throws IOException {
+        LogProperties properties = framedProperties(1024);
+        properties.setEngine(LogProperties.DIRECT_ENGINE);
+
+        LogPersistence persistence = new LogPersistence(dir, properties, new IndexEntry(1, 0), Access.RW);
+        byte[] large = new byte[2000];
+        Arrays.fill(large, (byte) 'x');
+        persistence.getOutputStream().write("Hello".getBytes());
+        persistence.getOutputStream().write(large);
+        persistence.getOutputStream().write("World".getBytes());
+        persistence.sync();
+
+        byte[] buf = new byte[4096];
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        while (output.size() < large.length + 10) {
+            int read = persistence.getInputStream().read(buf);
+            output.write(buf, 0, read);
+        }
+        Assert.assertEquals("Hello" + new String(large) + "World", output.toString());
+        persistence.close();
+
+        //记录不会跨越两个文件
+        Assert.assertEquals(8 + 8 + 5 + 8 + large.length, new File(dir, logFileName(1)).length());
+        Assert.assertEquals(8 + 8 + 5, new File(dir, logFileName(2)).length());
+    }
+
+    private String readAll(LogPersistence persistence) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int read;
+        while ((read = persistence.getInputStream().read(buf)) != -1) {
+            output.write(buf, 0, read);
+        }
+        return output.toString();
+    }
+
     @After
     @Override
     public void after() {
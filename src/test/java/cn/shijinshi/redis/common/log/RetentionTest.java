@@ -0,0 +1,157 @@
+package cn.shijinshi.redis.common.log;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gui Jiahai
+ */
+public class RetentionTest extends AbstractTmpDir {
+
+    @Before
+    public void setup() {
+        super.setup();
+    }
+
+    private void createLogFile(long seq, long length, long modified) throws IOException {
+        File file = new File(dir, logFileName(seq));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+        Assert.assertTrue(file.setLastModified(modified));
+    }
+
+    private LogProperties properties(long bytes, long sec, String policy) {
+        LogProperties properties = new LogProperties();
+        properties.setRetentionBytes(bytes);
+        properties.setRetentionSec(sec);
+        properties.setRetentionPolicy(policy);
+        return properties;
+    }
+
+    @Test
+    public void test_bytes() throws IOException {
+        long now = System.currentTimeMillis();
+        createLogFile(1, 500, now);
+        createLogFile(2, 400, now);
+
+        SegmentCatalogue catalogue = new SegmentCatalogue(dir);
+        Retention retention = new Retention(dir, catalogue, properties(1000, 0, LogProperties.STOP_BACKUP_POLICY));
+        retention.check(now);
+        Assert.assertEquals(Retention.State.WARNING, retention.getState());
+        Assert.assertEquals(900, retention.getUsedBytes());
+        Assert.assertFalse(retention.isBackupStopped());
+
+        createLogFile(3, 200, now);
+        catalogue.add(3);
+        retention.check(now);
+        Assert.assertEquals(Retention.State.EXCEEDED, retention.getState());
+        Assert.assertTrue(retention.isBackupStopped());
+        Assert.assertFalse(retention.isForwardPaused());
+
+        //Cleaner删除了同步完的文件之后恢复
+        Assert.assertTrue(new File(dir, logFileName(1)).delete());
+        retention.check(now);
+        Assert.assertEquals(Retention.State.NORMAL, retention.getState());
+        Assert.assertEquals(600, retention.getUsedBytes());
+        Assert.assertEquals(2, catalogue.size());
+    }
+
+    @Test
+    public void test_age() throws IOException {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        createLogFile(1, 10, now - 90_000);
+        createLogFile(2, 10, now);
+
+        Retention retention = new Retention(dir, new SegmentCatalogue(dir), properties(0, 60, LogProperties.PAUSE_FORWARD_POLICY));
+        retention.check(now);
+        Assert.assertEquals(Retention.State.EXCEEDED, retention.getState());
+        Assert.assertTrue(retention.isForwardPaused());
+        Assert.assertFalse(retention.isBackupStopped());
+
+        retention.check(now - 40_000);
+        Assert.assertEquals(Retention.State.WARNING, retention.getState());
+        Assert.assertFalse(retention.isForwardPaused());
+    }
+
+    @Test
+    public void test_drop_oldest() throws IOException {
+        long now = System.currentTimeMillis();
+        createLogFile(1, 500, now);
+        createLogFile(2, 500, now);
+        createLogFile(3, 500, now);
+        createLogFile(4, 500, now);
+
+        SegmentCatalogue catalogue = new SegmentCatalogue(dir);
+        Retention retention = new Retention(dir, catalogue, properties(1200, 0, LogProperties.DROP_OLDEST_POLICY));
+        AtomicInteger dropped = new AtomicInteger();
+        retention.setDropListener(dropped::incrementAndGet);
+
+        retention.check(now);
+        Assert.assertEquals(1, dropped.get());
+        Assert.assertFalse(new File(dir, logFileName(1)).exists());
+        Assert.assertFalse(new File(dir, logFileName(2)).exists());
+        Assert.assertTrue(new File(dir, logFileName(3)).exists());
+        Assert.assertEquals(2, catalogue.size());
+        Assert.assertEquals(1000, retention.getUsedBytes());
+        Assert.assertEquals(Retention.State.WARNING, retention.getState());
+
+        //正在写入的文件不会被删除
+        createLogFile(5, 2000, now);
+        catalogue.add(5);
+        retention.check(now);
+        Assert.assertEquals(2, dropped.get());
+        Assert.assertEquals(1, catalogue.size());
+        Assert.assertTrue(new File(dir, logFileName(5)).exists());
+        Assert.assertEquals(Retention.State.EXCEEDED, retention.getState());
+    }
+
+    @Test
+    public void test_drop_oldest_reader() throws IOException {
+        LogProperties properties = new LogProperties();
+        properties.setSegmentBytes(10);
+        SegmentCatalogue catalogue = new SegmentCatalogue(dir);
+        LogPersistence writer = new LogPersistence(dir, properties, null, Access.W, catalogue);
+        for (char c = 'a'; c <= 'e'; c ++) {
+            writer.getOutputStream().write(new String(new char[10]).replace('\0', c).getBytes());
+        }
+        writer.getOutputStream().flush();
+
+        //读取者在另一个实例中，有自己的catalogue
+        LogPersistence reader = new LogPersistence(dir, new LogProperties(), new IndexEntry(1, 0), Access.R);
+        byte[] buf = new byte[1024];
+        Assert.assertEquals("aaaaaaaaaa", new String(buf, 0, reader.getInputStream().read(buf)));
+
+        Retention retention = new Retention(dir, catalogue, properties(25, 0, LogProperties.DROP_OLDEST_POLICY));
+        retention.check();
+        Assert.assertFalse(new File(dir, logFileName(3)).exists());
+        Assert.assertTrue(new File(dir, logFileName(4)).exists());
+
+        //被删除的文件跳过，从之后的文件继续读取
+        writer.close();
+        StringBuilder content = new StringBuilder();
+        int n;
+        while ((n = reader.getInputStream().read(buf)) != -1) {
+            content.append(new String(buf, 0, n));
+        }
+        Assert.assertEquals("ddddddddddeeeeeeeeee", content.toString());
+        reader.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_unknown_policy() {
+        new Retention(dir, new SegmentCatalogue(dir), properties(1000, 0, "unknown"));
+    }
+
+    @After
+    public void after() {
+        super.after();
+    }
+}
@@ -0,0 +1,55 @@
+package cn.shijinshi.redis.common.log;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Gui Jiahai
+ */
+public class SegmentCatalogueTest extends AbstractTmpDir {
+
+    @Before
+    @Override
+    public void setup() {
+        super.setup();
+    }
+
+    @Test
+    public void test() throws IOException {
+        Assert.assertTrue(new File(dir, logFileName(3)).createNewFile());
+        Assert.assertTrue(new File(dir, logFileName(5)).createNewFile());
+        Assert.assertTrue(new File(dir, indexFileName(3)).createNewFile());
+
+        SegmentCatalogue catalogue = new SegmentCatalogue(dir);
+        Assert.assertEquals(2, catalogue.size());
+        Assert.assertEquals(5, catalogue.last().getSequence());
+        Assert.assertEquals(new File(dir, logFileName(5)), catalogue.last().getFile());
+        Assert.assertEquals(5, catalogue.ceiling(4).getSequence());
+        Assert.assertNull(catalogue.ceiling(6));
+        Assert.assertTrue(catalogue.hasNewer(3));
+        Assert.assertFalse(catalogue.hasNewer(5));
+
+        catalogue.add(6);
+        Assert.assertTrue(catalogue.hasNewer(5));
+        catalogue.remove(3);
+        Assert.assertEquals(5, catalogue.ceiling(0).getSequence());
+        Assert.assertEquals(1, catalogue.before(6).size());
+
+        //重新列出目录中的文件
+        catalogue.reload();
+        Assert.assertEquals(2, catalogue.size());
+        Assert.assertFalse(catalogue.hasNewer(5));
+    }
+
+    @After
+    @Override
+    public void after() {
+        super.after();
+    }
+
+}
@@ -1,11 +1,15 @@
 package cn.shijinshi.redis.common.protocol;
 
 import cn.shijinshi.redis.common.util.UnsafeByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Gui Jiahai
@@ -33,6 +37,23 @@ public class RedisCodecTest {
         Assert.assertNull(request);
     }
 
+    @Test
+    public void test_argument() throws IOException {
+        ByteBuf request = Unpooled.wrappedBuffer(requestStr1.getBytes());
+        Assert.assertEquals("SET", argument(request, 0));
+        Assert.assertEquals("NAME", argument(request, 1));
+        Assert.assertNull(RedisCodec.argument(request, 3));
+        Assert.assertNull(RedisCodec.argument(Unpooled.wrappedBuffer("PING\r\n".getBytes()), 0));
+
+        ByteBuf key = RedisCodec.argument(Unpooled.wrappedBuffer("*2\r\n$3\r\nGET\r\n$10\r\n{user}1000\r\n".getBytes()), 1);
+        Assert.assertEquals(SlotHash.getSlot("{user}1000"), SlotHash.getSlot(key));
+        Assert.assertEquals(SlotHash.getSlot("user"), SlotHash.getSlot(key));
+    }
+
+    private String argument(ByteBuf request, int index) throws IOException {
+        return RedisCodec.argument(request, index).toString(StandardCharsets.UTF_8);
+    }
+
     @Test(expected = IOException.class)
     public void test_request_illegal() throws IOException {
         String requestStr = "*3\r\n$3\r\nSET\r\n$4\r\nNAME\r\n$4\r\nJACK\n\r";
@@ -41,6 +62,53 @@ public class RedisCodecTest {
         RedisCodec.decodeRequest(input);
     }
 
+    @Test
+    public void test_request_byteBuf() throws IOException {
+        String requestString = requestStr1 + requestStr1 + requestStr0;
+        ByteBuf input = Unpooled.wrappedBuffer(requestString.getBytes());
+
+        RedisRequest request;
+        for (int i = 0; i < 2; i ++) {
+            request = RedisCodec.decodeRequest(input);
+            Assert.assertNotNull(request);
+            Assert.assertEquals(request.getCommand(), new UnsafeByteString("SET"));
+            Assert.assertEquals(request.getSubCommand(), new UnsafeByteString("NAME"));
+            Assert.assertArrayEquals(ByteBufUtil.getBytes(request.getBuffer()), requestStr1.getBytes());
+            Assert.assertArrayEquals(request.getContent(), requestStr1.getBytes());
+            Assert.assertFalse(request.release());
+        }
+
+        int readerIndex = input.readerIndex();
+        request = RedisCodec.decodeRequest(input);
+        Assert.assertNull(request);
+        Assert.assertEquals(input.readerIndex(), readerIndex);
+        Assert.assertTrue(input.release());
+    }
+
+    @Test
+    public void test_request_byteBuf_partial() throws IOException {
+        byte[] bytes = requestStr1.getBytes();
+        ByteBuf input = Unpooled.buffer();
+        for (int i = 0; i < bytes.length - 1; i ++) {
+            input.writeByte(bytes[i]);
+            Assert.assertNull(RedisCodec.decodeRequest(input));
+            Assert.assertEquals(input.readerIndex(), 0);
+        }
+        input.writeByte(bytes[bytes.length - 1]);
+        RedisRequest request = RedisCodec.decodeRequest(input);
+        Assert.assertNotNull(request);
+        Assert.assertArrayEquals(request.getContent(), bytes);
+        Assert.assertFalse(input.isReadable());
+        request.release();
+        input.release();
+    }
+
+    @Test(expected = IOException.class)
+    public void test_request_byteBuf_illegal() throws IOException {
+        String requestStr = "*3\r\n$3\r\nSET\r\n$4\r\nNAME\r\n$4\r\nJACK\n\r";
+        RedisCodec.decodeRequest(Unpooled.wrappedBuffer(requestStr.getBytes()));
+    }
+
     @Test
     public void test_reply_multiBulk() throws IOException {
         test_reply(requestStr1);
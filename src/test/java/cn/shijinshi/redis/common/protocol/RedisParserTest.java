@@ -0,0 +1,136 @@
+package cn.shijinshi.redis.common.protocol;
+
+import cn.shijinshi.redis.common.util.UnsafeByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Gui Jiahai
+ */
+public class RedisParserTest {
+
+    private final String replyStr = "*4\r\n$5\r\nHello\r\n$-1\r\n*2\r\n:1\r\n+OK\r\n*0\r\n";
+
+    @Test
+    public void test_request_chunked() throws IOException {
+        char[] chars = new char[1024 * 1024];
+        Arrays.fill(chars, 'v');
+        String value = new String(chars);
+        String requestStr = "*3\r\n$3\r\nSET\r\n$3\r\nKEY\r\n$" + value.length() + "\r\n" + value + "\r\n";
+        byte[] bytes = requestStr.getBytes();
+
+        RedisParser parser = new RedisParser();
+        ByteBuf input = Unpooled.buffer();
+        RedisRequest request = null;
+        int chunk = 1000;
+        for (int i = 0; i < bytes.length; i += chunk) {
+            Assert.assertNull(request);
+            input.writeBytes(bytes, i, Math.min(chunk, bytes.length - i));
+            request = parser.decodeRequest(input);
+        }
+
+        Assert.assertNotNull(request);
+        Assert.assertEquals(request.getCommand(), new UnsafeByteString("set"));
+        Assert.assertEquals(request.getSubCommand(), new UnsafeByteString("key"));
+        Assert.assertArrayEquals(request.getContent(), bytes);
+        Assert.assertFalse(input.isReadable());
+        request.release();
+        input.release();
+    }
+
+    @Test
+    public void test_command_table() throws IOException {
+        Map<String, Integer> commands = new LinkedHashMap<>();
+        String[] names = {"get", "set", "getset", "hgetall", "zrangebyscore", "blpop", "ping", "cluster"};
+        for (int i = 0; i < names.length; i++) {
+            commands.put(names[i], i);
+        }
+        CommandTable<Integer> table = CommandTable.create(commands);
+        Assert.assertEquals(table.size(), names.length);
+        for (int i = 0; i < names.length; i++) {
+            Assert.assertEquals(table.get(new UnsafeByteString(names[i].toUpperCase())).intValue(), i);
+        }
+        Assert.assertNull(table.get(new UnsafeByteString("gets")));
+        Assert.assertNull(table.get(new UnsafeByteString("ge")));
+
+        RedisParser parser = new RedisParser(table);
+        RedisRequest known = parser.decodeRequest(Unpooled.wrappedBuffer("*2\r\n$7\r\nHGetAll\r\n$1\r\nh\r\n".getBytes()));
+        Assert.assertEquals(known.getSupport(), 3);
+        //已知的命令共享命令表中的命令名
+        Assert.assertSame(known.getCommand(), table.name(3));
+
+        RedisRequest unknown = parser.decodeRequest(Unpooled.wrappedBuffer("*1\r\n$4\r\nTEST\r\n".getBytes()));
+        Assert.assertNull(unknown.getSupport());
+        Assert.assertEquals(unknown.getCommand(), new UnsafeByteString("test"));
+    }
+
+    @Test
+    public void test_reply_chunked() throws IOException {
+        byte[] bytes = (replyStr + replyStr).getBytes();
+
+        RedisParser parser = new RedisParser();
+        ByteBuf input = Unpooled.buffer();
+        int n = 0;
+        for (byte b : bytes) {
+            input.writeByte(b);
+            byte[] reply = parser.decodeReply(input);
+            if (reply != null) {
+                n ++;
+                Assert.assertArrayEquals(reply, replyStr.getBytes());
+            }
+        }
+        Assert.assertEquals(n, 2);
+        Assert.assertFalse(input.isReadable());
+    }
+
+    @Test
+    public void test_reply_pipelined() throws IOException {
+        String[] replies = {"+OK\r\n", "-ERR error\r\n", ":404\r\n", "$10\r\nhelloWorld\r\n", "*-1\r\n", replyStr};
+        StringBuilder builder = new StringBuilder();
+        for (String reply : replies) {
+            builder.append(reply);
+        }
+        ByteBuf input = Unpooled.wrappedBuffer(builder.toString().getBytes());
+
+        RedisParser parser = new RedisParser();
+        for (String reply : replies) {
+            Assert.assertArrayEquals(parser.decodeReply(input), reply.getBytes());
+        }
+        Assert.assertNull(parser.decodeReply(input));
+    }
+
+    @Test
+    public void test_reply_retained() throws IOException {
+        ByteBuf input = Unpooled.wrappedBuffer(("-ERR error\r\n" + replyStr).getBytes());
+
+        RedisParser parser = new RedisParser();
+        RedisReply error = RedisReply.create(parser.decodeRetainedReply(input));
+        RedisReply reply = RedisReply.create(parser.decodeRetainedReply(input));
+        Assert.assertFalse(input.isReadable());
+        input.release();
+
+        Assert.assertTrue(error.isError());
+        Assert.assertFalse(reply.isError());
+        Assert.assertArrayEquals(reply.getContent(), replyStr.getBytes());
+        Assert.assertFalse(error.release());
+        Assert.assertTrue(reply.release());
+    }
+
+    @Test(expected = IOException.class)
+    public void test_reply_illegal() throws IOException {
+        new RedisParser().decodeReply(Unpooled.wrappedBuffer("$11\r\nhelloWorld\r\n+".getBytes()));
+    }
+
+    @Test(expected = IOException.class)
+    public void test_request_nested() throws IOException {
+        new RedisParser().decodeRequest(Unpooled.wrappedBuffer("*2\r\n$3\r\nGET\r\n*1\r\n$1\r\nA\r\n".getBytes()));
+    }
+
+}
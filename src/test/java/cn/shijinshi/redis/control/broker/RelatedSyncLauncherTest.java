@@ -1,6 +1,7 @@
 package cn.shijinshi.redis.control.broker;
 
 import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
 import cn.shijinshi.redis.common.prop.BrokerProperties;
 import cn.shijinshi.redis.control.rpc.Answer;
 import cn.shijinshi.redis.control.rpc.Indication;
@@ -38,6 +39,8 @@ public class RelatedSyncLauncherTest {
     @Mock
     private BrokerProperties properties;
     @Mock
+    private PartitionedLogger partitionedLogger;
+    @Mock
     private IndexLogger logger;
     @Mock
     private RequestSynchronizer synchronizer;
@@ -45,6 +48,8 @@ public class RelatedSyncLauncherTest {
     @Before
     public void setup() throws Exception {
         doNothing().when(synchronizer).resume_();
+        when(partitionedLogger.size()).thenReturn(1);
+        when(partitionedLogger.get(0)).thenReturn(logger);
         PowerMockito.mockStatic(Executors.class, invocation -> new ScheduledThreadPoolExecutor(1) {
             @Override
             public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
@@ -54,7 +59,7 @@ public class RelatedSyncLauncherTest {
 
         PowerMockito.whenNew(RequestSynchronizer.class).withAnyArguments().thenReturn(synchronizer);
 
-        launcher = new RelatedSyncLauncher(logger, properties);
+        launcher = new RelatedSyncLauncher(partitionedLogger, properties);
         launcher.start();
     }
 
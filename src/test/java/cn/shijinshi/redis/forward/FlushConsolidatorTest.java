@@ -0,0 +1,129 @@
+package cn.shijinshi.redis.forward;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 每次flush对应一次write系统调用，
+ * 这里通过统计flush的次数，来比较合并前后每个命令所需的系统调用次数。
+ *
+ * @author Gui Jiahai
+ */
+public class FlushConsolidatorTest {
+
+    private static final int COMMANDS = 100;
+
+    @Test
+    public void test_pipelined_read() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new Responder());
+        readPipelined(channel);
+        Assert.assertEquals(counter.flushes, COMMANDS);
+
+        counter = new FlushCounter();
+        channel = new EmbeddedChannel(counter, new FlushConsolidator(64, 0), new Responder());
+        readPipelined(channel);
+        Assert.assertEquals(counter.flushes, 2);
+
+        counter = new FlushCounter();
+        channel = new EmbeddedChannel(counter, new FlushConsolidator(1000, 0), new Responder());
+        readPipelined(channel);
+        Assert.assertEquals(counter.flushes, 1);
+        Assert.assertEquals(channel.outboundMessages().size(), COMMANDS);
+    }
+
+    @Test
+    public void test_async_write() throws InterruptedException {
+        //EmbeddedChannel在写出时会执行所有待处理的任务，无法模拟event loop的任务队列，所以这里使用LocalChannel
+        DefaultEventLoopGroup group = new DefaultEventLoopGroup(1);
+        try {
+            LocalAddress address = new LocalAddress("FlushConsolidatorTest");
+            new ServerBootstrap().group(group)
+                    .channel(LocalServerChannel.class)
+                    .childHandler(new Discarder())
+                    .bind(address).sync();
+
+            FlushCounter counter = new FlushCounter();
+            Channel channel = new Bootstrap().group(group)
+                    .channel(LocalChannel.class)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(counter, new FlushConsolidator(1000, 0));
+                        }
+                    })
+                    .connect(address).sync().channel();
+
+            //模拟多个回复报文在同一批任务中写出
+            channel.eventLoop().submit(() -> {
+                for (int i = 0; i < COMMANDS; i++) {
+                    channel.eventLoop().execute(() -> channel.writeAndFlush(Unpooled.wrappedBuffer("+OK\r\n".getBytes())));
+                }
+            }).sync();
+            //第一次等待所有写出任务执行完，第二次等待合并后的flush执行完
+            channel.eventLoop().submit(() -> {}).sync();
+            channel.eventLoop().submit(() -> {}).sync();
+
+            Assert.assertEquals(counter.flushes, 1);
+            channel.close().sync();
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void test_close() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidator(1000, 1000_000));
+        channel.writeAndFlush(Unpooled.wrappedBuffer("+OK\r\n".getBytes()));
+        Assert.assertEquals(counter.flushes, 0);
+        channel.close();
+        Assert.assertEquals(counter.flushes, 1);
+    }
+
+    private void readPipelined(EmbeddedChannel channel) {
+        Object[] requests = new Object[COMMANDS];
+        for (int i = 0; i < COMMANDS; i++) {
+            requests[i] = i;
+        }
+        //writeInbound会依次触发channelRead，最后触发一次channelReadComplete
+        channel.writeInbound(requests);
+        channel.runPendingTasks();
+    }
+
+    private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        private int flushes = 0;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            flushes ++;
+            super.flush(ctx);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static class Discarder extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static class Responder extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.writeAndFlush(Unpooled.wrappedBuffer("+OK\r\n".getBytes()));
+        }
+    }
+
+}
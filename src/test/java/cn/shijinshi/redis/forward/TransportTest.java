@@ -0,0 +1,30 @@
+package cn.shijinshi.redis.forward;
+
+import io.netty.channel.EventLoopGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Gui Jiahai
+ */
+public class TransportTest {
+
+    @Test
+    public void test_create() {
+        Assert.assertSame(Transport.create(null), Transport.nio());
+        Assert.assertSame(Transport.create("NIO"), Transport.nio());
+
+        //没有epoll依赖，或者不是Linux时，退回到NIO
+        Transport transport = Transport.create("epoll");
+        Assert.assertTrue(transport == Transport.nio() || transport.isReusePortSupported());
+
+        EventLoopGroup group = transport.newEventLoopGroup(1);
+        group.shutdownGracefully();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_unknown() {
+        Transport.create("kqueue");
+    }
+
+}
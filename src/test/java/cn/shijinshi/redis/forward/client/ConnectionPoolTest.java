@@ -0,0 +1,253 @@
+package cn.shijinshi.redis.forward.client;
+
+import cn.shijinshi.redis.common.protocol.RedisReply;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.common.protocol.SlotHash;
+import cn.shijinshi.redis.common.util.UnsafeByteString;
+import cn.shijinshi.redis.forward.Exchange;
+import cn.shijinshi.redis.forward.RequestAndFuture;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Gui Jiahai
+ */
+public class ConnectionPoolTest {
+
+    @Test
+    public void test_least_in_flight() {
+        UpstreamConnection c1 = connection(true, 5);
+        UpstreamConnection c2 = connection(true, 2);
+        UpstreamConnection c3 = connection(false, 0);
+        ConnectionPool pool = new ConnectionPool(new UpstreamConnection[]{c1, c2, c3}, new UpstreamConnection[0], 0);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertSame(pool.select(new UpstreamConnection[]{c1, c2, c3}), c2);
+        }
+
+        pool.send(exchange("get"));
+        verify(c2).send(any());
+        verify(c1, never()).send(any());
+        verify(c3, never()).send(any());
+    }
+
+    @Test
+    public void test_blocking() {
+        UpstreamConnection normal = connection(true, 0);
+        UpstreamConnection blocking = connection(true, 10);
+        ConnectionPool pool = new ConnectionPool(new UpstreamConnection[]{normal}, new UpstreamConnection[]{blocking}, 0);
+
+        pool.send(exchange("BLPOP"));
+        verify(blocking).send(any());
+        verify(normal, never()).send(any());
+
+        pool.send(exchange("lpop"));
+        verify(normal).send(any());
+    }
+
+    @Test
+    public void test_rejected() throws Exception {
+        UpstreamConnection c1 = connection(true, 8);
+        when(c1.tryAcquire(anyInt())).thenReturn(false);
+        ConnectionPool pool = new ConnectionPool(new UpstreamConnection[]{c1}, new UpstreamConnection[0], 8);
+
+        RequestAndFuture exchange = exchange("get");
+        pool.send(exchange);
+        Assert.assertTrue(exchange.getFuture().get().isError());
+        Assert.assertEquals(pool.stats().getRejected(), 1);
+        verify(c1, never()).send(any());
+    }
+
+    @Test
+    public void test_connection_lost() throws Exception {
+        UpstreamConnection c1 = connection(false, 0);
+        ConnectionPool pool = new ConnectionPool(new UpstreamConnection[]{c1}, new UpstreamConnection[0], 0);
+
+        RequestAndFuture exchange = exchange("get");
+        pool.send(exchange);
+        Assert.assertTrue(exchange.getFuture().get().isError());
+    }
+
+    @Test
+    public void test_pinned() {
+        UpstreamConnection c1 = connection(true, 0);
+        UpstreamConnection c2 = connection(true, 5);
+        ConnectionPool pool = new ConnectionPool(new UpstreamConnection[]{c1, c2}, new UpstreamConnection[0], 0);
+        ClientRoute route = new ClientRoute();
+
+        pool.send(exchange("set", route));
+        //c1的请求数量变多之后，同一个client的请求仍然发送到c1
+        when(c1.inFlight()).thenReturn(10);
+        pool.send(exchange("get", route));
+        verify(c1, times(2)).send(any());
+        verify(c2, never()).send(any());
+
+        //连接断开之后重新选择
+        when(c1.isConnected()).thenReturn(false);
+        pool.send(exchange("get", route));
+        verify(c2).send(any());
+    }
+
+    @Test
+    public void test_pinned_blocking() {
+        UpstreamConnection normal = connection(true, 0);
+        UpstreamConnection blocking = connection(true, 0);
+        ConnectionPool pool = new ConnectionPool(new UpstreamConnection[]{normal}, new UpstreamConnection[]{blocking}, 0);
+        ClientRoute route = new ClientRoute();
+
+        //LPUSH还没有回复，BLPOP不能先在另一个连接上执行
+        pool.send(exchange("lpush", route));
+        pool.send(exchange("blpop", route));
+        verify(normal, times(2)).send(any());
+        verify(blocking, never()).send(any());
+
+        route.release();
+        route.release();
+        pool.send(exchange("blpop", route));
+        verify(blocking).send(any());
+
+        //BLPOP还没有回复，之后的请求也在阻塞命令的连接上
+        pool.send(exchange("get", route));
+        verify(blocking, times(2)).send(any());
+
+        route.release();
+        route.release();
+        pool.send(exchange("get", route));
+        verify(normal, times(3)).send(any());
+    }
+
+    @Test
+    public void test_preferred() {
+        UpstreamConnection pooled = connection(true, 0);
+        UpstreamConnection loop = connection(false, 0);
+        ConnectionPool pool = new ConnectionPool(new UpstreamConnection[]{pooled}, new UpstreamConnection[0], 8);
+
+        //EventLoop上的连接还没有建立，选择连接池中的连接，之后不再切换
+        ClientRoute early = new ClientRoute();
+        pool.send(exchange("get", early), loop);
+        when(loop.isConnected()).thenReturn(true);
+        pool.send(exchange("get", early), loop);
+        verify(pooled, times(2)).send(any());
+        verify(loop, never()).send(any());
+
+        ClientRoute route = new ClientRoute();
+        pool.send(exchange("get", route), loop);
+        verify(loop).send(any());
+
+        //请求数量达到上限时返回错误，不会换到连接池中的连接
+        when(loop.tryAcquire(anyInt())).thenReturn(false);
+        pool.send(exchange("get", route), loop);
+        verify(pooled, times(2)).send(any());
+        Assert.assertEquals(1, pool.stats().getRejected());
+    }
+
+    @Test
+    public void test_ordered() {
+        UpstreamConnection[] connections = {connection(true, 0), connection(true, 0), connection(true, 0)};
+        UpstreamConnection blocking = connection(true, 0);
+        ConnectionPool pool = new ConnectionPool(connections, new UpstreamConnection[]{blocking}, 0, true);
+        ClientRoute a = new ClientRoute();
+        ClientRoute b = new ClientRoute();
+
+        //两个client固定在不同的连接上
+        pool.send(exchange(request("ping"), a));
+        pool.send(exchange(request("ping"), b));
+        Assert.assertNotSame(a.pinned, b.pinned);
+
+        //对同一个key的写请求，以及之后的读请求，都在key的slot对应的连接上
+        UpstreamConnection keyed = connections[SlotHash.getSlot("k") % connections.length];
+        Exchange set1 = exchange(request("set", "k", "1"), a);
+        Exchange set2 = exchange(request("set", "k", "2"), b);
+        Exchange get = exchange(request("get", "k"), a);
+        Exchange blpop = exchange(request("blpop", "k", "0"), b);
+        pool.send(set1);
+        pool.send(set2);
+        pool.send(get);
+        pool.send(blpop);
+        InOrder inOrder = inOrder(keyed);
+        inOrder.verify(keyed).send(set1);
+        inOrder.verify(keyed).send(set2);
+        inOrder.verify(keyed).send(get);
+        inOrder.verify(keyed).send(blpop);
+        verify(blocking, never()).send(any());
+
+        //连接断开之后，所有client都选择下一个连接
+        when(keyed.isConnected()).thenReturn(false);
+        UpstreamConnection next = connections[(SlotHash.getSlot("k") + 1) % connections.length];
+        Exchange set3 = exchange(request("set", "k", "3"), a);
+        Exchange set4 = exchange(request("set", "k", "4"), b);
+        pool.send(set3);
+        pool.send(set4);
+        verify(next).send(set3);
+        verify(next).send(set4);
+    }
+
+    @Test
+    public void test_ordered_preferred() {
+        UpstreamConnection pooled = connection(true, 0);
+        UpstreamConnection loop = connection(true, 0);
+        ConnectionPool pool = new ConnectionPool(new UpstreamConnection[]{pooled}, new UpstreamConnection[0], 0, true);
+        ClientRoute route = new ClientRoute();
+
+        //有key的请求不使用EventLoop上的连接，否则不同EventLoop上的client对同一个key的写请求会在不同的连接上
+        Exchange set = exchange(request("set", "k", "1"), route);
+        pool.send(set, loop);
+        verify(pooled).send(set);
+        verify(loop, never()).send(any());
+    }
+
+    private static UpstreamConnection connection(boolean connected, int inFlight) {
+        UpstreamConnection connection = mock(UpstreamConnection.class);
+        when(connection.isConnected()).thenReturn(connected);
+        when(connection.inFlight()).thenReturn(inFlight);
+        when(connection.tryAcquire(anyInt())).thenReturn(true);
+        when(connection.send(any())).thenReturn(true);
+        return connection;
+    }
+
+    private static RequestAndFuture exchange(String command) {
+        RedisRequest request = new RedisRequest(new byte[0], new UnsafeByteString(command), null);
+        return new RequestAndFuture(request, new CompletableFuture<>());
+    }
+
+    private static RedisRequest request(String... args) {
+        StringBuilder content = new StringBuilder("*").append(args.length).append("\r\n");
+        for (String arg : args) {
+            content.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        }
+        return new RedisRequest(content.toString().getBytes(), new UnsafeByteString(args[0]),
+                args.length > 1 ? new UnsafeByteString(args[1]) : null);
+    }
+
+    private static Exchange exchange(String command, ClientRoute route) {
+        return exchange(exchange(command).getRequest(), route);
+    }
+
+    private static Exchange exchange(Object request, ClientRoute route) {
+        RequestAndFuture exchange = new RequestAndFuture(request, new CompletableFuture<>());
+        return new Exchange() {
+            @Override
+            public Object getRequest() {
+                return exchange.getRequest();
+            }
+
+            @Override
+            public boolean complete(RedisReply reply) {
+                return exchange.complete(reply);
+            }
+
+            @Override
+            public ClientRoute route() {
+                return route;
+            }
+        };
+    }
+
+}
@@ -1,6 +1,7 @@
 package cn.shijinshi.redis.forward.client;
 
 import cn.shijinshi.redis.common.param.HostAndPort;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.common.util.UnsafeByteString;
 import io.netty.buffer.ByteBuf;
@@ -40,22 +41,22 @@ public class RedisConnectorTest {
         RedisRequest getRequest = new RedisRequest(getRequestStr.getBytes(), new UnsafeByteString("GET"), null);
 
 
-        CompletableFuture<byte[]> future;
+        CompletableFuture<RedisReply> future;
         byte[] bytes;
 
         future = new CompletableFuture<>();
         connector.send(pingRequest, future);
-        bytes = future.get(3, TimeUnit.SECONDS);
+        bytes = future.get(3, TimeUnit.SECONDS).getContent();
         Assert.assertArrayEquals(bytes, "+PONG\r\n".getBytes());
 
         future = new CompletableFuture<>();
         connector.send(setRequest.getBytes(), future);
-        bytes = future.get(3, TimeUnit.SECONDS);
+        bytes = future.get(3, TimeUnit.SECONDS).getContent();
         Assert.assertArrayEquals(bytes, "+OK\r\n".getBytes());
 
         future = new CompletableFuture<>();
         connector.send(getRequest, future);
-        bytes = future.get(3, TimeUnit.SECONDS);
+        bytes = future.get(3, TimeUnit.SECONDS).getContent();
         Assert.assertArrayEquals(bytes, ("$" + random.length() + "\r\n" + random + "\r\n").getBytes());
     }
 
@@ -1,9 +1,15 @@
 package cn.shijinshi.redis.forward.handler;
 
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.forward.Handler;
+import cn.shijinshi.redis.forward.ReplySlot;
 import cn.shijinshi.redis.forward.support.Support;
 import cn.shijinshi.redis.sync.Appender;
+import cn.shijinshi.redis.sync.appender.AppendRejectedException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -35,36 +41,94 @@ public class AppendHandlerTest {
     public void test_success() throws IOException {
         Support support = new Support(true, null);
 
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        handler.handle(request, support, future);
-        future.complete("+PONG\r\n".getBytes());
+        ReplySlot slot = slot(support);
+        handler.handle(slot);
+        slot.complete(new RedisReply("+PONG\r\n".getBytes()));
 
-        verify(appender).append(request);
-        verify(nextHandler).handle(request, support, future);
+        verify(appender).appendAsync(request);
+        verify(nextHandler).handle(slot);
+        Assert.assertTrue(slot.isDone());
+    }
+
+    @Test
+    public void test_deferred() throws IOException {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        when(appender.appendAsync(request)).thenReturn(future);
+        Support support = new Support(true, null);
+
+        ReplySlot slot = slot(support);
+        handler.handle(slot);
+        slot.complete(new RedisReply("+OK\r\n".getBytes()));
+
+        //请求写入磁盘之前，不能回复client
+        Assert.assertFalse(slot.isDone());
+        future.complete(null);
+        Assert.assertTrue(slot.isDone());
+    }
+
+    @Test
+    public void test_deferred_failed() throws IOException {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        when(appender.appendAsync(request)).thenReturn(future);
+        Support support = new Support(true, null);
+
+        ReplySlot slot = slot(support);
+        handler.handle(slot);
+        ByteBuf buffer = Unpooled.copiedBuffer("+OK\r\n".getBytes());
+        slot.complete(RedisReply.create(buffer));
+
+        //写入磁盘失败，不能回复+OK，原来的回复报文已经释放
+        future.completeExceptionally(new IOException("fsync failed"));
+        Assert.assertTrue(slot.isDone());
+        Assert.assertTrue(slot.getReply().isError());
+        Assert.assertEquals(0, buffer.refCnt());
+    }
+
+    @Test
+    public void test_rejected() throws IOException {
+        when(appender.appendAsync(request)).thenThrow(new AppendRejectedException("full"));
+        Support support = new Support(true, null);
+
+        ReplySlot slot = slot(support);
+        handler.handle(slot);
+        ByteBuf buffer = Unpooled.copiedBuffer("+OK\r\n".getBytes());
+        slot.complete(RedisReply.create(buffer));
+
+        //命令已经执行，但是没有备份，需要让client知道
+        Assert.assertTrue(slot.isDone());
+        Assert.assertTrue(slot.getReply().isError());
+        //原来的回复报文不会再写给client，已经释放
+        Assert.assertEquals(0, buffer.refCnt());
     }
 
     @Test
     public void test_fail() {
         Support support = new Support(true, null);
 
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        handler.handle(request, support, future);
-        future.complete("-PONG\r\n".getBytes());
+        ReplySlot slot = slot(support);
+        handler.handle(slot);
+        slot.complete(new RedisReply("-PONG\r\n".getBytes()));
 
         verifyZeroInteractions(appender);
-        verify(nextHandler).handle(request, support, future);
+        verify(nextHandler).handle(slot);
     }
 
     @Test
     public void test_unsupported() {
         Support support = new Support(false, null);
 
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        handler.handle(request, support, future);
-        future.complete("+PONG\r\n".getBytes());
+        ReplySlot slot = slot(support);
+        handler.handle(slot);
+        slot.complete(new RedisReply("+PONG\r\n".getBytes()));
 
         verifyZeroInteractions(appender);
-        verify(nextHandler).handle(request, support, future);
+        verify(nextHandler).handle(slot);
+    }
+
+    private ReplySlot slot(Support support) {
+        ReplySlot slot = new ReplySlot().init(request);
+        slot.setSupport(support);
+        return slot;
     }
 
 }
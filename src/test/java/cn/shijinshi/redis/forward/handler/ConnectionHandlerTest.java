@@ -4,9 +4,11 @@ import cn.shijinshi.redis.common.param.Cluster;
 import cn.shijinshi.redis.common.param.HostAndPort;
 import cn.shijinshi.redis.common.param.Node;
 import cn.shijinshi.redis.common.param.Range;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.control.broker.Broker;
 import cn.shijinshi.redis.forward.RedisConnector;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,8 +19,6 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -62,38 +62,38 @@ public class ConnectionHandlerTest {
     }
 
     @Test
-    public void test_normal() throws ExecutionException, InterruptedException {
-        CompletableFuture<byte[]> future;
+    public void test_normal() {
+        ReplySlot slot;
 
-        future = new CompletableFuture<>();
-        handler.handle(request, null, future);
-        future.complete("+OK\r\n".getBytes());
-        Assert.assertArrayEquals(future.get(), "+OK\r\n".getBytes());
+        slot = new ReplySlot().init(request);
+        handler.handle(slot);
+        slot.complete(new RedisReply("+OK\r\n".getBytes()));
+        Assert.assertArrayEquals(slot.getReply().getContent(), "+OK\r\n".getBytes());
 
-        future = new CompletableFuture<>();
-        handler.handle(request, null, future);
-        future.complete("-ERR BAD MSG\r\n".getBytes());
-        Assert.assertArrayEquals(future.get(), "-ERR BAD MSG\r\n".getBytes());
+        slot = new ReplySlot().init(request);
+        handler.handle(slot);
+        slot.complete(new RedisReply("-ERR BAD MSG\r\n".getBytes()));
+        Assert.assertArrayEquals(slot.getReply().getContent(), "-ERR BAD MSG\r\n".getBytes());
 
-        verify(connector).send(request.getContent(), future);
+        verify(connector).send(slot);
     }
 
     @Test
-    public void test_moved() throws ExecutionException, InterruptedException {
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
+    public void test_moved() {
+        ReplySlot slot = new ReplySlot().init(request);
 
-        handler.handle(request, null, future);
-        future.complete("-MOVED 3333 192.168.100.101:7001\r\n".getBytes());
-        Assert.assertArrayEquals(future.get(), "-MOVED 3333 192.168.100.201:7001\r\n".getBytes());
+        handler.handle(slot);
+        slot.complete(new RedisReply("-MOVED 3333 192.168.100.101:7001\r\n".getBytes()));
+        Assert.assertArrayEquals(slot.getReply().getContent(), "-MOVED 3333 192.168.100.201:7001\r\n".getBytes());
     }
 
     @Test
-    public void test_ask() throws ExecutionException, InterruptedException {
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
+    public void test_ask() {
+        ReplySlot slot = new ReplySlot().init(request);
 
-        handler.handle(request, null, future);
-        future.complete("-ASK 3333 192.168.100.101:7001\r\n".getBytes());
-        Assert.assertArrayEquals(future.get(), "-ASK 3333 192.168.100.201:7001\r\n".getBytes());
+        handler.handle(slot);
+        slot.complete(new RedisReply("-ASK 3333 192.168.100.101:7001\r\n".getBytes()));
+        Assert.assertArrayEquals(slot.getReply().getContent(), "-ASK 3333 192.168.100.201:7001\r\n".getBytes());
     }
 
 }
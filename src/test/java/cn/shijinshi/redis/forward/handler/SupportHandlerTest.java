@@ -1,11 +1,15 @@
 package cn.shijinshi.redis.forward.handler;
 
+import cn.shijinshi.redis.common.protocol.RedisParser;
+import cn.shijinshi.redis.common.protocol.RedisReply;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.common.util.UnsafeByteString;
 import cn.shijinshi.redis.control.broker.Broker;
 import cn.shijinshi.redis.forward.Handler;
+import cn.shijinshi.redis.forward.ReplySlot;
 import cn.shijinshi.redis.forward.support.Action;
 import cn.shijinshi.redis.forward.support.CommandSupports;
+import io.netty.buffer.Unpooled;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -15,8 +19,6 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 
 import static org.mockito.Mockito.*;
 
@@ -27,6 +29,7 @@ import static org.mockito.Mockito.*;
 public class SupportHandlerTest {
 
     private SupportHandler handler;
+    private RedisParser parser;
     @Mock
     private Handler nextHandler;
     @Mock
@@ -37,42 +40,55 @@ public class SupportHandlerTest {
         when(broker.isMaster()).thenReturn(Boolean.TRUE);
 
         Map<String, Action> actionMap = new HashMap<>();
-        actionMap.put("get", (redisRequest, completableFuture) -> {
-            completableFuture.complete("+GET_OK".getBytes());
+        actionMap.put("get", (redisRequest, slot) -> {
+            slot.complete(new RedisReply("+GET_OK".getBytes()));
             return Boolean.TRUE;
         });
-        actionMap.put("set", (redisRequest, completableFuture) -> Boolean.FALSE);
+        actionMap.put("set", (redisRequest, slot) -> Boolean.FALSE);
 
         CommandSupports supports = new CommandSupports(actionMap);
         supports.init();
         handler = new SupportHandler(nextHandler, broker, supports);
+        parser = new RedisParser(supports.getTable());
     }
 
     @Test
-    public void test_not_support() throws ExecutionException, InterruptedException {
+    public void test_not_support() {
         RedisRequest request = new RedisRequest(null, new UnsafeByteString("TEST"), null);
 
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        handler.handle(request, null, future);
-        Assert.assertArrayEquals(future.get(), "-ERR Unsupported command 'TEST'\r\n".getBytes());
+        ReplySlot slot = new ReplySlot().init(request);
+        handler.handle(slot);
+        Assert.assertArrayEquals(slot.getReply().getContent(), "-ERR Unsupported command 'TEST'\r\n".getBytes());
     }
 
     @Test
-    public void test_action_TRUE() throws ExecutionException, InterruptedException {
+    public void test_action_TRUE() {
         RedisRequest request = new RedisRequest(null, new UnsafeByteString("get"), null);
 
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        handler.handle(request, null, future);
-        Assert.assertArrayEquals(future.get(), "+GET_OK".getBytes());
+        ReplySlot slot = new ReplySlot().init(request);
+        handler.handle(slot);
+        Assert.assertArrayEquals(slot.getReply().getContent(), "+GET_OK".getBytes());
     }
 
     @Test
     public void test_action_FALSE() {
         RedisRequest request = new RedisRequest(null, new UnsafeByteString("set"), null);
 
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        handler.handle(request, null, future);
-        verify(nextHandler, times(1)).handle(eq(request), any(), eq(future));
+        ReplySlot slot = new ReplySlot().init(request);
+        handler.handle(slot);
+        verify(nextHandler, times(1)).handle(slot);
+        Assert.assertNotNull(slot.getSupport());
+    }
+
+    @Test
+    public void test_decoded() throws Exception {
+        RedisRequest request = parser.decodeRequest(Unpooled.wrappedBuffer("*2\r\n$3\r\nGeT\r\n$1\r\na\r\n".getBytes()));
+        Assert.assertNotNull(request.getSupport());
+
+        ReplySlot slot = new ReplySlot().init(request);
+        handler.handle(slot);
+        Assert.assertArrayEquals(slot.getReply().getContent(), "+GET_OK".getBytes());
+        request.release();
     }
 
 }
@@ -0,0 +1,238 @@
+package cn.shijinshi.redis.forward.server;
+
+import cn.shijinshi.redis.common.protocol.RedisReply;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.forward.ReplySlot;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gui Jiahai
+ */
+public class ReplyRingTest {
+
+    private EmbeddedChannel channel;
+    private ChannelHandlerContext ctx;
+    private final AtomicInteger finished = new AtomicInteger(0);
+
+    @Before
+    public void setup() {
+        channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void handlerAdded(ChannelHandlerContext ctx) {
+                ReplyRingTest.this.ctx = ctx;
+            }
+        });
+    }
+
+    @Test
+    public void test_order() {
+        ReplyRing ring = new ReplyRing(ctx, 4, finished::incrementAndGet);
+        List<RedisRequest> requests = new ArrayList<>();
+        List<ReplySlot> slots = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RedisRequest request = request();
+            requests.add(request);
+            slots.add(ring.acquire(request));
+        }
+
+        slots.get(2).complete(reply(":2\r\n"));
+        slots.get(1).complete(reply(":1\r\n"));
+        Assert.assertTrue(channel.outboundMessages().isEmpty());
+
+        slots.get(0).complete(reply(":0\r\n"));
+        Assert.assertEquals(readOutbound(), ":0\r\n");
+        Assert.assertEquals(readOutbound(), ":1\r\n");
+        Assert.assertEquals(readOutbound(), ":2\r\n");
+        Assert.assertEquals(ring.pending(), 0);
+        for (RedisRequest request : requests) {
+            Assert.assertEquals(request.getBuffer().refCnt(), 0);
+        }
+    }
+
+    @Test
+    public void test_grow() {
+        ReplyRing ring = new ReplyRing(ctx, 2, finished::incrementAndGet);
+        //先让head移动，以便扩容时需要调整顺序
+        ring.acquire(request()).complete(reply("+OK\r\n"));
+        Assert.assertEquals(readOutbound(), "+OK\r\n");
+
+        List<ReplySlot> slots = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            slots.add(ring.acquire(request()));
+        }
+        Assert.assertEquals(ring.capacity(), 8);
+        Assert.assertEquals(ring.pending(), 5);
+
+        for (int i = slots.size() - 1; i >= 0; i--) {
+            slots.get(i).complete(reply(":" + i + "\r\n"));
+        }
+        for (int i = 0; i < slots.size(); i++) {
+            Assert.assertEquals(readOutbound(), ":" + i + "\r\n");
+        }
+    }
+
+    @Test
+    public void test_inactive() {
+        ReplyRing ring = new ReplyRing(ctx, 4, finished::incrementAndGet);
+        ReplySlot slot = ring.acquire(request());
+        RedisReply reply = reply("+OK\r\n");
+
+        channel.close();
+        ring.inactive();
+        Assert.assertEquals(finished.get(), 0);
+
+        slot.complete(reply);
+        Assert.assertEquals(reply.getBuffer().refCnt(), 0);
+        Assert.assertEquals(finished.get(), 1);
+    }
+
+    @Test
+    public void test_event_loop() {
+        ReplyRing ring = new ReplyRing(ctx, 1, finished::incrementAndGet);
+        ring.acquire(request());
+        //扩容后的slot也要带上client连接的EventLoop，以便选择同一个EventLoop上的Redis连接
+        ReplySlot slot = ring.acquire(request());
+        Assert.assertSame(slot.eventLoop(), channel.eventLoop());
+        Assert.assertNull(new ReplySlot().eventLoop());
+    }
+
+    @Test
+    public void test_coalesced_drain() throws Exception {
+        //EmbeddedChannel中任何线程都被认为是event loop，所以这里使用LocalChannel
+        DefaultEventLoopGroup group = new DefaultEventLoopGroup(1);
+        try {
+            LocalAddress address = new LocalAddress("ReplyRingTest");
+            new ServerBootstrap().group(group)
+                    .channel(LocalServerChannel.class)
+                    .childHandler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public boolean isSharable() {
+                            return true;
+                        }
+
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                            ReferenceCountUtil.release(msg);
+                        }
+                    })
+                    .bind(address).sync();
+
+            AtomicInteger flushes = new AtomicInteger(0);
+            ChannelHandlerContext[] holder = new ChannelHandlerContext[1];
+            Channel local = new Bootstrap().group(group)
+                    .channel(LocalChannel.class)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+                                @Override
+                                public void flush(ChannelHandlerContext ctx) throws Exception {
+                                    flushes.incrementAndGet();
+                                    super.flush(ctx);
+                                }
+                            }, new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void handlerAdded(ChannelHandlerContext ctx) {
+                                    holder[0] = ctx;
+                                }
+                            });
+                        }
+                    })
+                    .connect(address).sync().channel();
+
+            int n = 100;
+            List<ReplySlot> slots = new ArrayList<>();
+            ReplyRing ring = local.eventLoop().submit(() -> {
+                ReplyRing r = new ReplyRing(holder[0], 4, finished::incrementAndGet);
+                for (int i = 0; i < n; i++) {
+                    slots.add(r.acquire(request()));
+                }
+                return r;
+            }).sync().getNow();
+
+            //阻塞event loop，在其他线程中完成所有slot
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch latch = new CountDownLatch(1);
+            local.eventLoop().execute(() -> {
+                started.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            started.await();
+            for (ReplySlot slot : slots) {
+                slot.complete(reply("+OK\r\n"));
+            }
+            //100个slot只提交了一个drain任务
+            Assert.assertEquals(((SingleThreadEventExecutor) local.eventLoop()).pendingTasks(), 1);
+            latch.countDown();
+            local.eventLoop().submit(() -> {}).sync();
+
+            Assert.assertEquals(flushes.get(), 1);
+            Assert.assertEquals(local.eventLoop().submit(ring::pending).sync().getNow().intValue(), 0);
+            local.close().sync();
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void test_hook() {
+        ReplySlot slot = new ReplySlot().init(request());
+        List<String> order = new ArrayList<>();
+        slot.addHook((s, r) -> {
+            order.add("first");
+            return r;
+        });
+        slot.addHook((s, r) -> {
+            order.add("second");
+            return new RedisReply("-ERR converted\r\n".getBytes());
+        });
+        slot.addHook((s, r) -> {
+            order.add("third");
+            return r;
+        });
+
+        Assert.assertTrue(slot.complete(reply("-ERR origin\r\n")));
+        Assert.assertFalse(slot.complete(reply("+OK\r\n")));
+        Assert.assertEquals(order.toString(), "[third, second, first]");
+        Assert.assertArrayEquals(slot.getReply().getContent(), "-ERR converted\r\n".getBytes());
+    }
+
+    private String readOutbound() {
+        ByteBuf buffer = channel.readOutbound();
+        String s = buffer.toString(StandardCharsets.UTF_8);
+        buffer.release();
+        return s;
+    }
+
+    private static RedisRequest request() {
+        ByteBuf buffer = Unpooled.copiedBuffer("*1\r\n$4\r\nPING\r\n".getBytes());
+        return RedisRequest.create(buffer, null, null);
+    }
+
+    private static RedisReply reply(String s) {
+        return RedisReply.create(Unpooled.copiedBuffer(s.getBytes()));
+    }
+
+}
@@ -3,13 +3,12 @@ package cn.shijinshi.redis.forward.support;
 import cn.shijinshi.redis.common.protocol.RedisCodec;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.common.util.UnsafeByteString;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 
 /**
  * @author Gui Jiahai
@@ -19,28 +18,28 @@ public class ClientActionTest {
     private ClientAction action = new ClientAction();
 
     @Test
-    public void test_client_list() throws ExecutionException, InterruptedException, IOException {
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
+    public void test_client_list() throws IOException {
+        ReplySlot slot = new ReplySlot();
         RedisRequest request = clientRequest("list");
 
-        Boolean result = action.apply(request, future);
+        Boolean result = action.apply(request, slot);
         Assert.assertEquals(result, Boolean.TRUE);
 
-        byte[] bytes = future.get();
+        byte[] bytes = slot.getReply().getContent();
         ByteArrayInputStream input = new ByteArrayInputStream(bytes);
         byte[] reply = RedisCodec.decodeReply(input);
         Assert.assertNotNull(reply);
     }
 
     @Test
-    public void test_client_setname() throws ExecutionException, InterruptedException, IOException {
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
+    public void test_client_setname() throws IOException {
+        ReplySlot slot = new ReplySlot();
         RedisRequest request = clientRequest("setname");
 
-        Boolean result = action.apply(request, future);
+        Boolean result = action.apply(request, slot);
         Assert.assertEquals(result, Boolean.TRUE);
 
-        byte[] bytes = future.get();
+        byte[] bytes = slot.getReply().getContent();
         ByteArrayInputStream input = new ByteArrayInputStream(bytes);
         byte[] reply = RedisCodec.decodeReply(input);
         Assert.assertArrayEquals(reply, "+OK\r\n".getBytes());
@@ -48,12 +47,12 @@ public class ClientActionTest {
 
     @Test
     public void test_client_other() {
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        ReplySlot slot = new ReplySlot();
         RedisRequest request = clientRequest("other");
 
-        Boolean result = action.apply(request, future);
+        Boolean result = action.apply(request, slot);
         Assert.assertEquals(result, Boolean.FALSE);
-        Assert.assertFalse(future.isDone());
+        Assert.assertFalse(slot.isDone());
     }
 
     private RedisRequest clientRequest(String subCommand) {
@@ -9,6 +9,7 @@ import cn.shijinshi.redis.common.protocol.RedisCodec;
 import cn.shijinshi.redis.common.protocol.RedisRequest;
 import cn.shijinshi.redis.common.util.UnsafeByteString;
 import cn.shijinshi.redis.control.broker.Broker;
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -20,8 +21,6 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 
 import static org.mockito.Mockito.*;
 
@@ -64,56 +63,56 @@ public class ClusterActionTest {
     }
 
     @Test
-    public void test_slots() throws ExecutionException, InterruptedException, IOException {
+    public void test_slots() throws IOException {
         RedisRequest request = new RedisRequest(null, new UnsafeByteString("cluster"), new UnsafeByteString("slots"));
 
-        CompletableFuture<byte[]> future;
+        ReplySlot slot;
         Boolean result;
         byte[] bytes;
         ByteArrayInputStream input;
         byte[] reply;
 
-        future = new CompletableFuture<>();
-        result = action.apply(request, future);
+        slot = new ReplySlot();
+        result = action.apply(request, slot);
         Assert.assertTrue(result);
-        bytes = future.get();
+        bytes = slot.getReply().getContent();
         input = new ByteArrayInputStream(bytes);
         reply = RedisCodec.decodeReply(input);
         Assert.assertNotNull(reply);
 
         when(broker.getCluster()).thenReturn(null);
-        future = new CompletableFuture<>();
-        action.apply(request, future);
+        slot = new ReplySlot();
+        action.apply(request, slot);
         Assert.assertTrue(result);
-        bytes = future.get();
+        bytes = slot.getReply().getContent();
         input = new ByteArrayInputStream(bytes);
         reply = RedisCodec.decodeReply(input);
         Assert.assertNotNull(reply);
     }
 
     @Test
-    public void test_nodes() throws ExecutionException, InterruptedException, IOException {
+    public void test_nodes() throws IOException {
         RedisRequest request = new RedisRequest(null, new UnsafeByteString("cluster"), new UnsafeByteString("nodes"));
 
-        CompletableFuture<byte[]> future;
+        ReplySlot slot;
         Boolean result;
         byte[] bytes;
         ByteArrayInputStream input;
         byte[] reply;
 
-        future = new CompletableFuture<>();
-        result = action.apply(request, future);
+        slot = new ReplySlot();
+        result = action.apply(request, slot);
         Assert.assertTrue(result);
-        bytes = future.get();
+        bytes = slot.getReply().getContent();
         input = new ByteArrayInputStream(bytes);
         reply = RedisCodec.decodeReply(input);
         Assert.assertNotNull(reply);
 
         when(broker.getCluster()).thenReturn(null);
-        future = new CompletableFuture<>();
-        action.apply(request, future);
+        slot = new ReplySlot();
+        action.apply(request, slot);
         Assert.assertTrue(result);
-        bytes = future.get();
+        bytes = slot.getReply().getContent();
         input = new ByteArrayInputStream(bytes);
         reply = RedisCodec.decodeReply(input);
         Assert.assertNotNull(reply);
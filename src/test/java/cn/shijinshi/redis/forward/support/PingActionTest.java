@@ -1,11 +1,9 @@
 package cn.shijinshi.redis.forward.support;
 
+import cn.shijinshi.redis.forward.ReplySlot;
 import org.junit.Assert;
 import org.junit.Test;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-
 /**
  * @author Gui Jiahai
  */
@@ -14,13 +12,13 @@ public class PingActionTest {
     private PingAction action = new PingAction();
 
     @Test
-    public void test() throws ExecutionException, InterruptedException {
+    public void test() {
 
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        Boolean result = action.apply(null, future);
+        ReplySlot slot = new ReplySlot();
+        Boolean result = action.apply(null, slot);
 
         Assert.assertTrue(result);
-        Assert.assertArrayEquals(future.get(), "+PONG\r\n".getBytes());
+        Assert.assertArrayEquals(slot.getReply().getContent(), "+PONG\r\n".getBytes());
 
     }
 
@@ -0,0 +1,117 @@
+package cn.shijinshi.redis.sync;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Gui Jiahai
+ */
+public class AckWindowTest {
+
+    @Test
+    public void test_out_of_order() throws InterruptedException {
+        List<Long> acks = new ArrayList<>();
+        AckWindow window = new AckWindow(16, 1024, acks::add);
+
+        AckWindow.Entry e1 = window.acquire(10);
+        AckWindow.Entry e2 = window.acquire(20);
+        AckWindow.Entry e3 = window.acquire(30);
+        Assert.assertEquals(60, window.bytes());
+
+        //后面的请求先完成，不能ack
+        window.complete(e3);
+        window.complete(e2);
+        Assert.assertTrue(acks.isEmpty());
+        Assert.assertEquals(3, window.size());
+
+        window.complete(e1);
+        Assert.assertEquals(1, acks.size());
+        Assert.assertEquals(60L, (long) acks.get(0));
+        Assert.assertEquals(0, window.size());
+        Assert.assertEquals(0, window.bytes());
+
+        //重复完成不会重复ack
+        window.complete(e1);
+        Assert.assertEquals(1, acks.size());
+    }
+
+    @Test
+    public void test_full() throws InterruptedException {
+        AtomicLong acked = new AtomicLong();
+        AckWindow window = new AckWindow(2, 100, acked::addAndGet);
+
+        AckWindow.Entry e1 = window.acquire(10);
+        window.acquire(10);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                window.acquire(10);
+                latch.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.start();
+        Assert.assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+
+        window.complete(e1);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(10, acked.get());
+        Assert.assertEquals(2, window.size());
+    }
+
+    @Test
+    public void test_bytes() throws InterruptedException {
+        AckWindow window = new AckWindow(16, 100, bytes -> {});
+
+        //窗口为空时，超过上限的请求也可以放入
+        AckWindow.Entry e1 = window.acquire(150);
+        Assert.assertNotNull(e1);
+
+        Thread thread = new Thread(() -> {
+            try {
+                window.acquire(1);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.start();
+        thread.join(200);
+        Assert.assertTrue(thread.isAlive());
+
+        window.complete(e1);
+        thread.join(5000);
+        Assert.assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void test_end_and_fail() throws InterruptedException {
+        AckWindow window = new AckWindow(1, 100, bytes -> {});
+        AckWindow.Entry e1 = window.acquire(10);
+        window.end();
+
+        Thread thread = new Thread(() -> {
+            try {
+                Assert.assertTrue(window.awaitEnd());
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.start();
+        thread.join(200);
+        Assert.assertTrue(thread.isAlive());
+        window.complete(e1);
+        thread.join(5000);
+        Assert.assertFalse(thread.isAlive());
+
+        AckWindow failed = new AckWindow(1, 100, bytes -> {});
+        failed.acquire(10);
+        failed.fail();
+        Assert.assertNull(failed.acquire(10));
+        Assert.assertFalse(failed.awaitEnd());
+    }
+}
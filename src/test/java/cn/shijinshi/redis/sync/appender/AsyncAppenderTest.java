@@ -0,0 +1,169 @@
+package cn.shijinshi.redis.sync.appender;
+
+import cn.shijinshi.redis.common.log.AbstractTmpDir;
+import cn.shijinshi.redis.common.log.Access;
+import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.LogProperties;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Gui Jiahai
+ */
+public class AsyncAppenderTest extends AbstractTmpDir {
+
+    private IndexLogger indexLogger;
+
+    @Before
+    @Override
+    public void setup() {
+        super.setup();
+        LogProperties properties = new LogProperties();
+        properties.setDir(dir.getAbsolutePath());
+        indexLogger = new IndexLogger(properties, Access.W);
+    }
+
+    @Test
+    public void test_append() throws Exception {
+        //缓冲区很小，会多次回绕
+        AsyncAppender appender = new AsyncAppender(indexLogger, 100, AsyncAppender.Overflow.BLOCK);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String content = request(i);
+            expected.append(content);
+            if (i % 2 == 0) {
+                appender.append(RedisRequest.create(Unpooled.copiedBuffer(content.getBytes()), null, null));
+            } else {
+                appender.append(new RedisRequest(content.getBytes(), null, null));
+            }
+        }
+        //比缓冲区大的请求报文直接写入
+        String large = "*2\r\n$3\r\nGET\r\n$200\r\n" + new String(new char[200]).replace('\0', 'k') + "\r\n";
+        expected.append(large);
+        appender.append(new RedisRequest(large.getBytes(), null, null));
+        appender.close();
+
+        Assert.assertEquals(expected.toString(), read());
+        AsyncAppender.Stats stats = appender.stats();
+        Assert.assertEquals(1001, stats.getAppended());
+        Assert.assertEquals(1, stats.getShed());
+        Assert.assertEquals(0, stats.getBufferedBytes());
+    }
+
+    @Test
+    public void test_block() throws Exception {
+        AsyncAppender appender = new AsyncAppender(indexLogger, 100, AsyncAppender.Overflow.BLOCK);
+
+        StringBuilder expected = new StringBuilder();
+        Thread producer;
+        //持有BufferedOutputStream的锁，写线程无法写入文件
+        OutputStream output = indexLogger.getOutputStream();
+        synchronized (output) {
+            producer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        appender.append(new RedisRequest(request(i).getBytes(), null, null));
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            producer.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (appender.stats().getBlocked() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(appender.stats().getBlocked() > 0);
+            Assert.assertTrue(producer.isAlive());
+        }
+        producer.join(10000);
+        Assert.assertFalse(producer.isAlive());
+        appender.close();
+
+        for (int i = 0; i < 10; i++) {
+            expected.append(request(i));
+        }
+        Assert.assertEquals(expected.toString(), read());
+    }
+
+    @Test
+    public void test_fail() throws Exception {
+        AsyncAppender appender = new AsyncAppender(indexLogger, 100, AsyncAppender.Overflow.FAIL);
+
+        StringBuilder expected = new StringBuilder();
+        OutputStream output = indexLogger.getOutputStream();
+        synchronized (output) {
+            int i = 0;
+            try {
+                for (; i < 10; i++) {
+                    appender.append(new RedisRequest(request(i).getBytes(), null, null));
+                    expected.append(request(i));
+                }
+                Assert.fail("Append buffer should be full");
+            } catch (AppendRejectedException ignored) {
+            }
+            Assert.assertEquals(1, appender.stats().getRejected());
+        }
+        appender.close();
+
+        Assert.assertEquals(expected.toString(), read());
+    }
+
+    @Test
+    public void test_wrap_empty() throws Exception {
+        AsyncAppender appender = new AsyncAppender(indexLogger, 100, AsyncAppender.Overflow.FAIL);
+        String first = content(30);
+        String second = content(80);
+        appender.append(new RedisRequest(first.getBytes(), null, null));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (appender.stats().getBufferedBytes() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, appender.stats().getBufferedBytes());
+
+        //放不下缓冲区末尾的剩余空间，但是缓冲区为空，不能拒绝
+        appender.append(new RedisRequest(second.getBytes(), null, null));
+        appender.close();
+
+        Assert.assertEquals(first + second, read());
+        Assert.assertEquals(0, appender.stats().getRejected());
+    }
+
+    @Test(expected = IOException.class)
+    public void test_closed() throws IOException {
+        AsyncAppender appender = new AsyncAppender(indexLogger);
+        appender.close();
+        appender.append(new RedisRequest("+OK\r\n".getBytes(), null, null));
+    }
+
+    private String request(int i) {
+        return "*2\r\n$3\r\nGET\r\n$3\r\n" + String.format("%03d", i) + "\r\n";
+    }
+
+    private String content(int len) {
+        return new String(new char[len]).replace('\0', 'x');
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(new File(dir, logFileName(1)).toPath()));
+    }
+
+    @After
+    @Override
+    public void after() {
+        indexLogger.close();
+        super.after();
+    }
+
+}
@@ -0,0 +1,137 @@
+package cn.shijinshi.redis.sync.appender;
+
+import cn.shijinshi.redis.common.Constants;
+import cn.shijinshi.redis.common.log.AbstractTmpDir;
+import cn.shijinshi.redis.common.log.Access;
+import cn.shijinshi.redis.common.log.LogProperties;
+import cn.shijinshi.redis.common.log.PartitionedLogger;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import cn.shijinshi.redis.common.protocol.SlotHash;
+import cn.shijinshi.redis.sync.Appender;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * @author Gui Jiahai
+ */
+public class PartitionedAppenderTest extends AbstractTmpDir {
+
+    private static final int PARTITIONS = 4;
+
+    private PartitionedLogger partitionedLogger;
+
+    @Before
+    @Override
+    public void setup() {
+        super.setup();
+        LogProperties properties = new LogProperties();
+        properties.setDir(dir.getAbsolutePath());
+        properties.setPartitions(PARTITIONS);
+        partitionedLogger = new PartitionedLogger(properties, Access.W);
+    }
+
+    @Test
+    public void test() throws IOException {
+        PartitionedAppender appender = new PartitionedAppender(partitionedLogger, SyncAppender::new);
+
+        StringBuilder[] expected = new StringBuilder[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            expected[i] = new StringBuilder();
+        }
+        for (int i = 0; i < 100; i++) {
+            String key = "key:" + i;
+            String set = set(key, "v" + i);
+            expected[SlotHash.getSlot(key) % PARTITIONS].append(set);
+            appender.append(RedisRequest.create(Unpooled.copiedBuffer(set.getBytes()), null, null));
+
+            //同一个hash tag的key在同一个分区中
+            String tagged = "{key:" + i + "}:name";
+            set = set(tagged, "n" + i);
+            expected[SlotHash.getSlot(key) % PARTITIONS].append(set);
+            appender.append(new RedisRequest(set.getBytes(), null, null));
+        }
+
+        //EVAL按照第一个key分区，没有key时写入第0个分区
+        String eval = "*4\r\n$4\r\nEVAL\r\n$6\r\nreturn\r\n$1\r\n1\r\n$5\r\nkey:7\r\n";
+        expected[SlotHash.getSlot("key:7") % PARTITIONS].append(eval);
+        appender.append(new RedisRequest(eval.getBytes(), null, null));
+        eval = "*3\r\n$4\r\neval\r\n$6\r\nreturn\r\n$1\r\n0\r\n";
+        expected[0].append(eval);
+        appender.append(new RedisRequest(eval.getBytes(), null, null));
+
+        //业务的SETEX k 600 k不是TICK，按照key分区
+        String setex = setex("k");
+        expected[SlotHash.getSlot("k") % PARTITIONS].append(setex);
+        appender.append(new RedisRequest(setex.getBytes(), null, null));
+
+        //TICK写入所有分区
+        String tick = setex(Constants.TICK_PREFIX + "0123456789abcdef-1");
+        for (int i = 0; i < PARTITIONS; i++) {
+            expected[i].append(tick);
+        }
+        appender.append(new RedisRequest(tick.getBytes(), null, null));
+        appender.close();
+
+        for (int i = 0; i < PARTITIONS; i++) {
+            Assert.assertTrue(expected[i].length() > tick.length());
+            File file = new File(new File(dir, PartitionedLogger.PARTITION_PREFIX + i), logFileName(1));
+            Assert.assertEquals(expected[i].toString(), new String(Files.readAllBytes(file.toPath())));
+        }
+    }
+
+    @Test
+    public void test_single() throws IOException {
+        partitionedLogger.close();
+        LogProperties properties = new LogProperties();
+        File single = new File(dir, "single");
+        properties.setDir(single.getAbsolutePath());
+        partitionedLogger = new PartitionedLogger(properties, Access.W);
+
+        //只有一个分区时，目录与原来相同
+        Appender appender = new PartitionedAppender(partitionedLogger, SyncAppender::new);
+        String set = set("key", "value");
+        appender.append(new RedisRequest(set.getBytes(), null, null));
+        appender.close();
+        Assert.assertEquals(set, new String(Files.readAllBytes(new File(single, logFileName(1)).toPath())));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_changed() throws IOException {
+        Appender appender = new PartitionedAppender(partitionedLogger, SyncAppender::new);
+        for (int i = 0; i < 100; i++) {
+            appender.append(new RedisRequest(set("key:" + i, "v").getBytes(), null, null));
+        }
+        appender.close();
+        partitionedLogger.close();
+
+        //还有旧的分区留下的日志时，不能修改分区数量
+        LogProperties properties = new LogProperties();
+        properties.setDir(dir.getAbsolutePath());
+        properties.setPartitions(2);
+        new PartitionedLogger(properties, Access.W);
+    }
+
+    private String setex(String key) {
+        return "*4\r\n$5\r\nSETEX\r\n$" + key.length() + "\r\n" + key + "\r\n$3\r\n600\r\n$"
+                + key.length() + "\r\n" + key + "\r\n";
+    }
+
+    private String set(String key, String value) {
+        return "*3\r\n$3\r\nSET\r\n$" + key.length() + "\r\n" + key + "\r\n$" + value.length() + "\r\n" + value + "\r\n";
+    }
+
+    @After
+    @Override
+    public void after() {
+        partitionedLogger.close();
+        super.after();
+    }
+
+}
@@ -0,0 +1,84 @@
+package cn.shijinshi.redis.sync.appender;
+
+import cn.shijinshi.redis.common.log.AbstractTmpDir;
+import cn.shijinshi.redis.common.log.Access;
+import cn.shijinshi.redis.common.log.IndexLogger;
+import cn.shijinshi.redis.common.log.LogProperties;
+import cn.shijinshi.redis.common.protocol.RedisRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Gui Jiahai
+ */
+public class SyncAppenderTest extends AbstractTmpDir {
+
+    private IndexLogger indexLogger;
+
+    @Before
+    @Override
+    public void setup() {
+        super.setup();
+        LogProperties properties = new LogProperties();
+        properties.setDir(dir.getAbsolutePath());
+        indexLogger = new IndexLogger(properties, Access.W);
+    }
+
+    @Test
+    public void test_group_commit() throws Exception {
+        SyncAppender appender = new SyncAppender(indexLogger, 16, 1000);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<ByteBuf> buffers = new ArrayList<>();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String content = "*2\r\n$3\r\nGET\r\n$3\r\n" + String.format("%03d", i) + "\r\n";
+            expected.append(content);
+            ByteBuf buffer = Unpooled.copiedBuffer(content.getBytes());
+            buffers.add(buffer);
+            futures.add(appender.appendAsync(RedisRequest.create(buffer, null, null)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        //写线程已经释放了自己持有的引用
+        for (ByteBuf buffer : buffers) {
+            Assert.assertEquals(1, buffer.refCnt());
+            buffer.release();
+        }
+
+        //future完成时，数据已经写入文件
+        Assert.assertEquals(expected.toString(), new String(Files.readAllBytes(new File(dir, logFileName(1)).toPath())));
+
+        appender.append(new RedisRequest("+END\r\n".getBytes(), null, null));
+        Assert.assertTrue(new String(Files.readAllBytes(new File(dir, logFileName(1)).toPath())).endsWith("+END\r\n"));
+
+        appender.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void test_closed() throws IOException {
+        SyncAppender appender = new SyncAppender(indexLogger);
+        appender.close();
+        appender.appendAsync(new RedisRequest("+OK\r\n".getBytes(), null, null));
+    }
+
+    @After
+    @Override
+    public void after() {
+        indexLogger.close();
+        super.after();
+    }
+
+}